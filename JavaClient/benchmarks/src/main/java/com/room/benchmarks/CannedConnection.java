@@ -0,0 +1,77 @@
+package com.room.benchmarks;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// In-memory connection that answers every flushed request with the same canned response,
+// so decoding can be measured without a socket in the way
+final class CannedConnection {
+    private final byte[] response;
+    private final BlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+            responses.add(response);
+        }
+    };
+
+    private final InputStream in = new InputStream() {
+        private byte[] current = new byte[0];
+        private int pos;
+
+        @Override
+        public int read() throws InterruptedIOException {
+            if (!next()) {
+                return -1;
+            }
+            return current[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws InterruptedIOException {
+            if (!next()) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(current, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        private boolean next() throws InterruptedIOException {
+            while (pos == current.length) {
+                try {
+                    current = responses.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                pos = 0;
+            }
+            return true;
+        }
+    };
+
+    CannedConnection(byte[] response) {
+        this.response = response;
+    }
+
+    InputStream in() {
+        return in;
+    }
+
+    OutputStream out() {
+        return out;
+    }
+}
@@ -0,0 +1,53 @@
+package com.room.benchmarks;
+
+import com.room.protocol.ProtocolClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Decoding cost of a LISTFILES response of the given size, end to end through ProtocolClient
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ListFilesBenchmark {
+    @Param({"10", "10000", "1000000"})
+    public int names;
+
+    private ProtocolClient client;
+
+    @Setup
+    public void setup() {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        response.writeBytes(littleEndianInt(names));
+        for (int i = 0; i < names; i++) {
+            byte[] name = String.format("file-%08d.dat", i).getBytes(StandardCharsets.UTF_8);
+            response.writeBytes(littleEndianInt(name.length));
+            response.writeBytes(name);
+        }
+        CannedConnection connection = new CannedConnection(response.toByteArray());
+        client = new ProtocolClient(connection.in(), connection.out());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+    }
+
+    @Benchmark
+    public List<String> listFiles() throws IOException {
+        return client.listFiles();
+    }
+
+    private static byte[] littleEndianInt(int value) {
+        return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+    }
+}
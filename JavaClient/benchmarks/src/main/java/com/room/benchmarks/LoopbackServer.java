@@ -0,0 +1,91 @@
+package com.room.benchmarks;
+
+import com.room.protocol.Protocol;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Minimal blocking server for transfer benchmarks: every GETFILE is answered with an in-memory payload
+// of the configured size, PUTFILE payloads are read and discarded
+final class LoopbackServer implements Closeable {
+    private final ServerSocket serverSocket;
+    private final byte[] chunk = new byte[64 * 1024];
+    private final long fileSize;
+
+    LoopbackServer(long fileSize) throws IOException {
+        this.fileSize = fileSize;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "loopback-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                Thread handler = new Thread(() -> serve(socket), "loopback-session");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException e) {
+            // server closed
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            while (true) {
+                int command = in.read();
+                if (command == -1) {
+                    return;
+                }
+                switch (command) {
+                    case Protocol.CMD_AUTH -> {
+                        in.skipNBytes(readInt(in));
+                        in.skipNBytes(readInt(in));
+                        out.write(1);
+                    }
+                    case Protocol.CMD_PING -> out.write(1);
+                    case Protocol.CMD_LISTFILES -> out.write(new byte[4]);
+                    case Protocol.CMD_GETFILE -> {
+                        in.skipNBytes(readInt(in));
+                        out.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(fileSize).array());
+                        for (long remaining = fileSize; remaining > 0; remaining -= chunk.length) {
+                            out.write(chunk, 0, (int) Math.min(chunk.length, remaining));
+                        }
+                    }
+                    case Protocol.CMD_PUTFILE -> {
+                        in.skipNBytes(readInt(in));
+                        long size = Long.reverseBytes(in.readLong());
+                        in.skipNBytes(size);
+                    }
+                    default -> throw new IOException("Unknown command: " + command);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+}
@@ -0,0 +1,78 @@
+package com.room.benchmarks;
+
+import com.room.client.ConnectionFactory;
+import com.room.protocol.DownloadResult;
+import com.room.protocol.ProtocolClient;
+import com.room.server.StandInServer;
+import com.room.server.store.MemoryFileStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Batch download of small files through the stand-in server with injected link latency: one request per
+// round trip (downloadFile in a loop) against the pipelined downloadFiles
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShapedLinkBenchmark {
+    @Param({"0", "5", "25"})
+    public long latencyMs;
+
+    @Param({"64"})
+    public int files;
+
+    private StandInServer server;
+    private ProtocolClient client;
+    private List<String> names;
+    private Path workDir;
+
+    @Setup
+    public void setup() throws IOException {
+        MemoryFileStore store = new MemoryFileStore();
+        names = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            String name = "file-" + i + ".bin";
+            store.put(name, new byte[16 * 1024]);
+            names.add(name);
+        }
+        server = new StandInServer(0, store);
+        server.setLatency(latencyMs, TimeUnit.MILLISECONDS);
+        server.start();
+
+        client = new ConnectionFactory("127.0.0.1", server.getPort()).connect();
+        client.auth("admin", "123");
+        workDir = Files.createTempDirectory("shaped-bench");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        for (String name : names) {
+            Files.deleteIfExists(workDir.resolve(name));
+        }
+        Files.deleteIfExists(workDir);
+    }
+
+    @Benchmark
+    public long sequential() throws IOException {
+        long total = 0;
+        for (String name : names) {
+            total += client.downloadFile(name, workDir.resolve(name).toString());
+        }
+        return total;
+    }
+
+    @Benchmark
+    public List<DownloadResult> pipelined() throws IOException {
+        return client.downloadFiles(names, workDir);
+    }
+}
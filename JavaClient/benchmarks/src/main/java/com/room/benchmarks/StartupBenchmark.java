@@ -0,0 +1,217 @@
+package com.room.benchmarks;
+
+import com.room.Main;
+import com.room.concurrent.BackgroundExecutor;
+import com.room.server.StandInServer;
+import com.room.server.store.MemoryFileStore;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Time to first command of the interactive client: each run starts a fresh client JVM against an in-process
+// stand-in server, answers the host and port prompts and sends 'auth'. Compares a plain start with an AppCDS
+// archive, which is recorded by a training run that goes through the common commands once. Not a JMH
+// benchmark, since what it measures is a whole JVM; the client JVMs run the client jar alone.
+public class StartupBenchmark {
+    private static final String USERNAME = "admin";
+    private static final String PASSWORD = "startup";
+    private static final long RUN_TIMEOUT_SECONDS = 60;
+
+    public static void main(String[] args) {
+        int runs = 10;
+        Path clientJar = null;
+        Path archive = null;
+        boolean createArchive = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--runs" -> runs = Integer.parseInt(args[++i]);
+                    case "--client-jar" -> clientJar = Path.of(args[++i]);
+                    case "--archive" -> archive = Path.of(args[++i]);
+                    case "--create-archive" -> createArchive = true;
+                    default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            System.err.println(e instanceof IndexOutOfBoundsException ? "Missing value for " + args[args.length - 1] : e.getMessage());
+            System.err.println("Usage: StartupBenchmark [--runs N] [--client-jar PATH] [--archive PATH] [--create-archive]");
+            return;
+        }
+
+        try {
+            if (clientJar == null) {
+                clientJar = defaultClientJar();
+            }
+            clientJar = clientJar.toAbsolutePath().normalize();
+            if (archive == null) {
+                archive = clientJar.resolveSibling("room-client.jsa");
+            }
+            run(runs, clientJar, archive, createArchive);
+        } catch (Exception e) {
+            System.err.println("Startup benchmark failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void run(int runs, Path clientJar, Path archive, boolean createArchive) throws IOException, InterruptedException {
+        if (!Files.isRegularFile(clientJar) || !clientJar.toString().endsWith(".jar")) {
+            throw new IOException("AppCDS only archives classes loaded from a jar; pass the client jar with --client-jar, not "
+                    + clientJar);
+        }
+
+        MemoryFileStore store = new MemoryFileStore();
+        byte[] sample = new byte[256 * 1024];
+        new Random(42).nextBytes(sample);
+        store.put("sample.bin", sample);
+        StandInServer server = new StandInServer(0, store);
+        server.setCredentials(USERNAME, PASSWORD);
+        server.start();
+
+        Path workDir = Files.createTempDirectory("room-startup");
+        try {
+            if (createArchive || !Files.exists(archive)) {
+                System.out.println("Training run, writing " + archive);
+                Files.deleteIfExists(archive);
+                session(clientJar, List.of("-XX:ArchiveClassesAtExit=" + archive), server.getPort(), workDir.resolve("training"), true);
+            }
+
+            // -Xshare:on fails the run rather than silently starting without a stale or mismatched archive
+            String useArchive = "-XX:SharedArchiveFile=" + archive;
+            List<List<String>> configurations = List.of(
+                    List.of(),
+                    List.of("-Xshare:on", useArchive),
+                    List.of("-Xshare:on", useArchive, "-XX:TieredStopAtLevel=1"));
+            List<String> names = List.of("default", "appcds", "appcds+c1");
+
+            System.out.printf("%-10s %12s %12s %12s %12s%n", "JVM", "prompt ms", "first ms", "first min", "exit ms");
+            for (int c = 0; c < configurations.size(); c++) {
+                // The first start warms the OS page cache for the JDK and the jar
+                session(clientJar, configurations.get(c), server.getPort(), workDir.resolve("warmup"), false);
+                long[][] timings = new long[runs][];
+                for (int i = 0; i < runs; i++) {
+                    timings[i] = session(clientJar, configurations.get(c), server.getPort(), workDir.resolve("run-" + c + "-" + i), false);
+                }
+                System.out.printf("%-10s %12.1f %12.1f %12.1f %12.1f%n", names.get(c),
+                        median(timings, 0), median(timings, 1), min(timings, 1), median(timings, 2));
+            }
+        } finally {
+            server.close();
+            deleteRecursively(workDir);
+        }
+    }
+
+    // One client JVM from launch to exit; returns nanoseconds to the prompt, to the result of 'auth' and to exit
+    private static long[] session(Path clientJar, List<String> jvmOptions, int port, Path filesDir, boolean training)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-Droom.clientFilesDir=" + filesDir);
+        command.add("-cp");
+        command.add(clientJar.toString());
+        command.add(Main.class.getName());
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ScheduledFuture<?> timeout = BackgroundExecutor.schedule(process::destroyForcibly, RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+             Writer in = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)) {
+            // Main reads the host and port with a Scanner of its own, so commands wait for the prompt
+            send(in, "127.0.0.1\n" + port + "\n");
+            await(out, "Type 'help'");
+            long prompt = System.nanoTime() - start;
+            send(in, "auth " + USERNAME + " " + PASSWORD + "\n");
+            await(out, "Authentication successful");
+            long firstCommand = System.nanoTime() - start;
+
+            if (training) {
+                send(in, "list\n");
+                await(out, "Files on server:");
+                send(in, "download sample.bin\n");
+                await(out, "] Downloaded sample.bin");
+                send(in, "upload sample.bin\n");
+                await(out, "] Uploaded sample.bin");
+                send(in, "ping\n");
+                await(out, "Ping: ");
+                // Commands run in order, so the output of 'help' means the others are done too
+                send(in, "jobs\nstats\nhelp\n");
+                await(out, "Available commands");
+            }
+
+            send(in, "quit\n");
+            await(out, "Goodbye!");
+            // Drain what is left, e.g. CDS warnings, so the client never blocks on a full pipe
+            while (out.readLine() != null) {
+                // Not needed
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("Client exited with status " + exitCode);
+            }
+            return new long[]{prompt, firstCommand, System.nanoTime() - start};
+        } catch (IOException e) {
+            if (timeout.isDone()) {
+                throw new IOException("Client did not finish within " + RUN_TIMEOUT_SECONDS + "s", e);
+            }
+            throw e;
+        } finally {
+            timeout.cancel(false);
+            process.destroyForcibly();
+        }
+    }
+
+
+    private static void send(Writer in, String text) throws IOException {
+        in.write(text);
+        in.flush();
+    }
+
+    private static void await(BufferedReader out, String marker) throws IOException {
+        List<String> seen = new ArrayList<>();
+        String line;
+        while ((line = out.readLine()) != null) {
+            if (line.contains(marker)) {
+                return;
+            }
+            seen.add(line);
+        }
+        throw new IOException("Client exited before printing '" + marker + "'; output was:\n" + String.join("\n", seen));
+    }
+
+    private static double median(long[][] timings, int column) {
+        long[] values = Arrays.stream(timings).mapToLong(t -> t[column]).sorted().toArray();
+        return values[values.length / 2] / 1e6;
+    }
+
+    private static double min(long[][] timings, int column) {
+        return Arrays.stream(timings).mapToLong(t -> t[column]).min().orElse(0) / 1e6;
+    }
+
+    // The client jar as built next to this module, ../target when run from the benchmarks directory. The
+    // archive only matches the class path it was recorded with, so the path is made absolute by the caller.
+    private static Path defaultClientJar() {
+        return Path.of("..", "target", "JavaClient-1.0-SNAPSHOT.jar");
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.room.benchmarks;
+
+import com.room.client.ConnectionFactory;
+import com.room.protocol.ProtocolClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// File transfer throughput over loopback, for both transports: "channel" is the SocketChannel path
+// (zero-copy uploads), "stream" the plain socket stream fallback.
+// Upload also reports the client CPU it burned: cpuNanos / bytes * 1e9 is CPU time per GB.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+    @Param({"65536", "1048576", "67108864"})
+    public long fileSize;
+
+    @Param({"channel", "stream"})
+    public String transport;
+
+    private LoopbackServer server;
+    private ProtocolClient client;
+    private Path workDir;
+    private Path uploadSource;
+    private Path downloadTarget;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new LoopbackServer(fileSize);
+        System.setProperty("room.zeroCopy", String.valueOf(transport.equals("channel")));
+        client = new ConnectionFactory("127.0.0.1", server.getPort()).connect();
+        client.auth("bench", "bench");
+
+        workDir = Files.createTempDirectory("transfer-bench");
+        uploadSource = workDir.resolve("upload.bin");
+        try (RandomAccessFile file = new RandomAccessFile(uploadSource.toFile(), "rw")) {
+            byte[] block = new byte[64 * 1024];
+            for (long written = 0; written < fileSize; written += block.length) {
+                file.write(block, 0, (int) Math.min(block.length, fileSize - written));
+            }
+        }
+        downloadTarget = workDir.resolve("download.bin");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        Files.deleteIfExists(uploadSource);
+        Files.deleteIfExists(downloadTarget);
+        Files.deleteIfExists(workDir);
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        return client.downloadFile("bench.bin", downloadTarget.toString());
+    }
+
+    // PUTFILE has no response; the ping after it returns once the server has consumed the whole payload
+    @Benchmark
+    public boolean upload(CpuCounters counters) throws IOException {
+        long cpuBefore = counters.threads.getCurrentThreadCpuTime();
+        client.uploadFile(uploadSource.toString());
+        counters.cpuNanos += counters.threads.getCurrentThreadCpuTime() - cpuBefore;
+        counters.bytes += fileSize;
+        return client.ping();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class CpuCounters {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        public long cpuNanos;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cpuNanos = 0;
+            bytes = 0;
+        }
+    }
+}
@@ -1,4 +1,4 @@
-package com.room.protocol;
+package com.room.benchmarks.legacy;
 
 import java.io.IOException;
 import java.io.InputStream;
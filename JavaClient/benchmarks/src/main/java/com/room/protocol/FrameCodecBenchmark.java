@@ -0,0 +1,117 @@
+package com.room.protocol;
+
+import com.room.benchmarks.legacy.ProtocolReader;
+import com.room.benchmarks.legacy.ProtocolWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// The old ProtocolReader/ProtocolWriter helpers, kept in com.room.benchmarks.legacy for comparison, against the
+// per-connection codec used by ProtocolClient.
+// Lives in com.room.protocol because the codec classes are package-private.
+// Run with -prof gc: the codec* header benchmarks should report gc.alloc.rate.norm of ~0 B/op.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameCodecBenchmark {
+    private static final String NAME = "reports-2024-01-15.csv";
+
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private FrameEncoder encoder;
+    private ByteArrayInputStream legacyInput;
+    private FrameInputStream codecInput;
+    private FrameInputStream codecNameInput;
+
+    @Setup
+    public void setup() {
+        encoder = new FrameEncoder(256);
+
+        // int32 length followed by an int64 size, the header shape of listings and file responses
+        byte[] header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(NAME.length())
+                .putLong(123_456_789L)
+                .array();
+        legacyInput = new ByteArrayInputStream(header);
+        codecInput = new FrameInputStream(new CyclicInputStream(header), 65536);
+
+        byte[] nameBytes = NAME.getBytes(StandardCharsets.UTF_8);
+        byte[] name = ByteBuffer.allocate(4 + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(nameBytes.length)
+                .put(nameBytes)
+                .array();
+        codecNameInput = new FrameInputStream(new CyclicInputStream(name), 65536);
+    }
+
+    @Benchmark
+    public void legacyEncodeRequest() throws IOException {
+        sink.write(Protocol.CMD_GETFILE);
+        byte[] nameBytes = NAME.getBytes();
+        ProtocolWriter.writeInt(sink, nameBytes.length);
+        sink.write(nameBytes);
+    }
+
+    @Benchmark
+    public void codecEncodeRequest() throws IOException {
+        encoder.begin(Protocol.CMD_GETFILE).putString(NAME).writeTo(sink);
+    }
+
+    @Benchmark
+    public long legacyDecodeHeader() throws IOException {
+        legacyInput.reset();
+        return ProtocolReader.readInt(legacyInput) + ProtocolReader.readInt64(legacyInput);
+    }
+
+    @Benchmark
+    public long codecDecodeHeader() throws IOException {
+        return codecInput.readInt() + codecInput.readLong();
+    }
+
+    @Benchmark
+    public String codecDecodeName() throws IOException {
+        return codecNameInput.readString(codecNameInput.readInt());
+    }
+
+    // Endless repetition of one frame, so the decoder always sees a steady stream of identical frames
+    private static final class CyclicInputStream extends InputStream {
+        private final byte[] frame;
+        private int pos;
+
+        private CyclicInputStream(byte[] frame) {
+            this.frame = frame;
+        }
+
+        @Override
+        public int read() {
+            int b = frame[pos] & 0xff;
+            pos = (pos + 1) % frame.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, frame.length - pos);
+            System.arraycopy(frame, pos, b, off, n);
+            pos = (pos + n) % frame.length;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.room;
+
+import com.room.client.ConnectionFactory;
+import com.room.commands.CommandOutput;
+import com.room.daemon.ControlServer;
+import com.room.daemon.DaemonConfig;
+import com.room.daemon.DaemonSession;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+// Headless client that connects and authenticates once and then serves the prompt's commands on a local
+// socket, for ControlClient and scripts. Runs until 'shutdown' or a signal.
+public class Daemon {
+    public static void main(String[] args) {
+        DaemonConfig config;
+        try {
+            config = DaemonConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(DaemonConfig.usage());
+            System.exit(2);
+            return;
+        }
+
+        try {
+            run(config);
+        } catch (Exception e) {
+            System.err.println("Daemon failed: " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void run(DaemonConfig config) throws IOException, InterruptedException {
+        CommandOutput.install();
+        ConnectionFactory connectionFactory = new ConnectionFactory(config.host, config.port);
+        try (DaemonSession session = new DaemonSession(connectionFactory, config.username, config.password);
+             ControlServer server = new ControlServer(Path.of(config.socketPath), session)) {
+            // Connect and authenticate up front, so bad settings fail here rather than on the first command
+            session.getContext();
+            server.start();
+            // Removes the socket file on SIGTERM or Ctrl-C too
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+            System.out.println("Connected to " + config.host + ":" + config.port + " as " + config.username
+                    + ", taking commands on " + config.socketPath);
+            server.awaitStop();
+            System.out.println("Daemon stopped");
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.room;
+
+import com.room.client.ConnectionFactory;
+import com.room.concurrent.TaskScope;
+import com.room.loadgen.ConnectPhase;
+import com.room.loadgen.LoadCommand;
+import com.room.loadgen.LoadGeneratorConfig;
+import com.room.loadgen.LoadStats;
+import com.room.loadgen.SimulatedClient;
+import com.room.metrics.Histogram;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Headless load generator: N simulated clients, each with its own connection, command mix and think time.
+// Prints interval throughput while running and per-command latency percentiles at the end.
+public class LoadGenerator {
+    public static void main(String[] args) {
+        LoadGeneratorConfig config;
+        try {
+            config = LoadGeneratorConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadGeneratorConfig.usage());
+            System.exit(2);
+            return;
+        }
+
+        try {
+            if (!run(config)) {
+                System.exit(1);
+            }
+        } catch (Exception e) {
+            System.err.println("Load generator failed: " + e.getMessage());
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    // Returns false when a simulated client never got a session, so scripted runs notice an unreachable
+    // server or bad credentials instead of reading an empty table as success
+    private static boolean run(LoadGeneratorConfig config) throws IOException, InterruptedException {
+        System.out.println("Load: " + config.clients + " clients against " + config.host + ":" + config.port
+                + " for " + config.durationSeconds + "s, mix " + config.mix + ", think " + config.thinkTimeMs + " ms");
+
+        Path workDir = Files.createTempDirectory("room-loadgen");
+        LoadStats stats = new LoadStats();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+
+        // Shared so the capability probe runs once, not once per simulated client
+        ConnectionFactory factory = new ConnectionFactory(config.host, config.port);
+        List<SimulatedClient> clients = new ArrayList<>(config.clients);
+        try {
+            for (int i = 0; i < config.clients; i++) {
+                // Every client uploads under its own name, so each PUT fans out to all the other sessions
+                Path uploadFile = createUploadFile(workDir.resolve("loadgen-" + i + ".bin"), config.fileSize, config.seed + i);
+                clients.add(new SimulatedClient(i, config, factory, stats, uploadFile, workDir, deadline));
+            }
+            // Clients run on the background executor, so on JDK 21+ each one is a virtual thread
+            try (TaskScope scope = new TaskScope(false)) {
+                long rampStep = config.clients > 1 ? TimeUnit.MILLISECONDS.toNanos(config.rampUpMs) / config.clients : 0;
+                for (int i = 0; i < clients.size(); i++) {
+                    long startAt = start + rampStep * i;
+                    long wait = TimeUnit.NANOSECONDS.toMillis(startAt - System.nanoTime());
+                    if (wait > 0) {
+                        Thread.sleep(wait);
+                    }
+                    scope.fork(clients.get(i));
+                }
+
+                reportWhileRunning(config, stats, start, deadline);
+                scope.join();
+            } catch (ExecutionException e) {
+                throw new IOException("Simulated client failed: " + e.getCause().getMessage(), e.getCause());
+            }
+            printSummary(stats, (System.nanoTime() - start) / 1e9);
+
+            int neverConnected = 0;
+            for (SimulatedClient client : clients) {
+                if (!client.hasConnected()) {
+                    neverConnected++;
+                }
+            }
+            if (neverConnected > 0) {
+                System.err.println(neverConnected + " of " + clients.size() + " clients never connected");
+                return false;
+            }
+            return true;
+        } finally {
+            try (Stream<Path> files = Files.list(workDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(workDir);
+        }
+    }
+
+    private static Path createUploadFile(Path path, long size, long seed) throws IOException {
+        byte[] block = new byte[64 * 1024];
+        new Random(seed).nextBytes(block);
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            for (long written = 0; written < size; written += block.length) {
+                file.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return path;
+    }
+
+    private static void reportWhileRunning(LoadGeneratorConfig config, LoadStats stats, long start, long deadline)
+            throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(Math.max(1, config.reportIntervalSeconds));
+        long lastOps = 0;
+        long lastTime = start;
+        while (System.nanoTime() < deadline) {
+            long sleep = Math.min(interval, deadline - System.nanoTime());
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, sleep));
+            long now = System.nanoTime();
+            long ops = stats.getTotalOperations();
+            System.out.printf("[%5.1fs] %8.1f ops/s, %d errors, %d notifications%n",
+                    (now - start) / 1e9, (ops - lastOps) / ((now - lastTime) / 1e9),
+                    stats.getTotalErrors(), stats.getNotifications());
+            lastOps = ops;
+            lastTime = now;
+        }
+    }
+
+    private static void printSummary(LoadStats stats, double seconds) {
+        System.out.println();
+        System.out.printf("%-8s %10s %10s %10s %10s %10s %10s %8s%n",
+                "Command", "Count", "Ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "Errors");
+        for (LoadCommand command : LoadCommand.values()) {
+            Histogram latency = stats.getLatency(command);
+            if (latency.getCount() == 0 && stats.getErrors(command) == 0) {
+                continue;
+            }
+            System.out.printf("%-8s %10d %10.1f %10.3f %10.3f %10.3f %10.3f %8d%n",
+                    command.name().toLowerCase(), latency.getCount(), latency.getCount() / seconds,
+                    millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(99)),
+                    millis(latency.getValueAtPercentile(99.9)), millis(latency.getMax()),
+                    stats.getErrors(command));
+        }
+        System.out.println();
+        System.out.printf("%-8s %10s %10s %10s %10s %10s%n", "Setup", "Count", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (ConnectPhase phase : ConnectPhase.values()) {
+            Histogram latency = stats.getSetupLatency(phase);
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            System.out.printf("%-8s %10d %10.3f %10.3f %10.3f %10.3f%n",
+                    phase.name().toLowerCase(), latency.getCount(),
+                    millis(latency.getValueAtPercentile(50)), millis(latency.getValueAtPercentile(99)),
+                    millis(latency.getValueAtPercentile(99.9)), millis(latency.getMax()));
+        }
+        System.out.println();
+        System.out.printf("Total: %d ops in %.1fs (%.1f ops/s), %d errors, %d connect failures%n",
+                stats.getTotalOperations(), seconds, stats.getTotalOperations() / seconds,
+                stats.getTotalErrors(), stats.getConnectFailures());
+        System.out.printf("Transferred: %.1f MB in, %.1f MB out; %d notifications received (%.1f/s)%n",
+                stats.getBytesIn() / 1e6, stats.getBytesOut() / 1e6,
+                stats.getNotifications(), stats.getNotifications() / seconds);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
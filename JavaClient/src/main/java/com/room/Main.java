@@ -1,8 +1,9 @@
 package com.room;
 
 import com.room.client.Client;
+import com.room.client.ConnectionFactory;
+import com.room.protocol.ProtocolClient;
 
-import java.net.Socket;
 import java.util.Scanner;
 
 public class Main {
@@ -26,8 +27,9 @@ public class Main {
             }
         }
 
-        try (Socket socket = new Socket(serverAddress, serverPort)) {
-            Client client = new Client(socket.getInputStream(), socket.getOutputStream());
+        ConnectionFactory connectionFactory = new ConnectionFactory(serverAddress, serverPort);
+        try (ProtocolClient protocolClient = connectionFactory.connect()) {
+            Client client = new Client(protocolClient, connectionFactory);
             client.run();
         } catch (Exception e) {
             System.err.println("Connection error: " + e.getMessage());
@@ -0,0 +1,250 @@
+package com.room.client;
+
+import com.room.commands.CommandContext;
+import com.room.concurrent.BackgroundExecutor;
+import com.room.config.ClientConfig;
+import com.room.index.ManifestEntry;
+import com.room.index.ManifestIndex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Downloads the files named in FILE_UPLOADED notifications. Names are queued and flushed once notifications
+// have been quiet for a moment, or after a bounded delay during a burst, so a burst of uploads turns into a
+// few pipelined batches. Only one batch runs at a time; names that arrive meanwhile wait for the next one.
+// A notified file is downloaded whether or not there is a local copy, since the push means the server's copy
+// changed; only a local copy holding content that never went through a sync is kept. Failed files are queued
+// again after a growing delay; once their attempts run out they are parked until the periodic comparison with
+// the server listing, which queues them again together with any files that are missing locally.
+public class AutoSync {
+    private static final long DEBOUNCE_MS = 200;
+    private static final long MAX_DELAY_MS = 1000;
+    private static final int MAX_BATCH_SIZE = 512;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 2000;
+
+    private final CommandContext context;
+    private final Object lock = new Object();
+    // Queued names with the number of failed attempts so far, in notification order
+    private final LinkedHashMap<String, Integer> pending = new LinkedHashMap<>();
+    // Names whose attempts ran out, with the last error, waiting for the next reconciliation
+    private final Map<String, String> failed = new LinkedHashMap<>();
+    private final long retryDelayMs;
+    private final ScheduledFuture<?> reconcileTimer;
+    private ScheduledFuture<?> flushTimer;
+    private long firstQueuedAt;
+    private boolean draining;
+    private boolean closed;
+
+    public AutoSync(CommandContext context) {
+        this(context, ClientConfig.getReconcileIntervalSeconds(), RETRY_DELAY_MS);
+    }
+
+    AutoSync(CommandContext context, long reconcileIntervalSeconds, long retryDelayMs) {
+        this.context = context;
+        this.retryDelayMs = retryDelayMs;
+        this.reconcileTimer = reconcileIntervalSeconds > 0
+                ? BackgroundExecutor.scheduleWithFixedDelay(this::reconcile, reconcileIntervalSeconds, TimeUnit.SECONDS)
+                : null;
+    }
+
+    public void fileUploaded(String fileName) {
+        enqueue(fileName, 0);
+    }
+
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            pending.clear();
+            failed.clear();
+            if (flushTimer != null) {
+                flushTimer.cancel(false);
+            }
+        }
+        if (reconcileTimer != null) {
+            reconcileTimer.cancel(false);
+        }
+    }
+
+    private void enqueue(String fileName, int attempts) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            if (pending.isEmpty()) {
+                firstQueuedAt = System.nanoTime();
+            }
+            failed.remove(fileName);
+            pending.putIfAbsent(fileName, attempts);
+            scheduleFlush();
+        }
+    }
+
+    // Called with the lock held. A running batch picks up the queue itself when it is done.
+    private void scheduleFlush() {
+        if (draining || pending.isEmpty()) {
+            return;
+        }
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+        }
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstQueuedAt);
+        long delay = Math.max(0, Math.min(DEBOUNCE_MS, MAX_DELAY_MS - waitedMs));
+        flushTimer = BackgroundExecutor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        synchronized (lock) {
+            if (closed || draining || pending.isEmpty()) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            // A task of the session scope, so quitting cancels a batch in progress
+            context.getBackgroundTasks().fork(this::drain);
+        } catch (CancellationException e) {
+            close();
+        }
+    }
+
+    private void drain() {
+        boolean printed = false;
+        try {
+            Map<String, Integer> batch;
+            while (!Thread.currentThread().isInterrupted() && !(batch = takeBatch()).isEmpty()) {
+                try {
+                    printed |= download(batch);
+                } catch (IOException e) {
+                    System.err.println("[Auto-sync] Error: " + e.getMessage());
+                    printed = true;
+                    for (Map.Entry<String, Integer> entry : batch.entrySet()) {
+                        retryLater(entry.getKey(), entry.getValue() + 1, e.getMessage());
+                    }
+                }
+            }
+        } finally {
+            synchronized (lock) {
+                draining = false;
+                if (!pending.isEmpty()) {
+                    firstQueuedAt = System.nanoTime();
+                }
+                scheduleFlush();
+            }
+            if (printed) {
+                context.restorePrompt();
+            }
+        }
+    }
+
+    private Map<String, Integer> takeBatch() {
+        Map<String, Integer> batch = new LinkedHashMap<>();
+        synchronized (lock) {
+            Iterator<Map.Entry<String, Integer>> it = pending.entrySet().iterator();
+            while (it.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+                Map.Entry<String, Integer> entry = it.next();
+                batch.put(entry.getKey(), entry.getValue());
+                it.remove();
+            }
+        }
+        return batch;
+    }
+
+    // Downloads replace the local copy only once complete, so an overwritten file is never seen half written
+    private boolean download(Map<String, Integer> batch) throws IOException {
+        ManifestIndex index = context.getManifestIndex();
+        List<String> toDownload = new ArrayList<>();
+        for (String fileName : batch.keySet()) {
+            ManifestEntry entry = index.get(fileName);
+            if (entry != null && entry.hasUnsyncedChanges()) {
+                System.out.println("[Auto-sync] Keeping local changes to " + fileName + ", not downloading it");
+                continue;
+            }
+            toDownload.add(fileName);
+        }
+        if (toDownload.isEmpty()) {
+            return true;
+        }
+
+        System.out.println("[Auto-sync] Downloading " + toDownload.size() + " file(s)...");
+        TransferReport report = new ParallelDownloader(context.getConnectionPool(), ClientConfig.getTransferConcurrency())
+                .downloadAll(toDownload, index.getDirectory());
+        for (String fileName : toDownload) {
+            if (!report.getFailures().containsKey(fileName)) {
+                index.markSynced(fileName);
+                continue;
+            }
+            retryLater(fileName, batch.get(fileName) + 1, report.getFailures().get(fileName));
+        }
+        System.out.println("[Auto-sync] Downloaded " + report.getSucceeded() + " file(s)"
+                + (report.getFailed() > 0 ? ", " + report.getFailed() + " failed" : "")
+                + " in " + String.format("%.1f", report.getElapsedSeconds()) + "s");
+        return true;
+    }
+
+    // After the last attempt the file is parked until the next reconciliation
+    private void retryLater(String fileName, int attempts, String error) {
+        if (attempts < MAX_ATTEMPTS) {
+            BackgroundExecutor.schedule(() -> enqueue(fileName, attempts), retryDelayMs * attempts, TimeUnit.MILLISECONDS);
+            return;
+        }
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            failed.put(fileName, error);
+        }
+        System.out.println("[Auto-sync] Giving up on " + fileName + " until the next reconciliation: " + error);
+    }
+
+    // Safety net: queues whatever the server has that is not local, and the parked files that failed, unless
+    // the server no longer has them. The listing carries names alone, so a changed file is otherwise only
+    // ever found through its push.
+    void reconcile() {
+        if (!context.isAuthenticated()) {
+            return;
+        }
+        try {
+            ManifestIndex index = context.getManifestIndex();
+            Set<String> retry;
+            synchronized (lock) {
+                retry = new HashSet<>(failed.keySet());
+            }
+            List<String> missing = new ArrayList<>();
+            List<String> retried = new ArrayList<>();
+            context.getProtocolClient().listFiles(fileName -> {
+                if (retry.contains(fileName)) {
+                    retried.add(fileName);
+                } else if (!index.contains(fileName)) {
+                    missing.add(fileName);
+                }
+            });
+            synchronized (lock) {
+                // Parked files the server no longer lists have nothing left to download
+                failed.keySet().removeAll(retry);
+            }
+            if (missing.isEmpty() && retried.isEmpty()) {
+                return;
+            }
+            System.out.println("\n[Auto-sync] Reconciliation found " + missing.size() + " missing file(s), retrying "
+                    + retried.size() + " failed file(s)");
+            for (String fileName : missing) {
+                enqueue(fileName, 0);
+            }
+            for (String fileName : retried) {
+                enqueue(fileName, 0);
+            }
+        } catch (IOException e) {
+            System.err.println("[Auto-sync] Reconciliation failed: " + e.getMessage());
+        }
+    }
+}
@@ -3,9 +3,7 @@ package com.room.client;
 import com.room.commands.CommandContext;
 import com.room.commands.CommandRegistry;
 import com.room.protocol.ProtocolClient;
-import com.room.commands.handlers.DownloadHandler;
 
-import java.io.BufferedInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Scanner;
@@ -14,58 +12,44 @@ public class Client {
     private final CommandRegistry commandRegistry;
     private final CommandContext context;
     private final ProtocolClient protocolClient;
-    private volatile boolean autoDownloadInProgress = false;
+    private final AutoSync autoSync;
 
     public Client(InputStream in, OutputStream out) {
+        this(new ProtocolClient(in, out), null);
+    }
+
+    public Client(ProtocolClient protocolClient, ConnectionFactory connectionFactory) {
         this.commandRegistry = new CommandRegistry();
-        // Wrap input stream with BufferedInputStream to support mark/reset for notification listening
-        // Use larger buffer (64KB) to ensure mark/reset works reliably
-        BufferedInputStream bufferedIn = new BufferedInputStream(in, 65536);
-        this.protocolClient = new ProtocolClient(bufferedIn, out);
-        this.context = new CommandContext(protocolClient);
+        this.protocolClient = protocolClient;
+        this.context = new CommandContext(protocolClient, connectionFactory);
+        this.autoSync = new AutoSync(context);
         
-        // Set up auto-download callback for notifications
-        // Download ALL missing files when a notification arrives (same as download command)
+        // Download the notified files; a burst of notifications is batched rather than each starting a sync.
+        // Pushes about this client's own pool uploads are dropped.
         protocolClient.setOnFileUploadedCallback(fileName -> {
-            System.out.println("\n[Notification] File uploaded: " + fileName);
-            
-            // Prevent concurrent auto-downloads
-            if (autoDownloadInProgress) {
-                System.out.println("[Auto-download] Already downloading, queuing notification for: " + fileName);
+            if (context.getUploadTracker().claimPush(fileName)) {
                 return;
             }
-            
-            // Execute downloads in a separate thread using the exact same mechanism as download command
-            new Thread(() -> {
-                autoDownloadInProgress = true;
-                try {
-                    // Wait longer to ensure notification listener has fully released all locks
-                    // This is critical to prevent interference
-                    Thread.sleep(500);
-                    
-                    System.out.println("[Auto-download] Downloading all missing files...");
-                    
-                    // Use the exact same code path as typing "download" command
-                    // This downloads ALL missing files, not just the one from notification
-                    var handler = commandRegistry.get("download");
-                    if (handler != null) {
-                        handler.execute(context, new String[]{"download"});
-                    }
-                } catch (Exception e) {
-                    System.err.println("[Auto-download] Error: " + e.getMessage());
-                    e.printStackTrace();
-                } finally {
-                    autoDownloadInProgress = false;
-                    System.out.print("> "); // Restore prompt
-                }
-            }).start();
+            System.out.println("\n[Notification] File uploaded: " + fileName);
+            autoSync.fileUploaded(fileName);
         });
         
         // Start notification listener
         protocolClient.startNotificationListener();
     }
 
+    public CommandContext getContext() {
+        return context;
+    }
+
+    // For sessions that end without 'quit', e.g. in the daemon
+    public void close() {
+        autoSync.close();
+        context.close();
+    }
+
     public void run() {
+        context.setInteractive(true);
         System.out.println("Connected to server");
         System.out.println("Client files directory: " + com.room.config.ClientConfig.getClientFilesDir());
         System.out.println("Type 'help' for available commands");
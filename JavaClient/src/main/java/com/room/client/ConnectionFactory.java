@@ -0,0 +1,137 @@
+package com.room.client;
+
+import com.room.config.ClientConfig;
+import com.room.protocol.Protocol;
+import com.room.protocol.ProtocolClient;
+import com.room.protocol.TransferTuner;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+public class ConnectionFactory {
+    private final String host;
+    private final int port;
+    private int serverCapabilities = -1;
+    // Shared by every connection to this server; null when tuning is off
+    private final TransferTuner tuner = ClientConfig.isTransferTuningEnabled() ? new TransferTuner() : null;
+
+    public ConnectionFactory(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public TransferTuner getTransferTuner() {
+        return tuner;
+    }
+
+    // Probed once, on a connection of its own: a server without HELLO drops the session that sent it
+    public synchronized int getServerCapabilities() {
+        if (serverCapabilities < 0) {
+            ProtocolClient probe;
+            try {
+                probe = open();
+            } catch (IOException e) {
+                // Not reachable right now; ask again next time
+                return 0;
+            }
+            int capabilities = 0;
+            try (probe) {
+                capabilities = probe.hello(Protocol.CLIENT_CAPABILITIES) & Protocol.CLIENT_CAPABILITIES;
+            } catch (IOException e) {
+                // Older server without HELLO: plain protocol only
+            }
+            serverCapabilities = capabilities;
+        }
+        return serverCapabilities;
+    }
+
+    public ProtocolClient connect() throws IOException {
+        ProtocolClient client = connectPlain();
+        negotiate(client);
+        return client;
+    }
+
+    // True once the capability probe has run, so the next connect does not pay for the HELLO round trip
+    public synchronized boolean hasServerCapabilities() {
+        return serverCapabilities >= 0;
+    }
+
+    // The first half of connect(): the TCP connection with the server's capabilities and the tuner set,
+    // still speaking the plain protocol
+    public ProtocolClient connectPlain() throws IOException {
+        int capabilities = getServerCapabilities();
+        if (!ClientConfig.isCompressionEnabled()) {
+            capabilities &= ~Protocol.CAP_COMPRESS;
+        }
+        ProtocolClient client = open();
+        client.setServerCapabilities(capabilities);
+        // Before MUX and AUTH, whose round trips are the tuner's first RTT samples
+        client.setTransferTuner(tuner);
+        return client;
+    }
+
+    // The second half: switches to multiplexed frames when the server supports them. Closes the connection
+    // if that fails. Returns whether it switched.
+    public boolean negotiate(ProtocolClient client) throws IOException {
+        if ((client.getServerCapabilities() & Protocol.CAP_MUX) == 0 || !ClientConfig.isMultiplexingEnabled()) {
+            return false;
+        }
+        try {
+            client.enableMultiplexing();
+        } catch (IOException e) {
+            client.close();
+            throw e;
+        }
+        return true;
+    }
+
+    private ProtocolClient open() throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (ClientConfig.isZeroCopyEnabled()) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                configure(channel.socket());
+                channel.connect(address);
+                return new ProtocolClient(channel);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        Socket socket = new Socket();
+        try {
+            configure(socket);
+            socket.connect(address);
+            return new ProtocolClient(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // Applied before connecting so the receive buffer size is taken into account for TCP window scaling.
+    // New connections start with what the tuner has learned about the path so far.
+    private void configure(Socket socket) throws IOException {
+        socket.setTcpNoDelay(ClientConfig.isTcpNoDelay());
+        if (ClientConfig.getSendBufferSize() > 0) {
+            socket.setSendBufferSize(ClientConfig.getSendBufferSize());
+        }
+        if (ClientConfig.getReceiveBufferSize() > 0) {
+            socket.setReceiveBufferSize(ClientConfig.getReceiveBufferSize());
+        }
+        if (tuner != null) {
+            tuner.apply(socket);
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+}
@@ -0,0 +1,124 @@
+package com.room.client;
+
+import com.room.protocol.ProtocolClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+// Authenticated connections for bulk transfers, kept apart from the interactive connection
+public class ConnectionPool implements Closeable {
+    private final ConnectionFactory factory;
+    private final String username;
+    private final String password;
+    private final int maxConnections;
+    private final Semaphore permits;
+    private final BlockingQueue<ProtocolClient> idle = new LinkedBlockingQueue<>();
+    private final Set<ProtocolClient> owned = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    public ConnectionPool(ConnectionFactory factory, String username, String password, int maxConnections) {
+        this.factory = factory;
+        this.username = username;
+        this.password = password;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.permits = new Semaphore(this.maxConnections);
+    }
+
+    // A pool over one existing connection, for clients that were not given a ConnectionFactory.
+    // The connection is shared, not owned, so close() leaves it open.
+    public static ConnectionPool of(ProtocolClient connection) {
+        ConnectionPool pool = new ConnectionPool(null, null, null, 1);
+        pool.idle.add(connection);
+        return pool;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    // Without a factory there is no spare connection to probe on, so extensions stay off
+    public int getServerCapabilities() {
+        return factory == null ? 0 : factory.getServerCapabilities();
+    }
+
+    public ProtocolClient acquire() throws IOException {
+        if (closed) {
+            throw new IOException("Connection pool is closed");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection");
+        }
+
+        try {
+            ProtocolClient connection;
+            while ((connection = idle.poll()) != null) {
+                if (connection.isOpen()) {
+                    return connection;
+                }
+                discard(connection);
+            }
+            return open();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(ProtocolClient connection) {
+        if (closed || !connection.isOpen()) {
+            discard(connection);
+        } else {
+            idle.offer(connection);
+        }
+        permits.release();
+    }
+
+    // For connections that failed mid-request and can no longer be trusted
+    public void invalidate(ProtocolClient connection) {
+        discard(connection);
+        permits.release();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        idle.clear();
+        for (ProtocolClient connection : owned) {
+            discard(connection);
+        }
+    }
+
+    private ProtocolClient open() throws IOException {
+        if (factory == null) {
+            throw new IOException("Connection lost and no server address to reconnect to");
+        }
+        ProtocolClient connection = factory.connect();
+        try {
+            connection.auth(username, password);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        owned.add(connection);
+        return connection;
+    }
+
+    private void discard(ProtocolClient connection) {
+        if (owned.remove(connection)) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // already broken, nothing left to clean up
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.room.client;
+
+import com.room.protocol.DownloadResult;
+import com.room.protocol.ProtocolClient;
+import com.room.protocol.ResponseException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Spreads pipelined batches of downloads over the pooled connections; a failed file is retried on its own
+public class ParallelDownloader {
+    private static final int MAX_RETRIES = 3;
+    private static final int MAX_BATCH_SIZE = 32;
+
+    private final ConnectionPool pool;
+    private final int concurrency;
+
+    public ParallelDownloader(ConnectionPool pool, int concurrency) {
+        this.pool = pool;
+        this.concurrency = Math.max(1, Math.min(concurrency, pool.getMaxConnections()));
+    }
+
+    public TransferReport downloadAll(List<String> filenames, Path dir) throws IOException {
+        TransferReport report = new TransferReport(filenames.size());
+        TransferWorkers.runAll(partition(filenames), concurrency, batch -> downloadBatch(batch, dir, report));
+        report.finish();
+        return report;
+    }
+
+    // Small enough that every worker gets a share, large enough to amortize the round trip
+    private List<List<String>> partition(List<String> filenames) {
+        int perWorker = (filenames.size() + concurrency - 1) / concurrency;
+        int batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, perWorker));
+        List<List<String>> batches = new ArrayList<>();
+        for (int i = 0; i < filenames.size(); i += batchSize) {
+            batches.add(filenames.subList(i, Math.min(filenames.size(), i + batchSize)));
+        }
+        return batches;
+    }
+
+    // The whole batch is pipelined on one connection; only the files that failed are retried
+    private void downloadBatch(List<String> batch, Path dir, TransferReport report) {
+        Map<String, IOException> failed = new LinkedHashMap<>();
+        ProtocolClient connection;
+        try {
+            connection = pool.acquire();
+        } catch (IOException e) {
+            for (String filename : batch) {
+                download(filename, dir.resolve(filename), report, e);
+            }
+            return;
+        }
+
+        boolean healthy = true;
+        try {
+            for (DownloadResult result : connection.downloadFiles(batch, dir)) {
+                if (result.isSuccess()) {
+                    int done = report.recordSuccess(result.getSize());
+                    System.out.println("  [" + done + "/" + report.getTotal() + "] Downloaded: " + result.getFilename()
+                            + " (" + result.getSize() + " bytes)");
+                } else {
+                    failed.put(result.getFilename(), result.getError());
+                    if (!(result.getError() instanceof ResponseException)) {
+                        healthy = false;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            healthy = false;
+            for (String filename : batch) {
+                failed.put(filename, e);
+            }
+        } finally {
+            if (healthy) {
+                pool.release(connection);
+            } else {
+                pool.invalidate(connection);
+            }
+        }
+
+        failed.forEach((filename, error) -> download(filename, dir.resolve(filename), report, error));
+    }
+
+    private void download(String filename, Path savePath, TransferReport report, IOException firstError) {
+        IOException lastError = firstError;
+        for (int attempt = 2; attempt <= MAX_RETRIES; attempt++) {
+            report.recordRetry();
+            System.out.println("    Retry " + (attempt - 1) + "/" + (MAX_RETRIES - 1) + " for " + filename + "...");
+
+            ProtocolClient connection;
+            try {
+                connection = pool.acquire();
+            } catch (IOException e) {
+                lastError = e;
+                continue;
+            }
+
+            boolean healthy = true;
+            try {
+                long size = connection.downloadFile(filename, savePath.toString());
+                int done = report.recordSuccess(size);
+                System.out.println("  [" + done + "/" + report.getTotal() + "] Downloaded: " + filename + " (" + size + " bytes)");
+                return;
+            } catch (ResponseException e) {
+                lastError = e;
+            } catch (IOException e) {
+                lastError = e;
+                healthy = false;
+            } finally {
+                if (healthy) {
+                    pool.release(connection);
+                } else {
+                    pool.invalidate(connection);
+                }
+            }
+        }
+
+        int done = report.recordFailure(filename, lastError);
+        System.out.println("  [" + done + "/" + report.getTotal() + "] Warning: Failed to download " + filename
+                + " after " + MAX_RETRIES + " attempts: " + lastError.getMessage());
+    }
+}
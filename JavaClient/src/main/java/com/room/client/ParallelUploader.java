@@ -0,0 +1,153 @@
+package com.room.client;
+
+import com.room.config.ClientConfig;
+import com.room.delta.ContentChunker;
+import com.room.delta.DeltaPlan;
+import com.room.delta.Signature;
+import com.room.protocol.Protocol;
+import com.room.protocol.ProtocolClient;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Uploads over the pooled connections, largest files first so the long transfers start early and
+// the small ones fill in the gaps. Failures are collected per file instead of aborting the run.
+// Files the server already has go up as deltas when it supports them, falling back to a full upload.
+public class ParallelUploader {
+    private static final int MAX_RETRIES = 3;
+    // Below a few chunks the signature round trip costs more than it can save
+    private static final long DELTA_MIN_SIZE = 4L * ContentChunker.MIN_CHUNK;
+    // A delta that still has to send most of the file is not worth the server-side rebuild
+    private static final double DELTA_MAX_LITERAL_RATIO = 0.8;
+
+    private final ConnectionPool pool;
+    private final int concurrency;
+    private final boolean deltaEnabled;
+    private final UploadTracker tracker;
+
+    public ParallelUploader(ConnectionPool pool, int concurrency, UploadTracker tracker) {
+        this.pool = pool;
+        this.tracker = tracker;
+        this.concurrency = Math.max(1, Math.min(concurrency, pool.getMaxConnections()));
+        this.deltaEnabled = ClientConfig.isDeltaUploadEnabled()
+                && (pool.getServerCapabilities() & Protocol.CAP_DELTA) != 0;
+    }
+
+    public TransferReport uploadAll(List<Path> files) throws IOException {
+        List<SizedFile> queue = new ArrayList<>(files.size());
+        for (Path file : files) {
+            queue.add(new SizedFile(file, sizeOf(file)));
+        }
+        queue.sort(Comparator.comparingLong(SizedFile::size).reversed());
+
+        TransferReport report = new TransferReport(queue.size());
+        TransferWorkers.runAll(queue, concurrency, file -> upload(file.path(), report));
+        report.finish();
+        return report;
+    }
+
+    private void upload(Path file, TransferReport report) {
+        String filename = file.getFileName().toString();
+        if (!Files.isRegularFile(file)) {
+            int done = report.recordFailure(filename, new IOException("File not found: " + file));
+            System.out.println("  [" + done + "/" + report.getTotal() + "] Warning: Skipped " + filename + ": file no longer exists");
+            return;
+        }
+
+        tracker.begin(filename);
+        boolean stored = false;
+        try {
+            stored = uploadWithRetries(file, filename, report);
+        } finally {
+            tracker.end(filename, stored);
+        }
+    }
+
+    // True if an attempt made the server store the file, which it then announces with a push
+    private boolean uploadWithRetries(Path file, String filename, TransferReport report) {
+        IOException lastError = null;
+        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
+            if (attempt > 1) {
+                report.recordRetry();
+                System.out.println("    Retry " + (attempt - 1) + "/" + (MAX_RETRIES - 1) + " for " + filename + "...");
+            }
+
+            ProtocolClient connection;
+            try {
+                connection = pool.acquire();
+            } catch (IOException e) {
+                lastError = e;
+                continue;
+            }
+
+            // PUTFILE has no response, so any error means the frame is cut off and the connection is unusable
+            boolean healthy = false;
+            try {
+                long size = sizeOf(file);
+                Outcome outcome = deltaEnabled && size >= DELTA_MIN_SIZE ? uploadDelta(connection, file, size) : null;
+                if (outcome == null) {
+                    connection.uploadFile(file.toString());
+                    outcome = new Outcome(size, "Uploaded: " + filename + " (" + size + " bytes)", true);
+                }
+                healthy = true;
+                int done = report.recordSuccess(outcome.sent());
+                System.out.println("  [" + done + "/" + report.getTotal() + "] " + outcome.message());
+                return outcome.stored();
+            } catch (IOException e) {
+                lastError = e;
+            } finally {
+                if (healthy) {
+                    pool.release(connection);
+                } else {
+                    pool.invalidate(connection);
+                }
+            }
+        }
+
+        int done = report.recordFailure(filename, lastError);
+        System.out.println("  [" + done + "/" + report.getTotal() + "] Warning: Failed to upload " + filename
+                + " after " + MAX_RETRIES + " attempts: " + lastError.getMessage());
+        return false;
+    }
+
+    // Returns null if the file should go up in full instead
+    private Outcome uploadDelta(ProtocolClient connection, Path file, long size) throws IOException {
+        String filename = file.getFileName().toString();
+        Signature base = connection.getSignature(filename);
+        if (base == null) {
+            return null;
+        }
+        DeltaPlan plan = DeltaPlan.create(file, base);
+        if (plan.isUnchanged()) {
+            return new Outcome(0, "Unchanged: " + filename, false);
+        }
+        if (plan.getLiteralBytes() > size * DELTA_MAX_LITERAL_RATIO) {
+            return null;
+        }
+        if (!connection.uploadDelta(file.toString(), plan)) {
+            System.out.println("    Delta for " + filename + " rejected by server, sending the whole file");
+            return null;
+        }
+        return new Outcome(plan.getLiteralBytes(),
+                "Uploaded (delta): " + filename + " (" + plan.getLiteralBytes() + " of " + size + " bytes sent)", true);
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private record SizedFile(Path path, long size) {
+    }
+
+    // stored is false when nothing was sent because the server already had the content
+    private record Outcome(long sent, String message, boolean stored) {
+    }
+}
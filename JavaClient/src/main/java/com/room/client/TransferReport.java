@@ -0,0 +1,78 @@
+package com.room.client;
+
+import com.room.metrics.ClientMetrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Aggregated outcome of a batch of transfers, updated concurrently by the transfer workers
+public class TransferReport {
+    private final int total;
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Map<String, String> failures = new ConcurrentHashMap<>();
+    private volatile long elapsedNanos = -1;
+
+    public TransferReport(int total) {
+        this.total = total;
+    }
+
+    // Returns how many files are done so far, for progress output
+    public int recordSuccess(long size) {
+        bytes.addAndGet(size);
+        return succeeded.incrementAndGet() + failures.size();
+    }
+
+    public int recordFailure(String filename, Exception error) {
+        failures.put(filename, String.valueOf(error.getMessage()));
+        return succeeded.get() + failures.size();
+    }
+
+    public void recordRetry() {
+        retries.incrementAndGet();
+        ClientMetrics.get().recordRetry();
+    }
+
+    public void finish() {
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getSucceeded() {
+        return succeeded.get();
+    }
+
+    public int getFailed() {
+        return failures.size();
+    }
+
+    public int getRetries() {
+        return retries.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public Map<String, String> getFailures() {
+        return failures;
+    }
+
+    public double getElapsedSeconds() {
+        long elapsed = elapsedNanos >= 0 ? elapsedNanos : System.nanoTime() - startNanos;
+        return elapsed / 1_000_000_000.0;
+    }
+
+    public String formatRate() {
+        double seconds = getElapsedSeconds();
+        double mbPerSecond = seconds > 0 ? bytes.get() / seconds / (1024 * 1024) : 0;
+        return String.format("%.1f MB/s", mbPerSecond);
+    }
+}
@@ -0,0 +1,44 @@
+package com.room.client;
+
+import com.room.commands.CommandOutput;
+import com.room.concurrent.TaskScope;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Runs one task per item on a bounded number of workers, taking items in list order, and waits for all of
+// them. The workers are subtasks of one scope: if the caller is interrupted, or a worker fails outright,
+// the others are cancelled and none keeps running after this returns. What the workers print goes where
+// the caller's output goes, i.e. to the daemon client that ran the command.
+final class TransferWorkers {
+    private TransferWorkers() {
+    }
+
+    static <T> void runAll(List<T> items, int concurrency, Consumer<T> task) throws IOException {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        try (TaskScope scope = new TaskScope(true)) {
+            for (int i = 0; i < Math.min(concurrency, items.size()); i++) {
+                scope.fork(CommandOutput.forCaller(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < items.size() && !Thread.currentThread().isInterrupted()) {
+                        task.accept(items.get(index));
+                    }
+                }));
+            }
+            scope.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Transfer worker failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
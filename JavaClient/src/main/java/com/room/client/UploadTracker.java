@@ -0,0 +1,71 @@
+package com.room.client;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Pushes this client still expects about its own uploads. The server pushes FILE_UPLOADED to every session but
+// the one that sent the file, and pool uploads go over sessions of their own, so the interactive connection is
+// told about its own uploads too. Each upload accounts for exactly one push, so a push about the same name from
+// another client still gets through; which of the two is dropped does not matter, since both name the same file.
+public class UploadTracker {
+    // A stored upload whose push has not come by then is not going to get one, e.g. the session dropped it
+    private static final long UNCLAIMED_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final class Expected {
+        int inFlight;
+        int pushes;
+        long endedAt;
+    }
+
+    private final Map<String, Expected> expected = new HashMap<>();
+
+    // The push can come before the upload call returns, so it is expected from the start
+    public synchronized void begin(String name) {
+        Expected entry = expected.computeIfAbsent(name, n -> new Expected());
+        entry.inFlight++;
+        entry.pushes++;
+    }
+
+    // stored is false when the server never got the whole file, so no push is coming for it
+    public synchronized void end(String name, boolean stored) {
+        Expected entry = expected.get(name);
+        if (entry == null) {
+            return;
+        }
+        entry.inFlight--;
+        if (!stored && entry.pushes > 0) {
+            entry.pushes--;
+        }
+        long now = System.nanoTime();
+        entry.endedAt = now;
+        Iterator<Expected> it = expected.values().iterator();
+        while (it.hasNext()) {
+            Expected other = it.next();
+            if (other.inFlight == 0 && (other.pushes == 0 || now - other.endedAt > UNCLAIMED_NANOS)) {
+                it.remove();
+            }
+        }
+    }
+
+    // True if the push is the one an upload of this client was waiting for; it is then no longer expected
+    public synchronized boolean claimPush(String name) {
+        Expected entry = expected.get(name);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.inFlight == 0 && System.nanoTime() - entry.endedAt > UNCLAIMED_NANOS) {
+            expected.remove(name);
+            return false;
+        }
+        if (entry.pushes == 0) {
+            return false;
+        }
+        entry.pushes--;
+        if (entry.pushes == 0 && entry.inFlight == 0) {
+            expected.remove(name);
+        }
+        return true;
+    }
+}
@@ -1,13 +1,40 @@
 package com.room.commands;
 
+import com.room.client.ConnectionFactory;
+import com.room.client.ConnectionPool;
+import com.room.client.UploadTracker;
+import com.room.concurrent.TaskScope;
+import com.room.config.ClientConfig;
+import com.room.index.ManifestIndex;
 import com.room.protocol.ProtocolClient;
+import com.room.protocol.TransferTuner;
+
+import java.io.IOException;
+import java.nio.file.Paths;
 
 public class CommandContext {
     private final ProtocolClient protocolClient;
+    private final ConnectionFactory connectionFactory;
     private boolean authenticated;
+    // At the prompt, output of async work is printed on a line of its own and the prompt is restored
+    private volatile boolean interactive;
+    private String username;
+    private String password;
+    private ConnectionPool connectionPool;
+    private ManifestIndex manifestIndex;
+    // Owns background work started on behalf of this session, e.g. auto-downloads; cancelled by close()
+    private final TaskScope backgroundTasks = new TaskScope(false);
+    // Async commands still running, e.g. a single-file download
+    private final JobTracker jobs = new JobTracker();
+    private final UploadTracker uploads = new UploadTracker();
 
     public CommandContext(ProtocolClient protocolClient) {
+        this(protocolClient, null);
+    }
+
+    public CommandContext(ProtocolClient protocolClient, ConnectionFactory connectionFactory) {
         this.protocolClient = protocolClient;
+        this.connectionFactory = connectionFactory;
         this.authenticated = false;
     }
 
@@ -15,6 +42,11 @@ public class CommandContext {
         return protocolClient;
     }
 
+    // Null without a factory or with tuning turned off
+    public TransferTuner getTransferTuner() {
+        return connectionFactory != null ? connectionFactory.getTransferTuner() : null;
+    }
+
     public boolean isAuthenticated() {
         return authenticated;
     }
@@ -22,10 +54,91 @@ public class CommandContext {
     public void setAuthenticated(boolean authenticated) {
         this.authenticated = authenticated;
     }
-}
 
+    public synchronized void setCredentials(String username, String password) {
+        this.username = username;
+        this.password = password;
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
+        }
+    }
 
+    // Transfer connections are opened lazily with the credentials of the last successful auth
+    public synchronized ConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            if (connectionFactory == null || username == null) {
+                connectionPool = ConnectionPool.of(protocolClient);
+            } else {
+                connectionPool = new ConnectionPool(connectionFactory, username, password, ClientConfig.getTransferConcurrency());
+            }
+        }
+        return connectionPool;
+    }
+
+    // Opened on first use so commands that never touch local files do not pay for loading it
+    public synchronized ManifestIndex getManifestIndex() throws IOException {
+        if (manifestIndex == null) {
+            manifestIndex = ManifestIndex.open(Paths.get(ClientConfig.getClientFilesDir()));
+        }
+        return manifestIndex;
+    }
 
+    public boolean isInteractive() {
+        return interactive;
+    }
 
+    public void setInteractive(boolean interactive) {
+        this.interactive = interactive;
+    }
 
+    // For results that arrive after their command has returned
+    public void printAsync(String message) {
+        if (interactive) {
+            System.out.println("\n" + message);
+            System.out.print("> "); // Restore prompt
+        } else {
+            System.out.println(message);
+        }
+    }
 
+    public void restorePrompt() {
+        if (interactive) {
+            System.out.print("> ");
+        }
+    }
+
+    public TaskScope getBackgroundTasks() {
+        return backgroundTasks;
+    }
+
+    public JobTracker getJobs() {
+        return jobs;
+    }
+
+    public UploadTracker getUploadTracker() {
+        return uploads;
+    }
+
+    public void close() {
+        jobs.cancelAll();
+        // Outside the lock: a cancelled task may still need the pool or the index while it winds down
+        backgroundTasks.close();
+        closeResources();
+    }
+
+    private synchronized void closeResources() {
+        if (connectionPool != null) {
+            connectionPool.close();
+            connectionPool = null;
+        }
+        if (manifestIndex != null) {
+            try {
+                manifestIndex.close();
+            } catch (IOException e) {
+                System.err.println("Failed to save manifest: " + e.getMessage());
+            }
+            manifestIndex = null;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.room.commands;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Installed as System.out by the daemon, which runs commands for several callers at once. Handlers print as
+// they do at the prompt; what a thread prints while it runs a command goes to that command's caller, and
+// everything else, e.g. auto-sync, to the daemon's own output. Jobs remember their caller, so results that
+// arrive after the command returned reach it too, and work a command hands to other threads, such as the
+// transfer workers, is bound to it with forCaller.
+public final class CommandOutput extends OutputStream {
+    private static final ThreadLocal<Caller> CALLER = new ThreadLocal<>();
+
+    private final PrintStream fallback;
+
+    private CommandOutput(PrintStream fallback) {
+        this.fallback = fallback;
+    }
+
+    public static synchronized void install() {
+        if (!(System.out instanceof Routed)) {
+            System.setOut(new Routed(new CommandOutput(System.out)));
+        }
+    }
+
+    static Caller current() {
+        return CALLER.get();
+    }
+
+    // Wraps work the current command hands to another thread so that its output goes to the same caller.
+    // Returns the task itself outside the daemon or when no command is running.
+    public static Runnable forCaller(Runnable task) {
+        Caller caller = CALLER.get();
+        return caller != null ? () -> runAs(caller, task) : task;
+    }
+
+    // Lets the daemon's caller see that the command failed in its exit status; the prompt just shows the output
+    public static void reportFailure() {
+        Caller caller = CALLER.get();
+        if (caller != null) {
+            caller.failed = true;
+        }
+    }
+
+    static void runAs(Caller caller, Runnable task) {
+        Caller previous = CALLER.get();
+        CALLER.set(caller);
+        try {
+            task.run();
+        } finally {
+            System.out.flush();
+            CALLER.set(previous);
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        Caller caller = CALLER.get();
+        if (caller != null) {
+            caller.write(new byte[]{(byte) b}, 0, 1);
+        } else {
+            fallback.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        Caller caller = CALLER.get();
+        if (caller != null) {
+            caller.write(b, off, len);
+        } else {
+            fallback.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() {
+        Caller caller = CALLER.get();
+        if (caller != null) {
+            caller.flush();
+        } else {
+            fallback.flush();
+        }
+    }
+
+    // Marks the installed stream so install() stays idempotent
+    private static final class Routed extends PrintStream {
+        private Routed(CommandOutput out) {
+            super(out, true, StandardCharsets.UTF_8);
+        }
+    }
+
+    // One command run on behalf of a remote caller: where its output goes and the jobs it started
+    public static final class Caller {
+        private final OutputStream out;
+        private final List<JobTracker.Job> jobs = new CopyOnWriteArrayList<>();
+        private volatile boolean disconnected;
+        private volatile boolean failed;
+
+        public Caller(OutputStream out) {
+            this.out = out;
+        }
+
+        public void run(CommandHandler handler, CommandContext context, String[] args) throws Exception {
+            Caller previous = CALLER.get();
+            CALLER.set(this);
+            try {
+                handler.execute(context, args);
+            } finally {
+                System.out.flush();
+                CALLER.set(previous);
+            }
+        }
+
+        // For messages that do not come from a command
+        public void println(String message) {
+            byte[] bytes = (message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+            write(bytes, 0, bytes.length);
+            flush();
+        }
+
+        // True once the command, or work it handed off, called reportFailure
+        public boolean hasFailed() {
+            return failed;
+        }
+
+        public List<JobTracker.Job> getJobs() {
+            return jobs;
+        }
+
+        void jobStarted(JobTracker.Job job) {
+            jobs.add(job);
+        }
+
+        // A caller that went away does not stop its command; the rest of the output is dropped
+        private synchronized void write(byte[] b, int off, int len) {
+            if (disconnected) {
+                return;
+            }
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                disconnected = true;
+            }
+        }
+
+        private synchronized void flush() {
+            if (disconnected) {
+                return;
+            }
+            try {
+                out.flush();
+            } catch (IOException e) {
+                disconnected = true;
+            }
+        }
+    }
+}
@@ -10,30 +10,42 @@ public class CommandRegistry {
 
     public CommandRegistry() {
         this.handlers = new HashMap<>();
-        registerHandlers();
     }
 
-    private void registerHandlers() {
-        register("help", new HelpHandler());
-        register("auth", new AuthHandler());
-        register("list", new ListHandler());
-        register("download", new DownloadHandler());
-        register("upload", new UploadHandler());
-        register("ping", new PingHandler());
-        register("quit", new QuitHandler());
-        register("exit", new QuitHandler());
-    }
-
-    public void register(String command, CommandHandler handler) {
+    public synchronized void register(String command, CommandHandler handler) {
         handlers.put(command, handler);
     }
 
-    public CommandHandler get(String command) {
-        return handlers.get(command);
+    // Built-in handlers are created on first use, so a short session only loads the classes it needs
+    public synchronized CommandHandler get(String command) {
+        CommandHandler handler = handlers.get(command);
+        if (handler == null) {
+            handler = createBuiltIn(command);
+            if (handler != null) {
+                handlers.put(command, handler);
+            }
+        }
+        return handler;
     }
 
     public boolean hasCommand(String command) {
-        return handlers.containsKey(command);
+        return get(command) != null;
     }
-}
 
+    // A plain switch rather than a map of constructor references, which would link a lambda per entry
+    private static CommandHandler createBuiltIn(String command) {
+        return switch (command) {
+            case "help" -> new HelpHandler();
+            case "auth" -> new AuthHandler();
+            case "list" -> new ListHandler();
+            case "download" -> new DownloadHandler();
+            case "upload" -> new UploadHandler();
+            case "ping" -> new PingHandler();
+            case "stats" -> new StatsHandler();
+            case "jobs" -> new JobsHandler();
+            case "cancel" -> new CancelHandler();
+            case "quit", "exit" -> new QuitHandler();
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,110 @@
+package com.room.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+// Async operations started from the prompt, numbered so 'cancel' can refer to them. A job is forgotten
+// as soon as it completes.
+public class JobTracker {
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final Map<Integer, Job> jobs = new ConcurrentSkipListMap<>();
+
+    // Created before the operation starts so its progress callback has somewhere to report to
+    public Job create(String description) {
+        Job job = new Job(nextId.getAndIncrement(), description, CommandOutput.current());
+        jobs.put(job.getId(), job);
+        if (job.caller != null) {
+            job.caller.jobStarted(job);
+        }
+        return job;
+    }
+
+    // onDone reports the outcome before the job is forgotten, so whoever waits for the job has also seen
+    // what it printed. Cancelling the job cancels the future itself.
+    public <T> void track(Job job, CompletableFuture<T> future, BiConsumer<? super T, Throwable> onDone) {
+        job.future = future;
+        job.done = future.handle((value, error) -> {
+            try {
+                if (job.caller != null) {
+                    CommandOutput.runAs(job.caller, () -> onDone.accept(value, error));
+                } else {
+                    onDone.accept(value, error);
+                }
+            } finally {
+                jobs.remove(job.getId());
+            }
+            return error == null;
+        });
+    }
+
+    public List<Job> list() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    public boolean cancel(int id) {
+        Job job = jobs.get(id);
+        return job != null && job.future != null && job.future.cancel(true);
+    }
+
+    public void cancelAll() {
+        for (Job job : list()) {
+            cancel(job.getId());
+        }
+    }
+
+    public static final class Job {
+        private final int id;
+        private final String description;
+        private final long startNanos = System.nanoTime();
+        private volatile CompletableFuture<?> future;
+        private volatile CompletableFuture<Boolean> done;
+        // Set when the job was started by a daemon client, which gets its results
+        private final CommandOutput.Caller caller;
+        private volatile long transferred;
+        private volatile long total = -1;
+
+        private Job(int id, String description, CommandOutput.Caller caller) {
+            this.id = id;
+            this.description = description;
+            this.caller = caller;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        // Returns once the outcome has been reported; true if the job succeeded
+        public boolean await() throws InterruptedException {
+            CompletableFuture<Boolean> reported = done;
+            if (reported == null) {
+                return false;
+            }
+            try {
+                return reported.get();
+            } catch (ExecutionException | CancellationException e) {
+                return false;
+            }
+        }
+
+        public void update(long transferred, long total) {
+            this.transferred = transferred;
+            this.total = total;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+            String progress = total > 0
+                    ? String.format(" %d%% of %.1f MB,", transferred * 100 / total, total / (1024.0 * 1024))
+                    : "";
+            return "[" + id + "] " + description + progress + String.format(" %.1fs", seconds);
+        }
+    }
+}
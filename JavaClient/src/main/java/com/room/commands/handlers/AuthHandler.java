@@ -15,6 +15,7 @@ public class AuthHandler implements CommandHandler {
 
         context.getProtocolClient().auth(args[1], args[2]);
         context.setAuthenticated(true);
+        context.setCredentials(args[1], args[2]);
         System.out.println("Authentication successful");
     }
 }
@@ -0,0 +1,25 @@
+package com.room.commands.handlers;
+
+import com.room.commands.CommandContext;
+import com.room.commands.CommandHandler;
+
+public class CancelHandler implements CommandHandler {
+    @Override
+    public void execute(CommandContext context, String[] args) {
+        if (args.length != 2) {
+            System.out.println("Usage: cancel <job>");
+            return;
+        }
+
+        int id;
+        try {
+            id = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: cancel <job>");
+            return;
+        }
+        if (!context.getJobs().cancel(id)) {
+            System.out.println("No running job " + id);
+        }
+    }
+}
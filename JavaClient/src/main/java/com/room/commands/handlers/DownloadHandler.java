@@ -1,90 +1,104 @@
 package com.room.commands.handlers;
 
+import com.room.client.ParallelDownloader;
+import com.room.client.TransferReport;
 import com.room.commands.CommandContext;
 import com.room.commands.CommandHandler;
+import com.room.commands.CommandOutput;
+import com.room.commands.JobTracker;
 import com.room.config.ClientConfig;
+import com.room.index.ManifestIndex;
+import com.room.protocol.Protocol;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 public class DownloadHandler implements CommandHandler {
     @Override
     public void execute(CommandContext context, String[] args) throws IOException {
         if (!context.isAuthenticated()) {
             System.out.println("Error: You must authenticate first. Use 'auth <username> <password>'");
+            CommandOutput.reportFailure();
             return;
         }
 
-        Path clientDir = Paths.get(ClientConfig.getClientFilesDir());
-        Files.createDirectories(clientDir);
+        if (args.length == 2) {
+            downloadInBackground(context, args[1]);
+            return;
+        }
 
-        List<String> serverFiles = context.getProtocolClient().listFiles();
-        Set<String> localFiles = getLocalFiles(clientDir);
+        ManifestIndex index = context.getManifestIndex();
+        Path clientDir = index.getDirectory();
 
-        System.out.println("Server has " + serverFiles.size() + " file(s)");
-        System.out.println("Local has " + localFiles.size() + " file(s)");
+        // Compared against the index as the listing streams in, so only the missing names are kept
+        List<String> missing = new ArrayList<>();
+        int serverCount = context.getProtocolClient().listFiles(filename -> {
+            if (!index.contains(filename)) {
+                missing.add(filename);
+            }
+        });
 
-        int downloaded = 0;
-        int failed = 0;
-        final int maxRetries = 3;
-        
-        for (String filename : serverFiles) {
-            if (!localFiles.contains(filename)) {
-                System.out.println("  Downloading: " + filename);
-                Path savePath = clientDir.resolve(filename);
-                
-                boolean success = false;
-                IOException lastError = null;
-                for (int attempt = 1; attempt <= maxRetries; attempt++) {
-                    try {
-                        context.getProtocolClient().downloadFile(filename, savePath.toString());
-                        downloaded++;
-                        success = true;
-                        break;
-                    } catch (IOException e) {
-                        lastError = e;
-                        if (attempt < maxRetries) {
-                            System.out.println("    Retry " + attempt + "/" + (maxRetries - 1) + " for " + filename + "...");
-                        }
-                    }
-                }
-                
-                if (!success) {
-                    System.out.println("  Warning: Failed to download " + filename + " after " + maxRetries + " attempts: " + lastError.getMessage());
-                    failed++;
-                }
-            } else {
-                System.out.println("  Skipping (already exists): " + filename);
+        System.out.println("Server has " + serverCount + " file(s)");
+        System.out.println("Local has " + index.size() + " file(s)");
+        if (serverCount > missing.size()) {
+            System.out.println("  Skipping " + (serverCount - missing.size()) + " file(s) that already exist");
+        }
+
+        TransferReport report = new ParallelDownloader(context.getConnectionPool(), ClientConfig.getTransferConcurrency())
+                .downloadAll(missing, clientDir);
+        // Record the new files now rather than when the watcher catches up, so the next sync sees them
+        for (String filename : missing) {
+            if (!report.getFailures().containsKey(filename)) {
+                index.markSynced(filename);
             }
         }
+        int downloaded = report.getSucceeded();
+        int failed = report.getFailed();
 
         if (downloaded == 0 && failed == 0) {
             System.out.println("All files are up to date");
         } else if (downloaded > 0 && failed == 0) {
-            System.out.println("Downloaded " + downloaded + " file(s)");
+            System.out.println("Downloaded " + downloaded + " file(s) in "
+                    + String.format("%.1f", report.getElapsedSeconds()) + "s (" + report.formatRate() + ")");
         } else if (downloaded > 0 && failed > 0) {
             System.out.println("Downloaded " + downloaded + " file(s), failed " + failed + " file(s)");
         } else {
             System.out.println("Failed to download " + failed + " file(s)");
         }
+        if (failed > 0) {
+            CommandOutput.reportFailure();
+        }
     }
 
-    private Set<String> getLocalFiles(Path dir) throws IOException {
-        Set<String> files = new HashSet<>();
-        if (!Files.exists(dir)) {
-            return files;
+    // A single file runs as a job so the prompt stays usable; 'jobs' shows its progress
+    private void downloadInBackground(CommandContext context, String filename) throws IOException {
+        if (!Protocol.isPlausibleFileName(filename)) {
+            System.out.println("Error: Invalid file name: " + filename);
+            CommandOutput.reportFailure();
+            return;
+        }
+        ManifestIndex index = context.getManifestIndex();
+        if (index.contains(filename)) {
+            System.out.println("Skipping (already exists): " + filename);
+            return;
         }
-        Files.list(dir).forEach(path -> {
-            if (Files.isRegularFile(path)) {
-                files.add(path.getFileName().toString());
+
+        JobTracker jobs = context.getJobs();
+        JobTracker.Job job = jobs.create("download " + filename);
+        System.out.println("Started job " + job.getId() + ": download " + filename);
+        Path target = index.getDirectory().resolve(filename);
+        jobs.track(job, context.getProtocolClient().downloadFileAsync(filename, target, job::update), (size, error) -> {
+            if (error == null) {
+                index.markSynced(filename);
+                context.printAsync("[Job " + job.getId() + "] Downloaded " + filename + " (" + size + " bytes)");
+            } else if (error instanceof CancellationException) {
+                context.printAsync("[Job " + job.getId() + "] Cancelled download of " + filename);
+            } else {
+                context.printAsync("[Job " + job.getId() + "] Failed to download " + filename + ": " + error.getMessage());
             }
         });
-        return files;
     }
 }
-
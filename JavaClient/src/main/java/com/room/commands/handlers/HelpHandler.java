@@ -9,9 +9,12 @@ public class HelpHandler implements CommandHandler {
         System.out.println("Available commands:");
         System.out.println("  auth <username> <password>  - Authenticate with server");
         System.out.println("  list                       - List files on server");
-        System.out.println("  download <filename>         - Download a file from server");
-        System.out.println("  upload <filename>           - Upload a file to server");
+        System.out.println("  download [filename]         - Download missing files, or one file in the background");
+        System.out.println("  upload [filename]           - Upload new and changed files, or one file in the background");
         System.out.println("  ping                        - Ping server");
+        System.out.println("  jobs                        - Show background transfers");
+        System.out.println("  cancel <job>                - Cancel a background transfer");
+        System.out.println("  stats [reset]               - Show client metrics");
         System.out.println("  help                        - Show this help");
         System.out.println("  quit/exit                   - Exit client");
     }
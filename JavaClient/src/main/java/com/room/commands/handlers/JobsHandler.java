@@ -0,0 +1,21 @@
+package com.room.commands.handlers;
+
+import com.room.commands.CommandContext;
+import com.room.commands.CommandHandler;
+import com.room.commands.JobTracker;
+
+import java.util.List;
+
+public class JobsHandler implements CommandHandler {
+    @Override
+    public void execute(CommandContext context, String[] args) {
+        List<JobTracker.Job> jobs = context.getJobs().list();
+        if (jobs.isEmpty()) {
+            System.out.println("No background jobs");
+            return;
+        }
+        for (JobTracker.Job job : jobs) {
+            System.out.println("  " + job);
+        }
+    }
+}
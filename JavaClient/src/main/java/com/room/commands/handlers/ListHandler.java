@@ -2,6 +2,7 @@ package com.room.commands.handlers;
 
 import com.room.commands.CommandContext;
 import com.room.commands.CommandHandler;
+import com.room.commands.JobTracker;
 
 import java.io.IOException;
 
@@ -13,11 +14,19 @@ public class ListHandler implements CommandHandler {
             return;
         }
 
-        var files = context.getProtocolClient().listFiles();
-        System.out.println("Files on server:");
-        for (String f : files) {
-            System.out.println("  - " + f);
-        }
+        // Printed when the listing arrives; the prompt takes the next command meanwhile
+        JobTracker jobs = context.getJobs();
+        jobs.track(jobs.create("list"), context.getProtocolClient().listFilesAsync(), (files, error) -> {
+            if (error != null) {
+                context.printAsync("Error: " + error.getMessage());
+                return;
+            }
+            StringBuilder listing = new StringBuilder("Files on server:");
+            for (String f : files) {
+                listing.append("\n  - ").append(f);
+            }
+            context.printAsync(listing.toString());
+        });
     }
 }
 
@@ -2,6 +2,7 @@ package com.room.commands.handlers;
 
 import com.room.commands.CommandContext;
 import com.room.commands.CommandHandler;
+import com.room.commands.JobTracker;
 
 import java.io.IOException;
 
@@ -13,8 +14,15 @@ public class PingHandler implements CommandHandler {
             return;
         }
 
-        boolean pingOk = context.getProtocolClient().ping();
-        System.out.println("Ping: " + pingOk);
+        long start = System.nanoTime();
+        JobTracker jobs = context.getJobs();
+        jobs.track(jobs.create("ping"), context.getProtocolClient().pingAsync(), (pingOk, error) -> {
+            if (error != null) {
+                context.printAsync("Ping failed: " + error.getMessage());
+            } else {
+                context.printAsync("Ping: " + pingOk + String.format(" (%.1f ms)", (System.nanoTime() - start) / 1_000_000.0));
+            }
+        });
     }
 }
 
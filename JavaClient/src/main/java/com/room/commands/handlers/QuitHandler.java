@@ -6,6 +6,12 @@ import com.room.commands.CommandHandler;
 public class QuitHandler implements CommandHandler {
     @Override
     public void execute(CommandContext context, String[] args) {
+        int running = context.getJobs().list().size();
+        if (running > 0) {
+            // Cancelled downloads keep their .part files and resume next time
+            System.out.println("Cancelling " + running + " background job(s)");
+        }
+        context.close();
         System.out.println("Goodbye!");
         System.exit(0);
     }
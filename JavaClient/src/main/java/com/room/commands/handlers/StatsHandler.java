@@ -0,0 +1,61 @@
+package com.room.commands.handlers;
+
+import com.room.commands.CommandContext;
+import com.room.commands.CommandHandler;
+import com.room.config.ClientConfig;
+import com.room.metrics.ClientMetrics;
+import com.room.metrics.CommandMetrics;
+import com.room.metrics.Histogram;
+import com.room.protocol.TransferTuner;
+
+public class StatsHandler implements CommandHandler {
+    @Override
+    public void execute(CommandContext context, String[] args) {
+        ClientMetrics metrics = ClientMetrics.get();
+        if (args.length > 1 && args[1].equals("reset")) {
+            metrics.reset();
+            System.out.println("Statistics reset");
+            return;
+        }
+
+        System.out.printf("%-13s %8s %10s %10s %10s %10s %8s%n",
+                "Command", "Count", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "Errors");
+        for (CommandMetrics command : metrics.getCommands()) {
+            Histogram latency = command.getLatency();
+            System.out.printf("%-13s %8d %10.3f %10.3f %10.3f %10.3f %8d%n",
+                    command.getName(), latency.getCount(),
+                    latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+                    latency.getValueAtPercentile(99.9) / 1e6, latency.getMax() / 1e6, command.getErrors());
+        }
+        System.out.printf("Traffic: %.2f MB in, %.2f MB out%n", metrics.getBytesIn() / 1e6, metrics.getBytesOut() / 1e6);
+        System.out.printf("Downloads: %.2f MB at %.1f MB/s, uploads: %.2f MB at %.1f MB/s%n",
+                metrics.getDownloadedBytes() / 1e6, metrics.getDownloadRateMBps(),
+                metrics.getUploadedBytes() / 1e6, metrics.getUploadRateMBps());
+        if (metrics.getCompressionWireBytes() > 0) {
+            System.out.printf("Compression: %.2f MB sent as %.2f MB (%.1fx)%n", metrics.getCompressionRawBytes() / 1e6,
+                    metrics.getCompressionWireBytes() / 1e6, metrics.getCompressionRatio());
+        }
+        System.out.println("Retries: " + metrics.getRetries());
+        System.out.printf("Notifications: %d (delivery lag p99 %.3f ms)%n",
+                metrics.getNotifications(), metrics.getNotificationLagP99Millis());
+
+        TransferTuner tuner = context.getTransferTuner();
+        if (tuner != null) {
+            System.out.printf("Tuning: RTT %.3f ms, downloads %.1f MB/s, uploads %.1f MB/s%n", tuner.getRttNanos() / 1e6,
+                    tuner.getDownloadRate() / 1e6, tuner.getUploadRate() / 1e6);
+            System.out.printf("Tuning: chunk %d KB, SO_RCVBUF %s, SO_SNDBUF %s%n", tuner.getChunkSize() / 1024,
+                    describeBuffer(tuner.getReceiveBufferSize(), tuner.getCappedReceiveBuffer(), ClientConfig.getReceiveBufferSize()),
+                    describeBuffer(tuner.getSendBufferSize(), tuner.getCappedSendBuffer(), ClientConfig.getSendBufferSize()));
+        }
+    }
+
+    private static String describeBuffer(int size, int capped, int configured) {
+        if (configured > 0) {
+            return configured / 1024 + " KB (configured)";
+        }
+        if (capped > 0) {
+            return "OS default (" + capped / 1024 + " KB is over the OS limit)";
+        }
+        return size > 0 ? size / 1024 + " KB" : "OS default";
+    }
+}
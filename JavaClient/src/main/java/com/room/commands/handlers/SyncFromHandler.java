@@ -2,6 +2,7 @@ package com.room.commands.handlers;
 
 import com.room.commands.CommandContext;
 import com.room.commands.CommandHandler;
+import com.room.commands.CommandOutput;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -13,6 +14,7 @@ public class SyncFromHandler implements CommandHandler {
     public void execute(CommandContext context, String[] args) throws IOException {
         if (!context.isAuthenticated()) {
             System.out.println("Error: You must authenticate first. Use 'auth <username> <password>'");
+            CommandOutput.reportFailure();
             return;
         }
 
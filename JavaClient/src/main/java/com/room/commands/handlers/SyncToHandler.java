@@ -1,18 +1,26 @@
 package com.room.commands.handlers;
 
+import com.room.client.ParallelUploader;
+import com.room.client.TransferReport;
 import com.room.commands.CommandContext;
 import com.room.commands.CommandHandler;
+import com.room.commands.CommandOutput;
+import com.room.config.ClientConfig;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class SyncToHandler implements CommandHandler {
     @Override
     public void execute(CommandContext context, String[] args) throws IOException {
         if (!context.isAuthenticated()) {
             System.out.println("Error: You must authenticate first. Use 'auth <username> <password>'");
+            CommandOutput.reportFailure();
             return;
         }
 
@@ -26,17 +34,20 @@ public class SyncToHandler implements CommandHandler {
             throw new IOException("Not a directory: " + args[1]);
         }
 
-        Files.list(dir).forEach(path -> {
-            if (Files.isRegularFile(path)) {
-                try {
-                    System.out.println("  Uploading: " + path.getFileName());
-                    context.getProtocolClient().uploadFile(path.toString());
-                } catch (IOException e) {
-                    throw new RuntimeException("Failed to upload " + path.getFileName() + ": " + e.getMessage(), e);
-                }
-            }
-        });
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        TransferReport report = new ParallelUploader(context.getConnectionPool(), ClientConfig.getTransferConcurrency(),
+                context.getUploadTracker())
+                .uploadAll(files);
 
+        if (report.getFailed() > 0) {
+            System.out.println("Uploaded " + report.getSucceeded() + " file(s), failed " + report.getFailed() + " file(s)");
+            report.getFailures().forEach((name, error) -> System.out.println("  Failed: " + name + " - " + error));
+            CommandOutput.reportFailure();
+        }
         System.out.println("Sync to server completed");
     }
 }
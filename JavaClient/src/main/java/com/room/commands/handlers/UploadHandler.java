@@ -1,61 +1,104 @@
 package com.room.commands.handlers;
 
+import com.room.client.ParallelUploader;
+import com.room.client.TransferReport;
 import com.room.commands.CommandContext;
 import com.room.commands.CommandHandler;
+import com.room.commands.CommandOutput;
+import com.room.commands.JobTracker;
 import com.room.config.ClientConfig;
+import com.room.index.ManifestEntry;
+import com.room.index.ManifestIndex;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 public class UploadHandler implements CommandHandler {
     @Override
     public void execute(CommandContext context, String[] args) throws IOException {
         if (!context.isAuthenticated()) {
             System.out.println("Error: You must authenticate first. Use 'auth <username> <password>'");
+            CommandOutput.reportFailure();
             return;
         }
 
-        Path clientDir = Paths.get(ClientConfig.getClientFilesDir());
-        Files.createDirectories(clientDir);
+        if (args.length == 2) {
+            uploadInBackground(context, args[1]);
+            return;
+        }
 
-        List<String> serverFiles = context.getProtocolClient().listFiles();
-        Set<String> localFiles = getLocalFiles(clientDir);
+        ManifestIndex index = context.getManifestIndex();
+        Path clientDir = index.getDirectory();
 
-        Set<String> serverFileSet = new HashSet<>(serverFiles);
+        // New files, plus files the server has that changed here since they were last synced; the
+        // uploader sends the latter as deltas when the server supports it. Every local file starts out
+        // as a candidate and the streamed listing strikes off the unchanged ones the server has, so
+        // memory follows the local file count however large the server listing is.
+        Set<String> candidates = new HashSet<>(index.getNames());
+        context.getProtocolClient().listFiles(filename -> {
+            if (candidates.contains(filename)) {
+                ManifestEntry entry = index.get(filename);
+                if (entry == null || !entry.isModifiedSinceSync()) {
+                    candidates.remove(filename);
+                }
+            }
+        });
 
-        int uploaded = 0;
-        for (String filename : localFiles) {
-            if (!serverFileSet.contains(filename)) {
-                System.out.println("  Uploading: " + filename);
-                Path filePath = clientDir.resolve(filename);
-                context.getProtocolClient().uploadFile(filePath.toString());
-                uploaded++;
+        List<Path> toUpload = new ArrayList<>(candidates.size());
+        for (String filename : candidates) {
+            toUpload.add(clientDir.resolve(filename));
+        }
+
+        TransferReport report = new ParallelUploader(context.getConnectionPool(), ClientConfig.getTransferConcurrency(),
+                context.getUploadTracker())
+                .uploadAll(toUpload);
+        for (Path file : toUpload) {
+            String filename = file.getFileName().toString();
+            if (!report.getFailures().containsKey(filename)) {
+                index.markSynced(filename);
             }
         }
 
-        if (uploaded == 0) {
+        if (report.getTotal() == 0) {
             System.out.println("All files are up to date");
+        } else if (report.getFailed() == 0) {
+            System.out.println("Uploaded " + report.getSucceeded() + " file(s) in "
+                    + String.format("%.1f", report.getElapsedSeconds()) + "s (" + report.formatRate() + ")");
         } else {
-            System.out.println("Uploaded " + uploaded + " file(s)");
+            System.out.println("Uploaded " + report.getSucceeded() + " file(s), failed " + report.getFailed() + " file(s)");
+            report.getFailures().forEach((name, error) -> System.out.println("  Failed: " + name + " - " + error));
+            CommandOutput.reportFailure();
         }
     }
 
-    private Set<String> getLocalFiles(Path dir) throws IOException {
-        Set<String> files = new HashSet<>();
-        if (!Files.exists(dir)) {
-            return files;
+    // A single file from the client files directory, sent whole on the main connection as a job
+    private void uploadInBackground(CommandContext context, String filename) throws IOException {
+        ManifestIndex index = context.getManifestIndex();
+        Path file = index.getDirectory().resolve(filename).normalize();
+        if (!file.getParent().equals(index.getDirectory().normalize()) || !Files.isRegularFile(file)) {
+            System.out.println("Error: No such file in " + index.getDirectory() + ": " + filename);
+            CommandOutput.reportFailure();
+            return;
         }
-        Files.list(dir).forEach(path -> {
-            if (Files.isRegularFile(path)) {
-                files.add(path.getFileName().toString());
+
+        JobTracker jobs = context.getJobs();
+        JobTracker.Job job = jobs.create("upload " + filename);
+        System.out.println("Started job " + job.getId() + ": upload " + filename);
+        jobs.track(job, context.getProtocolClient().uploadFileAsync(file, job::update), (ignored, error) -> {
+            if (error == null) {
+                index.markSynced(filename);
+                context.printAsync("[Job " + job.getId() + "] Uploaded " + filename);
+            } else if (error instanceof CancellationException) {
+                context.printAsync("[Job " + job.getId() + "] Cancelled upload of " + filename);
+            } else {
+                context.printAsync("[Job " + job.getId() + "] Failed to upload " + filename + ": " + error.getMessage());
             }
         });
-        return files;
     }
 }
-
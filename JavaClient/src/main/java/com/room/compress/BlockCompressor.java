@@ -0,0 +1,181 @@
+package com.room.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+// Encodes a transfer as a sequence of independent blocks: codec byte, int32 raw length, int32 encoded length,
+// then the encoded bytes (little-endian, like the rest of the protocol). Each block is deflated at the fastest
+// level and sent stored when that does not save enough. Unless the previous block compressed, a small sample
+// is tried first, so incompressible data costs a fraction of a full deflate; after an incompressible block
+// the next few are sent stored without trying, with the gap growing while the content keeps not compressing.
+public final class BlockCompressor {
+    public static final int BLOCK_SIZE = 64 * 1024;
+    public static final int HEADER_SIZE = 9;
+    public static final byte CODEC_STORED = 0;
+    public static final byte CODEC_DEFLATE = 1;
+    // Below this the block framing costs more than compression could save
+    public static final long MIN_PAYLOAD_SIZE = 4096;
+
+    // A block has to shrink to at most this fraction of its size to be sent deflated
+    private static final double MAX_RATIO = 0.9;
+    private static final int SAMPLE_SIZE = 4096;
+    // Spread over the file by sampleCompresses, at the start, the middle and the end
+    private static final int FILE_SAMPLES = 3;
+    private static final int MIN_SKIP = 4;
+    private static final int MAX_SKIP = 256;
+    private static final int MAX_POOLED = 16;
+
+    private static final Queue<BlockCompressor> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final byte[] input = new byte[BLOCK_SIZE];
+    private final byte[] frame = new byte[HEADER_SIZE + BLOCK_SIZE];
+    private int skip;
+    private int nextSkip = MIN_SKIP;
+    // Whether the last block that was tried compressed; if so the next one skips the sample
+    private boolean compressing;
+    private long rawBytes;
+    private long encodedBytes;
+
+    private BlockCompressor() {
+    }
+
+    public static BlockCompressor acquire() {
+        BlockCompressor compressor = pool.poll();
+        if (compressor == null) {
+            return new BlockCompressor();
+        }
+        pooled.decrementAndGet();
+        return compressor;
+    }
+
+    // The adaptive state is per transfer, so a pooled compressor starts over
+    public void release() {
+        skip = 0;
+        nextSkip = MIN_SKIP;
+        compressing = false;
+        rawBytes = 0;
+        encodedBytes = 0;
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(this);
+        } else {
+            pooled.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    // Callers fill this with up to BLOCK_SIZE bytes before calling encode
+    public byte[] input() {
+        return input;
+    }
+
+    public byte[] frame() {
+        return frame;
+    }
+
+    // Encodes the first length bytes of input() into frame(); returns the frame length
+    public int encode(int length) {
+        int encoded;
+        if (skip > 0) {
+            skip--;
+            encoded = -1;
+        } else {
+            encoded = deflate(length);
+        }
+        byte codec;
+        if (encoded < 0) {
+            System.arraycopy(input, 0, frame, HEADER_SIZE, length);
+            encoded = length;
+            codec = CODEC_STORED;
+        } else {
+            codec = CODEC_DEFLATE;
+        }
+
+        frame[0] = codec;
+        putInt(frame, 1, length);
+        putInt(frame, 5, encoded);
+        rawBytes += length;
+        encodedBytes += HEADER_SIZE + encoded;
+        return HEADER_SIZE + encoded;
+    }
+
+    // Whether any of a few samples spread over the file compresses. Files where none does, such as media or
+    // archives, are better sent raw: the block encoder would read them through the heap only to store them.
+    public static boolean sampleCompresses(FileChannel source, long size) throws IOException {
+        BlockCompressor compressor = acquire();
+        try {
+            ByteBuffer sample = ByteBuffer.wrap(compressor.input, 0, SAMPLE_SIZE);
+            long last = Math.max(0, size - SAMPLE_SIZE);
+            for (int i = 0; i < FILE_SAMPLES; i++) {
+                long position = last * i / (FILE_SAMPLES - 1);
+                sample.clear();
+                while (sample.hasRemaining() && source.read(sample, position + sample.position()) > 0) {
+                    // keep reading
+                }
+                if (sample.position() > 0 && compressor.deflate(0, sample.position()) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            compressor.release();
+        }
+    }
+
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    // Returns the deflated size, or -1 if the block is not worth compressing
+    private int deflate(int length) {
+        if (!compressing && length > 2 * SAMPLE_SIZE && deflate(0, SAMPLE_SIZE) < 0) {
+            backOff();
+            return -1;
+        }
+        int encoded = deflate(0, length);
+        if (encoded < 0) {
+            backOff();
+            return -1;
+        }
+        compressing = true;
+        nextSkip = MIN_SKIP;
+        return encoded;
+    }
+
+    // Deflates input[offset, offset + length) into frame(). The output is capped at the acceptable size,
+    // so incompressible data is given up on as soon as it overflows.
+    private int deflate(int offset, int length) {
+        int limit = (int) (length * MAX_RATIO);
+        deflater.reset();
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        int encoded = 0;
+        while (!deflater.finished() && encoded < limit) {
+            encoded += deflater.deflate(frame, HEADER_SIZE + encoded, limit - encoded);
+        }
+        return deflater.finished() ? encoded : -1;
+    }
+
+    private void backOff() {
+        compressing = false;
+        skip = nextSkip;
+        nextSkip = Math.min(nextSkip * 2, MAX_SKIP);
+    }
+
+    static void putInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >>> 8);
+        buf[offset + 2] = (byte) (value >>> 16);
+        buf[offset + 3] = (byte) (value >>> 24);
+    }
+}
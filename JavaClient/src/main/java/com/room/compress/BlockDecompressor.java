@@ -0,0 +1,84 @@
+package com.room.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Decodes the blocks written by BlockCompressor. Pooled like the compressor, since an Inflater holds
+// native memory that is only released by end() or finalization.
+public final class BlockDecompressor {
+    private static final int MAX_POOLED = 16;
+
+    private static final Queue<BlockDecompressor> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] input = new byte[BlockCompressor.BLOCK_SIZE];
+    private final byte[] output = new byte[BlockCompressor.BLOCK_SIZE];
+
+    private BlockDecompressor() {
+    }
+
+    public static BlockDecompressor acquire() {
+        BlockDecompressor decompressor = pool.poll();
+        if (decompressor == null) {
+            return new BlockDecompressor();
+        }
+        pooled.decrementAndGet();
+        return decompressor;
+    }
+
+    public void release() {
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(this);
+        } else {
+            pooled.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    // Callers read a block's encoded bytes into this before calling decode
+    public byte[] input() {
+        return input;
+    }
+
+    public static void checkHeader(int codec, int rawLength, int encodedLength) throws IOException {
+        if (codec != BlockCompressor.CODEC_STORED && codec != BlockCompressor.CODEC_DEFLATE) {
+            throw new IOException("Unknown block codec: " + codec);
+        }
+        if (rawLength <= 0 || rawLength > BlockCompressor.BLOCK_SIZE
+                || encodedLength <= 0 || encodedLength > BlockCompressor.BLOCK_SIZE
+                || (codec == BlockCompressor.CODEC_STORED && encodedLength != rawLength)) {
+            throw new IOException("Invalid block lengths: " + rawLength + "/" + encodedLength);
+        }
+    }
+
+    // Returns a view of the raw bytes, valid until the next decode
+    public ByteBuffer decode(int codec, int rawLength, int encodedLength) throws IOException {
+        if (codec == BlockCompressor.CODEC_STORED) {
+            return ByteBuffer.wrap(input, 0, rawLength);
+        }
+        inflater.reset();
+        inflater.setInput(input, 0, encodedLength);
+        int decoded = 0;
+        try {
+            while (decoded < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(output, decoded, rawLength - decoded);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                decoded += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed block: " + e.getMessage(), e);
+        }
+        if (decoded != rawLength || !inflater.finished()) {
+            throw new IOException("Compressed block decoded to " + decoded + " bytes, expected " + rawLength);
+        }
+        return ByteBuffer.wrap(output, 0, rawLength);
+    }
+}
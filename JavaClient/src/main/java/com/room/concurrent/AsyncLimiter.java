@@ -0,0 +1,60 @@
+package com.room.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+// Bounds the number of operations in flight without blocking anyone: an operation that finds every slot
+// taken is queued, and the release() that frees a slot starts it, in arrival order.
+public final class AsyncLimiter {
+    private final int limit;
+    private final Queue<Runnable> waiting = new ArrayDeque<>();
+    private int active;
+
+    public AsyncLimiter(int limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    // Runs start now if a slot is free; it must call release() exactly once when the operation is over,
+    // unless start itself throws, in which case the slot is released here
+    public void acquire(Runnable start) {
+        synchronized (this) {
+            if (active >= limit) {
+                waiting.add(start);
+                return;
+            }
+            active++;
+        }
+        start(start);
+    }
+
+    // The slot passes straight to the oldest waiting operation, if any
+    public void release() {
+        Runnable next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null) {
+                active--;
+                return;
+            }
+        }
+        start(next);
+    }
+
+    // An operation that fails to start never calls release(), so its slot would be lost
+    private void start(Runnable start) {
+        try {
+            start.run();
+        } catch (RuntimeException | Error e) {
+            release();
+            throw e;
+        }
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+}
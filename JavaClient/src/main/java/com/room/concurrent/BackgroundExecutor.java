@@ -0,0 +1,97 @@
+package com.room.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Process-wide executor for client background work. On JDK 21+ every task gets a virtual thread; the
+// build still targets 17, so they are created reflectively and older runtimes fall back to a cached pool
+// of daemon platform threads. Either way callers bound their own concurrency: notification dispatch is
+// serial, auto-sync runs one pass at a time and transfers use a fixed number of workers.
+// -Droom.virtualThreads=false forces the platform pool.
+public final class BackgroundExecutor {
+    private static final long IDLE_SECONDS = 30;
+    private static final ExecutorService EXECUTOR;
+    private static final boolean VIRTUAL;
+    // Only fires timers; the work itself is handed to the executor so a slow task never delays other timers
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "room-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        ExecutorService virtual = Boolean.parseBoolean(System.getProperty("room.virtualThreads", "true"))
+                ? newVirtualThreadExecutor() : null;
+        VIRTUAL = virtual != null;
+        EXECUTOR = virtual != null ? virtual : newPlatformExecutor();
+    }
+
+    private BackgroundExecutor() {
+    }
+
+    public static ExecutorService get() {
+        return EXECUTOR;
+    }
+
+    public static boolean isVirtual() {
+        return VIRTUAL;
+    }
+
+    // For long-lived loops such as a connection reader, which end when their resource is closed
+    public static void start(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.schedule(() -> EXECUTOR.execute(task), delay, unit);
+    }
+
+    // A run that is still going when the next one is due is not overlapped; the next one just starts later
+    public static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long delay, TimeUnit unit) {
+        AtomicBoolean running = new AtomicBoolean();
+        return TIMER.scheduleWithFixedDelay(() -> {
+            if (running.compareAndSet(false, true)) {
+                EXECUTOR.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        running.set(false);
+                    }
+                });
+            }
+        }, delay, delay, unit);
+    }
+
+    // Thread.ofVirtual().name("room-", 0).factory() and Executors.newThreadPerTaskExecutor(factory)
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "room-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) perTask.invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Pre-21 runtime, or virtual threads still behind --enable-preview
+            return null;
+        }
+    }
+
+    static ExecutorService newPlatformExecutor() {
+        AtomicLong counter = new AtomicLong();
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread thread = new Thread(r, "room-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,50 @@
+package com.room.concurrent;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Runs its tasks one at a time, in submission order, on the BackgroundExecutor. Holds no thread while idle,
+// so an instance per connection costs nothing until something is submitted.
+public final class SerialExecutor implements Executor {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean shutdown;
+
+    @Override
+    public void execute(Runnable task) {
+        if (shutdown) {
+            return;
+        }
+        tasks.add(task);
+        scheduleDrain();
+    }
+
+    // Queued tasks that have not started are dropped
+    public void shutdown() {
+        shutdown = true;
+        tasks.clear();
+    }
+
+    private void scheduleDrain() {
+        if (!tasks.isEmpty() && draining.compareAndSet(false, true)) {
+            BackgroundExecutor.get().execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while (!shutdown && (task = tasks.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            draining.set(false);
+            // A task may have been added after the last poll but before the flag was cleared
+            if (!shutdown) {
+                scheduleDrain();
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.room.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+// Structured concurrency in the spirit of JDK 21's StructuredTaskScope, which is still a preview API there:
+// subtasks run on the BackgroundExecutor, cancelling the scope interrupts all of them, and close() does not
+// return until every subtask has finished, so none outlives the code that forked it. A scope created with
+// failFast cancels the remaining subtasks as soon as one fails.
+public final class TaskScope implements AutoCloseable {
+    private final boolean failFast;
+    private final Set<Subtask<?>> running = ConcurrentHashMap.newKeySet();
+    private final Object lock = new Object();
+    private volatile boolean cancelled;
+    private Throwable firstFailure;
+
+    public TaskScope(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    public <T> Future<T> fork(Callable<T> task) {
+        Subtask<T> subtask = new Subtask<>(task);
+        synchronized (lock) {
+            if (cancelled) {
+                throw new CancellationException("Task scope is cancelled");
+            }
+            running.add(subtask);
+        }
+        BackgroundExecutor.get().execute(subtask);
+        return subtask;
+    }
+
+    public Future<?> fork(Runnable task) {
+        return fork(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    // Waits for every subtask forked so far. Throws the first failure, if any; in a failFast scope the
+    // other subtasks have been cancelled by then.
+    public void join() throws InterruptedException, ExecutionException {
+        awaitRunning();
+        synchronized (lock) {
+            if (firstFailure != null) {
+                throw new ExecutionException(firstFailure.getMessage(), firstFailure);
+            }
+        }
+    }
+
+    // Interrupts whatever is running and refuses new subtasks; safe to call from any thread
+    public void cancel() {
+        List<Subtask<?>> toCancel;
+        synchronized (lock) {
+            cancelled = true;
+            toCancel = new ArrayList<>(running);
+        }
+        for (Subtask<?> subtask : toCancel) {
+            subtask.cancel(true);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void close() {
+        cancel();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                awaitRunning();
+                break;
+            } catch (InterruptedException e) {
+                // Keep waiting: returning early would let subtasks outlive the scope
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitRunning() throws InterruptedException {
+        synchronized (lock) {
+            while (!running.isEmpty()) {
+                lock.wait();
+            }
+        }
+    }
+
+    private void finished(Subtask<?> subtask, Throwable failure) {
+        boolean cancelOthers = false;
+        synchronized (lock) {
+            running.remove(subtask);
+            if (failure != null && firstFailure == null && !cancelled) {
+                firstFailure = failure;
+                cancelOthers = failFast;
+            }
+            lock.notifyAll();
+        }
+        if (cancelOthers) {
+            cancel();
+        }
+    }
+
+    // Reports to the scope from the thread that ran it, so a cancelled subtask only counts as finished
+    // once its body has actually returned
+    private final class Subtask<T> extends FutureTask<T> {
+        private Subtask(Callable<T> task) {
+            super(task);
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                Throwable failure = null;
+                if (!isCancelled()) {
+                    try {
+                        get();
+                    } catch (ExecutionException e) {
+                        failure = e.getCause();
+                    } catch (InterruptedException | CancellationException e) {
+                        // not a task failure
+                    }
+                }
+                finished(this, failure);
+            }
+        }
+    }
+}
@@ -3,7 +3,21 @@ package com.room.config;
 import java.io.File;
 
 public class ClientConfig {
+    // -Droom.clientFilesDir=PATH, otherwise client_files next to the jar. Resolved once: the code source
+    // lookup is not free and the answer cannot change while the client runs.
     public static String getClientFilesDir() {
+        return ClientFilesDir.PATH;
+    }
+
+    private static final class ClientFilesDir {
+        private static final String PATH = resolveClientFilesDir();
+    }
+
+    private static String resolveClientFilesDir() {
+        String configured = System.getProperty("room.clientFilesDir");
+        if (configured != null && !configured.isEmpty()) {
+            return new File(configured).getAbsolutePath();
+        }
         try {
             String codeSourcePath = ClientConfig.class.getProtectionDomain()
                     .getCodeSource()
@@ -24,5 +38,92 @@ public class ClientConfig {
             return new File("client_files").getAbsolutePath();
         }
     }
-}
 
+    // Number of connections used for parallel transfers, -Droom.transfer.concurrency=N
+    public static int getTransferConcurrency() {
+        return Math.max(1, Integer.getInteger("room.transfer.concurrency", 4));
+    }
+
+    // Small request frames must not wait for Nagle/delayed ACK, so TCP_NODELAY is on unless -Droom.tcpNoDelay=false
+    public static boolean isTcpNoDelay() {
+        return Boolean.parseBoolean(System.getProperty("room.tcpNoDelay", "true"));
+    }
+
+    // SO_SNDBUF in bytes, -Droom.sendBuffer=N; 0 keeps the OS default
+    public static int getSendBufferSize() {
+        return Math.max(0, Integer.getInteger("room.sendBuffer", 0));
+    }
+
+    // SO_RCVBUF in bytes, -Droom.receiveBuffer=N; 0 keeps the OS default
+    public static int getReceiveBufferSize() {
+        return Math.max(0, Integer.getInteger("room.receiveBuffer", 0));
+    }
+
+    // -Droom.zeroCopy=false falls back to plain socket streams for file transfers
+    public static boolean isZeroCopyEnabled() {
+        return Boolean.parseBoolean(System.getProperty("room.zeroCopy", "true"));
+    }
+
+    // Block-level delta uploads of files the server already has, when the server supports them;
+    // -Droom.delta=false always sends whole files
+    public static boolean isDeltaUploadEnabled() {
+        return Boolean.parseBoolean(System.getProperty("room.delta", "true"));
+    }
+
+    // Block compression of file transfers when the server supports it; -Droom.compress=false sends raw bytes
+    public static boolean isCompressionEnabled() {
+        return Boolean.parseBoolean(System.getProperty("room.compress", "true"));
+    }
+
+    // Transfers over a link measured faster than this many bytes per second are sent raw, since deflate would
+    // be slower than the wire; -Droom.compress.maxRate=N, 0 compresses at any speed
+    public static long getCompressionMaxRate() {
+        return Math.max(0, Long.getLong("room.compress.maxRate", 100L * 1024 * 1024));
+    }
+
+    // Chunk and socket buffer sizes picked per server from measured RTT and throughput; -Droom.tuner=false
+    // keeps the fixed 8 KB upload copies, 256 KB download reads and the buffer sizes set above
+    public static boolean isTransferTuningEnabled() {
+        return Boolean.parseBoolean(System.getProperty("room.tuner", "true"));
+    }
+
+    // Bounds for the tuned chunk size in bytes, -Droom.tuner.minChunk=N and -Droom.tuner.maxChunk=N
+    public static int getMinChunkSize() {
+        return Math.max(8192, Integer.getInteger("room.tuner.minChunk", 256 * 1024));
+    }
+
+    public static int getMaxChunkSize() {
+        return Math.max(getMinChunkSize(), Integer.getInteger("room.tuner.maxChunk", 4 * 1024 * 1024));
+    }
+
+    // Largest SO_SNDBUF/SO_RCVBUF the tuner asks for, -Droom.tuner.maxBuffer=N; the OS may cap it lower
+    public static int getMaxSocketBufferSize() {
+        return Math.max(64 * 1024, Integer.getInteger("room.tuner.maxBuffer", 64 * 1024 * 1024));
+    }
+
+    // Multiplexed frames on connections to servers that support them, so small requests overtake transfers
+    // on the same socket; -Droom.mux=false keeps the plain protocol
+    public static boolean isMultiplexingEnabled() {
+        return Boolean.parseBoolean(System.getProperty("room.mux", "true"));
+    }
+
+    // How often auto-sync compares the server listing with the local files, in case a notification was
+    // missed; -Droom.autosync.reconcileSeconds=N, 0 turns it off
+    public static long getReconcileIntervalSeconds() {
+        return Math.max(0, Long.getLong("room.autosync.reconcileSeconds", 300));
+    }
+
+    // Async requests a single connection accepts before further calls queue up, -Droom.async.maxInFlight=N
+    public static int getMaxInFlightRequests() {
+        return Math.max(1, Integer.getInteger("room.async.maxInFlight", 64));
+    }
+
+    // Unix domain socket the daemon takes commands on, -Droom.daemon.socket=PATH; one per user by default
+    public static String getDaemonSocketPath() {
+        String path = System.getProperty("room.daemon.socket");
+        if (path == null || path.isEmpty()) {
+            path = new File(System.getProperty("java.io.tmpdir"), "room-" + System.getProperty("user.name") + ".sock").getPath();
+        }
+        return path;
+    }
+}
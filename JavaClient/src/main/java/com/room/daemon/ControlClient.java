@@ -0,0 +1,81 @@
+package com.room.daemon;
+
+import com.room.config.ClientConfig;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Thin front end of the daemon: sends the command given on the command line and prints the reply as it
+// arrives, then exits with the command's status. Loads next to nothing of the client, so a command costs
+// a JVM start and one local round trip instead of a connect, HELLO and AUTH.
+public class ControlClient {
+    private static final int STATUS_NO_DAEMON = 3;
+
+    public static void main(String[] args) {
+        String socketPath = ClientConfig.getDaemonSocketPath();
+        int first = 0;
+        if (args.length >= 2 && args[0].equals("--socket")) {
+            socketPath = args[1];
+            first = 2;
+        }
+        if (args.length == first) {
+            System.err.println("Usage: ControlClient [--socket PATH] <command> [args...]");
+            System.exit(ControlServer.STATUS_UNKNOWN_COMMAND);
+        }
+        String command = String.join(" ", Arrays.copyOfRange(args, first, args.length));
+        System.exit(send(Path.of(socketPath), command, System.out));
+    }
+
+    // Copies the command's output to out and returns its exit status
+    static int send(Path socketPath, String command, PrintStream out) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+        } catch (IOException e) {
+            System.err.println("No daemon listening on " + socketPath + ": " + e.getMessage());
+            return STATUS_NO_DAEMON;
+        }
+
+        try (channel) {
+            channel.write(ByteBuffer.wrap((command.replace('\n', ' ') + "\n").getBytes(StandardCharsets.UTF_8)));
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            StringBuilder status = null;
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                if (status == null) {
+                    // Output goes through untouched up to the marker; what follows is the status line
+                    int end = buffer.position();
+                    while (end < buffer.limit() && buffer.get(end) != ControlServer.STATUS_MARKER) {
+                        end++;
+                    }
+                    out.write(buffer.array(), buffer.position(), end - buffer.position());
+                    buffer.position(end);
+                    if (end < buffer.limit()) {
+                        status = new StringBuilder();
+                        buffer.get();
+                    }
+                }
+                if (status != null) {
+                    status.append(StandardCharsets.UTF_8.decode(buffer));
+                }
+                buffer.clear();
+            }
+            out.flush();
+            if (status == null) {
+                System.err.println("Daemon closed the connection before the command finished");
+                return ControlServer.STATUS_FAILED;
+            }
+            return Integer.parseInt(status.toString().trim());
+        } catch (IOException | NumberFormatException e) {
+            out.flush();
+            System.err.println("Lost the daemon: " + e.getMessage());
+            return ControlServer.STATUS_FAILED;
+        }
+    }
+}
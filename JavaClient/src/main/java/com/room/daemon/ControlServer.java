@@ -0,0 +1,214 @@
+package com.room.daemon;
+
+import com.room.commands.CommandContext;
+import com.room.commands.CommandHandler;
+import com.room.commands.CommandOutput;
+import com.room.commands.CommandRegistry;
+import com.room.commands.JobTracker;
+import com.room.concurrent.BackgroundExecutor;
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.CountDownLatch;
+
+// Runs the prompt's commands for local clients on a Unix domain socket. A request is one line, the command
+// as it would be typed at the prompt. The reply is what the command prints, including the results of jobs
+// it started, since the reply waits for them, and ends with STATUS_MARKER, the exit status and a newline.
+// The status is STATUS_FAILED if the command threw, reported a failure, e.g. a file that did not transfer,
+// or started a job that failed.
+// Commands from different clients run concurrently, so 'jobs' and 'cancel' work during a long transfer.
+public class ControlServer implements Closeable {
+    public static final byte STATUS_MARKER = 0;
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_FAILED = 1;
+    public static final int STATUS_UNKNOWN_COMMAND = 2;
+    private static final int MAX_REQUEST_LENGTH = 64 * 1024;
+
+    private final Path socketPath;
+    private final DaemonSession session;
+    private final CommandRegistry registry = new CommandRegistry();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private ServerSocketChannel server;
+    private String owner;
+
+    public ControlServer(Path socketPath, DaemonSession session) {
+        this.socketPath = socketPath;
+        this.session = session;
+    }
+
+    public void start() throws IOException {
+        removeStaleSocket();
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(socketPath));
+            // Whoever can connect runs commands with the daemon's credentials
+            Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+            owner = Files.getOwner(socketPath).getName();
+        } catch (IOException | UnsupportedOperationException e) {
+            channel.close();
+            Files.deleteIfExists(socketPath);
+            throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        }
+        server = channel;
+        BackgroundExecutor.start(this::acceptLoop);
+    }
+
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.close();
+            Files.deleteIfExists(socketPath);
+        } catch (IOException e) {
+            System.err.println("Failed to remove " + socketPath + ": " + e.getMessage());
+        }
+        server = null;
+        stopped.countDown();
+    }
+
+    // A socket file left behind by a daemon that did not shut down cleanly is removed, a live one is not
+    private void removeStaleSocket() throws IOException {
+        if (!Files.exists(socketPath)) {
+            return;
+        }
+        boolean live;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socketPath)).close();
+            live = true;
+        } catch (IOException e) {
+            live = false;
+        }
+        if (live) {
+            throw new IOException("Another daemon is listening on " + socketPath);
+        }
+        Files.delete(socketPath);
+    }
+
+    private void acceptLoop() {
+        ServerSocketChannel channel = server;
+        while (channel != null && channel.isOpen()) {
+            try {
+                SocketChannel client = channel.accept();
+                BackgroundExecutor.start(() -> serve(client));
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println("Control socket: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        boolean shutdown = false;
+        try (channel) {
+            if (!isOwner(channel)) {
+                return;
+            }
+            String line = readRequest(channel);
+            if (line == null) {
+                return;
+            }
+            String[] parts = line.trim().split("\\s+");
+            shutdown = parts[0].equals("shutdown");
+
+            OutputStream reply = new BufferedOutputStream(Channels.newOutputStream(channel));
+            int status = execute(new CommandOutput.Caller(reply), parts);
+            reply.write(STATUS_MARKER);
+            reply.write((status + "\n").getBytes(StandardCharsets.UTF_8));
+            reply.flush();
+        } catch (IOException e) {
+            // The client went away; whatever it started has run to completion
+        } finally {
+            if (shutdown) {
+                close();
+            }
+        }
+    }
+
+    private int execute(CommandOutput.Caller caller, String[] parts) {
+        String cmd = parts[0];
+        if (cmd.isEmpty()) {
+            return STATUS_OK;
+        }
+        if (cmd.equals("shutdown")) {
+            caller.println("Daemon stopping");
+            return STATUS_OK;
+        }
+        if (cmd.equals("quit") || cmd.equals("exit")) {
+            caller.println("The daemon keeps its session between commands; use 'shutdown' to stop it");
+            return STATUS_FAILED;
+        }
+        CommandHandler handler = registry.get(cmd);
+        if (handler == null) {
+            caller.println("Unknown command: " + cmd + ". Type 'help' for available commands");
+            return STATUS_UNKNOWN_COMMAND;
+        }
+
+        try {
+            CommandContext context = session.getContext();
+            caller.run(handler, context, parts);
+        } catch (Exception e) {
+            caller.println("Error: " + e.getMessage());
+            return STATUS_FAILED;
+        }
+        boolean succeeded = true;
+        try {
+            for (JobTracker.Job job : caller.getJobs()) {
+                succeeded &= job.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return STATUS_FAILED;
+        }
+        return succeeded && !caller.hasFailed() ? STATUS_OK : STATUS_FAILED;
+    }
+
+    private String readRequest(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            if (channel.read(buffer) == -1) {
+                break;
+            }
+            for (int i = start; i < buffer.position(); i++) {
+                if (buffer.get(i) == '\n') {
+                    return new String(buffer.array(), 0, i, StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return buffer.position() > 0 ? new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8) : null;
+    }
+
+    // The socket file is private to its owner already; where the OS reports the peer, that is checked too
+    private boolean isOwner(SocketChannel channel) {
+        try {
+            UnixDomainPrincipal peer = channel.getOption(ExtendedSocketOptions.SO_PEERCRED);
+            return peer.user().getName().equals(owner);
+        } catch (UnsupportedOperationException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.room.daemon;
+
+import com.room.config.ClientConfig;
+
+public class DaemonConfig {
+    public String host = "127.0.0.1";
+    public int port = 8080;
+    public String username;
+    // Also taken from ROOM_PASSWORD, which unlike the command line is not visible to other users
+    public String password = System.getenv("ROOM_PASSWORD");
+    public String socketPath = ClientConfig.getDaemonSocketPath();
+
+    public static DaemonConfig parse(String[] args) {
+        DaemonConfig config = new DaemonConfig();
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--host" -> config.host = value;
+                case "--port" -> config.port = Integer.parseInt(value);
+                case "--user" -> config.username = value;
+                case "--password" -> config.password = value;
+                case "--socket" -> config.socketPath = value;
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            i++;
+        }
+        if (config.username == null || config.password == null) {
+            throw new IllegalArgumentException("The daemon needs --user and --password (or ROOM_PASSWORD)");
+        }
+        return config;
+    }
+
+    public static String usage() {
+        return "Usage: Daemon --user U [--password P] [--host H] [--port N] [--socket PATH]";
+    }
+}
@@ -0,0 +1,75 @@
+package com.room.daemon;
+
+import com.room.client.Client;
+import com.room.client.ConnectionFactory;
+import com.room.commands.CommandContext;
+import com.room.protocol.ProtocolClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// The daemon's session: connected and authenticated once, then shared by every command, with auto-sync
+// running as it does at the prompt. If the server drops the connection, the next command reconnects.
+public class DaemonSession implements Closeable {
+    private final ConnectionFactory connectionFactory;
+    private final String username;
+    private final String password;
+    private ProtocolClient protocolClient;
+    private Client client;
+
+    public DaemonSession(ConnectionFactory connectionFactory, String username, String password) {
+        this.connectionFactory = connectionFactory;
+        this.username = username;
+        this.password = password;
+    }
+
+    public synchronized CommandContext getContext() throws IOException {
+        if (client != null && !protocolClient.isOpen()) {
+            System.out.println("Connection to " + connectionFactory.getHost() + ":" + connectionFactory.getPort()
+                    + " lost, reconnecting");
+            disconnect();
+        }
+        if (client == null) {
+            connect();
+        }
+        return client.getContext();
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+
+    private void connect() throws IOException {
+        ProtocolClient connection = connectionFactory.connect();
+        try {
+            connection.auth(username, password);
+        } catch (IOException e) {
+            try {
+                connection.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        protocolClient = connection;
+        client = new Client(connection, connectionFactory);
+        client.getContext().setAuthenticated(true);
+        client.getContext().setCredentials(username, password);
+    }
+
+    private void disconnect() {
+        if (client == null) {
+            return;
+        }
+        // Jobs of the old session are cancelled; interrupted downloads resume on the next attempt
+        client.close();
+        try {
+            protocolClient.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        client = null;
+        protocolClient = null;
+    }
+}
@@ -0,0 +1,4 @@
+package com.room.delta;
+
+public record Chunk(long offset, int length, byte[] hash) {
+}
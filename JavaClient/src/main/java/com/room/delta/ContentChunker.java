@@ -0,0 +1,86 @@
+package com.room.delta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Content-defined chunking with a gear rolling hash (as in FastCDC): a chunk ends where the hash of the
+// last 64 bytes hits the boundary mask, so an insertion only changes the chunks around it instead of
+// shifting every block after it. Each chunk is identified by its SHA-256.
+// Client and server must cut identically: the gear table is SplitMix64 seeded with GEAR_SEED.
+public final class ContentChunker {
+    public static final int MIN_CHUNK = 16 * 1024;
+    public static final int MAX_CHUNK = 256 * 1024;
+    public static final int HASH_LENGTH = 32;
+    private static final long GEAR_SEED = 0x526f6f6d44656c74L;
+    // 16 high bits: a boundary every 64 KB on average
+    private static final long BOUNDARY_MASK = 0xffffL << 48;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long state = GEAR_SEED;
+        for (int i = 0; i < GEAR.length; i++) {
+            state += 0x9e3779b97f4a7c15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private ContentChunker() {
+    }
+
+    @FunctionalInterface
+    public interface ChunkSink {
+        void accept(long offset, int length, byte[] hash) throws IOException;
+    }
+
+    // Reports every chunk of the source in order and returns the SHA-256 of the whole content
+    public static byte[] chunk(ReadableByteChannel source, ChunkSink sink) throws IOException {
+        MessageDigest chunkDigest = sha256();
+        MessageDigest contentDigest = sha256();
+        byte[] data = new byte[1024 * 1024];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        long chunkStart = 0;
+        int length = 0;
+        long hash = 0;
+        int read;
+        while ((read = source.read(buffer)) != -1) {
+            if (read == 0) {
+                continue;
+            }
+            int segmentStart = 0;
+            for (int i = 0; i < read; i++) {
+                hash = (hash << 1) + GEAR[data[i] & 0xff];
+                length++;
+                if ((length >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0) || length >= MAX_CHUNK) {
+                    chunkDigest.update(data, segmentStart, i + 1 - segmentStart);
+                    sink.accept(chunkStart, length, chunkDigest.digest());
+                    chunkStart += length;
+                    length = 0;
+                    hash = 0;
+                    segmentStart = i + 1;
+                }
+            }
+            chunkDigest.update(data, segmentStart, read - segmentStart);
+            contentDigest.update(data, 0, read);
+            buffer.clear();
+        }
+        if (length > 0) {
+            sink.accept(chunkStart, length, chunkDigest.digest());
+        }
+        return contentDigest.digest();
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
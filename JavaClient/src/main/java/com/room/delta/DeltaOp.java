@@ -0,0 +1,8 @@
+package com.room.delta;
+
+// COPY takes length bytes from the server's existing file at offset; LITERAL sends length bytes of the
+// local file starting at offset
+public record DeltaOp(boolean copy, long offset, long length) {
+    public static final byte TYPE_COPY = 0;
+    public static final byte TYPE_LITERAL = 1;
+}
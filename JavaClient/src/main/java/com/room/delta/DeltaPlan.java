@@ -0,0 +1,84 @@
+package com.room.delta;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// How to rebuild a local file on the server from the chunks it already has plus literal data
+public class DeltaPlan {
+    private final long baseSize;
+    private final long size;
+    private final byte[] contentHash;
+    private final List<DeltaOp> ops;
+    private final long literalBytes;
+
+    private DeltaPlan(long baseSize, long size, byte[] contentHash, List<DeltaOp> ops, long literalBytes) {
+        this.baseSize = baseSize;
+        this.size = size;
+        this.contentHash = contentHash;
+        this.ops = ops;
+        this.literalBytes = literalBytes;
+    }
+
+    public static DeltaPlan create(Path file, Signature base) throws IOException {
+        List<DeltaOp> ops = new ArrayList<>();
+        long[] literal = new long[1];
+        byte[] contentHash;
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            contentHash = ContentChunker.chunk(channel, (offset, length, hash) -> {
+                Chunk match = base.find(hash);
+                if (match != null && match.length() == length) {
+                    append(ops, true, match.offset(), length);
+                } else {
+                    append(ops, false, offset, length);
+                    literal[0] += length;
+                }
+            });
+            size = channel.position();
+        }
+        return new DeltaPlan(base.getSize(), size, contentHash, Collections.unmodifiableList(ops), literal[0]);
+    }
+
+    // Neighbouring ranges are merged, so an unchanged region of any size costs a single op
+    private static void append(List<DeltaOp> ops, boolean copy, long offset, long length) {
+        if (!ops.isEmpty()) {
+            DeltaOp last = ops.get(ops.size() - 1);
+            if (last.copy() == copy && last.offset() + last.length() == offset) {
+                ops.set(ops.size() - 1, new DeltaOp(copy, last.offset(), last.length() + length));
+                return;
+            }
+        }
+        ops.add(new DeltaOp(copy, offset, length));
+    }
+
+    // The server already has exactly this content
+    public boolean isUnchanged() {
+        return size == baseSize
+                && (size == 0 || (ops.size() == 1 && ops.get(0).copy() && ops.get(0).offset() == 0));
+    }
+
+    public long getBaseSize() {
+        return baseSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public byte[] getContentHash() {
+        return contentHash;
+    }
+
+    public List<DeltaOp> getOps() {
+        return ops;
+    }
+
+    public long getLiteralBytes() {
+        return literalBytes;
+    }
+}
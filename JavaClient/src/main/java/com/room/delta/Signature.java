@@ -0,0 +1,34 @@
+package com.room.delta;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The chunk list of the server's copy of a file, as returned by GETSIGNATURE
+public class Signature {
+    private final long size;
+    private final List<Chunk> chunks;
+    private final Map<ByteBuffer, Chunk> byHash;
+
+    public Signature(long size, List<Chunk> chunks) {
+        this.size = size;
+        this.chunks = chunks;
+        this.byHash = new HashMap<>(chunks.size() * 2);
+        for (Chunk chunk : chunks) {
+            byHash.putIfAbsent(ByteBuffer.wrap(chunk.hash()), chunk);
+        }
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    public Chunk find(byte[] hash) {
+        return byHash.get(ByteBuffer.wrap(hash));
+    }
+}
@@ -0,0 +1,72 @@
+package com.room.index;
+
+public final class ManifestEntry {
+    private final String name;
+    private final long size;
+    private final long lastModified;
+    // Hex SHA-256 of the content, null until someone asked for it; cleared whenever size or mtime change
+    private final String hash;
+    // Size and mtime when the file last matched the server's copy, -1 if it never synced through this client
+    private final long syncedSize;
+    private final long syncedLastModified;
+
+    public ManifestEntry(String name, long size, long lastModified, String hash, long syncedSize, long syncedLastModified) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = hash;
+        this.syncedSize = syncedSize;
+        this.syncedLastModified = syncedLastModified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    // Null if not computed yet; ManifestIndex.getContentHash computes it
+    public String getHash() {
+        return hash;
+    }
+
+    // Changed locally since it was last uploaded or downloaded
+    public boolean isModifiedSinceSync() {
+        return syncedSize >= 0 && !matches(syncedSize, syncedLastModified);
+    }
+
+    // Holds content the server has never had from this client: changed since the last sync, or never synced
+    public boolean hasUnsyncedChanges() {
+        return syncedSize < 0 || !matches(syncedSize, syncedLastModified);
+    }
+
+    long getSyncedSize() {
+        return syncedSize;
+    }
+
+    long getSyncedLastModified() {
+        return syncedLastModified;
+    }
+
+    boolean matches(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    ManifestEntry withContent(long size, long lastModified) {
+        return new ManifestEntry(name, size, lastModified, null, syncedSize, syncedLastModified);
+    }
+
+    ManifestEntry withHash(String hash) {
+        return new ManifestEntry(name, size, lastModified, hash, syncedSize, syncedLastModified);
+    }
+
+    ManifestEntry asSynced() {
+        return new ManifestEntry(name, size, lastModified, hash, size, lastModified);
+    }
+}
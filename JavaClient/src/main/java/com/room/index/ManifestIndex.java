@@ -0,0 +1,337 @@
+package com.room.index;
+
+import com.room.concurrent.BackgroundExecutor;
+import com.room.protocol.PartialDownload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Persistent index of the files in one directory (name, size, mtime), so sync decisions are map lookups
+// instead of directory walks. It is loaded from .manifest at startup, kept current through a WatchService
+// and saved back periodically. Changes are found by size and mtime; the content hash is only computed when
+// getContentHash asks for it, since reading every file would cost far more than the sync itself, and the
+// delta upload works out which chunks of a changed file differ on its own.
+public class ManifestIndex implements Closeable {
+    private static final String MANIFEST_FILE = ".manifest";
+    // Any other manifest is ignored and the index rebuilt from the directory
+    private static final int MAGIC = 0x524d4632; // "RMF2"
+    private static final long SAVE_INTERVAL_SECONDS = 5;
+
+    private final Path dir;
+    private final Path manifestFile;
+    private final Map<String, ManifestEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final WatchService watchService;
+    private ScheduledFuture<?> saveTimer;
+    // False until the background scan after open has checked every loaded entry against its file
+    private volatile boolean scanned;
+    private volatile boolean closed;
+
+    private ManifestIndex(Path dir) throws IOException {
+        this.dir = dir;
+        this.manifestFile = dir.resolve(MANIFEST_FILE);
+        this.watchService = dir.getFileSystem().newWatchService();
+    }
+
+    public static ManifestIndex open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        ManifestIndex index = new ManifestIndex(dir);
+        try {
+            // Register before reconciling so no change slips between the scan and the first event
+            dir.register(index.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            index.load();
+            // Only the names are brought up to date here, which takes one directory listing; the attributes of
+            // the loaded entries are checked in the background, and get() checks an entry itself until then
+            index.reconcileNames();
+            index.startWatcher();
+            BackgroundExecutor.start(index::scan);
+            index.saveTimer = BackgroundExecutor.scheduleWithFixedDelay(index::saveIfDirty, SAVE_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS);
+            return index;
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e;
+        }
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    public ManifestEntry get(String name) {
+        if (!scanned) {
+            refresh(name);
+        }
+        return entries.get(name);
+    }
+
+    // Hex SHA-256 of the file, read on first use and kept until its size or mtime change. Null if the file
+    // is not in the index.
+    public String getContentHash(String name) throws IOException {
+        ManifestEntry entry = get(name);
+        if (entry == null || entry.getHash() != null) {
+            return entry != null ? entry.getHash() : null;
+        }
+        Path file = dir.resolve(name);
+        String hash = sha256(file);
+        // Only keep the hash if the file did not change while it was being read
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (entry.matches(attributes.size(), attributes.lastModifiedTime().toMillis())
+                && entries.replace(name, entry, entry.withHash(hash))) {
+            dirty.set(true);
+        }
+        return hash;
+    }
+
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    // Brings one entry up to date right away, e.g. after a download, instead of waiting for the watcher
+    public void refresh(String name) {
+        if (isIgnored(name)) {
+            return;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(dir.resolve(name), BasicFileAttributes.class);
+            if (attributes.isRegularFile()) {
+                update(name, attributes);
+            } else {
+                remove(name);
+            }
+        } catch (NoSuchFileException e) {
+            remove(name);
+        } catch (IOException e) {
+            // Unreadable for now; the next event or reconciliation will try again
+        }
+    }
+
+    // Records that the file as it is now matches the server, e.g. after an upload or download
+    public void markSynced(String name) {
+        refresh(name);
+        ManifestEntry entry = entries.get(name);
+        if (entry != null && entries.replace(name, entry, entry.asSynced())) {
+            dirty.set(true);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        watchService.close();
+        if (saveTimer != null) {
+            saveTimer.cancel(false);
+        }
+        if (dirty.get()) {
+            save();
+        }
+    }
+
+    private void update(String name, BasicFileAttributes attributes) {
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        ManifestEntry existing = entries.get(name);
+        if (existing != null && existing.matches(size, lastModified)) {
+            return;
+        }
+        entries.put(name, existing != null ? existing.withContent(size, lastModified)
+                : new ManifestEntry(name, size, lastModified, null, -1, -1));
+        dirty.set(true);
+    }
+
+    private void remove(String name) {
+        if (entries.remove(name) != null) {
+            dirty.set(true);
+        }
+    }
+
+    // Adds the names that appeared and drops the ones that went away; attributes are only read for new names
+    private void reconcileNames() {
+        Set<String> seen = new HashSet<>();
+        try (DirectoryStream<Path> listing = Files.newDirectoryStream(dir)) {
+            for (Path path : listing) {
+                String name = path.getFileName().toString();
+                if (isIgnored(name)) {
+                    continue;
+                }
+                seen.add(name);
+                if (!entries.containsKey(name)) {
+                    refresh(name);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Manifest: failed to scan " + dir + ": " + e.getMessage());
+            return;
+        }
+        for (String name : entries.keySet()) {
+            if (!seen.contains(name)) {
+                remove(name);
+            }
+        }
+    }
+
+    // Checks every entry against its file, for what changed while nobody was watching
+    private void scan() {
+        for (String name : entries.keySet()) {
+            if (closed) {
+                return;
+            }
+            refresh(name);
+        }
+        scanned = true;
+    }
+
+    // Ends when close() closes the watch service
+    private void startWatcher() {
+        BackgroundExecutor.start(this::watchLoop);
+    }
+
+    private void watchLoop() {
+        try {
+            while (!closed) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were dropped, only a full scan can tell what changed
+                        reconcileNames();
+                        scan();
+                        continue;
+                    }
+                    refresh(event.context().toString());
+                }
+                if (!key.reset()) {
+                    System.err.println("Manifest: " + dir + " is no longer watched");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closing
+        }
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(manifestFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestFile), 65536))) {
+            if (in.readInt() != MAGIC) {
+                // Rebuilt from the directory; files it held count as never synced until their next sync
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String hash = in.readUTF();
+                long syncedSize = in.readLong();
+                long syncedLastModified = in.readLong();
+                entries.put(name, new ManifestEntry(name, size, lastModified, hash.isEmpty() ? null : hash,
+                        syncedSize, syncedLastModified));
+            }
+        } catch (IOException e) {
+            System.err.println("Manifest: ignoring unreadable " + manifestFile + ": " + e.getMessage());
+            entries.clear();
+        }
+    }
+
+    private void saveIfDirty() {
+        if (dirty.get()) {
+            try {
+                save();
+            } catch (IOException e) {
+                System.err.println("Manifest: failed to save " + manifestFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Written to a temporary file and moved into place, so a crash never leaves a half-written manifest
+    private synchronized void save() throws IOException {
+        dirty.set(false);
+        Path temp = dir.resolve(MANIFEST_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 65536))) {
+            // The count is written first, so snapshot the entries to keep it consistent with the body
+            ManifestEntry[] snapshot = entries.values().toArray(new ManifestEntry[0]);
+            out.writeInt(MAGIC);
+            out.writeInt(snapshot.length);
+            for (ManifestEntry entry : snapshot) {
+                out.writeUTF(entry.getName());
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getLastModified());
+                out.writeUTF(entry.getHash() == null ? "" : entry.getHash());
+                out.writeLong(entry.getSyncedSize());
+                out.writeLong(entry.getSyncedLastModified());
+            }
+        } catch (IOException e) {
+            dirty.set(true);
+            throw e;
+        }
+        Files.move(temp, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static boolean isIgnored(String name) {
+        return name.startsWith(MANIFEST_FILE) || PartialDownload.isPartialFile(name);
+    }
+}
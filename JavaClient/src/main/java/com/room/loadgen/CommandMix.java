@@ -0,0 +1,71 @@
+package com.room.loadgen;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+// Weighted choice of the next command, parsed from e.g. "list=30,get=40,put=10,ping=20"
+public class CommandMix {
+    private final LoadCommand[] commands;
+    private final int[] cumulative;
+    private final int total;
+
+    private CommandMix(Map<LoadCommand, Integer> weights) {
+        commands = new LoadCommand[weights.size()];
+        cumulative = new int[weights.size()];
+        int sum = 0;
+        int i = 0;
+        for (Map.Entry<LoadCommand, Integer> entry : weights.entrySet()) {
+            sum += entry.getValue();
+            commands[i] = entry.getKey();
+            cumulative[i] = sum;
+            i++;
+        }
+        total = sum;
+    }
+
+    public static CommandMix parse(String spec) {
+        Map<LoadCommand, Integer> weights = new EnumMap<>(LoadCommand.class);
+        for (String part : spec.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + part);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight: " + part);
+            }
+            if (weight > 0) {
+                weights.put(LoadCommand.valueOf(pair[0].trim().toUpperCase()), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("Command mix is empty: " + spec);
+        }
+        return new CommandMix(weights);
+    }
+
+    public LoadCommand next(Random random) {
+        int r = random.nextInt(total);
+        for (int i = 0; i < cumulative.length; i++) {
+            if (r < cumulative[i]) {
+                return commands[i];
+            }
+        }
+        return commands[commands.length - 1];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int previous = 0;
+        for (int i = 0; i < commands.length; i++) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(commands[i].name().toLowerCase()).append('=').append(cumulative[i] - previous);
+            previous = cumulative[i];
+        }
+        return sb.toString();
+    }
+}
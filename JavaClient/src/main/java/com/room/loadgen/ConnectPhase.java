@@ -0,0 +1,6 @@
+package com.room.loadgen;
+
+// The steps of setting up a session, timed separately so a slow handshake is not mistaken for slow AUTH
+public enum ConnectPhase {
+    HELLO, CONNECT, MUX, AUTH
+}
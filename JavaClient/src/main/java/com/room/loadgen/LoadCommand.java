@@ -0,0 +1,5 @@
+package com.room.loadgen;
+
+public enum LoadCommand {
+    AUTH, LIST, GET, PUT, PING
+}
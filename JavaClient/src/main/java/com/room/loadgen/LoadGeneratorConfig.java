@@ -0,0 +1,49 @@
+package com.room.loadgen;
+
+public class LoadGeneratorConfig {
+    public String host = "127.0.0.1";
+    public int port = 8080;
+    public String username = "admin";
+    public String password = "123";
+    public int clients = 10;
+    public long durationSeconds = 30;
+    public long thinkTimeMs = 100;
+    public long rampUpMs = 1000;
+    public long reportIntervalSeconds = 5;
+    public long fileSize = 64 * 1024;
+    public long seed = 42;
+    public CommandMix mix = CommandMix.parse("list=30,get=40,put=10,ping=20");
+
+    public static LoadGeneratorConfig parse(String[] args) {
+        LoadGeneratorConfig config = new LoadGeneratorConfig();
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--host" -> config.host = value;
+                case "--port" -> config.port = Integer.parseInt(value);
+                case "--user" -> config.username = value;
+                case "--password" -> config.password = value;
+                case "--clients" -> config.clients = Integer.parseInt(value);
+                case "--duration" -> config.durationSeconds = Long.parseLong(value);
+                case "--think-ms" -> config.thinkTimeMs = Long.parseLong(value);
+                case "--ramp-up-ms" -> config.rampUpMs = Long.parseLong(value);
+                case "--report-interval" -> config.reportIntervalSeconds = Long.parseLong(value);
+                case "--file-size" -> config.fileSize = Long.parseLong(value);
+                case "--seed" -> config.seed = Long.parseLong(value);
+                case "--mix" -> config.mix = CommandMix.parse(value);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            i++;
+        }
+        return config;
+    }
+
+    public static String usage() {
+        return "Usage: LoadGenerator [--host H] [--port N] [--user U] [--password P] [--clients N]\n"
+                + "       [--duration SECONDS] [--think-ms MS] [--ramp-up-ms MS] [--report-interval SECONDS]\n"
+                + "       [--file-size BYTES] [--seed N] [--mix auth=0,list=30,get=40,put=10,ping=20]";
+    }
+}
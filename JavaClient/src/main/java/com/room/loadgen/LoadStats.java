@@ -0,0 +1,100 @@
+package com.room.loadgen;
+
+import com.room.metrics.Histogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Shared by every simulated client; all recording is lock-free
+public class LoadStats {
+    private final Map<LoadCommand, Histogram> latencies = new EnumMap<>(LoadCommand.class);
+    private final Map<LoadCommand, LongAdder> errors = new EnumMap<>(LoadCommand.class);
+    private final Map<ConnectPhase, Histogram> setup = new EnumMap<>(ConnectPhase.class);
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder notifications = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+
+    public LoadStats() {
+        for (LoadCommand command : LoadCommand.values()) {
+            latencies.put(command, new Histogram());
+            errors.put(command, new LongAdder());
+        }
+        for (ConnectPhase phase : ConnectPhase.values()) {
+            setup.put(phase, new Histogram());
+        }
+    }
+
+    public void recordLatency(LoadCommand command, long nanos) {
+        latencies.get(command).record(nanos);
+    }
+
+    public void recordSetup(ConnectPhase phase, long nanos) {
+        setup.get(phase).record(nanos);
+    }
+
+    public void recordError(LoadCommand command) {
+        errors.get(command).increment();
+    }
+
+    public void recordBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void recordBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public void recordNotification() {
+        notifications.increment();
+    }
+
+    public void recordConnectFailure() {
+        connectFailures.increment();
+    }
+
+    public Histogram getLatency(LoadCommand command) {
+        return latencies.get(command);
+    }
+
+    public Histogram getSetupLatency(ConnectPhase phase) {
+        return setup.get(phase);
+    }
+
+    public long getErrors(LoadCommand command) {
+        return errors.get(command).sum();
+    }
+
+    public long getTotalOperations() {
+        long total = 0;
+        for (Histogram histogram : latencies.values()) {
+            total += histogram.getCount();
+        }
+        return total;
+    }
+
+    public long getTotalErrors() {
+        long total = 0;
+        for (LongAdder adder : errors.values()) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getNotifications() {
+        return notifications.sum();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.sum();
+    }
+}
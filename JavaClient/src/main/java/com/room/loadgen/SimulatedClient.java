@@ -0,0 +1,158 @@
+package com.room.loadgen;
+
+import com.room.client.ConnectionFactory;
+import com.room.protocol.ProtocolClient;
+import com.room.protocol.ResponseException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// One simulated user: its own connection, command sequence and think time. Runs until the deadline and
+// reconnects after a connection failure, so a struggling server shows up as errors rather than a stall.
+public class SimulatedClient implements Runnable {
+    private static final long RECONNECT_DELAY_MS = 1000;
+
+    private final int id;
+    private final LoadGeneratorConfig config;
+    private final ConnectionFactory factory;
+    private final LoadStats stats;
+    private final long deadline;
+    private final Random random;
+    private final Path uploadFile;
+    private final Path downloadFile;
+    private List<String> knownFiles = new ArrayList<>();
+    private ProtocolClient client;
+    private volatile boolean connected;
+
+    public SimulatedClient(int id, LoadGeneratorConfig config, ConnectionFactory factory, LoadStats stats,
+                           Path uploadFile, Path workDir, long deadline) {
+        this.id = id;
+        this.config = config;
+        this.factory = factory;
+        this.stats = stats;
+        this.deadline = deadline;
+        this.random = new Random(config.seed + id);
+        this.uploadFile = uploadFile;
+        this.downloadFile = workDir.resolve("download-" + id + ".bin");
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (System.nanoTime() < deadline) {
+                if (client == null && !connect()) {
+                    sleep(RECONNECT_DELAY_MS);
+                    continue;
+                }
+                LoadCommand command = config.mix.next(random);
+                execute(command);
+                think();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            disconnect();
+        }
+    }
+
+    // Each step is timed on its own: the capability probe (only for the client that waits on it), the TCP
+    // connect, the switch to multiplexed frames and AUTH
+    private boolean connect() {
+        try {
+            if (!factory.hasServerCapabilities()) {
+                long start = System.nanoTime();
+                factory.getServerCapabilities();
+                stats.recordSetup(ConnectPhase.HELLO, System.nanoTime() - start);
+            }
+            long start = System.nanoTime();
+            client = factory.connectPlain();
+            stats.recordSetup(ConnectPhase.CONNECT, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            if (factory.negotiate(client)) {
+                stats.recordSetup(ConnectPhase.MUX, System.nanoTime() - start);
+            }
+
+            client.setOnFileUploadedCallback(name -> stats.recordNotification());
+            client.startNotificationListener();
+            start = System.nanoTime();
+            client.auth(config.username, config.password);
+            stats.recordSetup(ConnectPhase.AUTH, System.nanoTime() - start);
+            connected = true;
+            knownFiles = client.listFiles();
+            return true;
+        } catch (IOException e) {
+            stats.recordConnectFailure();
+            disconnect();
+            return false;
+        }
+    }
+
+    private void execute(LoadCommand command) {
+        long start = System.nanoTime();
+        try {
+            switch (command) {
+                case AUTH -> client.auth(config.username, config.password);
+                case LIST -> knownFiles = client.listFiles();
+                case GET -> {
+                    if (knownFiles.isEmpty()) {
+                        knownFiles = client.listFiles();
+                        command = LoadCommand.LIST;
+                    } else {
+                        String name = knownFiles.get(random.nextInt(knownFiles.size()));
+                        stats.recordBytesIn(client.downloadFile(name, downloadFile.toString()));
+                    }
+                }
+                case PUT -> {
+                    // PUTFILE has no response; the ping behind it completes once the server has stored the file
+                    client.uploadFile(uploadFile.toString());
+                    client.ping();
+                    stats.recordBytesOut(config.fileSize);
+                }
+                case PING -> client.ping();
+            }
+            stats.recordLatency(command, System.nanoTime() - start);
+        } catch (ResponseException e) {
+            stats.recordError(command);
+        } catch (IOException e) {
+            stats.recordError(command);
+            disconnect();
+        }
+    }
+
+    private void think() throws InterruptedException {
+        if (config.thinkTimeMs > 0) {
+            // Uniform around the mean so the clients do not fall into lockstep
+            sleep(random.nextInt((int) config.thinkTimeMs * 2 + 1));
+        }
+    }
+
+    private void sleep(long millis) throws InterruptedException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        Thread.sleep(Math.max(0, Math.min(millis, remaining)));
+    }
+
+    private void disconnect() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // already broken
+            }
+            client = null;
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    // Whether this client ever got an authenticated session
+    public boolean hasConnected() {
+        return connected;
+    }
+}
@@ -0,0 +1,257 @@
+package com.room.metrics;
+
+import com.room.concurrent.BackgroundExecutor;
+import com.room.protocol.Protocol;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+// Process-wide client metrics. Every connection records into the same registry; recording only touches
+// LongAdders and lock-free histograms, so it is cheap enough to stay on in production.
+public class ClientMetrics implements ClientMetricsMXBean {
+    private static final ClientMetrics INSTANCE = new ClientMetrics();
+
+    static {
+        // Starting the platform MBean server loads a few hundred classes, so it is kept off the path
+        // to the first command
+        BackgroundExecutor.start(ClientMetrics::registerMBean);
+    }
+
+    private static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(INSTANCE, new ObjectName("com.room:type=ClientMetrics"));
+        } catch (JMException | SecurityException e) {
+            // JMX export is best effort, the registry works without it
+        }
+    }
+
+    private final CommandMetrics[] commands = new CommandMetrics[Protocol.MAX_COMMAND + 1];
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder downloadedBytes = new LongAdder();
+    private final LongAdder downloadNanos = new LongAdder();
+    private final LongAdder uploadedBytes = new LongAdder();
+    private final LongAdder uploadNanos = new LongAdder();
+    // Payload bytes of compressed transfers before and after encoding
+    private final LongAdder compressionRawBytes = new LongAdder();
+    private final LongAdder compressionWireBytes = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder notifications = new LongAdder();
+    // Time from a push arriving off the wire to its callback starting
+    private final Histogram notificationLag = new Histogram();
+
+    private ClientMetrics() {
+        commands[Protocol.CMD_AUTH] = new CommandMetrics("auth");
+        commands[Protocol.CMD_LISTFILES] = new CommandMetrics("listfiles");
+        commands[Protocol.CMD_GETFILE] = new CommandMetrics("getfile");
+        commands[Protocol.CMD_PING] = new CommandMetrics("ping");
+        commands[Protocol.CMD_PUTFILE] = new CommandMetrics("putfile");
+        // FILE_UPLOADED is a push, not a request; pushes are counted as notifications
+        commands[Protocol.CMD_HELLO] = new CommandMetrics("hello");
+        commands[Protocol.CMD_PUTDELTA] = new CommandMetrics("putdelta");
+        commands[Protocol.CMD_GETSIGNATURE] = new CommandMetrics("getsignature");
+        commands[Protocol.CMD_GETRANGE] = new CommandMetrics("getrange");
+        commands[Protocol.CMD_GETCOMPRESSED] = new CommandMetrics("getcompressed");
+        commands[Protocol.CMD_PUTCOMPRESSED] = new CommandMetrics("putcompressed");
+        commands[Protocol.CMD_MUX] = new CommandMetrics("mux");
+    }
+
+    public static ClientMetrics get() {
+        return INSTANCE;
+    }
+
+    public void recordRequest(byte command, long nanos) {
+        CommandMetrics metrics = lookup(command);
+        if (metrics != null) {
+            metrics.getLatency().record(nanos);
+        }
+    }
+
+    public void recordError(byte command) {
+        CommandMetrics metrics = lookup(command);
+        if (metrics != null) {
+            metrics.recordError();
+        }
+    }
+
+    public void recordBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void recordBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public void recordDownload(long bytes, long nanos) {
+        downloadedBytes.add(bytes);
+        downloadNanos.add(nanos);
+    }
+
+    public void recordUpload(long bytes, long nanos) {
+        uploadedBytes.add(bytes);
+        uploadNanos.add(nanos);
+    }
+
+    public void recordCompression(long rawBytes, long wireBytes) {
+        compressionRawBytes.add(rawBytes);
+        compressionWireBytes.add(wireBytes);
+    }
+
+    public void recordRetry() {
+        retries.increment();
+    }
+
+    public void recordNotification(long lagNanos) {
+        notifications.increment();
+        notificationLag.record(lagNanos);
+    }
+
+    public List<CommandMetrics> getCommands() {
+        List<CommandMetrics> result = new ArrayList<>();
+        for (CommandMetrics metrics : commands) {
+            if (metrics != null) {
+                result.add(metrics);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    public Histogram getNotificationLag() {
+        return notificationLag;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.sum();
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes.sum();
+    }
+
+    public long getCompressionRawBytes() {
+        return compressionRawBytes.sum();
+    }
+
+    public long getCompressionWireBytes() {
+        return compressionWireBytes.sum();
+    }
+
+    @Override
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (CommandMetrics metrics : getCommands()) {
+            counts.put(metrics.getName(), metrics.getLatency().getCount());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (CommandMetrics metrics : getCommands()) {
+            counts.put(metrics.getName(), metrics.getErrors());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP50Millis() {
+        return latencyMillis(h -> h.getValueAtPercentile(50));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP99Millis() {
+        return latencyMillis(h -> h.getValueAtPercentile(99));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP999Millis() {
+        return latencyMillis(h -> h.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    // Payload bytes over the time spent moving them, not over wall-clock time
+    @Override
+    public double getDownloadRateMBps() {
+        return rate(downloadedBytes.sum(), downloadNanos.sum());
+    }
+
+    @Override
+    public double getUploadRateMBps() {
+        return rate(uploadedBytes.sum(), uploadNanos.sum());
+    }
+
+    // Raw over wire bytes of compressed transfers; 1 when nothing was compressed
+    @Override
+    public double getCompressionRatio() {
+        long wire = compressionWireBytes.sum();
+        return wire == 0 ? 1 : (double) compressionRawBytes.sum() / wire;
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getNotifications() {
+        return notifications.sum();
+    }
+
+    @Override
+    public double getNotificationLagP99Millis() {
+        return notificationLag.getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        for (CommandMetrics metrics : getCommands()) {
+            metrics.reset();
+        }
+        bytesIn.reset();
+        bytesOut.reset();
+        downloadedBytes.reset();
+        downloadNanos.reset();
+        uploadedBytes.reset();
+        uploadNanos.reset();
+        compressionRawBytes.reset();
+        compressionWireBytes.reset();
+        retries.reset();
+        notifications.reset();
+        notificationLag.reset();
+    }
+
+    private CommandMetrics lookup(byte command) {
+        return command >= 0 && command < commands.length ? commands[command] : null;
+    }
+
+    private Map<String, Double> latencyMillis(ToDoubleFunction<Histogram> percentile) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (CommandMetrics metrics : getCommands()) {
+            values.put(metrics.getName(), percentile.applyAsDouble(metrics.getLatency()) / 1e6);
+        }
+        return values;
+    }
+
+    private static double rate(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes / 1e6 / (nanos / 1e9);
+    }
+}
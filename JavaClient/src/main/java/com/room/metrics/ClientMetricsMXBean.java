@@ -0,0 +1,34 @@
+package com.room.metrics;
+
+import java.util.Map;
+
+// Exported as com.room:type=ClientMetrics; per-command maps are keyed by command name
+public interface ClientMetricsMXBean {
+    Map<String, Long> getRequestCounts();
+
+    Map<String, Long> getErrorCounts();
+
+    Map<String, Double> getLatencyP50Millis();
+
+    Map<String, Double> getLatencyP99Millis();
+
+    Map<String, Double> getLatencyP999Millis();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getDownloadRateMBps();
+
+    double getUploadRateMBps();
+
+    double getCompressionRatio();
+
+    long getRetries();
+
+    long getNotifications();
+
+    double getNotificationLagP99Millis();
+
+    void reset();
+}
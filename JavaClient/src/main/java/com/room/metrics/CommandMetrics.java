@@ -0,0 +1,34 @@
+package com.room.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class CommandMetrics {
+    private final String name;
+    private final Histogram latency = new Histogram();
+    private final LongAdder errors = new LongAdder();
+
+    CommandMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    void recordError() {
+        errors.increment();
+    }
+
+    void reset() {
+        latency.reset();
+        errors.reset();
+    }
+}
@@ -0,0 +1,46 @@
+package com.room.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Direct buffers are expensive to allocate and are only reclaimed by GC, so transfers share a small pool.
+// Sizes other than BUFFER_SIZE come from the transfer tuner, which only picks a handful of them.
+final class BufferPool {
+    static final int BUFFER_SIZE = 256 * 1024;
+    // Room for a few concurrent transfers at the largest default chunk size
+    private static final long MAX_POOLED_BYTES = 16L * 1024 * 1024;
+
+    private static final Map<Integer, Queue<ByteBuffer>> pools = new ConcurrentHashMap<>();
+    private static final AtomicLong pooledBytes = new AtomicLong();
+
+    private BufferPool() {
+    }
+
+    static ByteBuffer acquire() {
+        return acquire(BUFFER_SIZE);
+    }
+
+    static ByteBuffer acquire(int size) {
+        Queue<ByteBuffer> pool = pools.get(size);
+        ByteBuffer buffer = pool != null ? pool.poll() : null;
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        pooledBytes.addAndGet(-size);
+        buffer.clear();
+        return buffer;
+    }
+
+    static void release(ByteBuffer buffer) {
+        int size = buffer.capacity();
+        if (pooledBytes.addAndGet(size) <= MAX_POOLED_BYTES) {
+            pools.computeIfAbsent(size, s -> new ConcurrentLinkedQueue<>()).offer(buffer);
+        } else {
+            pooledBytes.addAndGet(-size);
+        }
+    }
+}
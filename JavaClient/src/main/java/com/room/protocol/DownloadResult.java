@@ -0,0 +1,33 @@
+package com.room.protocol;
+
+import java.io.IOException;
+
+// Outcome of one file in a pipelined batch. A ResponseException error means the connection is still
+// fine and only that file failed; any other error means the connection broke.
+public class DownloadResult {
+    private final String filename;
+    private final long size;
+    private final IOException error;
+
+    DownloadResult(String filename, long size, IOException error) {
+        this.filename = filename;
+        this.size = size;
+        this.error = error;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
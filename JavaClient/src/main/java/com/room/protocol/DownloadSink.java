@@ -0,0 +1,131 @@
+package com.room.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Target of one download. A local write error must not leave the connection mid-frame, so it is
+// remembered and the rest of the payload is still drained; finish() reports it once the frame is consumed.
+public final class DownloadSink {
+    private final PartialDownload download;
+    private final long size;
+    private FileChannel target;
+    private long received;
+    private IOException writeError;
+    private TransferProgress progress = TransferProgress.NONE;
+    private boolean abandoned;
+
+    public DownloadSink(PartialDownload download, long size, long version, long start) {
+        this.download = download;
+        this.size = size;
+        this.received = start;
+        try {
+            target = download.open(size, version, start);
+        } catch (IOException e) {
+            writeError = e;
+        }
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getRemaining() {
+        return size - received;
+    }
+
+    public void setProgress(TransferProgress progress) {
+        this.progress = progress;
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    // The caller no longer wants the file. What has arrived is checkpointed for a later resume and the
+    // rest of the payload is drained without being written; finish() then leaves the .part file in place.
+    public void abandon() {
+        if (abandoned) {
+            return;
+        }
+        abandoned = true;
+        if (writeError == null && target != null) {
+            try {
+                download.checkpoint(target, size, received);
+            } catch (IOException e) {
+                // the next attempt starts over
+            }
+        }
+        close();
+    }
+
+    public void write(ByteBuffer data) {
+        int length = data.remaining();
+        if (writeError == null && !abandoned) {
+            try {
+                long position = received;
+                while (data.hasRemaining()) {
+                    position += target.write(data, position);
+                }
+                download.maybeCheckpoint(target, size, received + length);
+            } catch (IOException e) {
+                writeError = e;
+            }
+        }
+        // Skips whatever was not written, so the caller's buffer is consumed either way
+        data.position(data.limit());
+        received += length;
+        if (!abandoned) {
+            progress.update(received, size);
+        }
+    }
+
+    // The connection dropped mid-file: record how far it got so the next attempt can resume
+    public void checkpointAfterFailure(IOException failure) {
+        if (writeError == null && !abandoned && target != null) {
+            try {
+                download.checkpoint(target, size, received);
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+        }
+        close();
+    }
+
+    // Renames the .part into place, or throws a ResponseException if the file could not be saved
+    public void finish(String filename) throws ResponseException {
+        close();
+        if (abandoned) {
+            return;
+        }
+        if (writeError == null) {
+            try {
+                download.complete();
+            } catch (IOException e) {
+                writeError = e;
+            }
+        }
+        if (writeError != null) {
+            download.discard();
+            throw new ResponseException("Failed to save " + filename + ": " + writeError.getMessage(), writeError);
+        }
+    }
+
+    private void close() {
+        if (target == null) {
+            return;
+        }
+        try {
+            target.close();
+        } catch (IOException e) {
+            if (writeError == null) {
+                writeError = e;
+            }
+        }
+        target = null;
+    }
+}
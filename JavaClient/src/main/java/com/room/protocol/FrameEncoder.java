@@ -0,0 +1,96 @@
+package com.room.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Per-connection request builder: a frame is encoded into one reused buffer and written with a single
+// call, so steady-state encoding does not allocate. Guarded by the ProtocolClient write lock.
+final class FrameEncoder {
+    private byte[] buf;
+    private int length;
+
+    FrameEncoder(int initialSize) {
+        this.buf = new byte[initialSize];
+    }
+
+    FrameEncoder begin(byte command) {
+        length = 0;
+        ensure(1);
+        buf[length++] = command;
+        return this;
+    }
+
+    FrameEncoder putInt(int value) {
+        ensure(4);
+        buf[length] = (byte) value;
+        buf[length + 1] = (byte) (value >>> 8);
+        buf[length + 2] = (byte) (value >>> 16);
+        buf[length + 3] = (byte) (value >>> 24);
+        length += 4;
+        return this;
+    }
+
+    FrameEncoder putLong(long value) {
+        ensure(8);
+        for (int i = 0; i < 8; i++) {
+            buf[length + i] = (byte) (value >>> (8 * i));
+        }
+        length += 8;
+        return this;
+    }
+
+    FrameEncoder putBytes(byte[] value) {
+        ensure(value.length);
+        System.arraycopy(value, 0, buf, length, value.length);
+        length += value.length;
+        return this;
+    }
+
+    // Length-prefixed UTF-8; ASCII, which covers almost every file name, is encoded without a temporary array
+    FrameEncoder putString(String value) {
+        int chars = value.length();
+        boolean ascii = true;
+        for (int i = 0; i < chars; i++) {
+            if (value.charAt(i) >= 0x80) {
+                ascii = false;
+                break;
+            }
+        }
+        if (!ascii) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, length, bytes.length);
+            length += bytes.length;
+            return this;
+        }
+
+        putInt(chars);
+        ensure(chars);
+        for (int i = 0; i < chars; i++) {
+            buf[length + i] = (byte) value.charAt(i);
+        }
+        length += chars;
+        return this;
+    }
+
+    int length() {
+        return length;
+    }
+
+    byte command() {
+        return buf[0];
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, length);
+    }
+
+    private void ensure(int n) {
+        if (length + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(length + n, buf.length * 2));
+        }
+    }
+}
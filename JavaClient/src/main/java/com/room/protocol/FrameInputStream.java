@@ -0,0 +1,197 @@
+package com.room.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Buffered view of the connection input, owned exclusively by the ProtocolClient reader thread.
+// Fields are decoded in place from the one reused buffer, so steady-state decoding does not allocate.
+final class FrameInputStream extends InputStream {
+    private final InputStream in;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private int markPos = -1;
+    private int markLimit;
+    // Total bytes taken from the underlying stream, for the traffic counters
+    private long bytesRead;
+
+    FrameInputStream(InputStream in, int size) {
+        this.in = in;
+        this.buf = new byte[size];
+    }
+
+    int readInt() throws IOException {
+        require(4);
+        int value = (buf[pos] & 0xff)
+                | (buf[pos + 1] & 0xff) << 8
+                | (buf[pos + 2] & 0xff) << 16
+                | (buf[pos + 3] & 0xff) << 24;
+        pos += 4;
+        return value;
+    }
+
+    long readLong() throws IOException {
+        require(8);
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (buf[pos + i] & 0xff);
+        }
+        pos += 8;
+        return value;
+    }
+
+    String readString(int length) throws IOException {
+        require(length);
+        String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+
+    void skipFully(long n) throws IOException {
+        while (n > 0) {
+            if (pos >= limit && !fill(1)) {
+                throw new EOFException("Stream closed before reading enough bytes");
+            }
+            int step = (int) Math.min(n, limit - pos);
+            pos += step;
+            n -= step;
+        }
+    }
+
+    void readFully(byte[] target) throws IOException {
+        readFully(target, 0, target.length);
+    }
+
+    void readFully(byte[] target, int offset, int length) throws IOException {
+        require(length);
+        System.arraycopy(buf, pos, target, offset, length);
+        pos += length;
+    }
+
+    // Pushes back the byte returned by the last read(); it is always still in the buffer
+    void unread() {
+        if (pos > 0) {
+            pos--;
+        }
+    }
+
+    // Hands out up to max already-buffered bytes so bulk payloads can bypass the stream;
+    // the returned view is only valid until the next read
+    ByteBuffer takeBuffered(long max) {
+        int n = (int) Math.min(limit - pos, max);
+        ByteBuffer view = ByteBuffer.wrap(buf, pos, n);
+        pos += n;
+        return view;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos >= limit && !fill(1)) {
+            return -1;
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos >= limit) {
+            // Large reads skip the buffer entirely unless a mark has to be honoured
+            if (len >= buf.length && markPos < 0) {
+                int n = in.read(b, off, len);
+                if (n > 0) {
+                    bytesRead += n;
+                }
+                return n;
+            }
+            if (!fill(1)) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (limit - pos) + in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        markPos = pos;
+        markLimit = readLimit;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        if (markPos < 0) {
+            throw new IOException("Resetting to invalid mark");
+        }
+        pos = markPos;
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    void discardMark() {
+        markPos = -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void require(int n) throws IOException {
+        if (limit - pos < n && !fill(n)) {
+            throw new EOFException("Stream closed before reading enough bytes");
+        }
+    }
+
+    // Makes sure at least n bytes are buffered contiguously, keeping the marked region if there is one
+    private boolean fill(int n) throws IOException {
+        while (limit - pos < n) {
+            if (buf.length - pos < n || limit == buf.length) {
+                if (markPos >= 0 && pos - markPos > markLimit) {
+                    markPos = -1;
+                }
+                int keepFrom = markPos >= 0 ? markPos : pos;
+                int kept = limit - keepFrom;
+                int needed = (pos - keepFrom) + n;
+                if (needed > buf.length) {
+                    byte[] grown = new byte[Math.max(needed, buf.length * 2)];
+                    System.arraycopy(buf, keepFrom, grown, 0, kept);
+                    buf = grown;
+                } else {
+                    System.arraycopy(buf, keepFrom, buf, 0, kept);
+                }
+                pos -= keepFrom;
+                limit = kept;
+                if (markPos >= 0) {
+                    markPos = 0;
+                }
+            }
+            int read = in.read(buf, limit, buf.length - limit);
+            if (read == -1) {
+                return false;
+            }
+            limit += read;
+            bytesRead += read;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,11 @@
+package com.room.protocol;
+
+import java.io.IOException;
+
+// Receives a file listing one name at a time as it is decoded, so nothing holds the whole listing. Called
+// on the connection's reader thread: it must not wait for another request on the same connection. If it
+// throws, the rest of the listing is skipped and the call fails with a ResponseException.
+@FunctionalInterface
+public interface ListingVisitor {
+    void visit(String name) throws IOException;
+}
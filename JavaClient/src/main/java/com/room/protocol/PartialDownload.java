@@ -0,0 +1,114 @@
+package com.room.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+// A download in progress: data goes to <target>.part and only replaces the target once complete.
+// <target>.part.meta records the expected size, the server's version of the file and how much of the
+// .part is known to be on disk, so a retry or a later run can ask the server for just the rest. The
+// server only honours the offset if size and version still match; otherwise it sends the file from 0.
+public final class PartialDownload {
+    static final String PART_SUFFIX = ".part";
+    static final String META_SUFFIX = ".part.meta";
+    // The .part is synced and the offset recorded at most this often
+    private static final long CHECKPOINT_BYTES = 8L * 1024 * 1024;
+
+    private final Path target;
+    private final Path part;
+    private final Path meta;
+    private long version = -1;
+    private long lastCheckpoint;
+
+    public record ResumeState(long size, long version, long offset) {
+    }
+
+    public PartialDownload(String savePath) {
+        this.target = Paths.get(savePath);
+        this.part = Paths.get(savePath + PART_SUFFIX);
+        this.meta = Paths.get(savePath + META_SUFFIX);
+    }
+
+    // Null if there is nothing to resume, including a partial copy with no server version to check it against
+    public ResumeState loadResumeState() {
+        if (!Files.isRegularFile(meta) || !Files.isRegularFile(part)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(meta))) {
+            long size = in.readLong();
+            long version = in.readLong();
+            long offset = in.readLong();
+            if (size < 0 || version < 0 || offset <= 0 || offset > size || offset > Files.size(part)) {
+                return null;
+            }
+            return new ResumeState(size, version, offset);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Pre-sized so the file system allocates it once; bytes before start are kept from the earlier attempt.
+    // version is what the server reported for this transfer, -1 if it did not (plain GETFILE).
+    public FileChannel open(long size, long version, long start) throws IOException {
+        if (start == 0) {
+            Files.deleteIfExists(meta);
+        }
+        this.version = version;
+        lastCheckpoint = start;
+        RandomAccessFile file = new RandomAccessFile(part.toFile(), "rw");
+        try {
+            file.setLength(size);
+            return file.getChannel();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public void maybeCheckpoint(FileChannel channel, long size, long offset) throws IOException {
+        if (offset - lastCheckpoint >= CHECKPOINT_BYTES) {
+            checkpoint(channel, size, offset);
+        }
+    }
+
+    // The data has to be durable before the offset that vouches for it is
+    public void checkpoint(FileChannel channel, long size, long offset) throws IOException {
+        if (offset <= lastCheckpoint || version < 0) {
+            return;
+        }
+        channel.force(false);
+        Path temp = Paths.get(meta + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeLong(size);
+            out.writeLong(version);
+            out.writeLong(offset);
+        }
+        Files.move(temp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastCheckpoint = offset;
+    }
+
+    public void complete() throws IOException {
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(meta);
+    }
+
+    public void discard() {
+        try {
+            Files.deleteIfExists(meta);
+            Files.deleteIfExists(part);
+        } catch (IOException e) {
+            // leftovers are ignored by the next attempt without a valid meta file
+        }
+    }
+
+    // Bookkeeping files of unfinished downloads, which must not be mistaken for synced content
+    public static boolean isPartialFile(String name) {
+        return name.endsWith(PART_SUFFIX) || name.endsWith(META_SUFFIX) || name.endsWith(META_SUFFIX + ".tmp");
+    }
+}
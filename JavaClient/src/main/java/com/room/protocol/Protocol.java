@@ -7,5 +7,51 @@ public class Protocol {
     public static final byte CMD_PUTFILE = 5;
     public static final byte CMD_PING = 4;
     public static final byte CMD_FILE_UPLOADED = 6;
-}
 
+    // Optional extensions. Servers that predate them drop the session on an unknown command, so a client
+    // only uses them after HELLO, sent on a throwaway connection, has reported them as supported.
+    public static final byte CMD_HELLO = 7;
+    public static final byte CMD_PUTDELTA = 8;
+    public static final byte CMD_GETSIGNATURE = 9;
+    public static final byte CMD_GETRANGE = 10;
+    public static final byte CMD_GETCOMPRESSED = 11;
+    public static final byte CMD_PUTCOMPRESSED = 12;
+    // Switches the connection to multiplexed frames; acknowledged with a 1 byte in the plain protocol
+    public static final byte CMD_MUX = 13;
+    // Highest command number, for tables indexed by command
+    public static final byte MAX_COMMAND = CMD_MUX;
+
+    // Capability bits exchanged in HELLO
+    public static final int CAP_DELTA = 1;
+    public static final int CAP_RANGE = 2;
+    public static final int CAP_COMPRESS = 4;
+    public static final int CAP_MUX = 8;
+
+    public static final int CLIENT_CAPABILITIES = CAP_DELTA | CAP_RANGE | CAP_COMPRESS | CAP_MUX;
+
+    // Multiplexed frames: int32 stream id, flags byte, int32 payload length, payload. Each request gets a
+    // stream of its own, the response comes back on it and ends with an END frame; stream 0 carries pushes.
+    // Frames are small so a bulk transfer never holds the connection for long.
+    public static final int FRAME_HEADER_SIZE = 9;
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+    public static final int FLAG_END = 1;
+    // Sent by the client to stop a stream; the server drops its queued response and answers with END|RESET
+    public static final int FLAG_RESET = 2;
+    // Sent on a stream by whichever side reads it: a 4 byte payload with how many more bytes the other side
+    // may send on it. Both directions of each stream start with STREAM_WINDOW, so a decoder or an upload
+    // handler that stops reading only stops its own stream, and neither side has to stop reading the connection.
+    public static final int FLAG_WINDOW = 4;
+    public static final int STREAM_WINDOW = 4 * 1024 * 1024;
+    public static final int PUSH_STREAM = 0;
+
+    // Pushed names are plain file names; U+FFFD stands in for bytes that were not valid UTF-8
+    public static boolean isPlausibleFileName(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 0x20 || c == 0x7f || c == '/' || c == '\\' || c == '\uFFFD') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
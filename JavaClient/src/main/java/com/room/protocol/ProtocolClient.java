@@ -1,161 +1,570 @@
 package com.room.protocol;
 
+import com.room.compress.BlockCompressor;
+import com.room.compress.BlockDecompressor;
+import com.room.concurrent.AsyncLimiter;
+import com.room.concurrent.BackgroundExecutor;
+import com.room.concurrent.SerialExecutor;
+import com.room.config.ClientConfig;
+import com.room.delta.Chunk;
+import com.room.delta.ContentChunker;
+import com.room.delta.DeltaOp;
+import com.room.delta.DeltaPlan;
+import com.room.delta.Signature;
+import com.room.metrics.ClientMetrics;
+
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.net.Socket;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
-public class ProtocolClient {
-    private final InputStream in;
+public class ProtocolClient implements Closeable {
+    private static final int MAX_NOTIFICATION_NAME_LENGTH = 1024 * 1024;
+    // Names longer than this are not considered when telling a push apart from a response
+    private static final int MAX_PROBED_NAME_LENGTH = 4096;
+    private static final int LOOKAHEAD_LIMIT = 2 * (5 + MAX_PROBED_NAME_LENGTH) + 16;
+    private static final int PIPELINE_WINDOW = 64;
+    private static final long HELLO_TIMEOUT_MS = 5000;
+    // Largest zero-copy transfer between two progress updates
+    private static final long TRANSFER_CHUNK = 8L * 1024 * 1024;
+    // A decoder hands back the window it read in steps of this size, so updates stay a small fraction of the data
+    private static final int WINDOW_UPDATE_SIZE = Protocol.STREAM_WINDOW / 4;
+    // Frame buffers kept for reuse; enough for the frames a busy decoder typically has queued
+    private static final int MAX_SPARE_FRAMES = 16;
+    private static final BooleanSupplier NOT_CANCELLED = () -> false;
+
+    // Status responses are a single 0/1 byte and can never be confused with a push
+    private static final ResponseStart STATUS_START = null;
+    private static final ResponseStart LISTING_START = in -> {
+        int count = in.readInt();
+        if (count < 0 || count > 0xFFFFFF) {
+            return false;
+        }
+        if (count == 0) {
+            return true;
+        }
+        int len = in.readInt();
+        return len > 0 && len <= MAX_PROBED_NAME_LENGTH;
+    };
+    private static final ResponseStart FILE_START = in -> {
+        long size = in.readLong();
+        return size == -1 || (size >= 0 && size < 1L << 48);
+    };
+
+    private final FrameInputStream in;
     private final OutputStream out;
+    private final FrameEncoder encoder = new FrameEncoder(256);
+    // Only set for channel-backed connections, which send file payloads without copying them
+    private final SocketChannel channel;
+    // A lock rather than a monitor, so virtual threads blocked in a socket write under it can unmount
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Signalled when the last control writer is done, for payload frames waiting to go out
+    private final Condition controlDone = writeLock.newCondition();
+    // Requests whose responses have not been read yet, in the order they were written
+    private final Queue<PendingRequest<?>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean readerStarted = new AtomicBoolean(false);
     private final AtomicBoolean notificationListenerRunning = new AtomicBoolean(false);
-    private final AtomicBoolean downloadInProgress = new AtomicBoolean(false);
-    private Thread notificationThread;
-    private Consumer<String> onFileUploadedCallback;
-    private final Object readLock = new Object();
+    private final SerialExecutor notificationDispatcher = new SerialExecutor();
+    // Async calls are written from here, in call order, so callers never wait for the write lock
+    private final SerialExecutor asyncWriter = new SerialExecutor();
+    private final AsyncLimiter inFlight = new AsyncLimiter(ClientConfig.getMaxInFlightRequests());
+    private volatile Consumer<String> onFileUploadedCallback;
+    private volatile IOException failure;
+    // Extensions the server reported in HELLO; set by ConnectionFactory, 0 means plain protocol only
+    private volatile int serverCapabilities;
+    private final ClientMetrics metrics = ClientMetrics.get();
+    // Input bytes already reported to the metrics; only touched by the reader thread
+    private long reportedBytesIn;
+
+    // Set once the server acknowledged MUX; from then on every request goes out on a stream of its own
+    private volatile boolean multiplexed;
+    // Multiplexed requests whose response has not ended yet, by stream id
+    private final Map<Integer, MuxStream> streams = new ConcurrentHashMap<>();
+    // Written under the write lock, so stream ids reach the server in increasing order
+    private int nextStreamId = 1;
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(Protocol.FRAME_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer windowUpdate = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    // Writers of small requests waiting for the write lock; payload frames give way to them
+    private final AtomicInteger controlWriters = new AtomicInteger();
+    // Payload of the frame being read, for pushes and single-frame responses; only touched by the reader thread
+    private byte[] frameBuffer;
+    // Frames of longer responses go to the decoding thread in one of these and come back once it has read them
+    private final Queue<ByteBuffer> spareFrames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger spareFrameCount = new AtomicInteger();
+
+    // Null for connections over plain streams, which keep whatever buffer sizes they came with
+    private final Socket socket;
+    // Set by ConnectionFactory; without one, transfers use the fixed chunk sizes
+    private volatile TransferTuner tuner;
+    // The tuner's generation whose buffer sizes this socket has
+    private volatile int tuningGeneration = -1;
 
     public ProtocolClient(InputStream in, OutputStream out) {
-        this.in = in;
-        this.out = out;
+        this(in, out, null, null);
+    }
+
+    public ProtocolClient(Socket socket) throws IOException {
+        this(socket.getInputStream(), socket.getOutputStream(), null, socket);
+    }
+
+    // The socket adaptor streams do not hold the channel's blocking lock, so the reader thread
+    // and writers can use them concurrently
+    public ProtocolClient(SocketChannel channel) throws IOException {
+        this(channel.socket().getInputStream(), channel.socket().getOutputStream(), channel, channel.socket());
+    }
+
+    private ProtocolClient(InputStream in, OutputStream out, SocketChannel channel, Socket socket) {
+        this.in = new FrameInputStream(in, 65536);
+        // Frames are coalesced here and only hit the socket at explicit flush points
+        this.out = new BufferedOutputStream(out, 65536);
+        this.channel = channel;
+        this.socket = socket;
     }
 
     public void auth(String user, String pass) throws IOException {
-        out.write(Protocol.CMD_AUTH);
+        await(submitAuth(user, pass));
+    }
 
-        byte[] u = user.getBytes();
-        ProtocolWriter.writeInt(out, u.length);
-        out.write(u);
+    public List<String> listFiles() throws IOException {
+        List<String> files = new ArrayList<>();
+        listFiles(files::add);
+        return files;
+    }
 
-        byte[] p = pass.getBytes();
-        ProtocolWriter.writeInt(out, p.length);
-        out.write(p);
+    // Streams the listing through the visitor instead of collecting it; returns the number of names
+    public int listFiles(ListingVisitor visitor) throws IOException {
+        return await(submitListFiles(visitor));
+    }
 
-        synchronized (readLock) {
-            int result = in.read();
-            if (result == -1 || result != 1) {
-                throw new IOException("Authentication failed");
+    public long downloadFile(String filename, String savePath) throws IOException {
+        return await(submitDownload(filename, savePath, true, TransferProgress.NONE, NOT_CANCELLED));
+    }
+
+    public boolean ping() throws IOException {
+        return await(submitPing());
+    }
+
+    // Async variants of the calls above. None of them blocks the caller: requests are written by a
+    // background writer, at most ClientConfig.getMaxInFlightRequests() at a time with the rest queued in
+    // call order, and the futures complete on a background thread rather than the reader, so dependent
+    // stages may block. Cancelling a call that has not been sent yet drops it. A download cancelled while
+    // its response is arriving keeps what it has as a .part file to resume from, and the rest of the
+    // response is drained from the connection. An upload cannot be stopped once its payload has started.
+    public CompletableFuture<Void> authAsync(String user, String pass) {
+        return submitAsync(result -> submitAuth(user, pass));
+    }
+
+    public CompletableFuture<List<String>> listFilesAsync() {
+        List<String> files = new ArrayList<>();
+        return submitAsync(result -> submitListFiles(files::add).thenApply(count -> files));
+    }
+
+    public CompletableFuture<Long> downloadFileAsync(String filename, Path target) {
+        return downloadFileAsync(filename, target, TransferProgress.NONE);
+    }
+
+    public CompletableFuture<Long> downloadFileAsync(String filename, Path target, TransferProgress progress) {
+        return submitAsync(result -> submitDownload(filename, target.toString(), true, progress, result::isCancelled));
+    }
+
+    public CompletableFuture<Void> uploadFileAsync(Path file) {
+        return uploadFileAsync(file, TransferProgress.NONE);
+    }
+
+    // Runs on the async writer, so later async calls queue behind the upload as they would on the wire.
+    // A multiplexed upload runs on a thread of its own instead, since other requests can pass its frames.
+    public CompletableFuture<Void> uploadFileAsync(Path file, TransferProgress progress) {
+        return submitAsync(result -> {
+            if (multiplexed) {
+                CompletableFuture<Void> done = new CompletableFuture<>();
+                BackgroundExecutor.start(() -> {
+                    try {
+                        upload(file.toFile(), progress);
+                        done.complete(null);
+                    } catch (IOException | RuntimeException e) {
+                        done.completeExceptionally(e);
+                    }
+                });
+                return done;
             }
-        }
+            upload(file.toFile(), progress);
+            return CompletableFuture.completedFuture(null);
+        });
     }
 
-    public List<String> listFiles() throws IOException {
-        out.write(Protocol.CMD_LISTFILES);
+    public CompletableFuture<Boolean> pingAsync() {
+        return submitAsync(result -> submitPing());
+    }
 
-        synchronized (readLock) {
-            int count = ProtocolReader.readInt(in);
-            List<String> files = new ArrayList<>(count);
+    private CompletableFuture<Void> submitAuth(String user, String pass) throws IOException {
+        return submit(frame -> frame.begin(Protocol.CMD_AUTH)
+                .putString(user)
+                .putString(pass), STATUS_START, in -> {
+            int result = in.read();
+            if (result == -1) {
+                throw new EOFException("Authentication failed: connection closed");
+            }
+            if (result != 1) {
+                throw new ResponseException("Authentication failed");
+            }
+            return null;
+        });
+    }
 
+    // Each name is decoded from the stream buffer and handed over before the next is read. After a visitor
+    // failure the remaining names are skipped undecoded, so the connection stays usable.
+    private CompletableFuture<Integer> submitListFiles(ListingVisitor visitor) throws IOException {
+        return submit(frame -> frame.begin(Protocol.CMD_LISTFILES), LISTING_START, in -> {
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid file count: " + count);
+            }
+            Exception visitorError = null;
             for (int i = 0; i < count; i++) {
-                int len = ProtocolReader.readInt(in);
-                byte[] nameBytes = ProtocolReader.readBytes(in, len);
-                files.add(new String(nameBytes));
+                int len = in.readInt();
+                if (len < 0) {
+                    throw new IOException("Invalid file name length: " + len);
+                }
+                if (visitorError != null) {
+                    in.skipFully(len);
+                    continue;
+                }
+                try {
+                    visitor.visit(in.readString(len));
+                } catch (IOException | RuntimeException e) {
+                    visitorError = e;
+                }
             }
-
-            return files;
-        }
+            if (visitorError != null) {
+                throw new ResponseException("Listing aborted: " + visitorError.getMessage(), visitorError);
+            }
+            return count;
+        });
     }
 
-    public void downloadFile(String filename, String savePath) throws IOException {
-        // Set download flag to prevent notification interference
-        downloadInProgress.set(true);
-        
-        // Wait longer to ensure notification listener has seen the flag and completely stopped
-        // This is critical - notification listener must not touch stream during downloads
+    // Writes the GETFILE requests back to back and matches the responses in order, so a batch costs
+    // about one round trip instead of one per file. At most PIPELINE_WINDOW requests are outstanding.
+    public List<DownloadResult> downloadFiles(List<String> filenames, Path dir) throws IOException {
+        Semaphore window = new Semaphore(PIPELINE_WINDOW);
+        List<CompletableFuture<Long>> responses = new ArrayList<>(filenames.size());
+        IOException sendError = null;
         try {
-            Thread.sleep(300); // Longer wait to ensure notification listener has fully stopped
+            for (String filename : filenames) {
+                // Requests stay buffered until the window is full or the batch is complete
+                if (!window.tryAcquire()) {
+                    flush();
+                    window.acquire();
+                }
+                CompletableFuture<Long> response = submitDownload(filename, dir.resolve(filename).toString(), false,
+                        TransferProgress.NONE, NOT_CANCELLED);
+                response.whenComplete((size, error) -> window.release());
+                responses.add(response);
+            }
+            flush();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            // Whatever was already queued must still reach the server, or later requests would stall behind it
+            flush();
+            throw new InterruptedIOException("Interrupted while sending requests");
+        } catch (IOException e) {
+            // The connection broke while sending; the remaining files are reported as failed with it
+            sendError = e;
         }
-        
-        try {
-            out.write(Protocol.CMD_GETFILE);
-
-            byte[] nameBytes = filename.getBytes();
-            ProtocolWriter.writeInt(out, nameBytes.length);
-            out.write(nameBytes);
-
-            synchronized (readLock) {
-                // Double-check notification listener is not interfering
-                // This ensures we have exclusive access to the stream
-                long size = ProtocolReader.readInt64(in);
-                
-                if (size < 0) {
-                    throw new IOException("File not found on server: " + filename);
-                }
-
-                try (FileOutputStream fos = new FileOutputStream(savePath)) {
-                    // Read file data in chunks using ProtocolReader for reliable reading
-                    long remaining = size;
-                    byte[] chunkBuffer = new byte[8192];
-                    long totalReceived = 0;
-                    
-                    while (remaining > 0) {
-                        // Check download flag is still set (should be, but verify)
-                        if (!downloadInProgress.get()) {
-                            throw new IOException("Download interrupted - flag was cleared unexpectedly");
-                        }
-                        
-                        int chunkSize = (int) Math.min(chunkBuffer.length, remaining);
-                        
-                        // Read exactly chunkSize bytes
-                        int totalRead = 0;
-                        while (totalRead < chunkSize) {
-                            int bytesRead = in.read(chunkBuffer, totalRead, chunkSize - totalRead);
-                            if (bytesRead == -1) {
-                                throw new IOException("Unexpected end of stream. Expected " + size + " bytes, received " + totalReceived);
-                            }
-                            totalRead += bytesRead;
-                            totalReceived += bytesRead;
-                        }
-                        
-                        fos.write(chunkBuffer, 0, totalRead);
-                        fos.flush(); // Ensure data is written to disk immediately
-                        remaining -= totalRead;
-                    }
-                    
-                    // Final flush to ensure all data is written
-                    fos.flush();
-                }
+
+        List<DownloadResult> results = new ArrayList<>(filenames.size());
+        for (int i = 0; i < filenames.size(); i++) {
+            String filename = filenames.get(i);
+            if (i >= responses.size()) {
+                results.add(new DownloadResult(filename, -1, sendError));
+                continue;
             }
-        } finally {
-            // Always clear the download flag
-            downloadInProgress.set(false);
+            try {
+                results.add(new DownloadResult(filename, await(responses.get(i)), null));
+            } catch (IOException e) {
+                results.add(new DownloadResult(filename, -1, e));
+            }
+        }
+        return results;
+    }
+
+    // Picks up an interrupted download where its last checkpoint left off when the server supports ranges.
+    // A fresh download is a range from 0 so the server reports the file's version for the .part.meta; -1 as
+    // the expected size and version asks for the whole file. GETCOMPRESSED takes the same range arguments, and
+    // is only used while the link is slow enough for compression to pay off.
+    private CompletableFuture<Long> submitDownload(String filename, String savePath, boolean flush, TransferProgress progress,
+                                                   BooleanSupplier cancelled) throws IOException {
+        PartialDownload download = new PartialDownload(savePath);
+        int capabilities = serverCapabilities;
+        if ((capabilities & (Protocol.CAP_RANGE | Protocol.CAP_COMPRESS)) == 0) {
+            return submit(frame -> frame.begin(Protocol.CMD_GETFILE)
+                    .putString(filename), FILE_START, in -> receiveFile(in, filename, download, false, false, progress, cancelled), flush);
+        }
+        boolean compressed = (capabilities & Protocol.CAP_COMPRESS) != 0 && linkSlowEnoughToCompress(false);
+        if (!compressed && (capabilities & Protocol.CAP_RANGE) == 0) {
+            return submit(frame -> frame.begin(Protocol.CMD_GETFILE)
+                    .putString(filename), FILE_START, in -> receiveFile(in, filename, download, false, false, progress, cancelled), flush);
         }
+        PartialDownload.ResumeState resume = download.loadResumeState();
+        return submit(frame -> frame.begin(compressed ? Protocol.CMD_GETCOMPRESSED : Protocol.CMD_GETRANGE)
+                .putString(filename)
+                .putLong(resume != null ? resume.offset() : 0)
+                .putLong(resume != null ? resume.size() : -1)
+                .putLong(resume != null ? resume.version() : -1), FILE_START,
+                in -> receiveFile(in, filename, download, true, compressed, progress, cancelled), flush);
     }
 
     public void uploadFile(String filename) throws IOException {
-        File file = new File(filename);
+        upload(new File(filename), TransferProgress.NONE);
+    }
+
+    private void upload(File file, TransferProgress progress) throws IOException {
         if (!file.exists() || !file.isFile()) {
-            throw new IOException("File not found: " + filename);
+            throw new IOException("File not found: " + file.getPath());
         }
 
-        out.write(Protocol.CMD_PUTFILE);
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = source.size();
+            if ((serverCapabilities & Protocol.CAP_COMPRESS) != 0 && size >= BlockCompressor.MIN_PAYLOAD_SIZE
+                    && linkSlowEnoughToCompress(true) && BlockCompressor.sampleCompresses(source, size)) {
+                uploadCompressed(file.getName(), source, size, progress);
+                return;
+            }
+            applyTuning();
+            int chunkSize = chunkSize(8192);
+            long start = System.nanoTime();
+            send(frame -> frame.begin(Protocol.CMD_PUTFILE)
+                    .putString(file.getName())
+                    .putLong(size), o -> {
+                if (channel != null && !multiplexed) {
+                    // The header has to be on the wire before the payload bypasses the stream
+                    o.flush();
+                    transferFile(source, size, channel, progress);
+                } else if (o instanceof StreamOutput stream) {
+                    stream.transferFrom(source, size, progress);
+                } else {
+                    copyFile(source, size, o, progress, chunkSize);
+                }
+            });
+            // PUTFILE has no response, so its latency is the time it took to put the whole file on the wire.
+            // Multiplexed uploads are acknowledged and recorded like any other request.
+            long elapsed = System.nanoTime() - start;
+            if (!multiplexed) {
+                metrics.recordRequest(Protocol.CMD_PUTFILE, elapsed);
+            }
+            metrics.recordUpload(size, elapsed);
+            recordUploadRate(size, elapsed);
+            metrics.recordBytesOut(size);
+        }
+    }
 
-        byte[] nameBytes = file.getName().getBytes();
-        ProtocolWriter.writeInt(out, nameBytes.length);
-        out.write(nameBytes);
+    // Deflate at the fastest level manages a few hundred MB/s on one core. On a link already measured faster
+    // than room.compress.maxRate it would hold the transfer back, so raw bytes take the zero-copy paths instead.
+    private boolean linkSlowEnoughToCompress(boolean upload) {
+        TransferTuner tuner = this.tuner;
+        long maxRate = ClientConfig.getCompressionMaxRate();
+        if (tuner == null || maxRate == 0) {
+            return true;
+        }
+        double rate = upload ? tuner.getUploadRate() : tuner.getDownloadRate();
+        return rate < maxRate;
+    }
 
-        ProtocolWriter.writeLong(out, file.length());
+    // Same as PUTFILE, but the payload goes out as BlockCompressor blocks. Requires CAP_COMPRESS.
+    private void uploadCompressed(String name, FileChannel source, long size, TransferProgress progress) throws IOException {
+        applyTuning();
+        long start = System.nanoTime();
+        BlockCompressor compressor = BlockCompressor.acquire();
+        try {
+            send(frame -> frame.begin(Protocol.CMD_PUTCOMPRESSED)
+                    .putString(name)
+                    .putLong(size), o -> {
+                ByteBuffer block = ByteBuffer.wrap(compressor.input());
+                long position = 0;
+                while (position < size) {
+                    block.clear();
+                    block.limit((int) Math.min(block.capacity(), size - position));
+                    while (block.hasRemaining()) {
+                        if (source.read(block, position + block.position()) == -1) {
+                            throw new IOException("File shrank during upload: sent " + position + " of " + size + " bytes");
+                        }
+                    }
+                    o.write(compressor.frame(), 0, compressor.encode(block.limit()));
+                    position += block.limit();
+                    progress.update(position, size);
+                }
+            });
+            long elapsed = System.nanoTime() - start;
+            if (!multiplexed) {
+                metrics.recordRequest(Protocol.CMD_PUTCOMPRESSED, elapsed);
+            }
+            metrics.recordUpload(size, elapsed);
+            // The path carried the encoded bytes, so those are what the tuner sees
+            recordUploadRate(compressor.getEncodedBytes(), elapsed);
+            metrics.recordBytesOut(compressor.getEncodedBytes());
+            metrics.recordCompression(compressor.getRawBytes(), compressor.getEncodedBytes());
+        } finally {
+            compressor.release();
+        }
+    }
 
-        try (FileInputStream fis = new FileInputStream(file)) {
-            byte[] buffer = new byte[8192];
-            int read;
-            while ((read = fis.read(buffer)) > 0) {
-                out.write(buffer, 0, read);
+    // Returns the server's capability bits. Only safe on a connection that may be lost: a server without
+    // HELLO closes the session, which surfaces here as an IOException
+    public int hello(int capabilities) throws IOException {
+        CompletableFuture<Integer> response = submit(frame -> frame.begin(Protocol.CMD_HELLO)
+                .putInt(capabilities), STATUS_START, in -> {
+            int echo = in.read();
+            if (echo != Protocol.CMD_HELLO) {
+                throw new IOException("Unexpected HELLO response: " + echo);
             }
+            return in.readInt();
+        });
+        try {
+            return response.get(HELLO_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("No HELLO response from server");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for HELLO");
+        } catch (ExecutionException e) {
+            throw new IOException("HELLO failed: " + e.getCause().getMessage(), e.getCause());
         }
     }
 
-    public boolean ping() throws IOException {
-        out.write(Protocol.CMD_PING);
-        synchronized (readLock) {
+    // Chunk list of the server's copy of a file, or null if the server does not have it. Requires CAP_DELTA.
+    public Signature getSignature(String filename) throws IOException {
+        return await(submit(frame -> frame.begin(Protocol.CMD_GETSIGNATURE)
+                .putString(filename), FILE_START, in -> {
+            long size = in.readLong();
+            if (size < 0) {
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid chunk count: " + count);
+            }
+            List<Chunk> chunks = new ArrayList<>(count);
+            long offset = 0;
+            for (int i = 0; i < count; i++) {
+                int length = in.readInt();
+                byte[] hash = new byte[ContentChunker.HASH_LENGTH];
+                in.readFully(hash);
+                chunks.add(new Chunk(offset, length, hash));
+                offset += length;
+            }
+            return new Signature(size, chunks);
+        }));
+    }
+
+    // Sends only the literal ranges of the plan; the server rebuilds the file from its existing copy and
+    // checks the result against the plan's content hash. Returns false if the server rejected it,
+    // e.g. because its copy changed since the signature was taken. Requires CAP_DELTA.
+    public boolean uploadDelta(String filename, DeltaPlan plan) throws IOException {
+        File file = new File(filename);
+        long start = System.nanoTime();
+        boolean accepted;
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            accepted = await(submit(frame -> frame.begin(Protocol.CMD_PUTDELTA)
+                    .putString(file.getName())
+                    .putLong(plan.getBaseSize())
+                    .putLong(plan.getSize())
+                    .putBytes(plan.getContentHash())
+                    .putInt(plan.getOps().size()), o -> {
+                // Multiplexed payloads are written outside the write lock, so the op headers get an encoder of their own
+                FrameEncoder opEncoder = new FrameEncoder(32);
+                for (DeltaOp op : plan.getOps()) {
+                    if (op.copy()) {
+                        opEncoder.begin(DeltaOp.TYPE_COPY).putLong(op.offset()).putLong(op.length()).writeTo(o);
+                    } else {
+                        opEncoder.begin(DeltaOp.TYPE_LITERAL).putLong(op.length()).writeTo(o);
+                        source.position(op.offset());
+                        copyFile(source, op.length(), o, TransferProgress.NONE, chunkSize(8192));
+                    }
+                }
+            }, STATUS_START, in -> {
+                int status = in.read();
+                if (status == -1) {
+                    throw new EOFException("connection closed");
+                }
+                return status == 1;
+            }, true));
+        }
+        metrics.recordUpload(plan.getLiteralBytes(), System.nanoTime() - start);
+        metrics.recordBytesOut(plan.getLiteralBytes() + 17L * plan.getOps().size());
+        return accepted;
+    }
+
+    private CompletableFuture<Boolean> submitPing() throws IOException {
+        return submit(frame -> frame.begin(Protocol.CMD_PING), STATUS_START, in -> {
             int r = in.read();
             if (r == -1) {
-                throw new IOException("connection closed");
+                throw new EOFException("connection closed");
             }
             return r == 1;
-        }
+        });
+    }
+
+    // Switches the connection to multiplexed frames, so small requests are no longer stuck behind a transfer.
+    // Only valid as the first request on a new connection to a server that reported CAP_MUX.
+    public void enableMultiplexing() throws IOException {
+        await(submit(frame -> frame.begin(Protocol.CMD_MUX), STATUS_START, in -> {
+            int status = in.read();
+            if (status == -1) {
+                throw new EOFException("connection closed");
+            }
+            if (status != 1) {
+                throw new ResponseException("Server refused multiplexing");
+            }
+            // Set on the reader thread before it looks at the first frame
+            multiplexed = true;
+            return null;
+        }));
+    }
+
+    // Responses the server still owes: queued decoders, or open streams on a multiplexed connection
+    int getOutstandingResponses() {
+        return multiplexed ? streams.size() : pending.size();
+    }
+
+    public boolean isMultiplexed() {
+        return multiplexed;
+    }
+
+    public void setTransferTuner(TransferTuner tuner) {
+        this.tuner = tuner;
+    }
+
+    public void setServerCapabilities(int serverCapabilities) {
+        this.serverCapabilities = serverCapabilities;
+    }
+
+    public int getServerCapabilities() {
+        return serverCapabilities;
     }
 
     public void setOnFileUploadedCallback(Consumer<String> callback) {
@@ -163,139 +572,1156 @@ public class ProtocolClient {
     }
 
     public void startNotificationListener() {
-        if (notificationListenerRunning.compareAndSet(false, true)) {
-            notificationThread = new Thread(() -> {
+        notificationListenerRunning.set(true);
+        startReader();
+    }
+
+    // Pushes are still consumed from the stream, they are just no longer delivered
+    public void stopNotificationListener() {
+        notificationListenerRunning.set(false);
+    }
+
+    public boolean isOpen() {
+        return failure == null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fail(new IOException("Connection closed by client"));
+        notificationDispatcher.shutdown();
+        try {
+            out.close();
+        } finally {
+            in.close();
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    // Writes to the .part file and renames it into place once complete. If the connection drops mid-file,
+    // what has arrived is checkpointed so the next attempt can resume with GETRANGE.
+    private Long receiveFile(FrameInputStream in, String filename, PartialDownload download, boolean ranged,
+                             boolean compressed, TransferProgress progress, BooleanSupplier cancelled) throws IOException {
+        long size = in.readLong();
+        if (size < 0) {
+            throw new ResponseException("File not found on server: " + filename);
+        }
+        // For a range the server says which version it is sending and where it starts: the requested offset,
+        // or 0 if its copy has changed
+        long version = ranged ? in.readLong() : -1;
+        long start = ranged ? in.readLong() : 0;
+        if (start < 0 || start > size) {
+            throw new IOException("Invalid range start " + start + " for " + filename + " of " + size + " bytes");
+        }
+
+        DownloadSink sink = new DownloadSink(download, size, version, start);
+        sink.setProgress(progress);
+        applyTuning();
+        long transferStart = System.nanoTime();
+        try {
+            long wireBytes = compressed ? receiveBlocks(in, sink, cancelled) : receiveRaw(in, sink, cancelled);
+            long elapsed = System.nanoTime() - transferStart;
+            metrics.recordDownload(size - start, elapsed);
+            TransferTuner tuner = this.tuner;
+            if (tuner != null && !sink.isAbandoned()) {
+                tuner.recordDownload(wireBytes, elapsed);
+            }
+        } catch (IOException e) {
+            sink.checkpointAfterFailure(e);
+            throw e;
+        }
+        sink.finish(filename);
+        return size;
+    }
+
+    // Both return the bytes that came over the wire
+    private long receiveRaw(FrameInputStream in, DownloadSink sink, BooleanSupplier cancelled) throws IOException {
+        long start = sink.getReceived();
+        if (in != this.in) {
+            // A multiplexed response is already in memory, frame by frame; it is written from the stream buffer
+            while (sink.getRemaining() > 0) {
+                checkCancelled(sink, cancelled);
+                if (in.read() == -1) {
+                    throw new EOFException("Unexpected end of stream. Expected " + sink.getSize() + " bytes, received "
+                            + sink.getReceived());
+                }
+                in.unread();
+                sink.write(in.takeBuffered(sink.getRemaining()));
+            }
+            return sink.getReceived() - start;
+        }
+
+        ByteBuffer buffer = BufferPool.acquire(chunkSize(BufferPool.BUFFER_SIZE));
+        try {
+            ByteBuffer buffered = in.takeBuffered(sink.getRemaining());
+            long fromStream = buffered.remaining();
+            sink.write(buffered);
+
+            // Whatever the stream had not buffered yet goes socket -> direct buffer -> file. This beats
+            // FileChannel.transferFrom here, which copies socket sources through an 8 KB temporary buffer
+            ReadableByteChannel source = channel != null ? channel : Channels.newChannel(in);
+            while (sink.getRemaining() > 0) {
+                checkCancelled(sink, cancelled);
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), sink.getRemaining()));
+                int bytesRead = source.read(buffer);
+                if (bytesRead == -1) {
+                    throw new EOFException("Unexpected end of stream. Expected " + sink.getSize() + " bytes, received "
+                            + sink.getReceived());
+                }
+                buffer.flip();
+                sink.write(buffer);
+            }
+            if (source == channel) {
+                // These bytes never went through the stream, so they are not in its read count
+                metrics.recordBytesIn(sink.getReceived() - start - fromStream);
+            }
+            return sink.getReceived() - start;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    // Blocks are small enough to go through the stream buffer; each is decoded and written as it arrives
+    private long receiveBlocks(FrameInputStream in, DownloadSink sink, BooleanSupplier cancelled) throws IOException {
+        long start = sink.getReceived();
+        long encodedBytes = 0;
+        BlockDecompressor decompressor = BlockDecompressor.acquire();
+        try {
+            while (sink.getRemaining() > 0) {
+                checkCancelled(sink, cancelled);
+                int codec = in.read();
+                if (codec == -1) {
+                    throw new EOFException("Unexpected end of stream. Expected " + sink.getSize() + " bytes, received "
+                            + sink.getReceived());
+                }
+                int rawLength = in.readInt();
+                int encodedLength = in.readInt();
+                BlockDecompressor.checkHeader(codec, rawLength, encodedLength);
+                if (rawLength > sink.getRemaining()) {
+                    throw new IOException("Compressed block runs past the end of the file");
+                }
+                if (in.readNBytes(decompressor.input(), 0, encodedLength) < encodedLength) {
+                    throw new EOFException("Unexpected end of stream. Expected " + sink.getSize() + " bytes, received "
+                            + sink.getReceived());
+                }
+                sink.write(decompressor.decode(codec, rawLength, encodedLength));
+                encodedBytes += BlockCompressor.HEADER_SIZE + encodedLength;
+            }
+            return encodedBytes;
+        } finally {
+            decompressor.release();
+            metrics.recordCompression(sink.getReceived() - start, encodedBytes);
+        }
+    }
+
+    private static void checkCancelled(DownloadSink sink, BooleanSupplier cancelled) {
+        if (!sink.isAbandoned() && cancelled.getAsBoolean()) {
+            sink.abandon();
+        }
+    }
+
+    // Zero-copy path: the kernel moves the file straight into the socket (sendfile where available)
+    private static void transferFile(FileChannel source, long size, WritableByteChannel target, TransferProgress progress)
+            throws IOException {
+        long position = 0;
+        while (position < size) {
+            long sent = source.transferTo(position, Math.min(size - position, TRANSFER_CHUNK), target);
+            if (sent <= 0 && source.size() <= position) {
+                throw new IOException("File shrank during upload: sent " + position + " of " + size + " bytes");
+            }
+            position += sent;
+            progress.update(position, size);
+        }
+    }
+
+    private static void copyFile(FileChannel source, long size, OutputStream out, TransferProgress progress, int chunkSize)
+            throws IOException {
+        InputStream fis = Channels.newInputStream(source);
+        byte[] buffer = new byte[(int) Math.max(1, Math.min(chunkSize, size))];
+        long remaining = size;
+        while (remaining > 0) {
+            int read = fis.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException("File shrank during upload: sent " + (size - remaining) + " of " + size + " bytes");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+            progress.update(size - remaining, size);
+        }
+    }
+
+    // Read and copy size for file payloads; without a tuner, the fixed size the caller always used
+    private int chunkSize(int fixed) {
+        TransferTuner tuner = this.tuner;
+        return tuner != null ? tuner.getChunkSize() : fixed;
+    }
+
+    // Picks up buffer sizes the tuner settled on since this connection's last transfer
+    private void applyTuning() {
+        TransferTuner tuner = this.tuner;
+        if (tuner != null && socket != null) {
+            int generation = tuner.getGeneration();
+            if (generation != tuningGeneration) {
+                tuningGeneration = generation;
+                tuner.apply(socket);
+            }
+        }
+    }
+
+    private void recordUploadRate(long bytes, long elapsed) {
+        TransferTuner tuner = this.tuner;
+        if (tuner != null) {
+            tuner.recordUpload(bytes, elapsed);
+        }
+    }
+
+    private void flush() throws IOException {
+        writeLock.lock();
+        try {
+            checkOpen();
+            try {
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void send(RequestWriter writer, PayloadWriter payload) throws IOException {
+        if (multiplexed) {
+            // The END of the stream acknowledges the request, so this returns once the server has it all
+            startReader();
+            await(submitStream(writer, payload, in -> null, true));
+            return;
+        }
+        writeLock.lock();
+        try {
+            checkOpen();
+            writer.write(encoder);
+            try {
+                encoder.writeTo(out);
+                payload.write(out);
+                out.flush();
+            } catch (IOException e) {
+                metrics.recordError(encoder.command());
+                fail(e);
+                throw e;
+            }
+            metrics.recordBytesOut(encoder.length());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // The pending entry is queued under the write lock so the queue order always matches the wire order
+    private <T> CompletableFuture<T> submit(RequestWriter writer, ResponseStart responseStart, ResponseDecoder<T> decoder) throws IOException {
+        return submit(writer, responseStart, decoder, true);
+    }
+
+    private <T> CompletableFuture<T> submit(RequestWriter writer, ResponseStart responseStart, ResponseDecoder<T> decoder,
+                                            boolean flush) throws IOException {
+        return submit(writer, null, responseStart, decoder, flush);
+    }
+
+    private <T> CompletableFuture<T> submit(RequestWriter writer, PayloadWriter payload, ResponseStart responseStart,
+                                            ResponseDecoder<T> decoder, boolean flush) throws IOException {
+        startReader();
+        if (multiplexed) {
+            return submitStream(writer, payload, decoder, flush);
+        }
+        PendingRequest<T> request = new PendingRequest<>(decoder, responseStart, metrics, tuner);
+        writeLock.lock();
+        try {
+            checkOpen();
+            writer.write(encoder);
+            request.command = encoder.command();
+            request.startNanos = System.nanoTime();
+            pending.add(request);
+            metrics.recordBytesOut(encoder.length());
+            try {
+                encoder.writeTo(out);
+                if (payload != null) {
+                    payload.write(out);
+                }
+                if (flush) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Part of the frame may already be on the wire, the connection can not be trusted anymore
+                fail(e);
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        // The reader may have failed between checkOpen() and add(), in which case nobody else drains the queue
+        if (failure != null) {
+            drainPending();
+        }
+        return request.future;
+    }
+
+    // A multiplexed request goes out on a new stream. Without a payload it is a single frame, written as soon
+    // as the lock is free; payload frames take the lock one at a time and let such requests go first.
+    private <T> CompletableFuture<T> submitStream(RequestWriter writer, PayloadWriter payload, ResponseDecoder<T> decoder,
+                                                  boolean flush) throws IOException {
+        PendingRequest<T> request = new PendingRequest<>(decoder, null, metrics, tuner);
+        MuxStream stream;
+        StreamOutput output = null;
+        controlWriters.incrementAndGet();
+        try {
+            writeLock.lock();
+            try {
+                checkOpen();
+                writer.write(encoder);
+                request.command = encoder.command();
+                request.startNanos = System.nanoTime();
+                stream = new MuxStream(nextStreamId++, request);
+                streams.put(stream.id, stream);
+                metrics.recordBytesOut(encoder.length());
                 try {
-                    while (notificationListenerRunning.get()) {
-                        // Completely skip all operations if download is in progress
-                        // Wait longer when download is active to avoid any interference
-                        if (downloadInProgress.get()) {
-                            Thread.sleep(500); // Longer sleep when download is active - completely pause
-                            continue;
-                        }
-                        
-                        // Check download status BEFORE entering synchronized block
-                        // This prevents any stream operations when downloads are active
-                        if (downloadInProgress.get()) {
-                            continue;
-                        }
-                        
-                        java.util.List<String> notifications = new java.util.ArrayList<>();
-                        synchronized (readLock) {
-                            // Quadruple-check download status inside lock - must not be downloading
-                            if (downloadInProgress.get()) {
-                                continue;
-                            }
-                            
-                            // Only check if there's data available and download is not in progress
-                            // Check again after acquiring lock
-                            if (downloadInProgress.get()) {
-                                continue;
-                            }
-                            
-                            if (in.available() == 0) {
-                                continue; // No data available, skip
-                            }
-                            
-                            // Final check before any stream operations
-                            if (downloadInProgress.get()) {
-                                continue;
-                            }
-                            
-                            // Process ALL available notifications in a loop
-                            // But stop immediately if download starts
-                            while (in.available() > 0 && !downloadInProgress.get()) {
-                                // Check download status BEFORE any stream operations
-                                if (downloadInProgress.get()) {
-                                    break; // Download started, abort immediately
-                                }
-                                
-                                // Peek at the next byte without consuming it
-                                // Use larger mark limit (64KB) to match buffer size
-                                // But check again after mark() in case download started
-                                in.mark(65536);
-                                
-                                // Check again after mark() - download might have started
-                                if (downloadInProgress.get()) {
-                                    try {
-                                        in.reset(); // Reset before aborting
-                                    } catch (IOException e) {
-                                        // Reset failed, stream might be corrupted - abort
-                                    }
-                                    break;
-                                }
-                                
-                                int cmd = in.read();
-                                
-                                // Check again before reset()
-                                if (downloadInProgress.get()) {
-                                    // Can't reset safely, abort
-                                    break;
-                                }
-                                
-                                try {
-                                    in.reset();
-                                } catch (IOException e) {
-                                    // Reset failed - might have read past mark limit
-                                    // This means it's not a notification, abort
-                                    break;
-                                }
-                                
-                                if (cmd != Protocol.CMD_FILE_UPLOADED) {
-                                    break; // Not a notification, stop processing
-                                }
-                                
-                                // Final check before reading notification data
-                                if (downloadInProgress.get()) {
-                                    break; // Download started, abort immediately
-                                }
-                                
-                                // Read the notification
-                                in.read(); // consume the command byte
-                                int nameLen = ProtocolReader.readInt(in);
-                                if (nameLen < 0 || nameLen > 1024 * 1024) {
-                                    break; // Invalid length
-                                }
-                                byte[] nameBytes = ProtocolReader.readBytes(in, nameLen);
-                                notifications.add(new String(nameBytes));
-                            }
-                        }
-                        // Process notifications outside lock to avoid deadlock
-                        // Execute callbacks in a separate thread to avoid blocking notification listener
-                        if (!notifications.isEmpty() && onFileUploadedCallback != null) {
-                            final java.util.List<String> notificationsCopy = new java.util.ArrayList<>(notifications);
-                            new Thread(() -> {
-                                for (String fileName : notificationsCopy) {
-                                    try {
-                                        onFileUploadedCallback.accept(fileName);
-                                    } catch (Exception e) {
-                                        System.err.println("Error in notification callback: " + e.getMessage());
-                                        e.printStackTrace();
-                                    }
-                                }
-                            }).start();
-                        }
-                        Thread.sleep(100); // small delay to avoid busy waiting
+                    if (payload == null && encoder.length() <= Protocol.MAX_FRAME_SIZE) {
+                        writeFrameHeader(stream.id, Protocol.FLAG_END, encoder.length());
+                        encoder.writeTo(out);
+                    } else {
+                        // The request header goes out right away, so streams start in id order
+                        output = new StreamOutput(stream);
+                        encoder.writeTo(output);
+                        output.endFrame(payload == null ? Protocol.FLAG_END : 0);
+                        output.bulk = true;
+                    }
+                    if (flush || payload != null) {
+                        out.flush();
                     }
                 } catch (IOException e) {
-                    // connection closed or error
-                    notificationListenerRunning.set(false);
+                    fail(e);
+                    throw e;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            releaseControl();
+        }
+        if (failure != null) {
+            drainStreams();
+        }
+
+        if (payload != null) {
+            try {
+                payload.write(output);
+                output.endFrame(Protocol.FLAG_END);
+            } catch (IOException | RuntimeException e) {
+                // e.g. the file could not be read; only this stream is abandoned
+                resetStream(stream.id);
+                throw e;
+            }
+        }
+        return request.future;
+    }
+
+    // Called with the write lock held
+    private void writeFrameHeader(int streamId, int flags, int length) throws IOException {
+        frameHeader.clear();
+        frameHeader.putInt(streamId).put((byte) flags).putInt(length);
+        out.write(frameHeader.array());
+    }
+
+    private void writeBulkFrame(int streamId, int flags, byte[] data, int length) throws IOException {
+        writeLock.lock();
+        try {
+            while (controlWriters.get() > 0 && failure == null) {
+                try {
+                    controlDone.await();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
-                    notificationListenerRunning.set(false);
+                    throw new InterruptedIOException("Interrupted while sending");
                 }
-            });
-            notificationThread.setDaemon(true);
-            notificationThread.start();
+            }
+            checkOpen();
+            try {
+                writeFrameHeader(streamId, flags, length);
+                out.write(data, 0, length);
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
         }
     }
 
-    public void stopNotificationListener() {
-        if (notificationListenerRunning.compareAndSet(true, false)) {
-            if (notificationThread != null) {
-                notificationThread.interrupt();
+    // Same as writeBulkFrame, with the payload sent from the file without copying it
+    private void writeBulkFileFrame(int streamId, FileChannel source, long position, int length) throws IOException {
+        writeLock.lock();
+        try {
+            while (controlWriters.get() > 0 && failure == null) {
+                try {
+                    controlDone.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while sending");
+                }
             }
+            checkOpen();
+            try {
+                writeFrameHeader(streamId, 0, length);
+                // The header has to be on the wire before the payload bypasses the stream
+                out.flush();
+                long sent = 0;
+                while (sent < length) {
+                    long n = source.transferTo(position + sent, length - sent, channel);
+                    if (n <= 0 && source.size() <= position + sent) {
+                        // The frame header promised more; the connection can not be trusted anymore
+                        throw new IOException("File shrank during upload at " + (position + sent) + " bytes");
+                    }
+                    sent += n;
+                }
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        } finally {
+            writeLock.unlock();
         }
     }
-}
 
+    private void releaseControl() {
+        if (controlWriters.decrementAndGet() == 0) {
+            writeLock.lock();
+            try {
+                controlDone.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    // The server drops what it has not sent of the stream yet and ends it with END|RESET
+    private void resetStream(int streamId) {
+        controlWriters.incrementAndGet();
+        try {
+            writeLock.lock();
+            try {
+                if (failure != null) {
+                    return;
+                }
+                try {
+                    writeFrameHeader(streamId, Protocol.FLAG_RESET, 0);
+                    out.flush();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            releaseControl();
+        }
+    }
+
+    // Lets the server send another increment bytes on the stream; like a reset it goes ahead of payload frames
+    private void sendWindowUpdate(int streamId, int increment) {
+        controlWriters.incrementAndGet();
+        try {
+            writeLock.lock();
+            try {
+                if (failure != null) {
+                    return;
+                }
+                try {
+                    writeFrameHeader(streamId, Protocol.FLAG_WINDOW, windowUpdate.capacity());
+                    windowUpdate.clear();
+                    out.write(windowUpdate.putInt(increment).array());
+                    out.flush();
+                } catch (IOException e) {
+                    fail(e);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            releaseControl();
+        }
+    }
+
+    private void resetStream(CompletableFuture<?> response) {
+        for (MuxStream stream : streams.values()) {
+            if (stream.request.future == response) {
+                resetStream(stream.id);
+            }
+        }
+    }
+
+    // The limiter slot is held from the moment the request is written until its response is in
+    private <T> CompletableFuture<T> submitAsync(AsyncCall<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        inFlight.acquire(() -> asyncWriter.execute(() -> {
+            if (result.isDone()) {
+                // Cancelled while queued
+                inFlight.release();
+                return;
+            }
+            CompletableFuture<T> response;
+            try {
+                response = call.start(result);
+            } catch (IOException | RuntimeException e) {
+                inFlight.release();
+                result.completeExceptionally(e);
+                return;
+            }
+            if (multiplexed) {
+                // A cancelled download then stops at the server instead of being drained to the end
+                result.whenComplete((value, error) -> {
+                    if (result.isCancelled()) {
+                        resetStream(response);
+                    }
+                });
+            }
+            response.whenCompleteAsync((value, error) -> {
+                inFlight.release();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            }, BackgroundExecutor.get());
+        }));
+        return result;
+    }
+
+    private void checkOpen() throws IOException {
+        IOException cause = failure;
+        if (cause != null) {
+            throw new IOException("Connection is closed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private void startReader() {
+        if (readerStarted.compareAndSet(false, true)) {
+            BackgroundExecutor.start(this::readLoop);
+        }
+    }
+
+    // The only place that touches the input stream: every frame is either a push or the head pending response
+    private void readLoop() {
+        try {
+            while (true) {
+                if (multiplexed) {
+                    readFrame();
+                    continue;
+                }
+                int first = in.read();
+                if (first == -1) {
+                    throw new EOFException("Connection closed by server");
+                }
+                in.unread();
+
+                PendingRequest<?> request = pending.peek();
+                if (first == Protocol.CMD_FILE_UPLOADED
+                        && (request == null || request.responseStart == null || looksLikeNotification(request.responseStart))) {
+                    readNotification();
+                    continue;
+                }
+                if (request == null) {
+                    throw new IOException("Unexpected data from server: " + first);
+                }
+
+                pending.poll();
+                try {
+                    request.complete(in);
+                } finally {
+                    reportBytesIn();
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException("Reader failed: " + e.getMessage(), e));
+        } catch (Error e) {
+            // e.g. OutOfMemoryError on a huge response; waiting callers must not hang on a dead reader
+            fail(new IOException("Reader failed: " + e, e));
+            throw e;
+        }
+    }
+
+    // Listing and file responses may legitimately start with the push command byte, so look at what
+    // follows without consuming anything: a push is a short valid file name, followed either by
+    // another push or by something that can start the pending response
+    private boolean looksLikeNotification(ResponseStart responseStart) throws IOException {
+        in.mark(LOOKAHEAD_LIMIT);
+        try {
+            if (!skipProbedNotification()) {
+                return false;
+            }
+            if (in.read() == Protocol.CMD_FILE_UPLOADED) {
+                in.unread();
+                if (skipProbedNotification()) {
+                    return true;
+                }
+            }
+            in.reset();
+            skipProbedNotification();
+            return responseStart.isPlausible(in);
+        } finally {
+            in.reset();
+            in.discardMark();
+        }
+    }
+
+    private boolean skipProbedNotification() throws IOException {
+        if (in.read() != Protocol.CMD_FILE_UPLOADED) {
+            return false;
+        }
+        int len = in.readInt();
+        if (len <= 0 || len > MAX_PROBED_NAME_LENGTH) {
+            return false;
+        }
+        return Protocol.isPlausibleFileName(in.readString(len));
+    }
+
+    private void reportBytesIn() {
+        long total = in.getBytesRead();
+        metrics.recordBytesIn(total - reportedBytesIn);
+        reportedBytesIn = total;
+    }
+
+    // Multiplexed input: pushes arrive whole on stream 0, response frames go to the stream they belong to.
+    // A response that fits in one frame is decoded right here; a longer one is decoded on a thread of its
+    // own as its frames come in, so a large download never holds up the responses of other streams. Window
+    // updates from the server let an upload on the stream send more.
+    private void readFrame() throws IOException {
+        int streamId = in.readInt();
+        int flags = in.read();
+        int length = in.readInt();
+        int maxLength = streamId == Protocol.PUSH_STREAM ? 5 + MAX_NOTIFICATION_NAME_LENGTH : Protocol.MAX_FRAME_SIZE;
+        if (flags == -1 || length < 0 || length > maxLength) {
+            throw new IOException("Invalid frame: stream " + streamId + ", " + length + " bytes");
+        }
+        if ((flags & Protocol.FLAG_WINDOW) != 0) {
+            int increment = length == 4 ? in.readInt() : -1;
+            if (increment <= 0) {
+                throw new IOException("Invalid window frame: stream " + streamId);
+            }
+            reportBytesIn();
+            // Late updates for streams that are already answered are ignored
+            MuxStream credited = streams.get(streamId);
+            if (credited != null) {
+                credited.credit(increment);
+            }
+            return;
+        }
+
+        if (streamId == Protocol.PUSH_STREAM) {
+            byte[] data = length <= Protocol.MAX_FRAME_SIZE ? frameBuffer() : new byte[length];
+            in.readFully(data, 0, length);
+            reportBytesIn();
+            ByteBuffer push = ByteBuffer.wrap(data, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+            if (length < 5 || push.get() != Protocol.CMD_FILE_UPLOADED || push.getInt() != length - 5) {
+                throw new IOException("Invalid push frame of " + length + " bytes");
+            }
+            deliverNotification(new String(data, 5, length - 5, StandardCharsets.UTF_8));
+            return;
+        }
+        MuxStream stream = streams.get(streamId);
+        if (stream == null) {
+            throw new IOException("Frame for unknown stream " + streamId);
+        }
+        boolean end = (flags & Protocol.FLAG_END) != 0;
+        if (end) {
+            streams.remove(streamId);
+            stream.closeWindow();
+        }
+        if (!stream.started && end) {
+            byte[] data = frameBuffer();
+            in.readFully(data, 0, length);
+            reportBytesIn();
+            try {
+                stream.request.complete(new FrameInputStream(new ByteArrayInputStream(data, 0, length), Math.max(length, 16)));
+            } catch (IOException | RuntimeException e) {
+                // The request has failed with it; the connection itself is fine
+            }
+            return;
+        }
+        if (length > 0) {
+            ByteBuffer data = acquireFrame();
+            in.readFully(data.array(), 0, length);
+            reportBytesIn();
+            stream.input.add(data.limit(length));
+        }
+        if (!stream.started) {
+            stream.started = true;
+            BackgroundExecutor.start(() -> decodeStream(stream));
+        }
+        if (end) {
+            stream.input.end();
+        }
+    }
+
+    private byte[] frameBuffer() {
+        if (frameBuffer == null) {
+            frameBuffer = new byte[Protocol.MAX_FRAME_SIZE];
+        }
+        return frameBuffer;
+    }
+
+    private ByteBuffer acquireFrame() {
+        ByteBuffer frame = spareFrames.poll();
+        if (frame == null) {
+            return ByteBuffer.allocate(Protocol.MAX_FRAME_SIZE);
+        }
+        spareFrameCount.decrementAndGet();
+        return frame.clear();
+    }
+
+    private void releaseFrame(ByteBuffer frame) {
+        if (spareFrameCount.incrementAndGet() <= MAX_SPARE_FRAMES) {
+            spareFrames.offer(frame);
+        } else {
+            spareFrameCount.decrementAndGet();
+        }
+    }
+
+    private void decodeStream(MuxStream stream) {
+        try {
+            stream.request.complete(new FrameInputStream(stream.input, Protocol.MAX_FRAME_SIZE));
+        } catch (IOException | RuntimeException e) {
+            // Only this request failed; the server can stop sending the rest of it
+            if (!stream.input.isEnded()) {
+                resetStream(stream.id);
+            }
+        } finally {
+            stream.input.discard();
+        }
+    }
+
+    private void readNotification() throws IOException {
+        in.read(); // consume the command byte
+        int nameLen = in.readInt();
+        if (nameLen < 0 || nameLen > MAX_NOTIFICATION_NAME_LENGTH) {
+            throw new IOException("Invalid notification name length: " + nameLen);
+        }
+        String fileName = in.readString(nameLen);
+        reportBytesIn();
+        deliverNotification(fileName);
+    }
+
+    private void deliverNotification(String fileName) {
+        long receivedAt = System.nanoTime();
+
+        Consumer<String> callback = onFileUploadedCallback;
+        if (!notificationListenerRunning.get() || callback == null) {
+            return;
+        }
+        // Callbacks usually issue requests of their own, so they must never run on the reader thread
+        notificationDispatcher.execute(() -> {
+            metrics.recordNotification(System.nanoTime() - receivedAt);
+            try {
+                callback.accept(fileName);
+            } catch (Exception e) {
+                System.err.println("Error in notification callback: " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void fail(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        notificationListenerRunning.set(false);
+        drainPending();
+        drainStreams();
+    }
+
+    // Decoders that are already running finish with what has arrived and then see the failure
+    private void drainStreams() {
+        for (MuxStream stream : streams.values()) {
+            stream.input.fail(failure);
+            stream.closeWindow();
+            if (!stream.started && streams.remove(stream.id, stream)) {
+                metrics.recordError(stream.request.command);
+                stream.request.future.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private void drainPending() {
+        PendingRequest<?> request;
+        while ((request = pending.poll()) != null) {
+            metrics.recordError(request.command);
+            request.future.completeExceptionally(failure);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ResponseException) {
+                // Rethrow a fresh exception so the caller's stack trace is included
+                throw new ResponseException(cause.getMessage(), cause);
+            }
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @FunctionalInterface
+    private interface AsyncCall<T> {
+        // Sends the request; result is the caller's future, which may have been cancelled since
+        CompletableFuture<T> start(CompletableFuture<T> result) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RequestWriter {
+        void write(FrameEncoder frame);
+    }
+
+    @FunctionalInterface
+    private interface PayloadWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ResponseStart {
+        boolean isPlausible(FrameInputStream in) throws IOException;
+    }
+
+    private final class MuxStream {
+        private final int id;
+        private final PendingRequest<?> request;
+        private final StreamInput input;
+        // Set by the reader when the first frame of a multi-frame response starts the decoder
+        private volatile boolean started;
+        // Request bytes the server is ready for; an upload waits here, never the server's reader
+        private final ReentrantLock windowLock = new ReentrantLock();
+        private final Condition windowOpened = windowLock.newCondition();
+        private long sendWindow = Protocol.STREAM_WINDOW;
+        // The response ended or the connection failed, so no more window is coming
+        private boolean windowClosed;
+
+        private MuxStream(int id, PendingRequest<?> request) {
+            this.id = id;
+            this.request = request;
+            this.input = new StreamInput(id);
+        }
+
+        private void credit(int increment) {
+            windowLock.lock();
+            try {
+                sendWindow += increment;
+                windowOpened.signalAll();
+            } finally {
+                windowLock.unlock();
+            }
+        }
+
+        private void closeWindow() {
+            windowLock.lock();
+            try {
+                windowClosed = true;
+                windowOpened.signalAll();
+            } finally {
+                windowLock.unlock();
+            }
+        }
+
+        // Takes length bytes of window. Payload frames wait for the server to hand more back; the request
+        // header goes out under the write lock and must not wait, it only ever needs part of a fresh window.
+        private void reserveWindow(int length, boolean wait) throws IOException {
+            windowLock.lock();
+            try {
+                while (sendWindow < length) {
+                    checkOpen();
+                    if (windowClosed) {
+                        throw new IOException("Stream " + id + " ended before its request was sent");
+                    }
+                    if (!wait) {
+                        throw new IOException("Request on stream " + id + " is larger than its window");
+                    }
+                    try {
+                        windowOpened.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the server");
+                    }
+                }
+                sendWindow -= length;
+            } finally {
+                windowLock.unlock();
+            }
+        }
+    }
+
+    // Request and payload of one stream, cut into frames of at most MAX_FRAME_SIZE bytes, each sent once the
+    // server's window for the stream has room for it
+    private final class StreamOutput extends OutputStream {
+        private final MuxStream stream;
+        private final int streamId;
+        private final byte[] buffer = new byte[Protocol.MAX_FRAME_SIZE];
+        private int count;
+        // Until the header frame is out the caller holds the write lock
+        private boolean bulk;
+
+        private StreamOutput(MuxStream stream) {
+            this.stream = stream;
+            this.streamId = stream.id;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                endFrame(0);
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    endFrame(0);
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        // File payloads go out frame by frame with transferTo on channel-backed connections; otherwise they are
+        // read from the file straight into the frame buffer
+        private void transferFrom(FileChannel source, long size, TransferProgress progress) throws IOException {
+            ByteBuffer view = ByteBuffer.wrap(buffer);
+            long position = 0;
+            while (position < size) {
+                if (count == buffer.length || (channel != null && count > 0)) {
+                    endFrame(0);
+                }
+                if (channel != null) {
+                    int length = (int) Math.min(Protocol.MAX_FRAME_SIZE, size - position);
+                    stream.reserveWindow(length, true);
+                    writeBulkFileFrame(streamId, source, position, length);
+                    position += length;
+                } else {
+                    view.limit((int) Math.min(buffer.length, count + size - position)).position(count);
+                    int read = source.read(view, position);
+                    if (read == -1) {
+                        throw new IOException("File shrank during upload: sent " + position + " of " + size + " bytes");
+                    }
+                    count += read;
+                    position += read;
+                }
+                progress.update(position, size);
+            }
+        }
+
+        private void endFrame(int flags) throws IOException {
+            stream.reserveWindow(count, bulk);
+            if (bulk) {
+                writeBulkFrame(streamId, flags, buffer, count);
+            } else {
+                writeFrameHeader(streamId, flags, count);
+                out.write(buffer, 0, count);
+            }
+            count = 0;
+        }
+    }
+
+    // Response bytes of one stream, handed from the reader thread to the thread decoding them. The server
+    // sends at most STREAM_WINDOW bytes ahead of what the decoder has read, so the reader only ever queues
+    // here and never waits for a decoder; one that stalls holds up its own stream and nothing else.
+    private final class StreamInput extends InputStream {
+        private final int streamId;
+        private final ReentrantLock lock = new ReentrantLock();
+        // Data arrived, or the stream ended or failed
+        private final Condition readable = lock.newCondition();
+        // Frame buffers from the reader, returned to it once read
+        private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+        private ByteBuffer chunk;
+        private long buffered;
+        // Read by the decoder but not handed back to the server yet
+        private int consumed;
+        private boolean ended;
+        // The decoder is done; whatever still arrives is dropped
+        private boolean discarded;
+        private IOException failure;
+
+        private StreamInput(int streamId) {
+            this.streamId = streamId;
+        }
+
+        private void add(ByteBuffer data) throws IOException {
+            lock.lock();
+            try {
+                if (discarded) {
+                    releaseFrame(data);
+                    return;
+                }
+                if (buffered + data.remaining() > Protocol.STREAM_WINDOW) {
+                    throw new IOException("Server overran the window of stream " + streamId);
+                }
+                chunks.add(data);
+                buffered += data.remaining();
+                readable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void end() {
+            lock.lock();
+            try {
+                ended = true;
+                readable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isEnded() {
+            lock.lock();
+            try {
+                return ended;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void fail(IOException cause) {
+            lock.lock();
+            try {
+                failure = cause;
+                readable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void discard() {
+            lock.lock();
+            try {
+                discarded = true;
+                if (chunk != null) {
+                    releaseFrame(chunk);
+                    chunk = null;
+                }
+                for (ByteBuffer queued : chunks) {
+                    releaseFrame(queued);
+                }
+                chunks.clear();
+                buffered = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n;
+            int increment = 0;
+            lock.lock();
+            try {
+                while (chunk == null) {
+                    chunk = chunks.poll();
+                    if (chunk != null) {
+                        break;
+                    }
+                    if (failure != null) {
+                        throw new IOException(failure.getMessage(), failure);
+                    }
+                    if (ended) {
+                        return -1;
+                    }
+                    try {
+                        readable.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for response data");
+                    }
+                }
+                n = Math.min(len, chunk.remaining());
+                chunk.get(b, off, n);
+                if (!chunk.hasRemaining()) {
+                    buffered -= chunk.limit();
+                    consumed += chunk.limit();
+                    releaseFrame(chunk);
+                    chunk = null;
+                    if (consumed >= WINDOW_UPDATE_SIZE && !ended) {
+                        increment = consumed;
+                        consumed = 0;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            // Not under the lock: the write lock is taken before it when the connection fails
+            if (increment > 0) {
+                sendWindowUpdate(streamId, increment);
+            }
+            return n;
+        }
+    }
+
+    private static final class PendingRequest<T> {
+        private final ResponseDecoder<T> decoder;
+        // Set when a valid response may begin with the CMD_FILE_UPLOADED byte
+        private final ResponseStart responseStart;
+        private final ClientMetrics metrics;
+        private final TransferTuner tuner;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        // Written under the write lock before the request is queued
+        private byte command;
+        private long startNanos;
+
+        private PendingRequest(ResponseDecoder<T> decoder, ResponseStart responseStart, ClientMetrics metrics,
+                               TransferTuner tuner) {
+            this.decoder = decoder;
+            this.responseStart = responseStart;
+            this.metrics = metrics;
+            this.tuner = tuner;
+        }
+
+        private void complete(FrameInputStream in) throws IOException {
+            try {
+                T result = decoder.decode(in);
+                long latency = System.nanoTime() - startNanos;
+                metrics.recordRequest(command, latency);
+                if (tuner != null && TransferTuner.isRoundTripSample(command)) {
+                    tuner.recordRtt(latency);
+                }
+                future.complete(result);
+            } catch (ResponseException e) {
+                metrics.recordError(command);
+                future.completeExceptionally(e);
+            } catch (IOException | RuntimeException e) {
+                metrics.recordError(command);
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.room.protocol;
+
+import java.io.IOException;
+
+@FunctionalInterface
+interface ResponseDecoder<T> {
+    T decode(FrameInputStream in) throws IOException;
+}
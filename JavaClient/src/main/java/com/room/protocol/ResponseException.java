@@ -0,0 +1,16 @@
+package com.room.protocol;
+
+import java.io.IOException;
+
+// A request failed, but its response was fully consumed and the connection is still usable
+public class ResponseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ResponseException(String message) {
+        super(message);
+    }
+
+    public ResponseException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,11 @@
+package com.room.protocol;
+
+// Progress of a single file transfer. Called on the thread doing the transfer after each chunk, so it must
+// be cheap and must not block.
+@FunctionalInterface
+public interface TransferProgress {
+    TransferProgress NONE = (transferred, total) -> {
+    };
+
+    void update(long transferred, long total);
+}
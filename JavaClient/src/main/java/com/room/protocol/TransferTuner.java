@@ -0,0 +1,212 @@
+package com.room.protocol;
+
+import com.room.config.ClientConfig;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+
+// Picks the chunk size and socket buffer sizes for connections to one server from what those connections
+// measure: the round-trip time of small requests and the throughput of file transfers. Their product, the
+// bandwidth-delay product, is how much data has to be in flight to keep the path busy. All connections to a
+// server share one tuner since they take the same path; each applies its sizes before its next transfer.
+public final class TransferTuner {
+    // RTT is the minimum over the last few samples, so a ping that queued behind a transfer does not count
+    private static final int RTT_SAMPLES = 8;
+    // Shorter transfers are still in slow start and would understate what the path can carry
+    private static final long MIN_SAMPLE_BYTES = 1024 * 1024;
+    // About half of a socket buffer goes to kernel bookkeeping, and a window that limited the last transfer
+    // has to be able to grow for the next one to show it, so buffers get four times the product
+    private static final int BUFFER_BDP_FACTOR = 4;
+    // Enough chunks per round trip that one read or write never stalls the pipe for long
+    private static final int CHUNK_BDP_DIVISOR = 4;
+
+    private final int minChunk;
+    private final int maxChunk;
+    private final int maxBuffer;
+    private final BufferLimit osLimit;
+    // An explicit -Droom.sendBuffer or -Droom.receiveBuffer is left as configured
+    private final boolean fixedSendBuffer = ClientConfig.getSendBufferSize() > 0;
+    private final boolean fixedReceiveBuffer = ClientConfig.getReceiveBufferSize() > 0;
+
+    private final long[] rttSamples = new long[RTT_SAMPLES];
+    private int rttCount;
+    private long rttNanos;
+    // Bytes per second, averaged over recent transfers
+    private double downloadRate;
+    private double uploadRate;
+    // Buffer sizes the path needs but the OS does not allow as a fixed size; 0 if none
+    private int cappedSendBuffer;
+    private int cappedReceiveBuffer;
+
+    private volatile int chunkSize;
+    // 0 leaves the OS default, which autotunes on most systems
+    private volatile int sendBufferSize;
+    private volatile int receiveBufferSize;
+    // Bumped whenever the buffer sizes change, so connections know when to apply them again
+    private volatile int generation;
+
+    public TransferTuner() {
+        this(ClientConfig.getMinChunkSize(), ClientConfig.getMaxChunkSize(), ClientConfig.getMaxSocketBufferSize(),
+                TransferTuner::allowed);
+    }
+
+    TransferTuner(int minChunk, int maxChunk, int maxBuffer, BufferLimit osLimit) {
+        this.minChunk = minChunk;
+        this.maxChunk = maxChunk;
+        this.maxBuffer = maxBuffer;
+        this.osLimit = osLimit;
+        this.chunkSize = minChunk;
+    }
+
+    // Small requests the server answers without any work, whose latency is the round trip
+    static boolean isRoundTripSample(byte command) {
+        return command == Protocol.CMD_PING || command == Protocol.CMD_AUTH || command == Protocol.CMD_MUX;
+    }
+
+    synchronized void recordRtt(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        rttSamples[rttCount++ % RTT_SAMPLES] = nanos;
+        rttNanos = Arrays.stream(rttSamples, 0, Math.min(rttCount, RTT_SAMPLES)).min().orElse(0);
+        retune();
+    }
+
+    synchronized void recordDownload(long bytes, long nanos) {
+        if (bytes >= MIN_SAMPLE_BYTES && nanos > 0) {
+            downloadRate = average(downloadRate, bytes * 1e9 / nanos);
+            retune();
+        }
+    }
+
+    synchronized void recordUpload(long bytes, long nanos) {
+        if (bytes >= MIN_SAMPLE_BYTES && nanos > 0) {
+            uploadRate = average(uploadRate, bytes * 1e9 / nanos);
+            retune();
+        }
+    }
+
+    private static double average(double current, double sample) {
+        return current == 0 ? sample : (current + sample) / 2;
+    }
+
+    private void retune() {
+        if (rttNanos == 0) {
+            return;
+        }
+        double downloadBdp = downloadRate * rttNanos / 1e9;
+        double uploadBdp = uploadRate * rttNanos / 1e9;
+        chunkSize = clamp(powerOfTwo(Math.max(downloadBdp, uploadBdp) / CHUNK_BDP_DIVISOR), minChunk, maxChunk);
+
+        int receive = fixedReceiveBuffer ? 0 : bufferFor(downloadBdp, receiveBufferSize, false);
+        int send = fixedSendBuffer ? 0 : bufferFor(uploadBdp, sendBufferSize, true);
+        if (receive != receiveBufferSize || send != sendBufferSize) {
+            receiveBufferSize = receive;
+            sendBufferSize = send;
+            generation++;
+        }
+    }
+
+    // Sizes only grow: a smaller buffer than the one in use would not make anything faster, and once a path
+    // needed more than the OS allows, the OS keeps it
+    private int bufferFor(double bdp, int current, boolean send) {
+        int size = Math.min(powerOfTwo(bdp * BUFFER_BDP_FACTOR), maxBuffer);
+        if (bdp <= 0 || size <= current || size <= (send ? cappedSendBuffer : cappedReceiveBuffer)) {
+            return current;
+        }
+        // A fixed size above the OS limit gets cut down to that limit, and on Linux it also turns off
+        // autotuning, which may go further. New connections to such paths are left to the OS.
+        int capped = osLimit.allows(size, send) ? 0 : size;
+        if (send) {
+            cappedSendBuffer = capped;
+        } else {
+            cappedReceiveBuffer = capped;
+        }
+        return capped == 0 ? size : 0;
+    }
+
+    // Asks for the size on an unconnected socket, which is cheap and leaves the real ones alone
+    private static boolean allowed(int size, boolean send) {
+        try (Socket probe = new Socket()) {
+            if (send) {
+                probe.setSendBufferSize(size);
+                return probe.getSendBufferSize() >= size;
+            }
+            probe.setReceiveBufferSize(size);
+            return probe.getReceiveBufferSize() >= size;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int powerOfTwo(double value) {
+        if (value >= 1 << 30) {
+            return 1 << 30;
+        }
+        int n = (int) Math.ceil(value);
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // Best effort: sockets that refuse a size keep the one they have. Before connecting, the receive buffer
+    // also sets the window scale the connection can use later.
+    public void apply(Socket socket) {
+        try {
+            int receive = receiveBufferSize;
+            if (receive > 0 && socket.getReceiveBufferSize() < receive) {
+                socket.setReceiveBufferSize(receive);
+            }
+            int send = sendBufferSize;
+            if (send > 0 && socket.getSendBufferSize() < send) {
+                socket.setSendBufferSize(send);
+            }
+        } catch (IOException e) {
+            // Socket closed or option not supported; the transfer works with the sizes it has
+        }
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    public synchronized long getRttNanos() {
+        return rttNanos;
+    }
+
+    public synchronized double getDownloadRate() {
+        return downloadRate;
+    }
+
+    public synchronized double getUploadRate() {
+        return uploadRate;
+    }
+
+    public synchronized int getCappedSendBuffer() {
+        return cappedSendBuffer;
+    }
+
+    public synchronized int getCappedReceiveBuffer() {
+        return cappedReceiveBuffer;
+    }
+
+    // Whether the OS grants a fixed socket buffer of the given size
+    interface BufferLimit {
+        boolean allows(int size, boolean send);
+    }
+}
@@ -0,0 +1,163 @@
+package com.room.protocol.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// One selector thread driving any number of sessions. Other threads only hand it tasks; everything a
+// session keeps between reads and writes is touched by this thread alone. Sessions with queued output
+// are flushed once per iteration, after the selected keys and tasks, so requests submitted together
+// leave in as few writes as possible.
+final class EventLoop {
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final Set<NioSession> sessions = new HashSet<>();
+    private final Set<NioSession> dirty = new LinkedHashSet<>();
+    // Shared by every session of this loop, since a session only needs it while it is being read
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private volatile boolean running = true;
+
+    EventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!running) {
+            // Nothing will pick it up anymore; tasks only fail their requests once the sessions are closed
+            runTasks();
+            return;
+        }
+        if (!inLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    SelectionKey register(NioSession session, int ops) throws IOException {
+        sessions.add(session);
+        return session.getChannel().register(selector, ops, session);
+    }
+
+    void unregister(NioSession session) {
+        sessions.remove(session);
+        dirty.remove(session);
+    }
+
+    void markDirty(NioSession session) {
+        dirty.add(session);
+    }
+
+    // Buffer holding the session's unconsumed input, if any, and room for at least one full read
+    ByteBuffer readBuffer(ByteBuffer leftover) {
+        int needed = (leftover != null ? leftover.remaining() : 0) + READ_BUFFER_SIZE;
+        if (readBuffer.capacity() < needed) {
+            readBuffer = ByteBuffer.allocateDirect(needed).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        readBuffer.clear();
+        if (leftover != null) {
+            readBuffer.put(leftover);
+        }
+        return readBuffer;
+    }
+
+    void close() {
+        running = false;
+        selector.wakeup();
+        if (!inLoop()) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                if (dirty.isEmpty() && tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                wakeupPending.set(false);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioSession session = (NioSession) key.attachment();
+                    try {
+                        session.handle(key);
+                    } catch (IOException e) {
+                        session.fail(e);
+                    } catch (RuntimeException e) {
+                        session.fail(new IOException("Session failed: " + e.getMessage(), e));
+                    }
+                }
+                runTasks();
+                flushSessions();
+            }
+        } catch (IOException e) {
+            System.out.println("NIO event loop stopped: " + e.getMessage());
+        } finally {
+            running = false;
+            for (NioSession session : new HashSet<>(sessions)) {
+                session.fail(new IOException("Client engine closed"));
+            }
+            sessions.clear();
+            runTasks();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // shutting down anyway
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error in NIO event loop task: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void flushSessions() {
+        // A failing session unregisters itself, so iterate over a copy
+        NioSession[] batch = dirty.toArray(new NioSession[0]);
+        dirty.clear();
+        for (NioSession session : batch) {
+            try {
+                session.flush();
+            } catch (IOException e) {
+                session.fail(e);
+            }
+        }
+    }
+}
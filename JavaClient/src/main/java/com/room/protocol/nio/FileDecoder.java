@@ -0,0 +1,152 @@
+package com.room.protocol.nio;
+
+import com.room.compress.BlockCompressor;
+import com.room.compress.BlockDecompressor;
+import com.room.metrics.ClientMetrics;
+import com.room.protocol.DownloadSink;
+import com.room.protocol.PartialDownload;
+import com.room.protocol.ResponseException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// GETFILE, GETRANGE and GETCOMPRESSED responses. Raw payload bytes go from the read buffer straight to the
+// .part file; compressed blocks are collected in the decompressor's input until complete.
+final class FileDecoder implements FrameDecoder<Long> {
+    private final String filename;
+    private final PartialDownload download;
+    private final boolean ranged;
+    private final boolean compressed;
+    private final ClientMetrics metrics = ClientMetrics.get();
+
+    private long size = Long.MIN_VALUE;
+    private DownloadSink sink;
+    private long transferStart;
+    private long payloadStart;
+    private BlockDecompressor decompressor;
+    private long encodedBytes;
+    // Header of the block being collected; codec is -1 between blocks
+    private int codec = -1;
+    private int rawLength;
+    private int encodedLength;
+    private int collected;
+
+    FileDecoder(String filename, PartialDownload download, boolean ranged, boolean compressed) {
+        this.filename = filename;
+        this.download = download;
+        this.ranged = ranged;
+        this.compressed = compressed;
+    }
+
+    @Override
+    public boolean decode(ByteBuffer in) throws IOException {
+        if (sink == null && !readHeader(in)) {
+            return false;
+        }
+        if (compressed) {
+            while (sink.getRemaining() > 0) {
+                if (!readBlock(in)) {
+                    return false;
+                }
+            }
+        } else if (sink.getRemaining() > 0) {
+            int n = (int) Math.min(in.remaining(), sink.getRemaining());
+            sink.write(in.slice(in.position(), n));
+            in.position(in.position() + n);
+            if (sink.getRemaining() > 0) {
+                return false;
+            }
+        }
+        finish();
+        return true;
+    }
+
+    @Override
+    public Long result() {
+        return size;
+    }
+
+    @Override
+    public void abort(IOException cause) {
+        if (sink != null) {
+            sink.checkpointAfterFailure(cause);
+        }
+        releaseDecompressor();
+    }
+
+    private boolean readHeader(ByteBuffer in) throws IOException {
+        if (size == Long.MIN_VALUE) {
+            if (in.remaining() < 8) {
+                return false;
+            }
+            size = in.getLong();
+            if (size < 0) {
+                throw new ResponseException("File not found on server: " + filename);
+            }
+        }
+        long version = -1;
+        long start = 0;
+        if (ranged) {
+            // The server says which version it is sending and where the range starts: the requested offset,
+            // or 0 if its copy has changed
+            if (in.remaining() < 16) {
+                return false;
+            }
+            version = in.getLong();
+            start = in.getLong();
+            if (start < 0 || start > size) {
+                throw new IOException("Invalid range start " + start + " for " + filename + " of " + size + " bytes");
+            }
+        }
+        sink = new DownloadSink(download, size, version, start);
+        payloadStart = start;
+        transferStart = System.nanoTime();
+        if (compressed) {
+            decompressor = BlockDecompressor.acquire();
+        }
+        return true;
+    }
+
+    private boolean readBlock(ByteBuffer in) throws IOException {
+        if (codec < 0) {
+            if (in.remaining() < BlockCompressor.HEADER_SIZE) {
+                return false;
+            }
+            int blockCodec = in.get() & 0xFF;
+            rawLength = in.getInt();
+            encodedLength = in.getInt();
+            BlockDecompressor.checkHeader(blockCodec, rawLength, encodedLength);
+            if (rawLength > sink.getRemaining()) {
+                throw new IOException("Compressed block runs past the end of the file");
+            }
+            codec = blockCodec;
+            collected = 0;
+        }
+        int n = Math.min(in.remaining(), encodedLength - collected);
+        in.get(decompressor.input(), collected, n);
+        collected += n;
+        if (collected < encodedLength) {
+            return false;
+        }
+        sink.write(decompressor.decode(codec, rawLength, encodedLength));
+        encodedBytes += BlockCompressor.HEADER_SIZE + encodedLength;
+        codec = -1;
+        return true;
+    }
+
+    private void finish() throws ResponseException {
+        if (compressed) {
+            metrics.recordCompression(size - payloadStart, encodedBytes);
+            releaseDecompressor();
+        }
+        metrics.recordDownload(size - payloadStart, System.nanoTime() - transferStart);
+        sink.finish(filename);
+    }
+
+    private void releaseDecompressor() {
+        if (decompressor != null) {
+            decompressor.release();
+            decompressor = null;
+        }
+    }
+}
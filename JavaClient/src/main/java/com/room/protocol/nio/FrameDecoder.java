@@ -0,0 +1,17 @@
+package com.room.protocol.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Incremental decoder for one response. decode() consumes what it can from a little-endian buffer and
+// returns true once the whole response has been read. A ResponseException means the response was consumed
+// and only this request failed; any other exception leaves the stream mid-frame and ends the session.
+interface FrameDecoder<T> {
+    boolean decode(ByteBuffer in) throws IOException;
+
+    T result();
+
+    // The session ended before the response was complete
+    default void abort(IOException cause) {
+    }
+}
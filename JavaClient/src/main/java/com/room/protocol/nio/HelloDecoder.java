@@ -0,0 +1,29 @@
+package com.room.protocol.nio;
+
+import com.room.protocol.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Echoed command byte followed by the server's capability bits
+final class HelloDecoder implements FrameDecoder<Integer> {
+    private Integer capabilities;
+
+    @Override
+    public boolean decode(ByteBuffer in) throws IOException {
+        if (in.remaining() < 5) {
+            return false;
+        }
+        int echo = in.get() & 0xFF;
+        if (echo != Protocol.CMD_HELLO) {
+            throw new IOException("Unexpected HELLO response: " + echo);
+        }
+        capabilities = in.getInt();
+        return true;
+    }
+
+    @Override
+    public Integer result() {
+        return capabilities;
+    }
+}
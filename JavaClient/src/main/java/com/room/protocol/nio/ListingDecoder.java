@@ -0,0 +1,74 @@
+package com.room.protocol.nio;
+
+import com.room.protocol.ListingVisitor;
+import com.room.protocol.ResponseException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Names are handed to the visitor one at a time as they become complete, so a large listing is never
+// buffered whole. After a visitor failure the remaining names are skipped undecoded.
+final class ListingDecoder implements FrameDecoder<Integer> {
+    static final int MAX_NAME_LENGTH = 1024 * 1024;
+
+    private final ListingVisitor visitor;
+    private int count = -1;
+    private int decoded;
+    private Exception visitorError;
+
+    ListingDecoder(ListingVisitor visitor) {
+        this.visitor = visitor;
+    }
+
+    @Override
+    public boolean decode(ByteBuffer in) throws IOException {
+        if (count < 0) {
+            if (in.remaining() < 4) {
+                return false;
+            }
+            count = in.getInt();
+            if (count < 0) {
+                throw new IOException("Invalid file count: " + count);
+            }
+        }
+        while (decoded < count) {
+            if (in.remaining() < 4) {
+                return false;
+            }
+            int len = in.getInt(in.position());
+            if (len < 0 || len > MAX_NAME_LENGTH) {
+                throw new IOException("Invalid file name length: " + len);
+            }
+            if (in.remaining() - 4 < len) {
+                return false;
+            }
+            in.position(in.position() + 4);
+            decoded++;
+            if (visitorError != null) {
+                in.position(in.position() + len);
+                continue;
+            }
+            try {
+                visitor.visit(readString(in, len));
+            } catch (IOException | RuntimeException e) {
+                visitorError = e;
+            }
+        }
+        if (visitorError != null) {
+            throw new ResponseException("Listing aborted: " + visitorError.getMessage(), visitorError);
+        }
+        return true;
+    }
+
+    @Override
+    public Integer result() {
+        return count;
+    }
+
+    static String readString(ByteBuffer in, int len) {
+        String value = StandardCharsets.UTF_8.decode(in.slice(in.position(), len)).toString();
+        in.position(in.position() + len);
+        return value;
+    }
+}
@@ -0,0 +1,131 @@
+package com.room.protocol.nio;
+
+import com.room.concurrent.BackgroundExecutor;
+import com.room.config.ClientConfig;
+import com.room.protocol.Protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking alternative to ProtocolClient for processes that keep many sessions open, e.g. to push
+// or mirror files across servers. A few event loops, one selector thread each, drive every session;
+// a session costs its socket and a few small queues rather than a reader thread and stream buffers.
+public class NioClientEngine implements Closeable {
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+    private static final long HELLO_TIMEOUT_MS = 5000;
+
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    // Probed once per server, as in ConnectionFactory; failed probes are not cached
+    private final Map<InetSocketAddress, CompletableFuture<Integer>> capabilities = new ConcurrentHashMap<>();
+
+    public NioClientEngine() throws IOException {
+        this(Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public NioClientEngine(int threads) throws IOException {
+        loops = new EventLoop[Math.max(1, threads)];
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop("nio-client-" + (i + 1));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Opens a session with the extensions the server supports, like ConnectionFactory.connect()
+    public CompletableFuture<NioSession> connect(String host, int port) {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        return getServerCapabilities(address).thenCompose(serverCapabilities -> {
+            int enabled = serverCapabilities;
+            if (!ClientConfig.isCompressionEnabled()) {
+                enabled &= ~Protocol.CAP_COMPRESS;
+            }
+            int sessionCapabilities = enabled;
+            return open(address).thenApply(session -> {
+                session.setServerCapabilities(sessionCapabilities);
+                return session;
+            });
+        });
+    }
+
+    // A server without HELLO drops the session that sent it, so the probe gets a session of its own
+    public CompletableFuture<Integer> getServerCapabilities(InetSocketAddress address) {
+        CompletableFuture<Integer> probe = capabilities.computeIfAbsent(address, a -> open(a).thenCompose(session ->
+                session.hello(Protocol.CLIENT_CAPABILITIES)
+                        .orTimeout(HELLO_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                        .handle((caps, e) -> {
+                            session.close();
+                            // Older server without HELLO: plain protocol only. Sessions here stay on the
+                            // plain protocol anyway; more of them is how this engine avoids head-of-line waits
+                            return e == null ? caps & Protocol.CLIENT_CAPABILITIES & ~Protocol.CAP_MUX : 0;
+                        })));
+        // Not reachable right now; ask again next time
+        probe.whenComplete((caps, e) -> {
+            if (e != null) {
+                capabilities.remove(address, probe);
+            }
+        });
+        return probe;
+    }
+
+    // Plain session with no extensions enabled
+    public CompletableFuture<NioSession> open(InetSocketAddress address) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+                configure(channel.socket());
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        NioSession session = new NioSession(nextLoop(), channel);
+        CompletableFuture<NioSession> connected = session.connect(address);
+        ScheduledFuture<?> timeout = BackgroundExecutor.schedule(session::close, CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        connected.whenComplete((s, e) -> timeout.cancel(false));
+        return connected.exceptionallyCompose(e -> CompletableFuture.failedFuture(
+                new IOException("Could not connect to " + address + ": " + e.getMessage(), e)));
+    }
+
+    @Override
+    public void close() {
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.close();
+            }
+        }
+    }
+
+    private EventLoop nextLoop() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
+    // Same socket options as ConnectionFactory; set before connecting so the receive buffer size is
+    // taken into account for TCP window scaling
+    private static void configure(Socket socket) throws IOException {
+        socket.setTcpNoDelay(ClientConfig.isTcpNoDelay());
+        if (ClientConfig.getSendBufferSize() > 0) {
+            socket.setSendBufferSize(ClientConfig.getSendBufferSize());
+        }
+        if (ClientConfig.getReceiveBufferSize() > 0) {
+            socket.setReceiveBufferSize(ClientConfig.getReceiveBufferSize());
+        }
+    }
+}
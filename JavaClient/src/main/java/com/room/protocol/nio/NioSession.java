@@ -0,0 +1,516 @@
+package com.room.protocol.nio;
+
+import com.room.compress.BlockCompressor;
+import com.room.concurrent.SerialExecutor;
+import com.room.delta.DeltaOp;
+import com.room.delta.DeltaPlan;
+import com.room.delta.Signature;
+import com.room.metrics.ClientMetrics;
+import com.room.protocol.ListingVisitor;
+import com.room.protocol.PartialDownload;
+import com.room.protocol.Protocol;
+import com.room.protocol.ResponseException;
+import com.room.protocol.nio.OutboundItem.BufferItem;
+import com.room.protocol.nio.OutboundItem.CompressedFileItem;
+import com.room.protocol.nio.OutboundItem.FileItem;
+import com.room.protocol.nio.OutboundItem.Marker;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// One server connection driven by an EventLoop. The methods can be called from any thread and never block;
+// their futures complete on the loop thread, so dependent stages that do real work should use the async
+// variants instead of running there. Responses are matched to requests in order, as in ProtocolClient.
+//
+// Output is queued and written as the socket accepts it. Once more than HIGH_WATER_MARK bytes are queued,
+// isWritable() turns false and whenWritable() completes when the queue has drained below LOW_WATER_MARK;
+// callers that keep submitting regardless only cost memory for the request headers, since file payloads
+// are read from disk as they are written.
+public final class NioSession implements Closeable {
+    public static final long HIGH_WATER_MARK = 1024 * 1024;
+    public static final long LOW_WATER_MARK = 256 * 1024;
+    private static final int MAX_NOTIFICATION_NAME_LENGTH = 1024 * 1024;
+    private static final int MAX_GATHERED_BUFFERS = 64;
+
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final CompletableFuture<NioSession> connected = new CompletableFuture<>();
+    private final ClientMetrics metrics = ClientMetrics.get();
+    private final SerialExecutor notificationDispatcher = new SerialExecutor();
+    // Counted when a request is submitted, so backpressure is visible before the loop picks it up
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final Object writableLock = new Object();
+    private CompletableFuture<Void> writable;
+    private volatile IOException failure;
+    private volatile int serverCapabilities;
+    private volatile Consumer<String> onFileUploaded;
+
+    // Loop thread only
+    private SelectionKey key;
+    private final ArrayDeque<PendingRequest<?>> pending = new ArrayDeque<>();
+    private final ArrayDeque<OutboundItem> outbound = new ArrayDeque<>();
+    private PendingRequest<?> current;
+    // Unconsumed input from the last read; usually a partial header, never a file payload
+    private ByteBuffer leftover;
+
+    NioSession(EventLoop loop, SocketChannel channel) {
+        this.loop = loop;
+        this.channel = channel;
+    }
+
+    public CompletableFuture<Void> auth(String user, String pass) {
+        return submit(new Request(Protocol.CMD_AUTH)
+                .putString(user)
+                .putString(pass), ResponseStart.STATUS, new StatusDecoder<>(status -> {
+            if (status != 1) {
+                throw new ResponseException("Authentication failed");
+            }
+            return null;
+        }));
+    }
+
+    public CompletableFuture<List<String>> listFiles() {
+        List<String> files = new ArrayList<>();
+        return listFiles(files::add).thenApply(count -> files);
+    }
+
+    // Streams the listing through the visitor, on the loop thread; completes with the number of names
+    public CompletableFuture<Integer> listFiles(ListingVisitor visitor) {
+        return submit(new Request(Protocol.CMD_LISTFILES), ResponseStart.LISTING, new ListingDecoder(visitor));
+    }
+
+    // Same request selection as ProtocolClient: a compressed or plain range when the server supports it,
+    // resuming from the .part file of an earlier attempt
+    public CompletableFuture<Long> downloadFile(String filename, Path target) {
+        PartialDownload download = new PartialDownload(target.toString());
+        int capabilities = serverCapabilities;
+        if ((capabilities & (Protocol.CAP_RANGE | Protocol.CAP_COMPRESS)) == 0) {
+            return submit(new Request(Protocol.CMD_GETFILE)
+                    .putString(filename), ResponseStart.FILE, new FileDecoder(filename, download, false, false));
+        }
+        PartialDownload.ResumeState resume = download.loadResumeState();
+        boolean compressed = (capabilities & Protocol.CAP_COMPRESS) != 0;
+        return submit(new Request(compressed ? Protocol.CMD_GETCOMPRESSED : Protocol.CMD_GETRANGE)
+                .putString(filename)
+                .putLong(resume != null ? resume.offset() : 0)
+                .putLong(resume != null ? resume.size() : -1)
+                .putLong(resume != null ? resume.version() : -1), ResponseStart.FILE,
+                new FileDecoder(filename, download, true, compressed));
+    }
+
+    // PUTFILE has no response: the future completes once the whole file is on the wire
+    public CompletableFuture<Void> uploadFile(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return CompletableFuture.failedFuture(new IOException("File not found: " + file));
+        }
+        FileChannel source;
+        long size;
+        boolean compressed;
+        try {
+            source = FileChannel.open(file, StandardOpenOption.READ);
+            size = source.size();
+            // Like ProtocolClient, incompressible files are sent raw so they keep the zero-copy path
+            compressed = (serverCapabilities & Protocol.CAP_COMPRESS) != 0 && size >= BlockCompressor.MIN_PAYLOAD_SIZE
+                    && BlockCompressor.sampleCompresses(source, size);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        byte command = compressed ? Protocol.CMD_PUTCOMPRESSED : Protocol.CMD_PUTFILE;
+        CompressedFileItem blocks = compressed ? new CompressedFileItem(source, size) : null;
+        OutboundItem payload = compressed ? blocks : new FileItem(source, 0, size, true);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        long start = System.nanoTime();
+        Marker marker = new Marker(() -> {
+            long elapsed = System.nanoTime() - start;
+            metrics.recordRequest(command, elapsed);
+            metrics.recordUpload(size, elapsed);
+            if (blocks != null) {
+                metrics.recordCompression(blocks.getRawBytes(), blocks.getEncodedBytes());
+            }
+            done.complete(null);
+        }, cause -> {
+            metrics.recordError(command);
+            done.completeExceptionally(cause);
+        });
+        enqueue(null, new BufferItem(new Request(command)
+                .putString(file.getFileName().toString())
+                .putLong(size)
+                .build()), payload, marker);
+        return done;
+    }
+
+    // Returns the server's capability bits. Servers without HELLO drop the session, which fails the future
+    public CompletableFuture<Integer> hello(int capabilities) {
+        return submit(new Request(Protocol.CMD_HELLO).putInt(capabilities), ResponseStart.STATUS, new HelloDecoder());
+    }
+
+    // Chunk list of the server's copy of a file, or null if the server does not have it. Requires CAP_DELTA.
+    public CompletableFuture<Signature> getSignature(String filename) {
+        return submit(new Request(Protocol.CMD_GETSIGNATURE).putString(filename), ResponseStart.FILE, new SignatureDecoder());
+    }
+
+    // Literal ranges are sent straight from the file. Completes with false if the server rejected the plan.
+    // Requires CAP_DELTA.
+    public CompletableFuture<Boolean> uploadDelta(Path file, DeltaPlan plan) {
+        FileChannel source;
+        try {
+            source = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // Op headers between two literals go out as one buffer
+        List<OutboundItem> items = new ArrayList<>();
+        Request headers = new Request(Protocol.CMD_PUTDELTA)
+                .putString(file.getFileName().toString())
+                .putLong(plan.getBaseSize())
+                .putLong(plan.getSize())
+                .putBytes(plan.getContentHash())
+                .putInt(plan.getOps().size());
+        for (DeltaOp op : plan.getOps()) {
+            if (op.copy()) {
+                headers.putByte(DeltaOp.TYPE_COPY).putLong(op.offset()).putLong(op.length());
+                continue;
+            }
+            headers.putByte(DeltaOp.TYPE_LITERAL).putLong(op.length());
+            items.add(new BufferItem(headers.build()));
+            items.add(new FileItem(source, op.offset(), op.length(), false));
+            headers = new Request();
+        }
+        if (!headers.isEmpty()) {
+            items.add(new BufferItem(headers.build()));
+        }
+        items.add(new Marker(() -> Marker.closeQuietly(source), cause -> Marker.closeQuietly(source)));
+
+        long start = System.nanoTime();
+        PendingRequest<Boolean> request = new PendingRequest<>(Protocol.CMD_PUTDELTA, ResponseStart.STATUS, new StatusDecoder<>(status -> {
+            metrics.recordUpload(plan.getLiteralBytes(), System.nanoTime() - start);
+            return status == 1;
+        }));
+        enqueue(request, items.toArray(new OutboundItem[0]));
+        return request.future;
+    }
+
+    public CompletableFuture<Boolean> ping() {
+        return submit(new Request(Protocol.CMD_PING), ResponseStart.STATUS, new StatusDecoder<>(status -> status == 1));
+    }
+
+    public void setServerCapabilities(int serverCapabilities) {
+        this.serverCapabilities = serverCapabilities;
+    }
+
+    public int getServerCapabilities() {
+        return serverCapabilities;
+    }
+
+    // Called in order on a background thread, never on the loop thread
+    public void setOnFileUploaded(Consumer<String> callback) {
+        this.onFileUploaded = callback;
+    }
+
+    public boolean isWritable() {
+        return queuedBytes.get() < HIGH_WATER_MARK;
+    }
+
+    public CompletableFuture<Void> whenWritable() {
+        synchronized (writableLock) {
+            IOException cause = failure;
+            if (cause != null) {
+                return CompletableFuture.failedFuture(cause);
+            }
+            if (isWritable()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (writable == null) {
+                writable = new CompletableFuture<>();
+            }
+            return writable;
+        }
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public boolean isOpen() {
+        return failure == null;
+    }
+
+    // Outstanding requests fail; a download in progress keeps its .part file for a later resume
+    @Override
+    public void close() {
+        loop.execute(() -> fail(new IOException("Connection closed by client")));
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    CompletableFuture<NioSession> connect(InetSocketAddress address) {
+        loop.execute(() -> {
+            if (failure != null) {
+                return;
+            }
+            try {
+                boolean done = channel.connect(address);
+                key = loop.register(this, done ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT);
+                if (done) {
+                    connected.complete(this);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        return connected;
+    }
+
+    // Loop thread: one selected key
+    void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isConnectable()) {
+            channel.finishConnect();
+            key.interestOps(SelectionKey.OP_READ);
+            connected.complete(this);
+            loop.markDirty(this);
+            return;
+        }
+        if (key.isWritable()) {
+            loop.markDirty(this);
+        }
+        if (key.isReadable()) {
+            read();
+        }
+    }
+
+    // Loop thread: writes as much of the queue as the socket takes
+    void flush() throws IOException {
+        if (failure != null || key == null || !connected.isDone()) {
+            return;
+        }
+        while (!outbound.isEmpty()) {
+            OutboundItem item = outbound.peek();
+            if (item instanceof BufferItem) {
+                if (!writeBuffers()) {
+                    break;
+                }
+                continue;
+            }
+            long before = item.remaining();
+            metrics.recordBytesOut(item.writeTo(channel));
+            queuedBytes.addAndGet(item.remaining() - before);
+            if (item.remaining() > 0) {
+                break;
+            }
+            outbound.poll();
+            item.written();
+        }
+        key.interestOps(outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        if (queuedBytes.get() <= LOW_WATER_MARK) {
+            signalWritable(null);
+        }
+    }
+
+    // Loop thread. Idempotent; requests submitted afterwards fail as soon as the loop sees them.
+    void fail(IOException cause) {
+        if (failure != null) {
+            return;
+        }
+        failure = cause;
+        loop.unregister(this);
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already failing
+        }
+        connected.completeExceptionally(cause);
+        if (current != null) {
+            current.fail(cause);
+            current = null;
+        }
+        PendingRequest<?> request;
+        while ((request = pending.poll()) != null) {
+            request.fail(cause);
+        }
+        OutboundItem item;
+        while ((item = outbound.poll()) != null) {
+            queuedBytes.addAndGet(-item.remaining());
+            item.discard(cause);
+        }
+        leftover = null;
+        notificationDispatcher.shutdown();
+        signalWritable(cause);
+    }
+
+    private <T> CompletableFuture<T> submit(Request frame, ResponseStart responseStart, FrameDecoder<T> decoder) {
+        ByteBuffer data = frame.build();
+        PendingRequest<T> request = new PendingRequest<>(data.get(0), responseStart, decoder);
+        enqueue(request, new BufferItem(data));
+        return request.future;
+    }
+
+    // The pending entry and the request bytes are queued by the same loop task, so the pending order
+    // always matches the wire order
+    private void enqueue(PendingRequest<?> request, OutboundItem... items) {
+        long bytes = 0;
+        for (OutboundItem item : items) {
+            bytes += item.remaining();
+        }
+        long queued = bytes;
+        queuedBytes.addAndGet(queued);
+        loop.execute(() -> {
+            IOException cause = failure;
+            if (cause != null) {
+                IOException closed = new IOException("Connection is closed: " + cause.getMessage(), cause);
+                queuedBytes.addAndGet(-queued);
+                for (OutboundItem item : items) {
+                    item.discard(closed);
+                }
+                if (request != null) {
+                    request.fail(closed);
+                }
+                return;
+            }
+            if (request != null) {
+                pending.add(request);
+            }
+            outbound.addAll(Arrays.asList(items));
+            loop.markDirty(this);
+        });
+    }
+
+    // Consecutive buffers go out in one gathering write
+    private boolean writeBuffers() throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[Math.min(outbound.size(), MAX_GATHERED_BUFFERS)];
+        int count = 0;
+        for (OutboundItem item : outbound) {
+            if (!(item instanceof BufferItem) || count == buffers.length) {
+                break;
+            }
+            buffers[count++] = ((BufferItem) item).data;
+        }
+        long written = channel.write(buffers, 0, count);
+        metrics.recordBytesOut(written);
+        queuedBytes.addAndGet(-written);
+        for (int i = 0; i < count && !buffers[i].hasRemaining(); i++) {
+            outbound.poll();
+        }
+        return !buffers[count - 1].hasRemaining();
+    }
+
+    private void signalWritable(IOException cause) {
+        CompletableFuture<Void> waiting;
+        synchronized (writableLock) {
+            waiting = writable;
+            writable = null;
+        }
+        if (waiting == null) {
+            return;
+        }
+        if (cause != null) {
+            waiting.completeExceptionally(cause);
+        } else {
+            waiting.complete(null);
+        }
+    }
+
+    private void read() throws IOException {
+        ByteBuffer in = loop.readBuffer(leftover);
+        leftover = null;
+        int n = channel.read(in);
+        in.flip();
+        if (n > 0) {
+            metrics.recordBytesIn(n);
+        }
+        process(in);
+        if (in.hasRemaining()) {
+            leftover = ByteBuffer.allocate(in.remaining()).order(ByteOrder.LITTLE_ENDIAN).put(in).flip();
+        }
+        if (n == -1) {
+            throw new EOFException("Connection closed by server");
+        }
+    }
+
+    // Every frame is either a push or the head pending response; stops when the buffer ends mid-frame
+    private void process(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            if (current == null) {
+                int first = in.get(in.position());
+                PendingRequest<?> head = pending.peek();
+                if (first == Protocol.CMD_FILE_UPLOADED) {
+                    int push = head == null ? ResponseStart.YES : head.responseStart.probe(in);
+                    if (push == ResponseStart.MORE) {
+                        return;
+                    }
+                    if (push == ResponseStart.YES) {
+                        if (!readNotification(in)) {
+                            return;
+                        }
+                        continue;
+                    }
+                }
+                if (head == null) {
+                    throw new IOException("Unexpected data from server: " + first);
+                }
+                current = pending.poll();
+            }
+            if (!current.decode(in)) {
+                return;
+            }
+            current = null;
+        }
+    }
+
+    private boolean readNotification(ByteBuffer in) throws IOException {
+        if (in.remaining() < 5) {
+            return false;
+        }
+        int nameLen = in.getInt(in.position() + 1);
+        if (nameLen < 0 || nameLen > MAX_NOTIFICATION_NAME_LENGTH) {
+            throw new IOException("Invalid notification name length: " + nameLen);
+        }
+        if (in.remaining() - 5 < nameLen) {
+            return false;
+        }
+        in.position(in.position() + 5);
+        String fileName = ListingDecoder.readString(in, nameLen);
+        long receivedAt = System.nanoTime();
+
+        Consumer<String> callback = onFileUploaded;
+        if (callback == null) {
+            return true;
+        }
+        notificationDispatcher.execute(() -> {
+            metrics.recordNotification(System.nanoTime() - receivedAt);
+            try {
+                callback.accept(fileName);
+            } catch (Exception e) {
+                System.err.println("Error in notification callback: " + e.getMessage());
+                e.printStackTrace();
+            }
+        });
+        return true;
+    }
+}
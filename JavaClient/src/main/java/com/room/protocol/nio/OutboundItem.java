@@ -0,0 +1,210 @@
+package com.room.protocol.nio;
+
+import com.room.compress.BlockCompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+// One entry of a session's write queue. remaining() is what still counts against the session's
+// high-water mark; for compressed payloads that is raw bytes, not bytes on the wire.
+abstract class OutboundItem {
+    abstract long remaining();
+
+    // Returns the bytes put on the wire
+    abstract long writeTo(SocketChannel channel) throws IOException;
+
+    // Called once the item has been written completely
+    void written() {
+    }
+
+    // Called instead of written() if the session closed first
+    void discard(IOException cause) {
+    }
+
+    static final class BufferItem extends OutboundItem {
+        final ByteBuffer data;
+
+        BufferItem(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        long remaining() {
+            return data.remaining();
+        }
+
+        @Override
+        long writeTo(SocketChannel channel) throws IOException {
+            return channel.write(data);
+        }
+    }
+
+    // Zero-copy file region; the channel is closed with the item unless it is shared with other items
+    static final class FileItem extends OutboundItem {
+        private final FileChannel file;
+        private final long end;
+        private final boolean closeFile;
+        private long position;
+
+        FileItem(FileChannel file, long position, long count, boolean closeFile) {
+            this.file = file;
+            this.position = position;
+            this.end = position + count;
+            this.closeFile = closeFile;
+        }
+
+        @Override
+        long remaining() {
+            return end - position;
+        }
+
+        @Override
+        long writeTo(SocketChannel channel) throws IOException {
+            long sent = file.transferTo(position, end - position, channel);
+            if (sent == 0 && file.size() <= position) {
+                throw new IOException("File shrank during upload");
+            }
+            position += sent;
+            return sent;
+        }
+
+        @Override
+        void written() {
+            close();
+        }
+
+        @Override
+        void discard(IOException cause) {
+            close();
+        }
+
+        private void close() {
+            if (closeFile) {
+                Marker.closeQuietly(file);
+            }
+        }
+    }
+
+    // A whole file as BlockCompressor blocks, encoded one block at a time as the socket drains
+    static final class CompressedFileItem extends OutboundItem {
+        private final FileChannel file;
+        private final long size;
+        private final BlockCompressor compressor = BlockCompressor.acquire();
+        private final ByteBuffer block = ByteBuffer.wrap(compressor.input());
+        private final ByteBuffer frame = ByteBuffer.wrap(compressor.frame());
+        private long position;
+        private long blockStart;
+        private boolean released;
+
+        CompressedFileItem(FileChannel file, long size) {
+            this.file = file;
+            this.size = size;
+            frame.limit(0);
+        }
+
+        // Raw bytes of the blocks that are not completely on the wire yet
+        @Override
+        long remaining() {
+            return frame.hasRemaining() ? size - blockStart : size - position;
+        }
+
+        @Override
+        long writeTo(SocketChannel channel) throws IOException {
+            long written = 0;
+            while (true) {
+                if (!frame.hasRemaining()) {
+                    if (position >= size) {
+                        return written;
+                    }
+                    encodeNextBlock();
+                }
+                int n = channel.write(frame);
+                written += n;
+                if (frame.hasRemaining()) {
+                    return written;
+                }
+            }
+        }
+
+        long getRawBytes() {
+            return compressor.getRawBytes();
+        }
+
+        long getEncodedBytes() {
+            return compressor.getEncodedBytes();
+        }
+
+        @Override
+        void written() {
+            release();
+        }
+
+        @Override
+        void discard(IOException cause) {
+            release();
+        }
+
+        private void encodeNextBlock() throws IOException {
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), size - position));
+            while (block.hasRemaining()) {
+                if (file.read(block, position + block.position()) == -1) {
+                    throw new IOException("File shrank during upload");
+                }
+            }
+            blockStart = position;
+            position += block.limit();
+            frame.clear();
+            frame.limit(compressor.encode(block.limit()));
+        }
+
+        private void release() {
+            if (!released) {
+                released = true;
+                Marker.closeQuietly(file);
+                compressor.release();
+            }
+        }
+    }
+
+    // Writes nothing; tells the caller when everything queued before it has been written
+    static final class Marker extends OutboundItem {
+        private final Runnable onWritten;
+        private final java.util.function.Consumer<IOException> onDiscard;
+
+        Marker(Runnable onWritten, java.util.function.Consumer<IOException> onDiscard) {
+            this.onWritten = onWritten;
+            this.onDiscard = onDiscard;
+        }
+
+        @Override
+        long remaining() {
+            return 0;
+        }
+
+        @Override
+        long writeTo(SocketChannel channel) {
+            return 0;
+        }
+
+        @Override
+        void written() {
+            onWritten.run();
+        }
+
+        @Override
+        void discard(IOException cause) {
+            onDiscard.accept(cause);
+        }
+
+        static void closeQuietly(FileChannel file) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.room.protocol.nio;
+
+import com.room.metrics.ClientMetrics;
+import com.room.protocol.ResponseException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+// A request whose response has not been read yet. Only touched by its session's loop thread.
+final class PendingRequest<T> {
+    final byte command;
+    final ResponseStart responseStart;
+    final FrameDecoder<T> decoder;
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    private final long startNanos = System.nanoTime();
+    private final ClientMetrics metrics = ClientMetrics.get();
+
+    PendingRequest(byte command, ResponseStart responseStart, FrameDecoder<T> decoder) {
+        this.command = command;
+        this.responseStart = responseStart;
+        this.decoder = decoder;
+    }
+
+    // Returns true once the response has been consumed; a ResponseException fails only this request
+    boolean decode(ByteBuffer in) throws IOException {
+        boolean done;
+        try {
+            done = decoder.decode(in);
+        } catch (ResponseException e) {
+            metrics.recordError(command);
+            future.completeExceptionally(e);
+            return true;
+        }
+        if (done) {
+            metrics.recordRequest(command, System.nanoTime() - startNanos);
+            future.complete(decoder.result());
+        }
+        return done;
+    }
+
+    void fail(IOException cause) {
+        metrics.recordError(command);
+        decoder.abort(cause);
+        future.completeExceptionally(cause);
+    }
+}
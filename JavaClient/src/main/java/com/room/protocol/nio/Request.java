@@ -0,0 +1,64 @@
+package com.room.protocol.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// Encodes a request frame, or a run of payload headers, into a buffer of its own so it can be built on
+// any thread and queued
+final class Request {
+    private ByteBuffer buf = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+
+    Request() {
+    }
+
+    Request(byte command) {
+        putByte(command);
+    }
+
+    Request putByte(byte value) {
+        ensure(1);
+        buf.put(value);
+        return this;
+    }
+
+    Request putInt(int value) {
+        ensure(4);
+        buf.putInt(value);
+        return this;
+    }
+
+    Request putLong(long value) {
+        ensure(8);
+        buf.putLong(value);
+        return this;
+    }
+
+    Request putBytes(byte[] value) {
+        ensure(value.length);
+        buf.put(value);
+        return this;
+    }
+
+    Request putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        return putBytes(bytes);
+    }
+
+    boolean isEmpty() {
+        return buf.position() == 0;
+    }
+
+    ByteBuffer build() {
+        return buf.flip();
+    }
+
+    private void ensure(int n) {
+        if (buf.remaining() < n) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n)).order(ByteOrder.LITTLE_ENDIAN);
+            grown.put(buf.flip());
+            buf = grown;
+        }
+    }
+}
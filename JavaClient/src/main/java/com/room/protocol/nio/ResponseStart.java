@@ -0,0 +1,89 @@
+package com.room.protocol.nio;
+
+import com.room.protocol.Protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Same heuristics as ProtocolClient, over a buffer that may end anywhere: a push is a short valid file name,
+// followed either by another push or by something that can start the pending response. Status responses
+// never start with the push command byte.
+enum ResponseStart {
+    STATUS, LISTING, FILE;
+
+    static final int NO = 0;
+    static final int YES = 1;
+    static final int MORE = 2;
+
+    private static final int MAX_PROBED_NAME_LENGTH = 4096;
+    private static final int NEED_MORE = -2;
+
+    // Whether the CMD_FILE_UPLOADED byte at the buffer's position starts a push rather than this response;
+    // MORE if the buffer ends before that can be told
+    int probe(ByteBuffer in) {
+        if (this == STATUS) {
+            return YES;
+        }
+        int next = skipNotification(in, in.position());
+        if (next < 0) {
+            return next == NEED_MORE ? MORE : NO;
+        }
+        if (next >= in.limit()) {
+            return MORE;
+        }
+        if (in.get(next) == Protocol.CMD_FILE_UPLOADED) {
+            int after = skipNotification(in, next);
+            if (after == NEED_MORE) {
+                return MORE;
+            }
+            if (after >= 0) {
+                return YES;
+            }
+        }
+        return isPlausible(in, next);
+    }
+
+    private int isPlausible(ByteBuffer in, int at) {
+        if (this == FILE) {
+            if (in.limit() - at < 8) {
+                return MORE;
+            }
+            long size = in.getLong(at);
+            return size == -1 || (size >= 0 && size < 1L << 48) ? YES : NO;
+        }
+        if (in.limit() - at < 4) {
+            return MORE;
+        }
+        int count = in.getInt(at);
+        if (count < 0 || count > 0xFFFFFF) {
+            return NO;
+        }
+        if (count == 0) {
+            return YES;
+        }
+        if (in.limit() - at < 8) {
+            return MORE;
+        }
+        int len = in.getInt(at + 4);
+        return len > 0 && len <= MAX_PROBED_NAME_LENGTH ? YES : NO;
+    }
+
+    // Position after a plausible push starting at 'at', -1 if there is none, NEED_MORE if the buffer ends first
+    private static int skipNotification(ByteBuffer in, int at) {
+        if (in.get(at) != Protocol.CMD_FILE_UPLOADED) {
+            return -1;
+        }
+        if (in.limit() - at < 5) {
+            return NEED_MORE;
+        }
+        int len = in.getInt(at + 1);
+        if (len <= 0 || len > MAX_PROBED_NAME_LENGTH) {
+            return -1;
+        }
+        if (in.limit() - at - 5 < len) {
+            return NEED_MORE;
+        }
+        String name = StandardCharsets.UTF_8.decode(in.slice(at + 5, len)).toString();
+        return Protocol.isPlausibleFileName(name) ? at + 5 + len : -1;
+    }
+}
@@ -0,0 +1,61 @@
+package com.room.protocol.nio;
+
+import com.room.delta.Chunk;
+import com.room.delta.ContentChunker;
+import com.room.delta.Signature;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// File size followed by the chunk list; a size of -1 means the server has no copy and the result is null
+final class SignatureDecoder implements FrameDecoder<Signature> {
+    private static final int ENTRY_SIZE = 4 + ContentChunker.HASH_LENGTH;
+
+    private long size = Long.MIN_VALUE;
+    private int count = -1;
+    private List<Chunk> chunks;
+    private long offset;
+    private Signature signature;
+
+    @Override
+    public boolean decode(ByteBuffer in) throws IOException {
+        if (size == Long.MIN_VALUE) {
+            if (in.remaining() < 8) {
+                return false;
+            }
+            size = in.getLong();
+            if (size < 0) {
+                return true;
+            }
+        }
+        if (count < 0) {
+            if (in.remaining() < 4) {
+                return false;
+            }
+            count = in.getInt();
+            if (count < 0) {
+                throw new IOException("Invalid chunk count: " + count);
+            }
+            chunks = new ArrayList<>(Math.min(count, 65536));
+        }
+        while (chunks.size() < count) {
+            if (in.remaining() < ENTRY_SIZE) {
+                return false;
+            }
+            int length = in.getInt();
+            byte[] hash = new byte[ContentChunker.HASH_LENGTH];
+            in.get(hash);
+            chunks.add(new Chunk(offset, length, hash));
+            offset += length;
+        }
+        signature = new Signature(size, chunks);
+        return true;
+    }
+
+    @Override
+    public Signature result() {
+        return signature;
+    }
+}
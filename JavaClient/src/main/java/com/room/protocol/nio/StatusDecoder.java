@@ -0,0 +1,33 @@
+package com.room.protocol.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Single status byte, mapped to the request's result
+final class StatusDecoder<T> implements FrameDecoder<T> {
+    @FunctionalInterface
+    interface StatusMapper<T> {
+        T map(int status) throws IOException;
+    }
+
+    private final StatusMapper<T> mapper;
+    private T result;
+
+    StatusDecoder(StatusMapper<T> mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public boolean decode(ByteBuffer in) throws IOException {
+        if (!in.hasRemaining()) {
+            return false;
+        }
+        result = mapper.map(in.get() & 0xFF);
+        return true;
+    }
+
+    @Override
+    public T result() {
+        return result;
+    }
+}
@@ -0,0 +1,35 @@
+package com.room.server;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// Little-endian field helpers shared by the stand-in server handlers
+public final class Frames {
+    private Frames() {
+    }
+
+    // Reads an int32-prefixed UTF-8 string, or returns null without a complete field in the buffer
+    public static String readString(ByteBuffer in) {
+        if (in.remaining() < 4) {
+            return null;
+        }
+        int length = in.getInt(in.position());
+        if (length < 0 || in.remaining() - 4 < length) {
+            return null;
+        }
+        in.position(in.position() + 4);
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    public static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static void putString(ByteBuffer out, byte[] utf8) {
+        out.putInt(utf8.length);
+        out.put(utf8);
+    }
+}
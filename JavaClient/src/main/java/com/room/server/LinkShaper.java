@@ -0,0 +1,52 @@
+package com.room.server;
+
+// Per-session token bucket that caps outbound bytes per second; zero means unlimited
+final class LinkShaper {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long bytesPerSecond;
+    private final long burst;
+    private long tokens;
+    private long refilledAt;
+
+    LinkShaper(long bytesPerSecond, long now) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burst = Math.max(bytesPerSecond / 20, 1024);
+        this.tokens = burst;
+        this.refilledAt = now;
+    }
+
+    long available(long now) {
+        if (bytesPerSecond <= 0) {
+            return Long.MAX_VALUE;
+        }
+        long elapsed = now - refilledAt;
+        if (elapsed <= 0) {
+            return tokens;
+        }
+        // Idle time beyond a full bucket earns nothing, and capping it first keeps elapsed * bytesPerSecond
+        // from overflowing after a long gap
+        if (elapsed >= (burst - tokens) * NANOS_PER_SECOND / bytesPerSecond) {
+            tokens = burst;
+            refilledAt = now;
+            return tokens;
+        }
+        long added = elapsed * bytesPerSecond / NANOS_PER_SECOND;
+        tokens += added;
+        // Only the time that earned whole tokens is used up; the fraction counts towards the next refill
+        refilledAt += added * NANOS_PER_SECOND / bytesPerSecond;
+        return tokens;
+    }
+
+    void consume(long bytes) {
+        if (bytesPerSecond > 0) {
+            tokens -= bytes;
+        }
+    }
+
+    // When enough tokens for a reasonably sized write will have accumulated
+    long nextAvailable(long now) {
+        long wanted = Math.min(burst, 16 * 1024) - tokens;
+        return now + Math.max(wanted, 1) * NANOS_PER_SECOND / bytesPerSecond;
+    }
+}
@@ -0,0 +1,13 @@
+package com.room.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Consumes the body of a request that is too large to wait for in one piece, e.g. an upload
+public interface PayloadReceiver {
+    // Takes whatever it can from the buffer; returns true once the whole payload has been consumed.
+    // Called with an empty buffer right after it is installed, so empty payloads complete immediately.
+    boolean receive(ByteBuffer in) throws IOException;
+
+    void abort();
+}
@@ -0,0 +1,10 @@
+package com.room.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface ServerCommandHandler {
+    // Called with the buffer positioned just after the command byte. Returns false when the request
+    // has not fully arrived yet; the session then rewinds and calls again once more bytes are read.
+    boolean handle(ServerSession session, ByteBuffer in) throws IOException;
+}
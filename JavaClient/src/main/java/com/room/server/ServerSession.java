@@ -0,0 +1,773 @@
+package com.room.server;
+
+import com.room.compress.BlockCompressor;
+import com.room.protocol.Protocol;
+import com.room.server.store.StoredFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// One client connection of the stand-in server. Only ever touched by the selector thread: requests are
+// parsed from the input buffer in order and responses are queued as segments that go out in the same order.
+// After MUX every request arrives on a stream of its own and each stream has its own queue; the queues go
+// out as interleaved frames, small responses ahead of file data, so a ping never waits for a download.
+public class ServerSession {
+    private static final int INITIAL_INPUT_SIZE = 64 * 1024;
+    // Frame bytes written per flush before the selector gets to read again; a client that keeps up would
+    // otherwise have a whole file written before its next request is even parsed
+    private static final long FRAME_FLUSH_BUDGET = 256 * 1024;
+    // Request bytes a stream has to consume before the client gets them back as window
+    private static final int WINDOW_UPDATE_SIZE = Protocol.STREAM_WINDOW / 4;
+
+    private final StandInServer server;
+    private final SocketChannel channel;
+    private final ArrayDeque<Segment> outbound = new ArrayDeque<>();
+    private final LinkShaper shaper;
+    private ByteBuffer in = Frames.allocate(INITIAL_INPUT_SIZE);
+    private boolean authenticated;
+    private boolean closeAfterFlush;
+    private PayloadReceiver receiver;
+
+    private boolean multiplexed;
+    // Open streams in scheduling order; the push stream stays for the whole session
+    private final LinkedHashMap<Integer, Stream> streams = new LinkedHashMap<>();
+    // The stream whose request is being handled, which send() and beginPayload() apply to
+    private Stream current;
+    private int lastStreamId;
+    // Request window to hand back to the client, by stream; goes out ahead of any response frame
+    private final LinkedHashMap<Integer, Integer> pendingCredits = new LinkedHashMap<>();
+    // The frame being written: its header, then frameRemaining bytes of frameStream's head segment. A window
+    // update is written whole from here, payload included.
+    private final ByteBuffer frameHeader = Frames.allocate(Protocol.FRAME_HEADER_SIZE + 4).limit(0);
+    private Stream frameStream;
+    private long frameRemaining;
+    // On a shaped link a frame of file data is what the link carries in about 2 ms, which bounds how long
+    // a small response waits behind one
+    private final int bulkFrameSize;
+
+    ServerSession(StandInServer server, SocketChannel channel, long now) {
+        this.server = server;
+        this.channel = channel;
+        this.shaper = new LinkShaper(server.getBandwidth(), now);
+        long bandwidth = server.getBandwidth();
+        this.bulkFrameSize = bandwidth > 0 ? (int) Math.max(4096, Math.min(Protocol.MAX_FRAME_SIZE, bandwidth / 500))
+                : Protocol.MAX_FRAME_SIZE;
+    }
+
+    public StandInServer getServer() {
+        return server;
+    }
+
+    public boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    public void setAuthenticated(boolean authenticated) {
+        this.authenticated = authenticated;
+    }
+
+    // Responses are held back by the configured latency, measured from when the request was parsed
+    public void send(ByteBuffer response) {
+        response.flip();
+        queue(new BufferSegment(response, deadline()));
+    }
+
+    public void sendFile(StoredFile file) {
+        sendFile(file, 0);
+    }
+
+    public void sendFile(StoredFile file, long position) {
+        queue(new FileSegment(file, position, deadline()));
+    }
+
+    // The file is compressed block by block as the socket drains, so only one block is ever held in memory
+    public void sendCompressedFile(StoredFile file, long position) {
+        queue(new CompressedFileSegment(file, position, deadline()));
+    }
+
+    public boolean isMultiplexed() {
+        return multiplexed;
+    }
+
+    // Called by the MUX handler after it queued its acknowledgement, which still goes out unframed
+    public void enableMultiplexing() {
+        multiplexed = true;
+        Stream push = new Stream(Protocol.PUSH_STREAM);
+        // Pushes are read as they arrive, the client does not send window updates for them
+        push.window = Long.MAX_VALUE;
+        streams.put(Protocol.PUSH_STREAM, push);
+    }
+
+    private long deadline() {
+        return System.nanoTime() + server.getLatencyNanos();
+    }
+
+    // Output outside of a request, i.e. pushes, goes to the push stream
+    private void queue(Segment segment) {
+        if (multiplexed) {
+            (current != null ? current : streams.get(Protocol.PUSH_STREAM)).add(segment);
+        } else {
+            outbound.add(segment);
+        }
+        server.markDirty(this);
+    }
+
+    public void closeAfterFlush() {
+        closeAfterFlush = true;
+    }
+
+    // The bytes after the current request header go to the receiver until it reports completion
+    public void beginPayload(PayloadReceiver receiver) {
+        if (current != null) {
+            current.receiver = receiver;
+        } else {
+            this.receiver = receiver;
+        }
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    boolean hasPendingOutput() {
+        if (!outbound.isEmpty() || frameHeader.hasRemaining() || frameRemaining > 0 || !pendingCredits.isEmpty()) {
+            return true;
+        }
+        for (Stream stream : streams.values()) {
+            if (!stream.outbound.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns false once the peer has closed its side
+    boolean read() throws IOException {
+        if (!in.hasRemaining()) {
+            ByteBuffer grown = Frames.allocate(in.capacity() * 2);
+            in.flip();
+            grown.put(in);
+            in = grown;
+        }
+        if (channel.read(in) == -1) {
+            return false;
+        }
+        in.flip();
+        try {
+            if (multiplexed) {
+                processFrames();
+            } else {
+                process();
+            }
+        } finally {
+            in.compact();
+        }
+        return true;
+    }
+
+    private void process() throws IOException {
+        while (!closeAfterFlush) {
+            if (receiver != null) {
+                if (!receiver.receive(in)) {
+                    return;
+                }
+                receiver = null;
+                continue;
+            }
+            if (!in.hasRemaining()) {
+                return;
+            }
+            int start = in.position();
+            byte command = in.get();
+            ServerCommandHandler handler = server.getHandler(command);
+            if (handler == null) {
+                // Same as the reference server: an unknown command ends the session
+                throw new IOException("Unknown command: " + command);
+            }
+            if (!handler.handle(this, in)) {
+                in.position(start);
+                return;
+            }
+            if (multiplexed) {
+                processFrames();
+                return;
+            }
+        }
+    }
+
+    private void processFrames() throws IOException {
+        while (!closeAfterFlush && in.remaining() >= Protocol.FRAME_HEADER_SIZE) {
+            int start = in.position();
+            int streamId = in.getInt();
+            int flags = in.get();
+            int length = in.getInt();
+            if (streamId <= Protocol.PUSH_STREAM || length < 0 || length > Protocol.MAX_FRAME_SIZE) {
+                throw new IOException("Invalid frame: stream " + streamId + ", " + length + " bytes");
+            }
+            if (in.remaining() < length) {
+                in.position(start);
+                return;
+            }
+            ByteBuffer payload = in.slice().limit(length);
+            in.position(in.position() + length);
+
+            if ((flags & Protocol.FLAG_WINDOW) != 0) {
+                if (length != 4) {
+                    throw new IOException("Invalid window frame: stream " + streamId + ", " + length + " bytes");
+                }
+                credit(streamId, payload.order(ByteOrder.LITTLE_ENDIAN).getInt());
+                continue;
+            }
+            Stream stream = streams.get(streamId);
+            if (stream == null) {
+                if (streamId <= lastStreamId) {
+                    // The stream was already answered or reset; the client may not have known yet
+                    continue;
+                }
+                lastStreamId = streamId;
+                stream = new Stream(streamId);
+                streams.put(streamId, stream);
+            }
+            if ((flags & Protocol.FLAG_RESET) != 0) {
+                reset(stream);
+                continue;
+            }
+            if (stream.done) {
+                if (payload.hasRemaining()) {
+                    throw new IOException("Stream " + streamId + " carried more than one request");
+                }
+                continue;
+            }
+            stream.requestWindow -= length;
+            if (stream.requestWindow < 0) {
+                throw new IOException("Client overran the window of stream " + streamId);
+            }
+            stream.append(payload);
+            int buffered = stream.in.position();
+            handle(stream);
+            consumed(stream, buffered - stream.in.position());
+            if (!stream.done && (flags & Protocol.FLAG_END) != 0) {
+                throw new IOException("Stream " + streamId + " ended in the middle of a request");
+            }
+        }
+    }
+
+    // Same as process(), for the one request a stream carries
+    private void handle(Stream stream) throws IOException {
+        ByteBuffer data = stream.in.flip();
+        current = stream;
+        try {
+            while (!closeAfterFlush) {
+                if (stream.receiver != null) {
+                    if (!stream.receiver.receive(data)) {
+                        return;
+                    }
+                    stream.receiver = null;
+                    break;
+                }
+                if (!data.hasRemaining()) {
+                    return;
+                }
+                int start = data.position();
+                byte command = data.get();
+                ServerCommandHandler handler = server.getHandler(command);
+                if (handler == null || command == Protocol.CMD_MUX) {
+                    throw new IOException("Unknown command: " + command);
+                }
+                if (!handler.handle(this, data)) {
+                    data.position(start);
+                    return;
+                }
+                if (stream.receiver == null) {
+                    break;
+                }
+            }
+            if (data.hasRemaining()) {
+                throw new IOException("Stream " + stream.id + " carried more than one request");
+            }
+            stream.done = true;
+            stream.add(new EndSegment(deadline()));
+            server.markDirty(this);
+        } finally {
+            current = null;
+            data.compact();
+        }
+    }
+
+    // What a stream's handler has taken from its request goes back to the client as window, in batches. An
+    // upload handler that stops taking data holds up its own stream at the client, never this session.
+    private void consumed(Stream stream, int bytes) {
+        stream.consumed += bytes;
+        if (stream.done || stream.consumed < WINDOW_UPDATE_SIZE) {
+            return;
+        }
+        pendingCredits.merge(stream.id, stream.consumed, Integer::sum);
+        stream.requestWindow += stream.consumed;
+        stream.consumed = 0;
+        server.markDirty(this);
+    }
+
+    // Streams that are already answered are gone, their late window updates are ignored
+    private void credit(int streamId, int increment) throws IOException {
+        if (increment <= 0) {
+            throw new IOException("Invalid window increment: stream " + streamId + ", " + increment);
+        }
+        Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.window += increment;
+            server.markDirty(this);
+        }
+    }
+
+    // The client gave up on the stream: whatever it has not been sent yet is dropped
+    private void reset(Stream stream) {
+        if (stream.receiver != null) {
+            stream.receiver.abort();
+            stream.receiver = null;
+        }
+        if (!stream.reset) {
+            stream.reset = true;
+            stream.done = true;
+            stream.add(new EndSegment(System.nanoTime()));
+            server.markDirty(this);
+        }
+    }
+
+    // Writes as much queued output as the socket, latency and bandwidth allow. Returns the time the
+    // session next needs a timer wake-up, 0 if it is waiting on the socket, or -1 if there is nothing to do.
+    long flush(long now) throws IOException {
+        while (!outbound.isEmpty()) {
+            Segment segment = outbound.peek();
+            if (segment.notBefore > now) {
+                return segment.notBefore;
+            }
+            long allowance = shaper.available(now);
+            if (allowance <= 0) {
+                return shaper.nextAvailable(now);
+            }
+            long written = segment.writeTo(channel, allowance);
+            shaper.consume(written);
+            if (segment.isDone()) {
+                segment.close();
+                outbound.poll();
+            } else if (written < allowance) {
+                // The socket buffer is full
+                return 0;
+            }
+        }
+        if (multiplexed) {
+            long wakeUp = flushFrames(now);
+            if (wakeUp >= 0) {
+                return wakeUp;
+            }
+        }
+        if (closeAfterFlush) {
+            close();
+        }
+        return -1;
+    }
+
+    // One frame at a time: a frame in progress is always completed first, then the next one comes from the
+    // first stream with a small response ready, or else from the oldest stream with file data. Streams with
+    // small responses take turns, file responses go one after the other, header included. A stream that used
+    // up its window waits for the client's update while the others go on.
+    private long flushFrames(long now) throws IOException {
+        long budget = FRAME_FLUSH_BUDGET;
+        while (true) {
+            if (frameHeader.hasRemaining()) {
+                shaper.consume(channel.write(frameHeader));
+                if (frameHeader.hasRemaining()) {
+                    return 0;
+                }
+            }
+            if (frameRemaining > 0) {
+                long allowance = shaper.available(now);
+                if (allowance <= 0) {
+                    return shaper.nextAvailable(now);
+                }
+                long max = Math.min(allowance, frameRemaining);
+                Segment segment = frameStream.outbound.peek();
+                long written = segment.writeTo(channel, max);
+                shaper.consume(written);
+                frameRemaining -= written;
+                budget -= written;
+                if (segment.isDone()) {
+                    segment.close();
+                    frameStream.poll();
+                }
+                if (written < max) {
+                    return 0;
+                }
+                continue;
+            }
+            if (!pendingCredits.isEmpty()) {
+                Iterator<Map.Entry<Integer, Integer>> credits = pendingCredits.entrySet().iterator();
+                Map.Entry<Integer, Integer> credit = credits.next();
+                credits.remove();
+                frameHeader.clear();
+                frameHeader.putInt(credit.getKey()).put((byte) Protocol.FLAG_WINDOW).putInt(4).putInt(credit.getValue()).flip();
+                continue;
+            }
+            if (budget <= 0) {
+                return now;
+            }
+
+            Stream next = null;
+            boolean control = false;
+            long wakeUp = -1;
+            for (Stream stream : streams.values()) {
+                Segment head = stream.head();
+                if (head == null) {
+                    continue;
+                }
+                if (head.notBefore > now) {
+                    wakeUp = wakeUp < 0 ? head.notBefore : Math.min(wakeUp, head.notBefore);
+                    continue;
+                }
+                if (stream.window <= 0 && !(head instanceof EndSegment)) {
+                    continue;
+                }
+                if (stream.isControl()) {
+                    next = stream;
+                    control = true;
+                    break;
+                }
+                if (next == null) {
+                    next = stream;
+                }
+            }
+            if (next == null) {
+                return wakeUp;
+            }
+
+            Segment head = next.outbound.peek();
+            if (head instanceof EndSegment) {
+                next.poll();
+                streams.remove(next.id);
+                startFrame(next.id, Protocol.FLAG_END | (next.reset ? Protocol.FLAG_RESET : 0), 0);
+                continue;
+            }
+            int length = head.prepare((int) Math.min(control ? Protocol.MAX_FRAME_SIZE : bulkFrameSize, next.window));
+            if (length == 0) {
+                // e.g. an empty file
+                head.close();
+                next.poll();
+                continue;
+            }
+            startFrame(next.id, 0, length);
+            next.window -= length;
+            frameStream = next;
+            frameRemaining = length;
+            if (control) {
+                streams.remove(next.id);
+                streams.put(next.id, next);
+            }
+        }
+    }
+
+    private void startFrame(int streamId, int flags, int length) {
+        frameHeader.clear();
+        frameHeader.putInt(streamId).put((byte) flags).putInt(length).flip();
+    }
+
+    void close() {
+        if (receiver != null) {
+            receiver.abort();
+            receiver = null;
+        }
+        for (Segment segment : outbound) {
+            segment.close();
+        }
+        outbound.clear();
+        for (Stream stream : streams.values()) {
+            if (stream.receiver != null) {
+                stream.receiver.abort();
+            }
+            for (Segment segment : stream.outbound) {
+                segment.close();
+            }
+        }
+        streams.clear();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    private static final class Stream {
+        final int id;
+        final ArrayDeque<Segment> outbound = new ArrayDeque<>();
+        ByteBuffer in;
+        PayloadReceiver receiver;
+        // Response bytes the client is ready for
+        long window = Protocol.STREAM_WINDOW;
+        // Request bytes the client may still send, and those consumed since the last window update
+        long requestWindow = Protocol.STREAM_WINDOW;
+        int consumed;
+        // Queued segments with file data; a stream without any is a small response
+        int bulkSegments;
+        // The request has been handled; the END frame is queued behind the response
+        boolean done;
+        boolean reset;
+
+        Stream(int id) {
+            this.id = id;
+        }
+
+        void append(ByteBuffer payload) {
+            if (in == null) {
+                in = Frames.allocate(Math.max(256, payload.remaining()));
+            } else if (in.remaining() < payload.remaining()) {
+                ByteBuffer grown = Frames.allocate(Math.max(in.capacity() * 2, in.position() + payload.remaining()));
+                in.flip();
+                grown.put(in);
+                in = grown;
+            }
+            in.put(payload);
+        }
+
+        void add(Segment segment) {
+            outbound.add(segment);
+            if (!segment.isControl()) {
+                bulkSegments++;
+            }
+        }
+
+        Segment poll() {
+            Segment segment = outbound.poll();
+            if (segment != null && !segment.isControl()) {
+                bulkSegments--;
+            }
+            return segment;
+        }
+
+        boolean isControl() {
+            return bulkSegments == 0;
+        }
+
+        // Once reset, only the END frame is left to send; a frame in progress was completed before this
+        Segment head() {
+            if (reset) {
+                while (!(outbound.peek() instanceof EndSegment)) {
+                    poll().close();
+                }
+            }
+            return outbound.peek();
+        }
+    }
+
+    private abstract static class Segment {
+        final long notBefore;
+
+        Segment(long notBefore) {
+            this.notBefore = notBefore;
+        }
+
+        abstract long writeTo(SocketChannel channel, long max) throws IOException;
+
+        abstract boolean isDone();
+
+        // Makes the next bytes ready and returns how many of them, up to max, can go out in one frame
+        abstract int prepare(int max) throws IOException;
+
+        // Streams with only these queued go ahead of file data in multiplexed mode
+        boolean isControl() {
+            return false;
+        }
+
+        void close() {
+        }
+    }
+
+    // Marks the end of a stream's response
+    private static final class EndSegment extends Segment {
+        EndSegment(long notBefore) {
+            super(notBefore);
+        }
+
+        @Override
+        long writeTo(SocketChannel channel, long max) {
+            return 0;
+        }
+
+        @Override
+        boolean isDone() {
+            return true;
+        }
+
+        @Override
+        int prepare(int max) {
+            return 0;
+        }
+
+        @Override
+        boolean isControl() {
+            return true;
+        }
+    }
+
+    private static final class BufferSegment extends Segment {
+        private final ByteBuffer data;
+
+        BufferSegment(ByteBuffer data, long notBefore) {
+            super(notBefore);
+            this.data = data;
+        }
+
+        @Override
+        long writeTo(SocketChannel channel, long max) throws IOException {
+            if (data.remaining() <= max) {
+                return channel.write(data);
+            }
+            ByteBuffer part = data.slice();
+            part.limit((int) max);
+            int written = channel.write(part);
+            data.position(data.position() + written);
+            return written;
+        }
+
+        @Override
+        boolean isDone() {
+            return !data.hasRemaining();
+        }
+
+        @Override
+        int prepare(int max) {
+            return Math.min(data.remaining(), max);
+        }
+
+        @Override
+        boolean isControl() {
+            return true;
+        }
+    }
+
+    private static final class FileSegment extends Segment {
+        private final StoredFile file;
+        private long position;
+
+        FileSegment(StoredFile file, long position, long notBefore) {
+            super(notBefore);
+            this.file = file;
+            this.position = position;
+        }
+
+        @Override
+        long writeTo(SocketChannel channel, long max) throws IOException {
+            long written = file.transferTo(position, Math.min(max, file.size() - position), channel);
+            position += written;
+            return written;
+        }
+
+        @Override
+        boolean isDone() {
+            return position >= file.size();
+        }
+
+        @Override
+        int prepare(int max) {
+            return (int) Math.min(file.size() - position, max);
+        }
+
+        @Override
+        void close() {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+
+    private static final class CompressedFileSegment extends Segment {
+        private final StoredFile file;
+        private final BlockCompressor compressor = BlockCompressor.acquire();
+        private final ByteBuffer block = ByteBuffer.wrap(compressor.input());
+        private final ByteBuffer frame = ByteBuffer.wrap(compressor.frame());
+        private long position;
+        private boolean released;
+
+        CompressedFileSegment(StoredFile file, long position, long notBefore) {
+            super(notBefore);
+            this.file = file;
+            this.position = position;
+            frame.limit(0);
+        }
+
+        @Override
+        long writeTo(SocketChannel channel, long max) throws IOException {
+            long written = 0;
+            while (written < max) {
+                if (!frame.hasRemaining()) {
+                    if (position >= file.size()) {
+                        break;
+                    }
+                    encodeNextBlock();
+                }
+                int limit = frame.limit();
+                // max is Long.MAX_VALUE on an unshaped link, so compare rather than add to the position
+                if (max - written < frame.remaining()) {
+                    frame.limit(frame.position() + (int) (max - written));
+                }
+                int n = channel.write(frame);
+                frame.limit(limit);
+                written += n;
+                if (n == 0) {
+                    break;
+                }
+            }
+            return written;
+        }
+
+        private void encodeNextBlock() throws IOException {
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), file.size() - position));
+            while (block.hasRemaining()) {
+                if (file.read(position + block.position(), block) == -1) {
+                    throw new IOException("Stored file shrank while being sent");
+                }
+            }
+            position += block.limit();
+            frame.clear();
+            frame.limit(compressor.encode(block.limit()));
+        }
+
+        @Override
+        boolean isDone() {
+            return position >= file.size() && !frame.hasRemaining();
+        }
+
+        // A frame never reaches past the current block, so writeTo() does not encode ahead
+        @Override
+        int prepare(int max) throws IOException {
+            if (!frame.hasRemaining() && position < file.size()) {
+                encodeNextBlock();
+            }
+            return Math.min(frame.remaining(), max);
+        }
+
+        @Override
+        void close() {
+            if (!released) {
+                released = true;
+                compressor.release();
+            }
+            try {
+                file.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.room.server;
+
+import com.room.protocol.Protocol;
+import com.room.server.handlers.AuthHandler;
+import com.room.server.handlers.GetFileHandler;
+import com.room.server.handlers.GetRangeHandler;
+import com.room.server.handlers.GetSignatureHandler;
+import com.room.server.handlers.HelloHandler;
+import com.room.server.handlers.ListFilesHandler;
+import com.room.server.handlers.MuxHandler;
+import com.room.server.handlers.PingHandler;
+import com.room.server.handlers.PutDeltaHandler;
+import com.room.server.handlers.PutFileHandler;
+import com.room.server.store.DirectoryFileStore;
+import com.room.server.store.FileStore;
+import com.room.server.store.MemoryFileStore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// In-process implementation of the file server protocol for benchmarks and local testing without the
+// .NET server. A single selector thread serves every session; optional latency and per-session bandwidth
+// limits make it possible to reproduce slow links on loopback.
+public class StandInServer implements Closeable {
+    public static final int CAPABILITIES = Protocol.CAP_DELTA | Protocol.CAP_RANGE | Protocol.CAP_COMPRESS
+            | Protocol.CAP_MUX;
+
+    private final int requestedPort;
+    private final FileStore store;
+    private final Map<Byte, ServerCommandHandler> handlers = new HashMap<>();
+    private final Set<ServerSession> sessions = new HashSet<>();
+    private final Set<ServerSession> dirty = new LinkedHashSet<>();
+    private String username = "admin";
+    private String password = "123";
+    private long latencyNanos;
+    private long bandwidth;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean running;
+
+    public StandInServer(int port, FileStore store) {
+        this.requestedPort = port;
+        this.store = store;
+
+        handlers.put(Protocol.CMD_AUTH, new AuthHandler());
+        handlers.put(Protocol.CMD_LISTFILES, new ListFilesHandler());
+        handlers.put(Protocol.CMD_GETFILE, new GetFileHandler());
+        handlers.put(Protocol.CMD_PUTFILE, new PutFileHandler(false));
+        handlers.put(Protocol.CMD_PING, new PingHandler());
+        handlers.put(Protocol.CMD_HELLO, new HelloHandler());
+        handlers.put(Protocol.CMD_GETSIGNATURE, new GetSignatureHandler());
+        handlers.put(Protocol.CMD_PUTDELTA, new PutDeltaHandler());
+        handlers.put(Protocol.CMD_GETRANGE, new GetRangeHandler(false));
+        handlers.put(Protocol.CMD_GETCOMPRESSED, new GetRangeHandler(true));
+        handlers.put(Protocol.CMD_PUTCOMPRESSED, new PutFileHandler(true));
+        handlers.put(Protocol.CMD_MUX, new MuxHandler());
+    }
+
+    public void setCredentials(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    // Outbound bytes per second for each session; 0 disables the limit
+    public void setBandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+    }
+
+    public FileStore getStore() {
+        return store;
+    }
+
+    public boolean checkCredentials(String username, String password) {
+        return this.username.equals(username) && this.password.equals(password);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    long getBandwidth() {
+        return bandwidth;
+    }
+
+    ServerCommandHandler getHandler(byte command) {
+        return handlers.get(command);
+    }
+
+    void markDirty(ServerSession session) {
+        dirty.add(session);
+    }
+
+    public void fileUploaded(String fileName, ServerSession uploader) {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        for (ServerSession session : sessions) {
+            if (session == uploader) {
+                continue; // dont notify the uploader
+            }
+            ByteBuffer push = Frames.allocate(5 + name.length);
+            push.put(Protocol.CMD_FILE_UPLOADED);
+            Frames.putString(push, name);
+            session.send(push);
+        }
+    }
+
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(requestedPort));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        thread = new Thread(this::run, "stand-in-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        thread.join();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            long nextWakeUp = -1;
+            while (running) {
+                if (nextWakeUp < 0) {
+                    selector.select();
+                } else {
+                    long waitMillis = TimeUnit.NANOSECONDS.toMillis(nextWakeUp - System.nanoTime());
+                    if (waitMillis > 0) {
+                        selector.select(waitMillis);
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    ServerSession session = (ServerSession) key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            dirty.add(session);
+                        }
+                        if (key.isReadable() && !session.read()) {
+                            disconnect(session);
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Session error: " + e.getMessage());
+                        disconnect(session);
+                    }
+                }
+                nextWakeUp = flushSessions();
+            }
+        } catch (IOException e) {
+            System.out.println("Stand-in server stopped: " + e.getMessage());
+        } finally {
+            for (ServerSession session : sessions) {
+                session.close();
+            }
+            sessions.clear();
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                // shutting down anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        ServerSession session = new ServerSession(this, channel, System.nanoTime());
+        channel.register(selector, SelectionKey.OP_READ, session);
+        sessions.add(session);
+    }
+
+    // Returns the earliest timer deadline among sessions held back by latency or bandwidth, or -1
+    private long flushSessions() {
+        long now = System.nanoTime();
+        long nextWakeUp = -1;
+        Iterator<ServerSession> it = dirty.iterator();
+        while (it.hasNext()) {
+            ServerSession session = it.next();
+            if (!session.isOpen()) {
+                it.remove();
+                continue;
+            }
+            SelectionKey key = session.getChannel().keyFor(selector);
+            try {
+                long wakeUp = session.flush(now);
+                if (wakeUp > 0) {
+                    nextWakeUp = nextWakeUp < 0 ? wakeUp : Math.min(nextWakeUp, wakeUp);
+                    key.interestOps(SelectionKey.OP_READ);
+                    continue;
+                }
+                it.remove();
+                if (key.isValid()) {
+                    key.interestOps(wakeUp == 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                }
+                if (!session.isOpen()) {
+                    sessions.remove(session);
+                }
+            } catch (IOException e) {
+                it.remove();
+                disconnect(session);
+            }
+        }
+        return nextWakeUp;
+    }
+
+    private void disconnect(ServerSession session) {
+        sessions.remove(session);
+        dirty.remove(session);
+        session.close();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 8080;
+        FileStore store = null;
+        long latencyMillis = 0;
+        long bandwidth = 0;
+        String username = "admin";
+        String password = "123";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--dir" -> store = new DirectoryFileStore(Paths.get(args[++i]));
+                case "--memory" -> store = new MemoryFileStore();
+                case "--latency-ms" -> latencyMillis = Long.parseLong(args[++i]);
+                case "--bandwidth" -> bandwidth = Long.parseLong(args[++i]);
+                case "--user" -> username = args[++i];
+                case "--password" -> password = args[++i];
+                default -> {
+                    System.out.println("Usage: StandInServer [--port N] [--dir PATH | --memory] [--latency-ms N]"
+                            + " [--bandwidth BYTES_PER_SEC] [--user NAME] [--password PASS]");
+                    return;
+                }
+            }
+        }
+        if (store == null) {
+            store = new DirectoryFileStore(Paths.get("server_files"));
+        }
+
+        StandInServer server = new StandInServer(port, store);
+        server.setCredentials(username, password);
+        server.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+        server.setBandwidth(bandwidth);
+        server.start();
+        System.out.println("Stand-in server listening on port " + server.getPort());
+        server.awaitTermination();
+    }
+}
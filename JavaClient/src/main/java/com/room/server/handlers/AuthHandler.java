@@ -0,0 +1,31 @@
+package com.room.server.handlers;
+
+import com.room.server.Frames;
+import com.room.server.ServerCommandHandler;
+import com.room.server.ServerSession;
+
+import java.nio.ByteBuffer;
+
+public class AuthHandler implements ServerCommandHandler {
+    @Override
+    public boolean handle(ServerSession session, ByteBuffer in) {
+        String username = Frames.readString(in);
+        if (username == null) {
+            return false;
+        }
+        String password = Frames.readString(in);
+        if (password == null) {
+            return false;
+        }
+
+        boolean ok = session.getServer().checkCredentials(username, password);
+        ByteBuffer response = Frames.allocate(1);
+        response.put((byte) (ok ? 1 : 0));
+        session.send(response);
+        session.setAuthenticated(ok);
+        if (!ok) {
+            session.closeAfterFlush();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,69 @@
+package com.room.server.handlers;
+
+import com.room.compress.BlockCompressor;
+import com.room.compress.BlockDecompressor;
+import com.room.server.PayloadReceiver;
+import com.room.server.ServerSession;
+import com.room.server.store.Upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Streams a PUTCOMPRESSED payload into the store. A block is only decoded once it is complete in the
+// session buffer, which grows to hold it if needed.
+class CompressedUploadReceiver implements PayloadReceiver {
+    private final ServerSession session;
+    private final String fileName;
+    private final Upload upload;
+    private final BlockDecompressor decompressor = BlockDecompressor.acquire();
+    private long remaining;
+    private boolean released;
+
+    CompressedUploadReceiver(ServerSession session, String fileName, Upload upload, long size) {
+        this.session = session;
+        this.fileName = fileName;
+        this.upload = upload;
+        this.remaining = size;
+    }
+
+    @Override
+    public boolean receive(ByteBuffer in) throws IOException {
+        while (remaining > 0) {
+            if (in.remaining() < BlockCompressor.HEADER_SIZE) {
+                return false;
+            }
+            int start = in.position();
+            int codec = in.get(start);
+            int rawLength = in.getInt(start + 1);
+            int encodedLength = in.getInt(start + 5);
+            BlockDecompressor.checkHeader(codec, rawLength, encodedLength);
+            if (rawLength > remaining) {
+                throw new IOException("Compressed block runs past the end of " + fileName);
+            }
+            if (in.remaining() < BlockCompressor.HEADER_SIZE + encodedLength) {
+                return false;
+            }
+            in.position(start + BlockCompressor.HEADER_SIZE);
+            in.get(decompressor.input(), 0, encodedLength);
+            upload.write(decompressor.decode(codec, rawLength, encodedLength));
+            remaining -= rawLength;
+        }
+        release();
+        upload.commit();
+        session.getServer().fileUploaded(fileName, session);
+        return true;
+    }
+
+    @Override
+    public void abort() {
+        release();
+        upload.abort();
+    }
+
+    private void release() {
+        if (!released) {
+            released = true;
+            decompressor.release();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.room.server.handlers;
+
+import com.room.delta.ContentChunker;
+import com.room.delta.DeltaOp;
+import com.room.server.Frames;
+import com.room.server.PayloadReceiver;
+import com.room.server.ServerSession;
+import com.room.server.store.StoredFile;
+import com.room.server.store.Upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+// Rebuilds a file from PUTDELTA ops: COPY ranges come from the stored copy, LITERAL bytes from the wire.
+// The result only replaces the stored file if it has the announced size and hash; either way the whole
+// payload is consumed and answered with a status byte, so the connection stays in sync.
+class DeltaReceiver implements PayloadReceiver {
+    private final ServerSession session;
+    private final String fileName;
+    private final StoredFile base;
+    private final long size;
+    private final byte[] contentHash;
+    private final Upload upload;
+    private final MessageDigest digest = ContentChunker.sha256();
+    private final ByteBuffer copyBuffer = ByteBuffer.allocate(64 * 1024);
+    private int opsRemaining;
+    private long literalRemaining;
+    private long written;
+    private boolean rejected;
+
+    DeltaReceiver(ServerSession session, String fileName, StoredFile base, long baseSize, long size,
+                  byte[] contentHash, int opCount, Upload upload) {
+        this.session = session;
+        this.fileName = fileName;
+        this.base = base;
+        this.size = size;
+        this.contentHash = contentHash;
+        this.opsRemaining = opCount;
+        this.upload = upload;
+        // The client diffed against a different version than the one stored now
+        this.rejected = base == null || base.size() != baseSize;
+    }
+
+    @Override
+    public boolean receive(ByteBuffer in) throws IOException {
+        while (true) {
+            if (literalRemaining > 0) {
+                int n = (int) Math.min(in.remaining(), literalRemaining);
+                if (n == 0) {
+                    return false;
+                }
+                ByteBuffer chunk = in.slice();
+                chunk.limit(n);
+                in.position(in.position() + n);
+                literalRemaining -= n;
+                write(chunk);
+                continue;
+            }
+            if (opsRemaining == 0) {
+                finish();
+                return true;
+            }
+            if (in.remaining() < 1) {
+                return false;
+            }
+            byte type = in.get(in.position());
+            if (type == DeltaOp.TYPE_COPY) {
+                if (in.remaining() < 17) {
+                    return false;
+                }
+                in.get();
+                copy(in.getLong(), in.getLong());
+            } else if (type == DeltaOp.TYPE_LITERAL) {
+                if (in.remaining() < 9) {
+                    return false;
+                }
+                in.get();
+                literalRemaining = in.getLong();
+                if (literalRemaining < 0) {
+                    throw new IOException("Invalid literal length in delta for " + fileName);
+                }
+            } else {
+                throw new IOException("Unknown delta op " + type + " for " + fileName);
+            }
+            opsRemaining--;
+        }
+    }
+
+    private void copy(long offset, long length) throws IOException {
+        if (rejected || offset < 0 || length < 0 || offset + length > base.size()) {
+            rejected = true;
+            return;
+        }
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            copyBuffer.clear();
+            copyBuffer.limit((int) Math.min(copyBuffer.capacity(), end - position));
+            int n = base.read(position, copyBuffer);
+            if (n <= 0) {
+                rejected = true;
+                return;
+            }
+            copyBuffer.flip();
+            position += n;
+            write(copyBuffer);
+        }
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        if (rejected) {
+            return;
+        }
+        written += data.remaining();
+        if (written > size) {
+            rejected = true;
+            return;
+        }
+        digest.update(data.duplicate());
+        upload.write(data);
+    }
+
+    private void finish() throws IOException {
+        closeBase();
+        boolean ok = !rejected && written == size && Arrays.equals(digest.digest(), contentHash);
+        if (ok) {
+            upload.commit();
+        } else {
+            upload.abort();
+        }
+        ByteBuffer response = Frames.allocate(1);
+        response.put((byte) (ok ? 1 : 0));
+        session.send(response);
+        if (ok) {
+            session.getServer().fileUploaded(fileName, session);
+        }
+    }
+
+    @Override
+    public void abort() {
+        closeBase();
+        upload.abort();
+    }
+
+    private void closeBase() {
+        if (base != null) {
+            try {
+                base.close();
+            } catch (IOException e) {
+                // read-only handle
+            }
+        }
+    }
+}
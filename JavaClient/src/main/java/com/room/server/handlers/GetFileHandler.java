@@ -0,0 +1,28 @@
+package com.room.server.handlers;
+
+import com.room.server.Frames;
+import com.room.server.ServerCommandHandler;
+import com.room.server.ServerSession;
+import com.room.server.store.StoredFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class GetFileHandler implements ServerCommandHandler {
+    @Override
+    public boolean handle(ServerSession session, ByteBuffer in) throws IOException {
+        String fileName = Frames.readString(in);
+        if (fileName == null) {
+            return false;
+        }
+
+        StoredFile file = session.getServer().getStore().open(fileName);
+        ByteBuffer header = Frames.allocate(8);
+        header.putLong(file == null ? -1 : file.size());
+        session.send(header);
+        if (file != null) {
+            session.sendFile(file);
+        }
+        return true;
+    }
+}
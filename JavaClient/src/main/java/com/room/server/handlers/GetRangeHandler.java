@@ -0,0 +1,56 @@
+package com.room.server.handlers;
+
+import com.room.server.Frames;
+import com.room.server.ServerCommandHandler;
+import com.room.server.ServerSession;
+import com.room.server.store.StoredFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// GETRANGE: name, offset, the size and version the client expects. If the stored file no longer matches
+// both, the client's partial copy is stale and the whole file is sent instead. The response carries the
+// size, the current version (for the client to record with its partial copy) and where the data starts.
+// GETCOMPRESSED has the same request and response header, followed by compressed blocks.
+public class GetRangeHandler implements ServerCommandHandler {
+    private final boolean compressed;
+
+    public GetRangeHandler(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    @Override
+    public boolean handle(ServerSession session, ByteBuffer in) throws IOException {
+        String fileName = Frames.readString(in);
+        if (fileName == null || in.remaining() < 24) {
+            return false;
+        }
+        long offset = in.getLong();
+        long expectedSize = in.getLong();
+        long expectedVersion = in.getLong();
+
+        StoredFile file = session.getServer().getStore().open(fileName);
+        if (file == null) {
+            ByteBuffer header = Frames.allocate(8);
+            header.putLong(-1);
+            session.send(header);
+            return true;
+        }
+
+        long size = file.size();
+        long version = file.version();
+        boolean unchanged = size == expectedSize && version == expectedVersion;
+        long start = unchanged && offset >= 0 && offset <= size ? offset : 0;
+        ByteBuffer header = Frames.allocate(24);
+        header.putLong(size);
+        header.putLong(version);
+        header.putLong(start);
+        session.send(header);
+        if (compressed) {
+            session.sendCompressedFile(file, start);
+        } else {
+            session.sendFile(file, start);
+        }
+        return true;
+    }
+}
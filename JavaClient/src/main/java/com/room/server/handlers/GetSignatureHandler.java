@@ -0,0 +1,76 @@
+package com.room.server.handlers;
+
+import com.room.delta.Chunk;
+import com.room.delta.ContentChunker;
+import com.room.server.Frames;
+import com.room.server.ServerCommandHandler;
+import com.room.server.ServerSession;
+import com.room.server.store.StoredFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Chunks the stored file on the selector thread; fine for a test server, a production one would cache this
+public class GetSignatureHandler implements ServerCommandHandler {
+    @Override
+    public boolean handle(ServerSession session, ByteBuffer in) throws IOException {
+        String fileName = Frames.readString(in);
+        if (fileName == null) {
+            return false;
+        }
+
+        StoredFile file = session.getServer().getStore().open(fileName);
+        if (file == null) {
+            ByteBuffer response = Frames.allocate(8);
+            response.putLong(-1);
+            session.send(response);
+            return true;
+        }
+
+        List<Chunk> chunks = new ArrayList<>();
+        try (file) {
+            ContentChunker.chunk(new StoredFileChannel(file),
+                    (offset, length, hash) -> chunks.add(new Chunk(offset, length, hash)));
+        }
+
+        ByteBuffer response = Frames.allocate(12 + chunks.size() * (4 + ContentChunker.HASH_LENGTH));
+        response.putLong(file.size());
+        response.putInt(chunks.size());
+        for (Chunk chunk : chunks) {
+            response.putInt(chunk.length());
+            response.put(chunk.hash());
+        }
+        session.send(response);
+        return true;
+    }
+
+    private static final class StoredFileChannel implements ReadableByteChannel {
+        private final StoredFile file;
+        private long position;
+
+        StoredFileChannel(StoredFile file) {
+            this.file = file;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n = file.read(position, dst);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.room.server.handlers;
+
+import com.room.protocol.Protocol;
+import com.room.server.Frames;
+import com.room.server.ServerCommandHandler;
+import com.room.server.ServerSession;
+import com.room.server.StandInServer;
+
+import java.nio.ByteBuffer;
+
+public class HelloHandler implements ServerCommandHandler {
+    @Override
+    public boolean handle(ServerSession session, ByteBuffer in) {
+        if (in.remaining() < 4) {
+            return false;
+        }
+        in.getInt(); // the client's capabilities; every extension here is opt-in per request anyway
+
+        ByteBuffer response = Frames.allocate(5);
+        response.put(Protocol.CMD_HELLO);
+        response.putInt(StandInServer.CAPABILITIES);
+        session.send(response);
+        return true;
+    }
+}
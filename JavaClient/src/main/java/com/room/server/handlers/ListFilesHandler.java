@@ -0,0 +1,33 @@
+package com.room.server.handlers;
+
+import com.room.server.Frames;
+import com.room.server.ServerCommandHandler;
+import com.room.server.ServerSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ListFilesHandler implements ServerCommandHandler {
+    @Override
+    public boolean handle(ServerSession session, ByteBuffer in) throws IOException {
+        List<String> files = session.getServer().getStore().list();
+        List<byte[]> names = new ArrayList<>(files.size());
+        int length = 4;
+        for (String file : files) {
+            byte[] name = file.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            length += 4 + name.length;
+        }
+
+        ByteBuffer response = Frames.allocate(length);
+        response.putInt(names.size());
+        for (byte[] name : names) {
+            Frames.putString(response, name);
+        }
+        session.send(response);
+        return true;
+    }
+}
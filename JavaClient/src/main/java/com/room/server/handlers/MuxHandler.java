@@ -0,0 +1,23 @@
+package com.room.server.handlers;
+
+import com.room.server.Frames;
+import com.room.server.ServerCommandHandler;
+import com.room.server.ServerSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// The acknowledgement is the last plain response; everything the client sends after MUX is framed
+public class MuxHandler implements ServerCommandHandler {
+    @Override
+    public boolean handle(ServerSession session, ByteBuffer in) throws IOException {
+        if (session.isMultiplexed()) {
+            throw new IOException("Session is already multiplexed");
+        }
+        ByteBuffer response = Frames.allocate(1);
+        response.put((byte) 1);
+        session.send(response);
+        session.enableMultiplexing();
+        return true;
+    }
+}
@@ -0,0 +1,17 @@
+package com.room.server.handlers;
+
+import com.room.server.Frames;
+import com.room.server.ServerCommandHandler;
+import com.room.server.ServerSession;
+
+import java.nio.ByteBuffer;
+
+public class PingHandler implements ServerCommandHandler {
+    @Override
+    public boolean handle(ServerSession session, ByteBuffer in) {
+        ByteBuffer response = Frames.allocate(1);
+        response.put((byte) 1);
+        session.send(response);
+        return true;
+    }
+}
@@ -0,0 +1,33 @@
+package com.room.server.handlers;
+
+import com.room.delta.ContentChunker;
+import com.room.server.Frames;
+import com.room.server.ServerCommandHandler;
+import com.room.server.ServerSession;
+import com.room.server.store.StoredFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class PutDeltaHandler implements ServerCommandHandler {
+    @Override
+    public boolean handle(ServerSession session, ByteBuffer in) throws IOException {
+        String fileName = Frames.readString(in);
+        if (fileName == null || in.remaining() < 8 + 8 + ContentChunker.HASH_LENGTH + 4) {
+            return false;
+        }
+        long baseSize = in.getLong();
+        long size = in.getLong();
+        byte[] contentHash = new byte[ContentChunker.HASH_LENGTH];
+        in.get(contentHash);
+        int opCount = in.getInt();
+        if (size < 0 || opCount < 0) {
+            throw new IOException("Invalid delta header for " + fileName);
+        }
+
+        StoredFile base = session.getServer().getStore().open(fileName);
+        session.beginPayload(new DeltaReceiver(session, fileName, base, baseSize, size, contentHash, opCount,
+                session.getServer().getStore().create(fileName)));
+        return true;
+    }
+}
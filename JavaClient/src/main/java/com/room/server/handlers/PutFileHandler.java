@@ -0,0 +1,37 @@
+package com.room.server.handlers;
+
+import com.room.server.Frames;
+import com.room.server.ServerCommandHandler;
+import com.room.server.ServerSession;
+import com.room.server.store.Upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// PUTFILE, or PUTCOMPRESSED whose payload is the same file as compressed blocks
+public class PutFileHandler implements ServerCommandHandler {
+    private final boolean compressed;
+
+    public PutFileHandler(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    @Override
+    public boolean handle(ServerSession session, ByteBuffer in) throws IOException {
+        String fileName = Frames.readString(in);
+        if (fileName == null || in.remaining() < 8) {
+            return false;
+        }
+        long fileSize = in.getLong();
+        if (fileSize < 0) {
+            throw new IOException("Invalid upload size: " + fileSize);
+        }
+
+        // The payload is streamed into the store as it arrives; there is no response
+        Upload upload = session.getServer().getStore().create(fileName);
+        session.beginPayload(compressed
+                ? new CompressedUploadReceiver(session, fileName, upload, fileSize)
+                : new UploadReceiver(session, fileName, upload, fileSize));
+        return true;
+    }
+}
@@ -0,0 +1,46 @@
+package com.room.server.handlers;
+
+import com.room.server.PayloadReceiver;
+import com.room.server.ServerSession;
+import com.room.server.store.Upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Streams a PUTFILE payload into the store and announces the file once it is complete
+class UploadReceiver implements PayloadReceiver {
+    private final ServerSession session;
+    private final String fileName;
+    private final Upload upload;
+    private long remaining;
+
+    UploadReceiver(ServerSession session, String fileName, Upload upload, long size) {
+        this.session = session;
+        this.fileName = fileName;
+        this.upload = upload;
+        this.remaining = size;
+    }
+
+    @Override
+    public boolean receive(ByteBuffer in) throws IOException {
+        int n = (int) Math.min(in.remaining(), remaining);
+        if (n > 0) {
+            ByteBuffer chunk = in.slice();
+            chunk.limit(n);
+            in.position(in.position() + n);
+            upload.write(chunk);
+            remaining -= n;
+        }
+        if (remaining > 0) {
+            return false;
+        }
+        upload.commit();
+        session.getServer().fileUploaded(fileName, session);
+        return true;
+    }
+
+    @Override
+    public void abort() {
+        upload.abort();
+    }
+}
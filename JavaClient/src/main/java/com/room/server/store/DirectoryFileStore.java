@@ -0,0 +1,114 @@
+package com.room.server.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Files live directly in the root directory; uploads are staged in .incoming and moved into place on commit
+public class DirectoryFileStore implements FileStore {
+    private final Path root;
+    private final Path incoming;
+
+    public DirectoryFileStore(Path root) throws IOException {
+        this.root = root;
+        this.incoming = root.resolve(".incoming");
+        Files.createDirectories(incoming);
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        try (Stream<Path> files = Files.list(root)) {
+            return files.filter(Files::isRegularFile)
+                    .map(path -> path.getFileName().toString())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public StoredFile open(String name) throws IOException {
+        Path path = resolve(name);
+        if (path == null || !Files.isRegularFile(path)) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        long version = Files.getLastModifiedTime(path).toMillis();
+        return new StoredFile() {
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public long version() {
+                return version;
+            }
+
+            @Override
+            public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                return channel.transferTo(position, count, target);
+            }
+
+            @Override
+            public int read(long position, ByteBuffer dst) throws IOException {
+                return channel.read(dst, position);
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    @Override
+    public Upload create(String name) throws IOException {
+        Path target = resolve(name);
+        if (target == null) {
+            throw new IOException("Invalid file name: " + name);
+        }
+        Path staging = Files.createTempFile(incoming, "upload", ".part");
+        FileChannel channel = FileChannel.open(staging, StandardOpenOption.WRITE);
+        return new Upload() {
+            @Override
+            public void write(ByteBuffer data) throws IOException {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+
+            @Override
+            public void commit() throws IOException {
+                channel.close();
+                Files.move(staging, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            @Override
+            public void abort() {
+                try {
+                    channel.close();
+                    Files.deleteIfExists(staging);
+                } catch (IOException e) {
+                    // best effort
+                }
+            }
+        };
+    }
+
+    // Names are plain file names; anything that would escape the root is rejected
+    private Path resolve(String name) {
+        if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.equals(".") || name.equals("..")) {
+            return null;
+        }
+        return root.resolve(name);
+    }
+}
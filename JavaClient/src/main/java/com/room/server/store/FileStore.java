@@ -0,0 +1,14 @@
+package com.room.server.store;
+
+import java.io.IOException;
+import java.util.List;
+
+public interface FileStore {
+    List<String> list() throws IOException;
+
+    // Returns null if there is no such file
+    StoredFile open(String name) throws IOException;
+
+    // The new content only becomes visible to list/open once the upload is committed
+    Upload create(String name) throws IOException;
+}
@@ -0,0 +1,96 @@
+package com.room.server.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MemoryFileStore implements FileStore {
+    private final Map<String, Entry> files = new ConcurrentSkipListMap<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    private record Entry(byte[] content, long version) {
+    }
+
+    public void put(String name, byte[] content) {
+        files.put(name, new Entry(content, versions.incrementAndGet()));
+    }
+
+    @Override
+    public List<String> list() {
+        return Collections.unmodifiableList(new ArrayList<>(files.keySet()));
+    }
+
+    @Override
+    public StoredFile open(String name) {
+        Entry entry = files.get(name);
+        if (entry == null) {
+            return null;
+        }
+        byte[] content = entry.content();
+        return new StoredFile() {
+            @Override
+            public long size() {
+                return content.length;
+            }
+
+            @Override
+            public long version() {
+                return entry.version();
+            }
+
+            @Override
+            public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                int length = (int) Math.min(count, content.length - position);
+                return target.write(ByteBuffer.wrap(content, (int) position, length));
+            }
+
+            @Override
+            public int read(long position, ByteBuffer dst) {
+                if (position >= content.length) {
+                    return -1;
+                }
+                int length = (int) Math.min(dst.remaining(), content.length - position);
+                dst.put(content, (int) position, length);
+                return length;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public Upload create(String name) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        return new Upload() {
+            @Override
+            public void write(ByteBuffer data) {
+                if (data.hasArray()) {
+                    content.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                    data.position(data.limit());
+                } else {
+                    byte[] copy = new byte[data.remaining()];
+                    data.get(copy);
+                    content.writeBytes(copy);
+                }
+            }
+
+            @Override
+            public void commit() {
+                put(name, content.toByteArray());
+            }
+
+            @Override
+            public void abort() {
+            }
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package com.room.server.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+public interface StoredFile extends Closeable {
+    long size();
+
+    // Changes whenever the content is replaced, so a client can tell its partial copy is stale
+    long version();
+
+    long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+    // Positional read into dst; returns -1 at the end of the file
+    int read(long position, ByteBuffer dst) throws IOException;
+}
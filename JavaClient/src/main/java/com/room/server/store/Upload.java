@@ -0,0 +1,12 @@
+package com.room.server.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface Upload {
+    void write(ByteBuffer data) throws IOException;
+
+    void commit() throws IOException;
+
+    void abort();
+}
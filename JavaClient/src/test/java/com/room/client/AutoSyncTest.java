@@ -0,0 +1,203 @@
+package com.room.client;
+
+import com.room.commands.CommandContext;
+import com.room.config.ClientConfig;
+import com.room.protocol.ProtocolClient;
+import com.room.server.StandInServer;
+import com.room.server.store.FileStore;
+import com.room.server.store.MemoryFileStore;
+import com.room.server.store.StoredFile;
+import com.room.server.store.Upload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Pushes are queued and downloaded in debounced batches; a file that fails is retried, and one whose attempts
+// ran out is picked up again by the next reconciliation even when an older copy exists locally
+class AutoSyncTest {
+    private static final long RETRY_DELAY_MS = 10;
+
+    private final MemoryFileStore store = new MemoryFileStore();
+    // Number of times opening a name still fails, i.e. the server answers with an error
+    private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private PrintStream originalOut;
+    private StandInServer standIn;
+    private ProtocolClient client;
+    private CommandContext context;
+    private AutoSync autoSync;
+
+    @BeforeEach
+    void start() throws IOException {
+        cleanClientFiles();
+        standIn = new StandInServer(0, new FileStore() {
+            @Override
+            public List<String> list() {
+                return store.list();
+            }
+
+            @Override
+            public StoredFile open(String name) {
+                Integer left = failures.get(name);
+                if (left == null) {
+                    return store.open(name);
+                }
+                if (left > 1) {
+                    failures.put(name, left - 1);
+                } else {
+                    failures.remove(name);
+                }
+                return null;
+            }
+
+            @Override
+            public Upload create(String name) throws IOException {
+                return store.create(name);
+            }
+        });
+        standIn.setCredentials("admin", "test");
+        standIn.start();
+
+        client = new ProtocolClient(SocketChannel.open(new InetSocketAddress("127.0.0.1", standIn.getPort())));
+        client.auth("admin", "test");
+        context = new CommandContext(client);
+        context.setAuthenticated(true);
+        autoSync = new AutoSync(context, 0, RETRY_DELAY_MS);
+
+        originalOut = System.out;
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        System.setOut(originalOut);
+        autoSync.close();
+        context.close();
+        client.close();
+        standIn.close();
+        cleanClientFiles();
+    }
+
+    @Test
+    void burstOfPushesIsDownloadedAsOneBatch() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            store.put("file" + i + ".txt", ("content " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        for (int i = 0; i < 5; i++) {
+            autoSync.fileUploaded("file" + i + ".txt");
+            Thread.sleep(20);
+        }
+        // A repeated push for a queued name does not queue it twice
+        autoSync.fileUploaded("file0.txt");
+
+        awaitOutput("[Auto-sync] Downloaded");
+        String text = output();
+        assertEquals(1, count(text, "[Auto-sync] Downloading"), text);
+        assertTrue(text.contains("[Auto-sync] Downloading 5 file(s)"), text);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(("content " + i).getBytes(StandardCharsets.UTF_8), Files.readAllBytes(local("file" + i + ".txt")));
+        }
+    }
+
+    @Test
+    void failedDownloadIsRetried() throws Exception {
+        byte[] content = "flaky".getBytes(StandardCharsets.UTF_8);
+        store.put("flaky.txt", content);
+        // Every attempt of the first auto-sync batch, including the downloader's own retries, fails
+        failures.put("flaky.txt", 3);
+
+        autoSync.fileUploaded("flaky.txt");
+
+        await(() -> Files.exists(local("flaky.txt")));
+        assertArrayEquals(content, Files.readAllBytes(local("flaky.txt")));
+        String text = output();
+        assertEquals(2, count(text, "[Auto-sync] Downloading 1 file(s)"), text);
+        assertFalse(text.contains("Giving up"), text);
+    }
+
+    @Test
+    void reconciliationRetriesAFileWhoseAttemptsRanOut() throws Exception {
+        // An older copy is already here and in sync, so only the push says the server's copy changed
+        Files.createDirectories(local("report.txt").getParent());
+        Files.write(local("report.txt"), "old".getBytes(StandardCharsets.UTF_8));
+        context.getManifestIndex().markSynced("report.txt");
+        byte[] updated = "updated".getBytes(StandardCharsets.UTF_8);
+        store.put("report.txt", updated);
+        failures.put("report.txt", Integer.MAX_VALUE);
+
+        autoSync.fileUploaded("report.txt");
+        awaitOutput("Giving up on report.txt");
+        assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(local("report.txt")));
+
+        failures.clear();
+        autoSync.reconcile();
+
+        await(() -> Files.size(local("report.txt")) == updated.length);
+        assertArrayEquals(updated, Files.readAllBytes(local("report.txt")));
+        assertTrue(output().contains("retrying 1 failed file(s)"), output());
+    }
+
+    private static Path local(String name) {
+        return Path.of(ClientConfig.getClientFilesDir(), name);
+    }
+
+    private String output() {
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private void awaitOutput(String text) throws Exception {
+        await(() -> output().contains(text));
+    }
+
+    private static void await(Condition condition) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.met()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int at = text.indexOf(part); at >= 0; at = text.indexOf(part, at + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void cleanClientFiles() throws IOException {
+        Path clientFiles = Path.of(ClientConfig.getClientFilesDir());
+        if (!Files.exists(clientFiles)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(clientFiles)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private interface Condition {
+        boolean met() throws Exception;
+    }
+}
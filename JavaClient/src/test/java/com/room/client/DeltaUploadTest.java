@@ -0,0 +1,150 @@
+package com.room.client;
+
+import com.room.server.StandInServer;
+import com.room.server.store.FileStore;
+import com.room.server.store.MemoryFileStore;
+import com.room.server.store.StoredFile;
+import com.room.server.store.Upload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaUploadTest {
+    private static final String NAME = "data.bin";
+
+    @TempDir
+    Path dir;
+
+    private final ChangingStore store = new ChangingStore();
+    private StandInServer standIn;
+
+    @AfterEach
+    void stopServer() throws IOException {
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    @Test
+    void deltaRebuildsTheServerCopy() throws IOException {
+        byte[] base = randomBytes(2 * 1024 * 1024, 1);
+        byte[] local = edit(base);
+        store.put(NAME, base);
+
+        TransferReport report = upload(local);
+
+        assertEquals(1, report.getSucceeded());
+        assertArrayEquals(local, store.content(NAME));
+        assertTrue(report.getBytes() < local.length / 4, report.getBytes() + " bytes sent");
+    }
+
+    @Test
+    void sizeMismatchFallsBackToFullUpload() throws IOException {
+        byte[] base = randomBytes(2 * 1024 * 1024, 2);
+        byte[] local = edit(base);
+        store.put(NAME, base);
+        // Someone else uploads a longer version between the signature and the delta
+        store.afterSignature = content -> Arrays.copyOf(content, content.length + 10);
+
+        TransferReport report = upload(local);
+
+        assertEquals(1, report.getSucceeded());
+        assertArrayEquals(local, store.content(NAME));
+        assertEquals(local.length, report.getBytes());
+    }
+
+    @Test
+    void hashMismatchFallsBackToFullUpload() throws IOException {
+        byte[] base = randomBytes(2 * 1024 * 1024, 3);
+        byte[] local = edit(base);
+        store.put(NAME, base);
+        // Same size, different bytes in a range the delta copies
+        store.afterSignature = content -> {
+            byte[] changed = content.clone();
+            changed[100] ^= 1;
+            return changed;
+        };
+
+        TransferReport report = upload(local);
+
+        assertEquals(1, report.getSucceeded());
+        assertArrayEquals(local, store.content(NAME));
+        assertEquals(local.length, report.getBytes());
+    }
+
+    private TransferReport upload(byte[] local) throws IOException {
+        standIn = new StandInServer(0, store);
+        standIn.setCredentials("admin", "test");
+        standIn.start();
+        Path file = dir.resolve(NAME);
+        Files.write(file, local);
+        try (ConnectionPool pool = new ConnectionPool(new ConnectionFactory("127.0.0.1", standIn.getPort()), "admin", "test", 1)) {
+            return new ParallelUploader(pool, 1, new UploadTracker()).uploadAll(List.of(file));
+        }
+    }
+
+    private static byte[] edit(byte[] base) {
+        byte[] local = base.clone();
+        System.arraycopy(randomBytes(4000, 99), 0, local, 1024 * 1024, 4000);
+        return local;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    // Memory store that can replace a file right after its first open, which is the GETSIGNATURE
+    private static final class ChangingStore implements FileStore {
+        private final MemoryFileStore files = new MemoryFileStore();
+        private volatile UnaryOperator<byte[]> afterSignature;
+
+        void put(String name, byte[] content) {
+            files.put(name, content);
+        }
+
+        byte[] content(String name) throws IOException {
+            StoredFile file = files.open(name);
+            ByteBuffer buffer = ByteBuffer.allocate((int) file.size());
+            while (buffer.hasRemaining() && file.read(buffer.position(), buffer) > 0) {
+                // keep reading
+            }
+            return buffer.array();
+        }
+
+        @Override
+        public List<String> list() {
+            return files.list();
+        }
+
+        @Override
+        public StoredFile open(String name) throws IOException {
+            StoredFile file = files.open(name);
+            UnaryOperator<byte[]> change = afterSignature;
+            if (change != null) {
+                afterSignature = null;
+                put(name, change.apply(content(name)));
+            }
+            return file;
+        }
+
+        @Override
+        public Upload create(String name) {
+            return files.create(name);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.room.client;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadTrackerTest {
+    @Test
+    void oneOwnPushPerUpload() {
+        UploadTracker tracker = new UploadTracker();
+        assertFalse(tracker.claimPush("a.bin"));
+
+        tracker.begin("a.bin");
+        assertFalse(tracker.claimPush("b.bin"));
+        tracker.end("a.bin", true);
+        assertTrue(tracker.claimPush("a.bin"), "a push can trail the upload");
+        assertFalse(tracker.claimPush("a.bin"));
+    }
+
+    @Test
+    void pushBeforeTheUploadReturns() {
+        UploadTracker tracker = new UploadTracker();
+        tracker.begin("a.bin");
+        assertTrue(tracker.claimPush("a.bin"));
+        tracker.end("a.bin", true);
+        assertFalse(tracker.claimPush("a.bin"));
+    }
+
+    @Test
+    void otherClientsUploadOfTheSameNameGetsThrough() {
+        UploadTracker tracker = new UploadTracker();
+        tracker.begin("a.bin");
+        tracker.end("a.bin", true);
+
+        // one push is ours, whichever comes first; the other client's is delivered
+        assertTrue(tracker.claimPush("a.bin"));
+        assertFalse(tracker.claimPush("a.bin"));
+
+        tracker.begin("a.bin");
+        assertTrue(tracker.claimPush("a.bin"));
+        assertFalse(tracker.claimPush("a.bin"), "another client's upload while ours is in flight");
+        tracker.end("a.bin", true);
+    }
+
+    @Test
+    void failedOrUnchangedUploadExpectsNoPush() {
+        UploadTracker tracker = new UploadTracker();
+        tracker.begin("a.bin");
+        tracker.end("a.bin", false);
+        assertFalse(tracker.claimPush("a.bin"));
+    }
+
+    @Test
+    void overlappingUploadsOfTheSameName() {
+        UploadTracker tracker = new UploadTracker();
+        tracker.begin("a.bin");
+        tracker.begin("a.bin");
+        tracker.end("a.bin", true);
+        assertTrue(tracker.claimPush("a.bin"));
+        tracker.end("a.bin", true);
+        assertTrue(tracker.claimPush("a.bin"));
+        assertFalse(tracker.claimPush("a.bin"));
+    }
+}
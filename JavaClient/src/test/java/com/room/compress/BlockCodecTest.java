@@ -0,0 +1,237 @@
+package com.room.compress;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockCodecTest {
+    private static final int BLOCK = BlockCompressor.BLOCK_SIZE;
+
+    private final BlockCompressor compressor = BlockCompressor.acquire();
+    private final BlockDecompressor decompressor = BlockDecompressor.acquire();
+
+    @AfterEach
+    void release() {
+        compressor.release();
+        decompressor.release();
+    }
+
+    @Test
+    void compressibleInputIsDeflated() throws IOException {
+        byte[] data = text(10 * BLOCK + 123);
+        Encoded encoded = encode(data);
+
+        assertArrayEquals(data, decode(encoded.bytes));
+        assertTrue(encoded.codecs.stream().allMatch(c -> c == BlockCompressor.CODEC_DEFLATE), encoded.codecs.toString());
+        assertTrue(encoded.bytes.length < data.length / 3, encoded.bytes.length + " bytes");
+        assertEquals(data.length, compressor.getRawBytes());
+        assertEquals(encoded.bytes.length, compressor.getEncodedBytes());
+    }
+
+    @Test
+    void randomInputIsStored() throws IOException {
+        byte[] data = random(10 * BLOCK + 123, 1);
+        Encoded encoded = encode(data);
+
+        assertArrayEquals(data, decode(encoded.bytes));
+        assertTrue(encoded.codecs.stream().allMatch(c -> c == BlockCompressor.CODEC_STORED), encoded.codecs.toString());
+        // Only the block headers on top
+        assertEquals(data.length + 11L * BlockCompressor.HEADER_SIZE, encoded.bytes.length);
+    }
+
+    @Test
+    void mixedInputRoundTrips() throws IOException {
+        ByteArrayOutputStream mixed = new ByteArrayOutputStream();
+        Random random = new Random(2);
+        for (int i = 0; i < 40; i++) {
+            // Regions that do not line up with blocks
+            int length = 1000 + random.nextInt(3 * BLOCK);
+            mixed.writeBytes(i % 2 == 0 ? text(length) : random(length, i));
+        }
+        byte[] data = mixed.toByteArray();
+        Encoded encoded = encode(data);
+
+        assertArrayEquals(data, decode(encoded.bytes));
+        assertTrue(encoded.codecs.contains(BlockCompressor.CODEC_DEFLATE));
+        assertTrue(encoded.codecs.contains(BlockCompressor.CODEC_STORED));
+    }
+
+    @Test
+    void incompressibleBlocksStartGrowingSkipRuns() throws IOException {
+        // One random block, then compressible ones: the next four are stored without trying
+        List<Byte> codecs = codecs(concat(random(BLOCK, 3), text(10 * BLOCK)));
+        assertEquals(List.of(s(), s(), s(), s(), s(), d(), d()), codecs.subList(0, 7));
+
+        // Two tries that fail, four and then eight blocks apart, so the first compressible block after
+        // the second failure waits for the eight skipped blocks
+        codecs = codecs(concat(random(6 * BLOCK, 4), text(12 * BLOCK)));
+        for (int i = 0; i < 14; i++) {
+            assertEquals(s(), codecs.get(i), "block " + i);
+        }
+        assertEquals(d(), codecs.get(14));
+    }
+
+    @Test
+    void skipRunsResetOnceBlocksCompress() throws IOException {
+        // Random, compressible, random: the failure after a success backs off by four again, not eight
+        byte[] data = concat(random(6 * BLOCK, 5), text(16 * BLOCK), random(BLOCK, 6), text(8 * BLOCK));
+        List<Byte> codecs = codecs(data);
+        assertEquals(s(), codecs.get(22));
+        for (int i = 23; i < 27; i++) {
+            assertEquals(s(), codecs.get(i), "block " + i);
+        }
+        assertEquals(d(), codecs.get(27));
+    }
+
+    @Test
+    void sampleDecidesUnlessThePreviousBlockCompressed() throws IOException {
+        // Random first 4 KB, compressible rest: the sample rejects the block on its own...
+        byte[] block = concat(random(4096, 7), text(BLOCK - 4096));
+        assertEquals(List.of(s()), codecs(block));
+
+        // ...but after a compressed block the sample is skipped and the whole block is deflated
+        assertEquals(List.of(d(), d()), codecs(concat(text(BLOCK), block)));
+    }
+
+    @Test
+    void shortBlocksAreNotSampled() throws IOException {
+        // Too short to sample, so it is compressed on the strength of the whole block
+        byte[] data = concat(random(2000, 8), text(6000));
+        assertEquals(List.of(d()), codecs(data));
+        assertArrayEquals(data, decode(encode(data).bytes));
+    }
+
+    @Test
+    void corruptBlocksAreRejected() throws IOException {
+        assertThrows(IOException.class, () -> BlockDecompressor.checkHeader(7, 10, 10));
+        assertThrows(IOException.class, () -> BlockDecompressor.checkHeader(BlockCompressor.CODEC_STORED, 10, 11));
+        assertThrows(IOException.class, () -> BlockDecompressor.checkHeader(BlockCompressor.CODEC_DEFLATE, BLOCK + 1, 10));
+        assertThrows(IOException.class, () -> BlockDecompressor.checkHeader(BlockCompressor.CODEC_DEFLATE, 10, 0));
+
+        byte[] frame = encode(text(BLOCK)).bytes;
+        ByteBuffer header = ByteBuffer.wrap(frame).order(ByteOrder.LITTLE_ENDIAN);
+        int encodedLength = header.getInt(5);
+        // Cut short
+        System.arraycopy(frame, BlockCompressor.HEADER_SIZE, decompressor.input(), 0, encodedLength / 2);
+        assertThrows(IOException.class, () -> decompressor.decode(BlockCompressor.CODEC_DEFLATE, BLOCK, encodedLength / 2));
+        // Claims more raw bytes than it holds
+        System.arraycopy(frame, BlockCompressor.HEADER_SIZE, decompressor.input(), 0, encodedLength);
+        assertThrows(IOException.class, () -> decompressor.decode(BlockCompressor.CODEC_DEFLATE, BLOCK - 1, encodedLength));
+    }
+
+    @Test
+    void releasedCompressorStartsOver() {
+        BlockCompressor used = BlockCompressor.acquire();
+        System.arraycopy(random(BLOCK, 9), 0, used.input(), 0, BLOCK);
+        used.encode(BLOCK);
+        used.release();
+
+        BlockCompressor next = BlockCompressor.acquire();
+        try {
+            System.arraycopy(text(BLOCK), 0, next.input(), 0, BLOCK);
+            next.encode(BLOCK);
+            // Whichever compressor the pool hands out, it is not in a skip run
+            assertEquals(BlockCompressor.CODEC_DEFLATE, next.frame()[0]);
+            assertEquals(BLOCK, next.getRawBytes());
+        } finally {
+            next.release();
+        }
+    }
+
+    private Encoded encode(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Byte> codecs = new ArrayList<>();
+        for (int position = 0; position < data.length; position += BLOCK) {
+            int length = Math.min(BLOCK, data.length - position);
+            System.arraycopy(data, position, compressor.input(), 0, length);
+            int frameLength = compressor.encode(length);
+            codecs.add(compressor.frame()[0]);
+            out.write(compressor.frame(), 0, frameLength);
+        }
+        return new Encoded(out.toByteArray(), codecs);
+    }
+
+    private List<Byte> codecs(byte[] data) {
+        BlockCompressor c = BlockCompressor.acquire();
+        try {
+            List<Byte> codecs = new ArrayList<>();
+            for (int position = 0; position < data.length; position += BLOCK) {
+                int length = Math.min(BLOCK, data.length - position);
+                System.arraycopy(data, position, c.input(), 0, length);
+                c.encode(length);
+                codecs.add(c.frame()[0]);
+            }
+            return codecs;
+        } finally {
+            c.release();
+        }
+    }
+
+    private byte[] decode(byte[] encoded) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (in.hasRemaining()) {
+            int codec = in.get();
+            int rawLength = in.getInt();
+            int encodedLength = in.getInt();
+            BlockDecompressor.checkHeader(codec, rawLength, encodedLength);
+            in.get(decompressor.input(), 0, encodedLength);
+            ByteBuffer raw = decompressor.decode(codec, rawLength, encodedLength);
+            out.write(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining());
+        }
+        return out.toByteArray();
+    }
+
+    private static Byte s() {
+        return BlockCompressor.CODEC_STORED;
+    }
+
+    private static Byte d() {
+        return BlockCompressor.CODEC_DEFLATE;
+    }
+
+    private static byte[] text(int length) {
+        byte[] line = "2024-01-15 12:00:00 INFO upload finished for reports.csv in 42 ms\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = line[i % line.length];
+        }
+        return data;
+    }
+
+    static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int position = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, position, part.length);
+            position += part.length;
+        }
+        return result;
+    }
+
+    private record Encoded(byte[] bytes, List<Byte> codecs) {
+    }
+}
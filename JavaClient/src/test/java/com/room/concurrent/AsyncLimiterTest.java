@@ -0,0 +1,75 @@
+package com.room.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AsyncLimiterTest {
+    @Test
+    void queuesBeyondTheLimitAndStartsInArrivalOrder() {
+        AsyncLimiter limiter = new AsyncLimiter(2);
+        List<Integer> started = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int n = i;
+            limiter.acquire(() -> started.add(n));
+        }
+        assertEquals(List.of(0, 1), started);
+        assertEquals(2, limiter.getActive());
+        assertEquals(3, limiter.getWaiting());
+
+        // Each release hands its slot to the oldest waiting operation
+        limiter.release();
+        assertEquals(List.of(0, 1, 2), started);
+        limiter.release();
+        limiter.release();
+        assertEquals(List.of(0, 1, 2, 3, 4), started);
+        assertEquals(2, limiter.getActive());
+        assertEquals(0, limiter.getWaiting());
+
+        limiter.release();
+        limiter.release();
+        assertEquals(0, limiter.getActive());
+    }
+
+    @Test
+    void limitIsAtLeastOne() {
+        AsyncLimiter limiter = new AsyncLimiter(0);
+        List<Integer> started = new ArrayList<>();
+        limiter.acquire(() -> started.add(1));
+        limiter.acquire(() -> started.add(2));
+        assertEquals(List.of(1), started);
+    }
+
+    @Test
+    void operationThatFailsToStartGivesItsSlotBack() {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        assertThrows(IllegalStateException.class, () -> limiter.acquire(() -> {
+            throw new IllegalStateException("expected by the test");
+        }));
+        assertEquals(0, limiter.getActive());
+
+        List<Integer> started = new ArrayList<>();
+        limiter.acquire(() -> started.add(1));
+        assertEquals(List.of(1), started);
+    }
+
+    @Test
+    void waitingOperationThatFailsToStartPassesTheSlotOn() {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        List<Integer> started = new ArrayList<>();
+        limiter.acquire(() -> started.add(1));
+        limiter.acquire(() -> {
+            throw new IllegalStateException("expected by the test");
+        });
+        limiter.acquire(() -> started.add(3));
+
+        assertThrows(IllegalStateException.class, limiter::release);
+        assertEquals(List.of(1, 3), started);
+        assertEquals(1, limiter.getActive());
+        assertEquals(0, limiter.getWaiting());
+    }
+}
@@ -0,0 +1,106 @@
+package com.room.concurrent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackgroundExecutorTest {
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    void virtualThreadsAreFoundReflectivelyOnJava21() throws Exception {
+        ExecutorService executor = BackgroundExecutor.newVirtualThreadExecutor();
+        assertNotNull(executor);
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+            assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+            assertTrue(thread.getName().startsWith("room-"), thread.getName());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @EnabledForJreRange(max = JRE.JAVA_20)
+    void olderRuntimesFallBackToPlatformThreads() throws Exception {
+        assertNull(BackgroundExecutor.newVirtualThreadExecutor());
+        assertFalse(BackgroundExecutor.isVirtual());
+        Thread thread = CompletableFuture.supplyAsync(Thread::currentThread, BackgroundExecutor.get()).get(5, TimeUnit.SECONDS);
+        assertTrue(thread.isDaemon());
+        assertTrue(thread.getName().startsWith("room-"), thread.getName());
+    }
+
+    @Test
+    void platformPoolUsesNamedDaemonThreads() throws Exception {
+        ExecutorService executor = BackgroundExecutor.newPlatformExecutor();
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+            assertTrue(thread.isDaemon());
+            assertEquals("room-0", thread.getName());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void scheduledTaskRunsAfterItsDelay() throws Exception {
+        CountDownLatch ran = new CountDownLatch(1);
+        long start = System.nanoTime();
+        BackgroundExecutor.schedule(ran::countDown, 50, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void fixedDelayRunsNeverOverlap() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        CountDownLatch runs = new CountDownLatch(3);
+        // Each run takes several periods
+        ScheduledFuture<?> timer = BackgroundExecutor.scheduleWithFixedDelay(() -> {
+            if (running.incrementAndGet() > 1) {
+                overlapped.set(true);
+            }
+            try {
+                Thread.sleep(30);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            runs.countDown();
+        }, 5, TimeUnit.MILLISECONDS);
+        try {
+            assertTrue(runs.await(5, TimeUnit.SECONDS));
+            assertFalse(overlapped.get());
+        } finally {
+            timer.cancel(false);
+        }
+    }
+
+    @Test
+    void aFailingRunDoesNotStopTheTimer() throws Exception {
+        CountDownLatch runs = new CountDownLatch(2);
+        ScheduledFuture<?> timer = BackgroundExecutor.scheduleWithFixedDelay(() -> {
+            runs.countDown();
+            throw new IllegalStateException("expected by the test");
+        }, 5, TimeUnit.MILLISECONDS);
+        try {
+            assertTrue(runs.await(5, TimeUnit.SECONDS));
+        } finally {
+            timer.cancel(false);
+        }
+    }
+}
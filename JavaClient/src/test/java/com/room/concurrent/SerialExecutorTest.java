@@ -0,0 +1,121 @@
+package com.room.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SerialExecutorTest {
+    @Test
+    void runsTasksOneAtATimeInSubmissionOrder() throws Exception {
+        SerialExecutor executor = new SerialExecutor();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger running = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            int n = i;
+            executor.execute(() -> {
+                if (running.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                order.add(n);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(overlapped.get());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, order.get(i));
+        }
+    }
+
+    @Test
+    void keepsEachSubmittersOrderUnderConcurrentSubmission() throws Exception {
+        SerialExecutor executor = new SerialExecutor();
+        int submitters = 4;
+        int perSubmitter = 500;
+        List<List<Integer>> seen = new ArrayList<>();
+        for (int s = 0; s < submitters; s++) {
+            seen.add(new ArrayList<>());
+        }
+        CountDownLatch done = new CountDownLatch(submitters * perSubmitter);
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < submitters; s++) {
+            List<Integer> mine = seen.get(s);
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perSubmitter; i++) {
+                    int n = i;
+                    // Only ever touched by the executor, one task at a time
+                    executor.execute(() -> {
+                        mine.add(n);
+                        done.countDown();
+                    });
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        CountDownLatch last = new CountDownLatch(1);
+        executor.execute(last::countDown);
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+        for (List<Integer> mine : seen) {
+            assertEquals(perSubmitter, mine.size());
+            for (int i = 0; i < perSubmitter; i++) {
+                assertEquals(i, mine.get(i));
+            }
+        }
+    }
+
+    @Test
+    void aFailingTaskDoesNotStopTheOnesAfterIt() throws Exception {
+        SerialExecutor executor = new SerialExecutor();
+        CountDownLatch after = new CountDownLatch(1);
+        executor.execute(() -> {
+            throw new IllegalStateException("expected by the test");
+        });
+        executor.execute(after::countDown);
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void shutdownDropsQueuedTasks() throws Exception {
+        SerialExecutor executor = new SerialExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean ranAfterShutdown = new AtomicBoolean();
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(() -> ranAfterShutdown.set(true));
+        started.await();
+
+        executor.shutdown();
+        executor.execute(() -> ranAfterShutdown.set(true));
+        release.countDown();
+
+        Thread.sleep(100);
+        assertFalse(ranAfterShutdown.get());
+    }
+}
@@ -0,0 +1,121 @@
+package com.room.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TaskScopeTest {
+    @Test
+    void joinWaitsForEverySubtask() throws Exception {
+        try (TaskScope scope = new TaskScope(true)) {
+            Future<Integer> slow = scope.fork(() -> {
+                Thread.sleep(50);
+                return 1;
+            });
+            Future<Integer> fast = scope.fork(() -> 2);
+            scope.join();
+            assertTrue(slow.isDone() && fast.isDone());
+            assertEquals(3, slow.get() + fast.get());
+        }
+    }
+
+    @Test
+    void failFastCancelsTheOtherSubtasks() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        try (TaskScope scope = new TaskScope(true)) {
+            scope.fork(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            });
+            started.await();
+            scope.fork(() -> {
+                throw new IOException("broken");
+            });
+
+            ExecutionException failure = assertThrows(ExecutionException.class, scope::join);
+            assertInstanceOf(IOException.class, failure.getCause());
+            assertEquals("broken", failure.getCause().getMessage());
+            assertTrue(interrupted.get());
+            assertTrue(scope.isCancelled());
+        }
+    }
+
+    @Test
+    void withoutFailFastTheOthersRunToCompletion() throws Exception {
+        AtomicBoolean finished = new AtomicBoolean();
+        try (TaskScope scope = new TaskScope(false)) {
+            scope.fork(() -> {
+                throw new IllegalStateException("first");
+            });
+            scope.fork(() -> {
+                Thread.sleep(50);
+                finished.set(true);
+                return null;
+            });
+
+            ExecutionException failure = assertThrows(ExecutionException.class, scope::join);
+            assertEquals("first", failure.getCause().getMessage());
+            assertTrue(finished.get());
+        }
+    }
+
+    @Test
+    void cancelInterruptsRunningSubtasksAndRefusesNewOnes() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        TaskScope scope = new TaskScope(false);
+        Future<?> running = scope.fork(() -> {
+            started.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        started.await();
+
+        scope.cancel();
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(running.isCancelled());
+        assertThrows(CancellationException.class, () -> scope.fork(() -> 1));
+        // A cancelled subtask is not a failure
+        scope.join();
+        scope.close();
+    }
+
+    @Test
+    void closeReturnsOnlyOnceEverySubtaskHasFinished() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean finished = new AtomicBoolean();
+        TaskScope scope = new TaskScope(false);
+        scope.fork(() -> {
+            started.countDown();
+            // Ignores the interrupt and finishes its cleanup first
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+            finished.set(true);
+        });
+        started.await();
+
+        scope.close();
+        assertTrue(finished.get());
+    }
+}
@@ -0,0 +1,135 @@
+package com.room.daemon;
+
+import com.room.client.ConnectionFactory;
+import com.room.commands.CommandOutput;
+import com.room.config.ClientConfig;
+import com.room.server.StandInServer;
+import com.room.server.store.FileStore;
+import com.room.server.store.MemoryFileStore;
+import com.room.server.store.StoredFile;
+import com.room.server.store.Upload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Runs commands through ControlClient against a daemon session on the stand-in server: what the transfer
+// workers print reaches the client, and a file that did not transfer makes the exit status non-zero
+class ControlServerTest {
+    @TempDir
+    Path dir;
+
+    private final MemoryFileStore store = new MemoryFileStore();
+    // Listed by the server but gone by the time it is requested
+    private final List<String> vanished = new ArrayList<>();
+    private StandInServer standIn;
+    private DaemonSession session;
+    private ControlServer server;
+    private Path socketPath;
+
+    @BeforeEach
+    void startDaemon() throws IOException {
+        cleanClientFiles();
+        CommandOutput.install();
+        standIn = new StandInServer(0, new FileStore() {
+            @Override
+            public List<String> list() {
+                List<String> names = new ArrayList<>(store.list());
+                names.addAll(vanished);
+                return names;
+            }
+
+            @Override
+            public StoredFile open(String name) {
+                return store.open(name);
+            }
+
+            @Override
+            public Upload create(String name) throws IOException {
+                return store.create(name);
+            }
+        });
+        standIn.setCredentials("admin", "test");
+        standIn.start();
+
+        session = new DaemonSession(new ConnectionFactory("127.0.0.1", standIn.getPort()), "admin", "test");
+        socketPath = dir.resolve("room.sock");
+        server = new ControlServer(socketPath, session);
+        server.start();
+    }
+
+    @AfterEach
+    void stopDaemon() throws IOException {
+        server.close();
+        session.close();
+        standIn.close();
+        cleanClientFiles();
+    }
+
+    @Test
+    void transferWorkerOutputReachesTheClient() {
+        store.put("a.bin", "first".getBytes(StandardCharsets.UTF_8));
+        store.put("b.bin", "second".getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = ControlClient.send(socketPath, "download", new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        String text = output.toString(StandardCharsets.UTF_8);
+        assertEquals(ControlServer.STATUS_OK, status, text);
+        // Printed by the workers, not by the thread that ran the command
+        assertTrue(text.contains("Downloaded: a.bin (5 bytes)"), text);
+        assertTrue(text.contains("Downloaded: b.bin (6 bytes)"), text);
+        assertTrue(text.contains("Downloaded 2 file(s)"), text);
+    }
+
+    @Test
+    void failedTransferGivesAFailedStatus() throws IOException {
+        store.put("a.bin", "first".getBytes(StandardCharsets.UTF_8));
+        vanished.add("gone.bin");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = ControlClient.send(socketPath, "download", new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        String text = output.toString(StandardCharsets.UTF_8);
+        assertEquals(ControlServer.STATUS_FAILED, status, text);
+        assertTrue(text.contains("Failed to download gone.bin"), text);
+        assertTrue(text.contains("Downloaded 1 file(s), failed 1 file(s)"), text);
+        assertTrue(Files.exists(Path.of(ClientConfig.getClientFilesDir(), "a.bin")));
+    }
+
+    @Test
+    void unknownCommandIsReported() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = ControlClient.send(socketPath, "frobnicate", new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        assertEquals(ControlServer.STATUS_UNKNOWN_COMMAND, status);
+        assertTrue(output.toString(StandardCharsets.UTF_8).contains("Unknown command: frobnicate"));
+    }
+
+    // The surefire configuration points the client files directory into target; each test starts it empty
+    private static void cleanClientFiles() throws IOException {
+        Path clientFiles = Path.of(ClientConfig.getClientFilesDir());
+        if (!Files.exists(clientFiles)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(clientFiles)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
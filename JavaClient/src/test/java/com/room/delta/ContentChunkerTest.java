@@ -0,0 +1,126 @@
+package com.room.delta;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentChunkerTest {
+    @Test
+    void chunksCoverTheContentWithinBounds() throws IOException {
+        byte[] content = randomBytes(4 * 1024 * 1024, 1);
+        List<Chunk> chunks = new ArrayList<>();
+        byte[] contentHash = ContentChunker.chunk(channel(content),
+                (offset, length, hash) -> chunks.add(new Chunk(offset, length, hash)));
+
+        long expectedOffset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            assertEquals(expectedOffset, chunk.offset());
+            assertTrue(chunk.length() <= ContentChunker.MAX_CHUNK);
+            if (i < chunks.size() - 1) {
+                assertTrue(chunk.length() >= ContentChunker.MIN_CHUNK);
+            }
+            byte[] data = Arrays.copyOfRange(content, (int) chunk.offset(), (int) chunk.offset() + chunk.length());
+            assertArrayEquals(ContentChunker.sha256().digest(data), chunk.hash());
+            expectedOffset += chunk.length();
+        }
+        assertEquals(content.length, expectedOffset);
+        assertArrayEquals(ContentChunker.sha256().digest(content), contentHash);
+        // Boundaries come from the content, not from fixed offsets
+        assertTrue(chunks.size() > 20 && chunks.size() < 200, chunks.size() + " chunks");
+    }
+
+    @Test
+    void chunkingDoesNotDependOnReadSizes() throws IOException {
+        byte[] content = randomBytes(1024 * 1024, 2);
+        List<Chunk> whole = chunks(content);
+        // A channel that hands out a few odd-sized bytes at a time
+        List<Chunk> trickled = new ArrayList<>();
+        ContentChunker.chunk(Channels.newChannel(new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1237));
+            }
+        }), (offset, length, hash) -> trickled.add(new Chunk(offset, length, hash)));
+        assertEquals(describe(whole), describe(trickled));
+    }
+
+    @Test
+    void insertionOnlyChangesNearbyChunks() throws IOException {
+        byte[] original = randomBytes(4 * 1024 * 1024, 3);
+        int at = 2 * 1024 * 1024 + 12345;
+        byte[] inserted = randomBytes(100, 4);
+        byte[] edited = new byte[original.length + inserted.length];
+        System.arraycopy(original, 0, edited, 0, at);
+        System.arraycopy(inserted, 0, edited, at, inserted.length);
+        System.arraycopy(original, at, edited, at + inserted.length, original.length - at);
+
+        List<Chunk> before = chunks(original);
+        List<Chunk> after = chunks(edited);
+
+        // Everything ending before the insertion is cut exactly as before
+        for (Chunk chunk : before) {
+            if (chunk.offset() + chunk.length() <= at) {
+                assertTrue(after.stream().anyMatch(c -> c.offset() == chunk.offset() && Arrays.equals(c.hash(), chunk.hash())),
+                        "chunk at " + chunk.offset() + " changed");
+            }
+        }
+        Set<String> known = hashes(before);
+        long changed = after.stream().filter(c -> !known.contains(hex(c.hash()))).count();
+        // The chunk holding the insertion, and at most the one after it until the hash resynchronises
+        assertTrue(changed >= 1 && changed <= 2, changed + " of " + after.size() + " chunks changed");
+    }
+
+    private static List<Chunk> chunks(byte[] content) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        ContentChunker.chunk(channel(content), (offset, length, hash) -> chunks.add(new Chunk(offset, length, hash)));
+        return chunks;
+    }
+
+    private static List<String> describe(List<Chunk> chunks) {
+        List<String> result = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            result.add(chunk.offset() + "+" + chunk.length() + ":" + hex(chunk.hash()));
+        }
+        return result;
+    }
+
+    private static Set<String> hashes(List<Chunk> chunks) {
+        Set<String> result = new HashSet<>();
+        for (Chunk chunk : chunks) {
+            result.add(hex(chunk.hash()));
+        }
+        return result;
+    }
+
+    private static String hex(byte[] hash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    static ReadableByteChannel channel(byte[] content) {
+        return Channels.newChannel(new ByteArrayInputStream(content));
+    }
+
+    static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,104 @@
+package com.room.delta;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.room.delta.ContentChunkerTest.channel;
+import static com.room.delta.ContentChunkerTest.randomBytes;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeltaPlanTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void applyingThePlanRebuildsTheFile() throws IOException {
+        byte[] base = randomBytes(3 * 1024 * 1024, 10);
+        byte[] local = base.clone();
+        // An edit in the middle and data appended at the end
+        System.arraycopy(randomBytes(5000, 11), 0, local, 1024 * 1024, 5000);
+        local = concat(local, randomBytes(70_000, 12));
+
+        DeltaPlan plan = DeltaPlan.create(write("local.bin", local), signature(base));
+
+        assertArrayEquals(local, apply(plan, base, local));
+        assertEquals(base.length, plan.getBaseSize());
+        assertEquals(local.length, plan.getSize());
+        assertArrayEquals(ContentChunker.sha256().digest(local), plan.getContentHash());
+        assertFalse(plan.isUnchanged());
+        assertTrue(plan.getLiteralBytes() < local.length / 4, plan.getLiteralBytes() + " literal bytes");
+    }
+
+    @Test
+    void neighbouringOpsAreMerged() throws IOException {
+        byte[] base = randomBytes(2 * 1024 * 1024, 13);
+        byte[] local = concat(randomBytes(100, 14), base);
+
+        DeltaPlan plan = DeltaPlan.create(write("local.bin", local), signature(base));
+
+        assertArrayEquals(local, apply(plan, base, local));
+        for (int i = 1; i < plan.getOps().size(); i++) {
+            DeltaOp previous = plan.getOps().get(i - 1);
+            DeltaOp op = plan.getOps().get(i);
+            assertFalse(previous.copy() == op.copy() && previous.offset() + previous.length() == op.offset());
+        }
+    }
+
+    @Test
+    void identicalFileIsUnchanged() throws IOException {
+        byte[] base = randomBytes(1024 * 1024, 15);
+        DeltaPlan plan = DeltaPlan.create(write("same.bin", base), signature(base));
+        assertTrue(plan.isUnchanged());
+        assertEquals(0, plan.getLiteralBytes());
+        assertEquals(1, plan.getOps().size());
+    }
+
+    @Test
+    void unrelatedFileIsAllLiteral() throws IOException {
+        byte[] base = randomBytes(1024 * 1024, 16);
+        byte[] local = randomBytes(1024 * 1024, 17);
+        DeltaPlan plan = DeltaPlan.create(write("other.bin", local), signature(base));
+        assertEquals(local.length, plan.getLiteralBytes());
+        assertArrayEquals(local, apply(plan, base, local));
+    }
+
+    private Path write(String name, byte[] content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, content);
+        return file;
+    }
+
+    // What GETSIGNATURE returns for the server's copy
+    static Signature signature(byte[] content) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        ContentChunker.chunk(channel(content), (offset, length, hash) -> chunks.add(new Chunk(offset, length, hash)));
+        return new Signature(content.length, chunks);
+    }
+
+    // What the server does with PUTDELTA: COPY from its copy, LITERAL from what the client sends
+    private static byte[] apply(DeltaPlan plan, byte[] base, byte[] local) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (DeltaOp op : plan.getOps()) {
+            byte[] source = op.copy() ? base : local;
+            out.write(source, (int) op.offset(), (int) op.length());
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
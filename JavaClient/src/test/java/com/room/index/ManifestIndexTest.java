@@ -0,0 +1,91 @@
+package com.room.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ManifestIndexTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void changesWhileClosedAreSeenByTheFirstLookup() throws IOException {
+        Files.write(dir.resolve("kept.bin"), new byte[10]);
+        Files.write(dir.resolve("deleted.bin"), new byte[20]);
+        Files.write(dir.resolve("grown.bin"), new byte[30]);
+        try (ManifestIndex index = ManifestIndex.open(dir)) {
+            assertEquals(3, index.size());
+        }
+        assertTrue(Files.isRegularFile(dir.resolve(".manifest")));
+
+        Files.delete(dir.resolve("deleted.bin"));
+        Files.write(dir.resolve("grown.bin"), new byte[40]);
+        Files.write(dir.resolve("added.bin"), new byte[50]);
+
+        try (ManifestIndex index = ManifestIndex.open(dir)) {
+            assertFalse(index.contains("deleted.bin"));
+            assertTrue(index.contains("added.bin"));
+            assertEquals(40, index.get("grown.bin").getSize());
+            assertEquals(10, index.get("kept.bin").getSize());
+            assertEquals(3, index.size());
+        }
+    }
+
+    @Test
+    void modifiedSinceSyncSurvivesARestart() throws IOException {
+        Files.write(dir.resolve("a.bin"), new byte[10]);
+        try (ManifestIndex index = ManifestIndex.open(dir)) {
+            index.markSynced("a.bin");
+            assertFalse(index.get("a.bin").isModifiedSinceSync());
+        }
+
+        Files.write(dir.resolve("a.bin"), new byte[11]);
+
+        try (ManifestIndex index = ManifestIndex.open(dir)) {
+            assertTrue(index.get("a.bin").isModifiedSinceSync());
+        }
+    }
+
+    @Test
+    void contentHashIsComputedOnDemandAndKeptUntilTheFileChanges() throws IOException {
+        Files.write(dir.resolve("a.bin"), "abc".getBytes(StandardCharsets.UTF_8));
+        String abc = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+        try (ManifestIndex index = ManifestIndex.open(dir)) {
+            assertNull(index.get("a.bin").getHash());
+            assertEquals(abc, index.getContentHash("a.bin"));
+            assertEquals(abc, index.get("a.bin").getHash());
+            assertNull(index.getContentHash("missing.bin"));
+        }
+
+        try (ManifestIndex index = ManifestIndex.open(dir)) {
+            assertEquals(abc, index.get("a.bin").getHash());
+        }
+
+        Files.write(dir.resolve("a.bin"), "abcd".getBytes(StandardCharsets.UTF_8));
+        try (ManifestIndex index = ManifestIndex.open(dir)) {
+            assertNull(index.get("a.bin").getHash());
+            assertEquals(ManifestIndex.sha256(dir.resolve("a.bin")), index.getContentHash("a.bin"));
+        }
+    }
+
+    @Test
+    void manifestInAnotherFormatIsRebuiltFromTheDirectory() throws IOException {
+        Files.write(dir.resolve("a.bin"), new byte[10]);
+        Files.write(dir.resolve(".manifest"), new byte[]{'R', 'M', 'F', '3', 0, 0, 0, 1});
+
+        try (ManifestIndex index = ManifestIndex.open(dir)) {
+            assertEquals(1, index.size());
+            assertEquals(10, index.get("a.bin").getSize());
+            assertTrue(index.get("a.bin").hasUnsyncedChanges());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.room.metrics;
+
+import com.room.protocol.Protocol;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ClientMetricsTest {
+    @Test
+    void everyRequestCommandIsRecorded() {
+        ClientMetrics metrics = ClientMetrics.get();
+        for (byte command = 1; command <= Protocol.MAX_COMMAND; command++) {
+            if (command == Protocol.CMD_FILE_UPLOADED) {
+                continue;
+            }
+            Map<String, Long> before = metrics.getRequestCounts();
+            metrics.recordRequest(command, 1000);
+            metrics.recordError(command);
+            Map<String, Long> after = metrics.getRequestCounts();
+
+            String changed = null;
+            for (Map.Entry<String, Long> entry : after.entrySet()) {
+                if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                    assertNull(changed, "command " + command + " counted twice");
+                    changed = entry.getKey();
+                }
+            }
+            assertNotNull(changed, "command " + command + " not counted");
+            assertEquals(1L, after.get(changed) - before.get(changed));
+        }
+        assertEquals(Protocol.MAX_COMMAND - 1, metrics.getCommands().size());
+    }
+}
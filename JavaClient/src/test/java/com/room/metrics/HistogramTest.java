@@ -0,0 +1,162 @@
+package com.room.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramTest {
+    // One sub-bucket of a power of two
+    private static final double PRECISION = 1.0 / 64;
+
+    @Test
+    void emptyHistogram() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0.0, histogram.getMean());
+    }
+
+    @Test
+    void valuesBelowTheLinearLimitAreExact() {
+        Histogram histogram = new Histogram();
+        for (int v = 0; v < 128; v++) {
+            histogram.record(v);
+        }
+        for (int v = 1; v <= 128; v++) {
+            assertEquals(v - 1, histogram.getValueAtPercentile(v * 100.0 / 128));
+        }
+    }
+
+    @Test
+    void bucketBoundaries() {
+        // A low value reported at the median comes back as the top of its bucket
+        assertEquals(127, bucketTop(127));
+        assertEquals(129, bucketTop(128));
+        assertEquals(129, bucketTop(129));
+        assertEquals(131, bucketTop(130));
+        assertEquals(255, bucketTop(254));
+        assertEquals(255, bucketTop(255));
+        assertEquals(259, bucketTop(256));
+        assertEquals(263, bucketTop(260));
+        assertEquals((1L << 20) - 1, bucketTop((1L << 20) - 1));
+        assertEquals((1L << 20) + (1L << 14) - 1, bucketTop(1L << 20));
+    }
+
+    private static long bucketTop(long value) {
+        Histogram histogram = new Histogram();
+        histogram.record(value);
+        histogram.record(1L << 40);
+        return histogram.getValueAtPercentile(50);
+    }
+
+    @Test
+    void reportedValuesNeverExceedTheMax() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        assertEquals(1000, histogram.getMax());
+    }
+
+    @Test
+    void outOfRangeValuesAreClamped() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtPercentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals((1L << 44) - 1, histogram.getMax());
+        assertEquals((1L << 44) - 1, histogram.getValueAtPercentile(100));
+        assertEquals(2, histogram.getCount());
+    }
+
+    @Test
+    void percentilesWithinPrecision() {
+        Random random = new Random(42);
+        int n = 200_000;
+        long[] values = new long[n];
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < n; i++) {
+            // Latency-like spread: microseconds to seconds in nanoseconds
+            values[i] = (long) Math.exp(7 + random.nextDouble() * 14);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[] {1, 10, 50, 90, 99, 99.9, 99.99, 100}) {
+            long exact = values[(int) Math.ceil(n * percentile / 100) - 1];
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertTrue(reported >= exact, "p" + percentile + " reported " + reported + " below " + exact);
+            assertTrue(reported <= exact * (1 + PRECISION), "p" + percentile + " reported " + reported + " for " + exact);
+        }
+        assertEquals(values[n - 1], histogram.getMax());
+        assertEquals(Arrays.stream(values).average().orElse(0), histogram.getMean(), 1e-6 * histogram.getMean());
+    }
+
+    @Test
+    void addMergesCountsAndMax() {
+        Histogram a = new Histogram();
+        Histogram b = new Histogram();
+        a.record(10);
+        b.record(20);
+        b.record(5000);
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(5000, a.getMax());
+        assertEquals(20, a.getValueAtPercentile(66));
+
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getMax());
+    }
+
+    @Test
+    void concurrentRecordLosesNothing() throws Exception {
+        int threads = 8;
+        int perThread = 100_000;
+        Histogram shared = new Histogram();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Histogram>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int seed = t;
+                results.add(executor.submit(() -> {
+                    // The same values go into a histogram only this thread touches
+                    Histogram own = new Histogram();
+                    Random random = new Random(seed);
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        long value = random.nextInt(1_000_000);
+                        shared.record(value);
+                        own.record(value);
+                    }
+                    return own;
+                }));
+            }
+            start.countDown();
+            Histogram expected = new Histogram();
+            for (Future<Histogram> result : results) {
+                expected.add(result.get(30, TimeUnit.SECONDS));
+            }
+
+            assertEquals((long) threads * perThread, shared.getCount());
+            assertEquals(expected.getMax(), shared.getMax());
+            assertEquals(expected.getMean(), shared.getMean());
+            for (double percentile = 0.5; percentile <= 100; percentile += 0.5) {
+                assertEquals(expected.getValueAtPercentile(percentile), shared.getValueAtPercentile(percentile));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
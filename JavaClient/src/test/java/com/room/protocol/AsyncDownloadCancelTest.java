@@ -0,0 +1,141 @@
+package com.room.protocol;
+
+import com.room.server.StandInServer;
+import com.room.server.store.MemoryFileStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Cancelling an async download while its response is arriving, or before it was sent, must leave nothing
+// behind on the connection: its decoder leaves the queue once the rest of the response has been read, and the
+// calls queued after it get their own responses
+class AsyncDownloadCancelTest {
+    private static final int BIG_SIZE = 16 * 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final MemoryFileStore store = new MemoryFileStore();
+    private StandInServer standIn;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        standIn = new StandInServer(0, store);
+        standIn.setCredentials("admin", "test");
+        standIn.start();
+        store.put("big.bin", random(BIG_SIZE, 1));
+        for (int i = 0; i < 8; i++) {
+            store.put("small" + i + ".txt", ("small file " + i).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        standIn.close();
+    }
+
+    @Test
+    void cancelMidResponseKeepsLaterResponsesInLine() throws Exception {
+        try (ProtocolClient client = connect(false)) {
+            cancelMidResponse(client);
+        }
+    }
+
+    @Test
+    void cancelMidStreamKeepsLaterResponsesInLineWhenMultiplexed() throws Exception {
+        try (ProtocolClient client = connect(true)) {
+            cancelMidResponse(client);
+        }
+    }
+
+    @Test
+    void cancelledCallsAmongQueuedOnesDoNotShiftTheResponses() throws Exception {
+        try (ProtocolClient client = connect(false)) {
+            List<CompletableFuture<Long>> downloads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                downloads.add(client.downloadFileAsync("small" + i + ".txt", dir.resolve("small" + i + ".txt")));
+            }
+            // Some of these are still queued, others already sent; either way they must not take a response
+            for (int i = 0; i < 8; i += 2) {
+                downloads.get(i).cancel(true);
+            }
+
+            for (int i = 1; i < 8; i += 2) {
+                downloads.get(i).get(10, TimeUnit.SECONDS);
+                assertEquals("small file " + i, Files.readString(dir.resolve("small" + i + ".txt")));
+            }
+            assertTrue(client.ping());
+            assertEquals(0, client.getOutstandingResponses());
+        }
+    }
+
+    private void cancelMidResponse(ProtocolClient client) throws Exception {
+        AtomicReference<CompletableFuture<Long>> download = new AtomicReference<>();
+        CompletableFuture<Long> big = client.downloadFileAsync("big.bin", dir.resolve("big.bin"), (transferred, total) -> {
+            if (transferred >= 1024 * 1024) {
+                // Cancelled from the progress callback, so the response is certainly still arriving
+                CompletableFuture<Long> running;
+                while ((running = download.get()) == null) {
+                    Thread.onSpinWait();
+                }
+                running.cancel(true);
+            }
+        });
+        download.set(big);
+        // Queued behind the big download, so on a plain connection their responses follow its payload
+        CompletableFuture<List<String>> listing = client.listFilesAsync();
+        CompletableFuture<Long> small = client.downloadFileAsync("small3.txt", dir.resolve("small3.txt"));
+        CompletableFuture<Boolean> ping = client.pingAsync();
+
+        assertThrows(CancellationException.class, () -> big.get(30, TimeUnit.SECONDS));
+
+        assertEquals(store.list(), listing.get(30, TimeUnit.SECONDS));
+        assertEquals(12, small.get(30, TimeUnit.SECONDS));
+        assertArrayEquals("small file 3".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(dir.resolve("small3.txt")));
+        assertTrue(ping.get(30, TimeUnit.SECONDS));
+
+        // The cancelled decoder is gone once the rest of its response has been read or reset
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (client.getOutstandingResponses() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.getOutstandingResponses());
+        assertTrue(client.ping());
+        assertEquals(12, client.downloadFile("small3.txt", dir.resolve("again.txt").toString()));
+    }
+
+    private ProtocolClient connect(boolean multiplexed) throws IOException {
+        ProtocolClient client = new ProtocolClient(SocketChannel.open(new InetSocketAddress("127.0.0.1", standIn.getPort())));
+        if (multiplexed) {
+            client.enableMultiplexing();
+        }
+        client.auth("admin", "test");
+        return client;
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+}
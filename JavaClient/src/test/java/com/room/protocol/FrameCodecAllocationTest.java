@@ -0,0 +1,100 @@
+package com.room.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Steady-state request encoding and header decoding must not allocate: one stray object per frame is
+// megabytes of garbage per second on a busy connection
+class FrameCodecAllocationTest {
+    private static final int CYCLES = 200_000;
+    // Room for the measurement itself; any per-cycle allocation would be at least 16 bytes * CYCLES
+    private static final long ALLOWED_BYTES = 64 * 1024;
+    private static final String NAME = "reports-2024-01-15.csv";
+
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Test
+    void encodeRequestDoesNotAllocate() throws IOException {
+        FrameEncoder encoder = new FrameEncoder(256);
+        for (int i = 0; i < CYCLES; i++) {
+            encoder.begin(Protocol.CMD_GETFILE).putString(NAME).writeTo(sink);
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < CYCLES; i++) {
+            encoder.begin(Protocol.CMD_GETFILE).putString(NAME).putLong(i).writeTo(sink);
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertTrue(allocated < ALLOWED_BYTES, "encoding allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void decodeHeaderDoesNotAllocate() throws IOException {
+        byte[] header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(NAME.length())
+                .putLong(123_456_789L)
+                .array();
+        FrameInputStream input = new FrameInputStream(new CyclicInputStream(header), 65536);
+        long sum = 0;
+        for (int i = 0; i < CYCLES; i++) {
+            sum += input.readInt() + input.readLong();
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < CYCLES; i++) {
+            sum += input.readInt() + input.readLong();
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertEquals(2L * CYCLES * (NAME.length() + 123_456_789L), sum);
+        assertTrue(allocated < ALLOWED_BYTES, "decoding allocated " + allocated + " bytes");
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    // Endless repetition of one frame, so the decoder always sees a steady stream of identical frames
+    private static final class CyclicInputStream extends InputStream {
+        private final byte[] frame;
+        private int pos;
+
+        private CyclicInputStream(byte[] frame) {
+            this.frame = frame;
+        }
+
+        @Override
+        public int read() {
+            int b = frame[pos] & 0xff;
+            pos = (pos + 1) % frame.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, frame.length - pos);
+            System.arraycopy(frame, pos, b, off, n);
+            pos = (pos + n) % frame.length;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.room.protocol;
+
+import com.room.server.StandInServer;
+import com.room.server.store.MemoryFileStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// On the plain protocol a push can arrive wherever a response could start, and listing and file responses
+// may begin with the push command byte themselves. These feed the client hand-written server bytes.
+class PushDetectionTest {
+    @TempDir
+    Path dir;
+
+    private PipedOutputStream server;
+    private final RequestLog requests = new RequestLog();
+    private ProtocolClient client;
+    private final BlockingQueue<String> pushes = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void connect() throws IOException {
+        server = new PipedOutputStream();
+        client = new ProtocolClient(new PipedInputStream(server, 1 << 20), requests);
+        client.setOnFileUploadedCallback(pushes::add);
+        client.startNotificationListener();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        client.close();
+    }
+
+    @Test
+    void listingWhoseCountStartsWithPushByte() throws Exception {
+        CompletableFuture<List<String>> listing = client.listFilesAsync();
+        requests.await(1);
+        send(listing("a", "b", "c", "d", "e", "f"));
+
+        assertEquals(List.of("a", "b", "c", "d", "e", "f"), listing.get(5, TimeUnit.SECONDS));
+        assertNull(pushes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void fileResponseWhoseSizeStartsWithPushByte() throws Exception {
+        // 0x0406 bytes: the size reads as 06 04 00 00 ..., a push byte followed by a small length
+        byte[] content = randomBytes(0x0406);
+        CompletableFuture<Long> download = client.downloadFileAsync("data.bin", dir.resolve("data.bin"));
+        requests.await(1);
+        send(file(content));
+
+        assertEquals(content.length, (long) download.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("data.bin")));
+        assertNull(pushes.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void pushAheadOfListingThatStartsWithPushByte() throws Exception {
+        CompletableFuture<List<String>> listing = client.listFilesAsync();
+        requests.await(1);
+        send(push("new.txt"), listing("a", "b", "c", "d", "e", "f"));
+
+        assertEquals(6, listing.get(5, TimeUnit.SECONDS).size());
+        assertEquals("new.txt", pushes.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void consecutivePushesAheadOfFileResponse() throws Exception {
+        byte[] content = randomBytes(0x0406);
+        CompletableFuture<Long> download = client.downloadFileAsync("data.bin", dir.resolve("data.bin"));
+        requests.await(1);
+        send(push("one.txt"), push("two.txt"), push("three.txt"), file(content));
+
+        assertEquals(content.length, (long) download.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("data.bin")));
+        assertEquals("one.txt", pushes.poll(5, TimeUnit.SECONDS));
+        assertEquals("two.txt", pushes.poll(5, TimeUnit.SECONDS));
+        assertEquals("three.txt", pushes.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void pushesBetweenPipelinedResponses() throws Exception {
+        CompletableFuture<List<String>> first = client.listFilesAsync();
+        CompletableFuture<Boolean> ping = client.pingAsync();
+        CompletableFuture<List<String>> second = client.listFilesAsync();
+        requests.await(3);
+        send(listing("x"), push("one.txt"), new byte[]{1}, push("two.txt"), push("three.txt"),
+                listing("a", "b", "c", "d", "e", "f"));
+
+        assertEquals(List.of("x"), first.get(5, TimeUnit.SECONDS));
+        assertTrue(ping.get(5, TimeUnit.SECONDS));
+        assertEquals(6, second.get(5, TimeUnit.SECONDS).size());
+        assertEquals("one.txt", pushes.poll(5, TimeUnit.SECONDS));
+        assertEquals("two.txt", pushes.poll(5, TimeUnit.SECONDS));
+        assertEquals("three.txt", pushes.poll(5, TimeUnit.SECONDS));
+    }
+
+    // The client can only tell pushes from responses where a response starts, so a server must never put
+    // one between a response header and its body. Here another session uploads while a shaped download
+    // is in flight: the push has to wait for the end of the file.
+    @Test
+    void pushDuringDownloadWaitsForTheBody() throws Exception {
+        MemoryFileStore store = new MemoryFileStore();
+        byte[] content = randomBytes(2 * 1024 * 1024);
+        store.put("big.bin", content);
+        StandInServer standIn = new StandInServer(0, store);
+        standIn.setCredentials("admin", "test");
+        standIn.setBandwidth(8 * 1024 * 1024);
+        standIn.start();
+        try (ProtocolClient downloader = connect(standIn.getPort());
+             ProtocolClient uploader = connect(standIn.getPort())) {
+            BlockingQueue<String> received = new LinkedBlockingQueue<>();
+            downloader.setOnFileUploadedCallback(received::add);
+            downloader.startNotificationListener();
+            downloader.auth("admin", "test");
+            uploader.auth("admin", "test");
+
+            CompletableFuture<Long> download = downloader.downloadFileAsync("big.bin", dir.resolve("big.bin"));
+            Thread.sleep(50);
+            Path upload = dir.resolve("small.txt");
+            Files.writeString(upload, "hello");
+            uploader.uploadFile(upload.toString());
+
+            assertEquals(content.length, (long) download.get(10, TimeUnit.SECONDS));
+            assertArrayEquals(content, Files.readAllBytes(dir.resolve("big.bin")));
+            assertEquals("small.txt", received.poll(5, TimeUnit.SECONDS));
+        } finally {
+            standIn.close();
+        }
+    }
+
+    private static ProtocolClient connect(int port) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("127.0.0.1", port));
+        return new ProtocolClient(socket);
+    }
+
+    // The client's side of the wire. A server only answers requests it has received, so responses are sent
+    // once the requests are out; before that the client would rightly take a leading push byte for a push.
+    private static final class RequestLog extends OutputStream {
+        private int requests;
+
+        @Override
+        public synchronized void write(int b) {
+        }
+
+        // Every request the client makes here is flushed on its own
+        @Override
+        public synchronized void flush() {
+            requests++;
+            notifyAll();
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (requests < count) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new AssertionError("Client sent " + requests + " of " + count + " requests");
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+    }
+
+    private void send(byte[]... frames) throws IOException {
+        for (byte[] frame : frames) {
+            server.write(frame);
+        }
+        server.flush();
+    }
+
+    private static byte[] listing(String... names) {
+        ByteBuffer buffer = allocate(4 + names.length * 64);
+        buffer.putInt(names.length);
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        return toArray(buffer);
+    }
+
+    private static byte[] file(byte[] content) {
+        return toArray(allocate(8 + content.length).putLong(content.length).put(content));
+    }
+
+    private static byte[] push(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        return toArray(allocate(5 + bytes.length).put(Protocol.CMD_FILE_UPLOADED).putInt(bytes.length).put(bytes));
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,183 @@
+package com.room.protocol;
+
+import com.room.server.StandInServer;
+import com.room.server.store.MemoryFileStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A download cut short keeps its .part and a .part.meta naming the server's version of the file; the next
+// attempt only gets the rest if that version is still current, and the target appears only once complete
+class ResumableDownloadTest {
+    private static final int SIZE = 6 * 1024 * 1024 + 5;
+
+    @TempDir
+    Path dir;
+
+    private final MemoryFileStore store = new MemoryFileStore();
+    private StandInServer standIn;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        standIn = new StandInServer(0, store);
+        standIn.setCredentials("admin", "test");
+        standIn.start();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        standIn.close();
+    }
+
+    @Test
+    void rangedDownloadResumesFromTheCheckpoint() throws Exception {
+        resumesFromTheCheckpoint(Protocol.CAP_RANGE);
+    }
+
+    @Test
+    void compressedDownloadResumesFromTheCheckpoint() throws Exception {
+        resumesFromTheCheckpoint(Protocol.CAP_COMPRESS);
+    }
+
+    @Test
+    void stalePartialCopyIsDownloadedAgainFromTheStart() throws Exception {
+        store.put("data.bin", random(SIZE, 1));
+        Path target = dir.resolve("data.bin");
+        try (ProtocolClient client = connect(Protocol.CAP_RANGE)) {
+            PartialDownload.ResumeState state = interrupt(client, target);
+
+            // Same size, different content: only the version tells the partial copy apart
+            byte[] replaced = random(SIZE, 2);
+            store.put("data.bin", replaced);
+            assertEquals(state.size(), replaced.length);
+            assertTrue(store.open("data.bin").version() != state.version());
+
+            assertEquals(SIZE, client.downloadFile("data.bin", target.toString()));
+            assertArrayEquals(replaced, Files.readAllBytes(target));
+        }
+        assertNoLeftovers(target);
+    }
+
+    @Test
+    void completeReplacesTheTargetOnlyAtTheEnd() throws IOException {
+        Path target = dir.resolve("report.bin");
+        byte[] previous = random(1000, 3);
+        Files.write(target, previous);
+        byte[] content = random(4000, 4);
+
+        PartialDownload download = new PartialDownload(target.toString());
+        try (FileChannel channel = download.open(content.length, 7, 0)) {
+            channel.write(ByteBuffer.wrap(content, 0, 1500), 0);
+            download.checkpoint(channel, content.length, 1500);
+            assertArrayEquals(previous, Files.readAllBytes(target));
+            assertEquals(new PartialDownload.ResumeState(content.length, 7, 1500), download.loadResumeState());
+
+            channel.write(ByteBuffer.wrap(content, 1500, content.length - 1500), 1500);
+            assertArrayEquals(previous, Files.readAllBytes(target));
+        }
+        download.complete();
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertNoLeftovers(target);
+    }
+
+    @Test
+    void partialCopyWithoutAVersionIsNotResumed() throws IOException {
+        Path target = dir.resolve("plain.bin");
+        PartialDownload download = new PartialDownload(target.toString());
+        // What a plain GETFILE reports: there is nothing to check a later range against
+        try (FileChannel channel = download.open(4000, -1, 0)) {
+            channel.write(ByteBuffer.wrap(random(1500, 5)), 0);
+            download.checkpoint(channel, 4000, 1500);
+        }
+        assertNull(download.loadResumeState());
+    }
+
+    // The kept prefix of the .part is zeroed before resuming, so the result shows which bytes were not sent again
+    private void resumesFromTheCheckpoint(int capabilities) throws Exception {
+        byte[] content = random(SIZE, 6);
+        store.put("data.bin", content);
+        Path target = dir.resolve("data.bin");
+        try (ProtocolClient client = connect(capabilities)) {
+            PartialDownload.ResumeState state = interrupt(client, target);
+            assertEquals(store.open("data.bin").version(), state.version());
+            try (FileChannel part = FileChannel.open(dir.resolve("data.bin.part"), StandardOpenOption.WRITE)) {
+                part.write(ByteBuffer.allocate((int) state.offset()), 0);
+            }
+
+            assertEquals(SIZE, client.downloadFile("data.bin", target.toString()));
+            byte[] expected = content.clone();
+            Arrays.fill(expected, 0, (int) state.offset(), (byte) 0);
+            assertArrayEquals(expected, Files.readAllBytes(target));
+        }
+        assertNoLeftovers(target);
+    }
+
+    // Cancels a download once a few chunks are in; the abandoned sink checkpoints what it has
+    private PartialDownload.ResumeState interrupt(ProtocolClient client, Path target) throws Exception {
+        AtomicReference<CompletableFuture<Long>> download = new AtomicReference<>();
+        CompletableFuture<Long> future = client.downloadFileAsync("data.bin", target, (transferred, total) -> {
+            if (transferred >= 1024 * 1024) {
+                // The first chunk can arrive before downloadFileAsync has returned
+                CompletableFuture<Long> running;
+                while ((running = download.get()) == null) {
+                    Thread.onSpinWait();
+                }
+                running.cancel(true);
+            }
+        });
+        download.set(future);
+        assertThrows(CancellationException.class, () -> future.get(30, TimeUnit.SECONDS));
+        // The connection drains the rest of the payload, so the next request lines up
+        assertTrue(client.ping());
+
+        assertFalse(Files.exists(target));
+        PartialDownload.ResumeState state = new PartialDownload(target.toString()).loadResumeState();
+        assertNotNull(state);
+        assertEquals(SIZE, state.size());
+        assertTrue(state.offset() > 0 && state.offset() < SIZE, "offset " + state.offset());
+        return state;
+    }
+
+    private ProtocolClient connect(int capabilities) throws IOException {
+        ProtocolClient client = new ProtocolClient(SocketChannel.open(new InetSocketAddress("127.0.0.1", standIn.getPort())));
+        client.setServerCapabilities(capabilities);
+        client.auth("admin", "test");
+        return client;
+    }
+
+    private static void assertNoLeftovers(Path target) {
+        assertFalse(Files.exists(Path.of(target + PartialDownload.PART_SUFFIX)));
+        assertFalse(Files.exists(Path.of(target + PartialDownload.META_SUFFIX)));
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,132 @@
+package com.room.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TransferTunerTest {
+    private static final int KB = 1024;
+    private static final int MB = 1024 * 1024;
+    private static final long MS = 1_000_000L;
+    private static final long SECOND = 1_000_000_000L;
+
+    private final TransferTuner tuner = new TransferTuner(256 * KB, 4 * MB, 64 * MB, (size, send) -> true);
+
+    @Test
+    void startsAtTheMinimumChunkWithOsBuffers() {
+        assertEquals(256 * KB, tuner.getChunkSize());
+        assertEquals(0, tuner.getReceiveBufferSize());
+        assertEquals(0, tuner.getSendBufferSize());
+    }
+
+    @Test
+    void throughputWithoutARoundTripChangesNothing() {
+        tuner.recordDownload(400L * MB, SECOND);
+        assertEquals(400.0 * MB, tuner.getDownloadRate());
+        assertEquals(256 * KB, tuner.getChunkSize());
+        assertEquals(0, tuner.getReceiveBufferSize());
+    }
+
+    @Test
+    void sizesFollowTheBandwidthDelayProduct() {
+        // 400 MB/s over 10 ms: 4 MB in flight
+        tuner.recordRtt(10 * MS);
+        tuner.recordDownload(400L * MB, SECOND);
+        assertEquals(MB, tuner.getChunkSize());
+        assertEquals(16 * MB, tuner.getReceiveBufferSize());
+        assertEquals(0, tuner.getSendBufferSize());
+        assertEquals(1, tuner.getGeneration());
+
+        // 200 MB/s up: 2 MB in flight; the chunk follows the larger direction
+        tuner.recordUpload(200L * MB, SECOND);
+        assertEquals(MB, tuner.getChunkSize());
+        assertEquals(8 * MB, tuner.getSendBufferSize());
+        assertEquals(16 * MB, tuner.getReceiveBufferSize());
+        assertEquals(2, tuner.getGeneration());
+    }
+
+    @Test
+    void clampsAtTheUpperBounds() {
+        // 10 GB/s over 50 ms is half a gigabyte in flight
+        tuner.recordRtt(50 * MS);
+        tuner.recordDownload(10L * 1024 * MB, SECOND);
+        assertEquals(4 * MB, tuner.getChunkSize());
+        assertEquals(64 * MB, tuner.getReceiveBufferSize());
+    }
+
+    @Test
+    void clampsAtTheLowerBound() {
+        // 1 MB/s over 1 ms is about a kilobyte in flight
+        tuner.recordRtt(MS);
+        tuner.recordDownload(MB, SECOND);
+        assertEquals(256 * KB, tuner.getChunkSize());
+        assertEquals(8 * KB, tuner.getReceiveBufferSize());
+    }
+
+    @Test
+    void roundTripIsTheMinimumOfTheRecentSamples() {
+        tuner.recordRtt(50 * MS);
+        tuner.recordRtt(10 * MS);
+        tuner.recordRtt(30 * MS);
+        assertEquals(10 * MS, tuner.getRttNanos());
+
+        // Once the low sample has rolled out of the window the next lowest counts
+        for (int i = 0; i < 8; i++) {
+            tuner.recordRtt(20 * MS);
+        }
+        assertEquals(20 * MS, tuner.getRttNanos());
+
+        tuner.recordRtt(0);
+        assertEquals(20 * MS, tuner.getRttNanos());
+    }
+
+    @Test
+    void shortTransfersAreNotSampledAndRatesAreAveraged() {
+        tuner.recordDownload(512 * KB, MS);
+        assertEquals(0.0, tuner.getDownloadRate());
+
+        tuner.recordDownload(100L * MB, SECOND);
+        tuner.recordDownload(300L * MB, SECOND);
+        assertEquals(200.0 * MB, tuner.getDownloadRate());
+    }
+
+    @Test
+    void buffersOnlyGrow() {
+        tuner.recordRtt(10 * MS);
+        tuner.recordDownload(400L * MB, SECOND);
+        assertEquals(16 * MB, tuner.getReceiveBufferSize());
+
+        tuner.recordDownload(2L * MB, SECOND);
+        tuner.recordDownload(2L * MB, SECOND);
+        assertEquals(16 * MB, tuner.getReceiveBufferSize());
+        assertEquals(1, tuner.getGeneration());
+    }
+
+    @Test
+    void sizeAboveTheOsLimitIsLeftToTheOs() {
+        AtomicInteger probes = new AtomicInteger();
+        TransferTuner limited = new TransferTuner(256 * KB, 4 * MB, 64 * MB, (size, send) -> {
+            probes.incrementAndGet();
+            return size <= 8 * MB;
+        });
+        limited.recordRtt(10 * MS);
+        limited.recordDownload(400L * MB, SECOND);
+
+        assertEquals(0, limited.getReceiveBufferSize());
+        assertEquals(16 * MB, limited.getCappedReceiveBuffer());
+        assertEquals(0, limited.getGeneration());
+        assertEquals(1, probes.get());
+
+        // The same need is not probed again
+        limited.recordDownload(400L * MB, SECOND);
+        assertEquals(0, limited.getReceiveBufferSize());
+        assertEquals(1, probes.get());
+
+        // A path that fits under the limit still gets a fixed send buffer
+        limited.recordUpload(100L * MB, SECOND);
+        assertEquals(4 * MB, limited.getSendBufferSize());
+        assertEquals(0, limited.getCappedSendBuffer());
+    }
+}
@@ -0,0 +1,384 @@
+package com.room.protocol.nio;
+
+import com.room.delta.DeltaPlan;
+import com.room.delta.Signature;
+import com.room.protocol.PartialDownload;
+import com.room.protocol.Protocol;
+import com.room.protocol.ResponseException;
+import com.room.server.StandInServer;
+import com.room.server.store.MemoryFileStore;
+import com.room.server.store.StoredFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The engine against the stand-in server for the request paths, and against hand-written server bytes
+// where the test needs to control how responses are split across reads or how fast the server reads
+class NioClientEngineTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @TempDir
+    Path dir;
+
+    private final MemoryFileStore store = new MemoryFileStore();
+    private StandInServer standIn;
+    private NioClientEngine engine;
+
+    @BeforeEach
+    void start() throws IOException {
+        standIn = new StandInServer(0, store);
+        standIn.setCredentials("admin", "test");
+        standIn.start();
+        engine = new NioClientEngine(2);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        engine.close();
+        standIn.close();
+    }
+
+    @Test
+    void authListGetPut() throws Exception {
+        byte[] content = mixed(3 * 1024 * 1024 + 17, 1);
+        store.put("down.bin", content);
+        store.put("other.bin", new byte[]{1, 2, 3});
+
+        NioSession session = await(engine.connect("127.0.0.1", standIn.getPort()));
+        assertEquals(Protocol.CAP_DELTA | Protocol.CAP_RANGE | Protocol.CAP_COMPRESS, session.getServerCapabilities());
+        await(session.auth("admin", "test"));
+
+        assertEquals(List.of("down.bin", "other.bin"), await(session.listFiles()));
+        assertEquals(content.length, (long) await(session.downloadFile("down.bin", dir.resolve("down.bin"))));
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("down.bin")));
+
+        // Compressed above BlockCompressor.MIN_PAYLOAD_SIZE, plain below it
+        byte[] large = mixed(2 * 1024 * 1024 + 5, 2);
+        byte[] small = "small upload".getBytes(StandardCharsets.UTF_8);
+        Files.write(dir.resolve("large.bin"), large);
+        Files.write(dir.resolve("small.txt"), small);
+        CompletableFuture<Void> first = session.uploadFile(dir.resolve("large.bin"));
+        CompletableFuture<Void> second = session.uploadFile(dir.resolve("small.txt"));
+        // PUTFILE has no response; a ping comes back once both uploads are stored
+        assertTrue(await(session.ping()));
+        await(first);
+        await(second);
+        assertArrayEquals(large, read("large.bin"));
+        assertArrayEquals(small, read("small.txt"));
+        session.close();
+    }
+
+    @Test
+    void plainSessionDownloadsWithGetFile() throws Exception {
+        byte[] content = mixed(1024 * 1024, 3);
+        store.put("plain.bin", content);
+
+        NioSession session = await(engine.open(new InetSocketAddress("127.0.0.1", standIn.getPort())));
+        await(session.auth("admin", "test"));
+        assertEquals(content.length, (long) await(session.downloadFile("plain.bin", dir.resolve("plain.bin"))));
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("plain.bin")));
+        session.close();
+    }
+
+    @Test
+    void rejectedAuthFailsTheRequest() throws Exception {
+        NioSession session = await(engine.open(new InetSocketAddress("127.0.0.1", standIn.getPort())));
+        assertInstanceOf(ResponseException.class, failure(session.auth("admin", "wrong")));
+        // The server drops the session after answering
+        assertInstanceOf(IOException.class, failure(session.ping()));
+        assertFalse(session.isOpen());
+    }
+
+    @Test
+    void missingFileLeavesTheSessionUsable() throws Exception {
+        NioSession session = await(engine.open(new InetSocketAddress("127.0.0.1", standIn.getPort())));
+        await(session.auth("admin", "test"));
+        assertInstanceOf(ResponseException.class, failure(session.downloadFile("missing.bin", dir.resolve("missing.bin"))));
+        assertFalse(Files.exists(dir.resolve("missing.bin")));
+        assertTrue(await(session.ping()));
+        assertTrue(session.isOpen());
+        session.close();
+    }
+
+    @Test
+    void rangedDownloadResumesFromThePartFile() throws Exception {
+        resume(Protocol.CAP_RANGE);
+    }
+
+    @Test
+    void compressedDownloadResumesFromThePartFile() throws Exception {
+        resume(Protocol.CAP_COMPRESS);
+    }
+
+    @Test
+    void deltaUploadRebuildsTheServerCopy() throws Exception {
+        byte[] base = mixed(2 * 1024 * 1024, 4);
+        byte[] local = base.clone();
+        Arrays.fill(local, 700_000, 700_100, (byte) 7);
+        store.put("delta.bin", base);
+        Path file = dir.resolve("delta.bin");
+        Files.write(file, local);
+
+        NioSession session = await(engine.connect("127.0.0.1", standIn.getPort()));
+        await(session.auth("admin", "test"));
+        assertNull(await(session.getSignature("missing.bin")));
+        Signature signature = await(session.getSignature("delta.bin"));
+        DeltaPlan plan = DeltaPlan.create(file, signature);
+        assertTrue(plan.getLiteralBytes() < local.length / 4);
+
+        assertTrue(await(session.uploadDelta(file, plan)));
+        assertArrayEquals(local, read("delta.bin"));
+        session.close();
+    }
+
+    @Test
+    void pushesInterleavedWithListings() throws Exception {
+        for (String name : List.of("a", "b", "c", "d", "e")) {
+            store.put(name, new byte[]{1});
+        }
+        Path file = dir.resolve("f");
+        Files.write(file, new byte[]{2});
+
+        NioSession listener = await(engine.connect("127.0.0.1", standIn.getPort()));
+        await(listener.auth("admin", "test"));
+        BlockingQueue<String> pushes = new LinkedBlockingQueue<>();
+        listener.setOnFileUploaded(pushes::add);
+        NioSession uploader = await(engine.open(new InetSocketAddress("127.0.0.1", standIn.getPort())));
+        await(uploader.auth("admin", "test"));
+
+        // Once "f" is stored the listing count is 6, so every listing starts with the push command byte
+        int rounds = 50;
+        List<CompletableFuture<List<String>>> listings = new ArrayList<>();
+        for (int i = 0; i < rounds; i++) {
+            uploader.uploadFile(file);
+            listings.add(listener.listFiles());
+        }
+        assertTrue(await(uploader.ping()));
+        listings.add(listener.listFiles());
+
+        for (CompletableFuture<List<String>> listing : listings) {
+            List<String> names = await(listing);
+            assertTrue(names.equals(List.of("a", "b", "c", "d", "e")) || names.equals(List.of("a", "b", "c", "d", "e", "f")),
+                    names.toString());
+        }
+        assertEquals(6, await(listings.get(listings.size() - 1)).size());
+        for (int i = 0; i < rounds; i++) {
+            assertEquals("f", pushes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        assertNull(pushes.poll(100, TimeUnit.MILLISECONDS));
+        listener.close();
+        uploader.close();
+    }
+
+    @Test
+    void pushSplitAcrossReadsAheadOfAListing() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+            NioSession session = await(engine.open((InetSocketAddress) server.getLocalAddress()));
+            BlockingQueue<String> pushes = new LinkedBlockingQueue<>();
+            session.setOnFileUploaded(pushes::add);
+            try (SocketChannel peer = server.accept()) {
+                CompletableFuture<List<String>> listing = session.listFiles();
+                ByteBuffer request = ByteBuffer.allocate(1);
+                while (request.hasRemaining()) {
+                    peer.read(request);
+                }
+                assertEquals(Protocol.CMD_LISTFILES, request.get(0));
+
+                byte[] push = push("x.bin");
+                byte[] response = listing("a", "b", "c", "d", "e", "f");
+                // Every piece ends where the client cannot yet tell a push from the listing
+                writeSlowly(peer, Arrays.copyOfRange(push, 0, 3));
+                writeSlowly(peer, Arrays.copyOfRange(push, 3, push.length));
+                writeSlowly(peer, Arrays.copyOfRange(response, 0, 1));
+                writeSlowly(peer, Arrays.copyOfRange(response, 1, 6));
+                writeSlowly(peer, Arrays.copyOfRange(response, 6, response.length));
+
+                assertEquals(List.of("a", "b", "c", "d", "e", "f"), await(listing));
+                assertEquals("x.bin", pushes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                assertNull(pushes.poll(100, TimeUnit.MILLISECONDS));
+            }
+            session.close();
+        }
+    }
+
+    @Test
+    void whenWritableCompletesOnceAFullQueueDrains() throws Exception {
+        byte[] content = new byte[16 * 1024 * 1024];
+        new Random(5).nextBytes(content);
+        Path file = dir.resolve("queued.bin");
+        Files.write(file, content);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.setOption(StandardSocketOptions.SO_RCVBUF, 16 * 1024);
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            NioSession session = await(engine.open((InetSocketAddress) server.getLocalAddress()));
+            try (SocketChannel peer = server.accept()) {
+                CompletableFuture<Void> upload = session.uploadFile(file);
+                assertFalse(session.isWritable());
+                assertTrue(session.getQueuedBytes() > NioSession.HIGH_WATER_MARK);
+                CompletableFuture<Void> writable = session.whenWritable();
+
+                // The peer is not reading, so the socket buffers fill and the queue stays above the mark
+                Thread.sleep(300);
+                assertFalse(writable.isDone());
+                assertFalse(upload.isDone());
+
+                ByteBuffer received = ByteBuffer.allocate(1 + 4 + "queued.bin".length() + 8 + content.length);
+                CompletableFuture<Void> drained = CompletableFuture.runAsync(() -> {
+                    try {
+                        while (received.hasRemaining() && peer.read(received) >= 0) {
+                            // keep reading
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                await(writable);
+                assertTrue(session.getQueuedBytes() <= NioSession.LOW_WATER_MARK || upload.isDone());
+                await(upload);
+                await(drained);
+                assertTrue(session.isWritable());
+                assertEquals(Protocol.CMD_PUTFILE, received.get(0));
+                assertArrayEquals(content, Arrays.copyOfRange(received.array(), received.capacity() - content.length,
+                        received.capacity()));
+            }
+            session.close();
+        }
+    }
+
+    @Test
+    void whenWritableFailsWhenTheSessionCloses() throws Exception {
+        Path file = dir.resolve("queued.bin");
+        Files.write(file, new byte[16 * 1024 * 1024]);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.setOption(StandardSocketOptions.SO_RCVBUF, 16 * 1024);
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            NioSession session = await(engine.open((InetSocketAddress) server.getLocalAddress()));
+            try (SocketChannel peer = server.accept()) {
+                CompletableFuture<Void> upload = session.uploadFile(file);
+                CompletableFuture<Void> writable = session.whenWritable();
+                assertFalse(writable.isDone());
+
+                session.close();
+                assertInstanceOf(IOException.class, failure(writable));
+                assertInstanceOf(IOException.class, failure(upload));
+                assertFalse(session.isOpen());
+                assertEquals(0, session.getQueuedBytes());
+                assertInstanceOf(IOException.class, failure(session.whenWritable()));
+                assertInstanceOf(IOException.class, failure(session.ping()));
+            }
+        }
+    }
+
+    // The .part holds zeros where the server copy has data, so the result shows which bytes were kept
+    private void resume(int capabilities) throws Exception {
+        byte[] content = mixed(3 * 1024 * 1024 + 17, 6);
+        store.put("resume.bin", content);
+        Path target = dir.resolve("resume.bin");
+        int offset = 1024 * 1024 + 3;
+        long version = store.open("resume.bin").version();
+        PartialDownload partial = new PartialDownload(target.toString());
+        try (FileChannel channel = partial.open(content.length, version, 0)) {
+            partial.checkpoint(channel, content.length, offset);
+        }
+
+        NioSession session = await(engine.open(new InetSocketAddress("127.0.0.1", standIn.getPort())));
+        session.setServerCapabilities(capabilities);
+        await(session.auth("admin", "test"));
+        assertEquals(content.length, (long) await(session.downloadFile("resume.bin", target)));
+
+        byte[] expected = content.clone();
+        Arrays.fill(expected, 0, offset, (byte) 0);
+        assertArrayEquals(expected, Files.readAllBytes(target));
+        assertFalse(Files.exists(dir.resolve("resume.bin.part")));
+        session.close();
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        return assertThrows(ExecutionException.class, () -> await(future)).getCause();
+    }
+
+    private static void writeSlowly(SocketChannel peer, byte[] bytes) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            peer.write(buffer);
+        }
+        Thread.sleep(50);
+    }
+
+    private static byte[] push(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(5 + bytes.length).order(ByteOrder.LITTLE_ENDIAN)
+                .put(Protocol.CMD_FILE_UPLOADED).putInt(bytes.length).put(bytes).array();
+    }
+
+    private static byte[] listing(String... names) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(names.length).array());
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            out.writeBytes(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length).array());
+            out.writeBytes(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] read(String name) throws IOException {
+        try (StoredFile file = store.open(name)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) file.size());
+            while (buffer.hasRemaining() && file.read(buffer.position(), buffer) > 0) {
+                // keep reading
+            }
+            return buffer.array();
+        }
+    }
+
+    // Text and random halves, so compressed transfers use both codecs
+    private static byte[] mixed(int length, int seed) {
+        byte[] line = "2024-01-15 12:00:00 INFO upload finished for reports.csv in 42 ms\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] content = new byte[length];
+        for (int i = 0; i < length / 2; i++) {
+            content[i] = line[i % line.length];
+        }
+        byte[] noise = new byte[length - length / 2];
+        new Random(seed).nextBytes(noise);
+        System.arraycopy(noise, 0, content, length / 2, noise.length);
+        return content;
+    }
+}
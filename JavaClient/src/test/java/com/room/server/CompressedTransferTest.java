@@ -0,0 +1,258 @@
+package com.room.server;
+
+import com.room.compress.BlockDecompressor;
+import com.room.metrics.ClientMetrics;
+import com.room.protocol.Protocol;
+import com.room.protocol.ProtocolClient;
+import com.room.protocol.TransferTuner;
+import com.room.server.store.MemoryFileStore;
+import com.room.server.store.StoredFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Compressed transfers through the stand-in server, whose encoder has to resume a block frame wherever
+// the socket or the bandwidth limit cut the previous write short
+class CompressedTransferTest {
+    @TempDir
+    Path dir;
+
+    private final MemoryFileStore store = new MemoryFileStore();
+    private StandInServer standIn;
+
+    @AfterEach
+    void stopServer() throws IOException {
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    @Test
+    void downloadOnAnUnshapedLink() throws IOException {
+        download(0, false);
+    }
+
+    @Test
+    void downloadResumesFramesCutByTheBandwidthLimit() throws IOException {
+        // Token bucket refills land anywhere in a frame, so nearly every write ends mid-block
+        download(16 * 1024 * 1024, false);
+    }
+
+    @Test
+    void multiplexedDownloadResumesFramesAcrossStreamFrames() throws IOException {
+        download(16 * 1024 * 1024, true);
+    }
+
+    @Test
+    void downloadResumesFramesCutByAFullSocketBuffer() throws Exception {
+        // A reader that falls behind fills the socket buffer, so the unshaped encoder gets partial writes too
+        start(0);
+        byte[] content = mixed(8 * 1024 * 1024 + 17);
+        store.put("slow.bin", content);
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(8 * 1024);
+            socket.connect(new InetSocketAddress("127.0.0.1", standIn.getPort()));
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(new SlowInputStream(socket.getInputStream()));
+            out.write(request(Protocol.CMD_AUTH, "admin", "test"));
+            assertEquals(1, in.read());
+
+            byte[] name = "slow.bin".getBytes(StandardCharsets.UTF_8);
+            out.write(ByteBuffer.allocate(1 + 4 + name.length + 24).order(ByteOrder.LITTLE_ENDIAN)
+                    .put(Protocol.CMD_GETCOMPRESSED).putInt(name.length).put(name).putLong(0).putLong(-1).putLong(-1)
+                    .array());
+            assertEquals(content.length, Long.reverseBytes(in.readLong()));
+            assertEquals(store.open("slow.bin").version(), Long.reverseBytes(in.readLong()));
+            assertEquals(0, Long.reverseBytes(in.readLong()));
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            BlockDecompressor decompressor = BlockDecompressor.acquire();
+            try {
+                while (received.size() < content.length) {
+                    int codec = in.read();
+                    int rawLength = Integer.reverseBytes(in.readInt());
+                    int encodedLength = Integer.reverseBytes(in.readInt());
+                    BlockDecompressor.checkHeader(codec, rawLength, encodedLength);
+                    in.readFully(decompressor.input(), 0, encodedLength);
+                    ByteBuffer raw = decompressor.decode(codec, rawLength, encodedLength);
+                    received.write(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining());
+                }
+            } finally {
+                decompressor.release();
+            }
+            assertArrayEquals(content, received.toByteArray());
+        }
+    }
+
+    @Test
+    void uploadRoundTrips() throws IOException {
+        start(0);
+        byte[] content = mixed(3 * 1024 * 1024 + 17);
+        Path file = dir.resolve("up.bin");
+        Files.write(file, content);
+        try (ProtocolClient client = connect(false)) {
+            client.uploadFile(file.toString());
+            // PUTCOMPRESSED has no response; a ping comes back once the upload is stored
+            client.ping();
+        }
+        assertArrayEquals(content, read(store.open("up.bin")));
+    }
+
+    @Test
+    void incompressibleUploadTakesThePlainPath() throws IOException {
+        start(0);
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(2).nextBytes(content);
+        Path file = dir.resolve("random.bin");
+        Files.write(file, content);
+        ClientMetrics metrics = ClientMetrics.get();
+        long plainBefore = metrics.getRequestCounts().get("putfile");
+        long wireBefore = metrics.getCompressionWireBytes();
+        try (ProtocolClient client = connect(false)) {
+            client.uploadFile(file.toString());
+            client.ping();
+        }
+        assertArrayEquals(content, read(store.open("random.bin")));
+        assertEquals(plainBefore + 1, metrics.getRequestCounts().get("putfile"));
+        assertEquals(wireBefore, metrics.getCompressionWireBytes());
+    }
+
+    @Test
+    void downloadOnAFastLinkTakesThePlainPath() throws IOException {
+        start(0);
+        byte[] content = mixed(3 * 1024 * 1024 + 17);
+        store.put("down.bin", content);
+        String maxRate = System.setProperty("room.compress.maxRate", "1");
+        try (ProtocolClient client = connect(false)) {
+            // The first transfer measures the link, which then counts as faster than compression can keep up with
+            client.setTransferTuner(new TransferTuner());
+            client.downloadFile("down.bin", dir.resolve("first.bin").toString());
+            long wireBefore = ClientMetrics.get().getCompressionWireBytes();
+            client.downloadFile("down.bin", dir.resolve("down.bin").toString());
+            assertEquals(wireBefore, ClientMetrics.get().getCompressionWireBytes());
+        } finally {
+            if (maxRate == null) {
+                System.clearProperty("room.compress.maxRate");
+            } else {
+                System.setProperty("room.compress.maxRate", maxRate);
+            }
+        }
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("down.bin")));
+    }
+
+    private void download(long bandwidth, boolean multiplexed) throws IOException {
+        start(bandwidth);
+        byte[] content = mixed(3 * 1024 * 1024 + 17);
+        store.put("down.bin", content);
+        long wireBefore = ClientMetrics.get().getCompressionWireBytes();
+        try (ProtocolClient client = connect(multiplexed)) {
+            client.downloadFile("down.bin", dir.resolve("down.bin").toString());
+        }
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("down.bin")));
+        assertTrue(ClientMetrics.get().getCompressionWireBytes() > wireBefore, "transfer was not compressed");
+    }
+
+    private void start(long bandwidth) throws IOException {
+        standIn = new StandInServer(0, store);
+        standIn.setCredentials("admin", "test");
+        standIn.setBandwidth(bandwidth);
+        standIn.start();
+    }
+
+    private ProtocolClient connect(boolean multiplexed) throws IOException {
+        ProtocolClient client = new ProtocolClient(SocketChannel.open(new InetSocketAddress("127.0.0.1", standIn.getPort())));
+        client.setServerCapabilities(Protocol.CAP_COMPRESS | (multiplexed ? Protocol.CAP_MUX : 0));
+        if (multiplexed) {
+            client.enableMultiplexing();
+        }
+        client.auth("admin", "test");
+        return client;
+    }
+
+    private static byte[] request(byte command, String... strings) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(command);
+        for (String value : strings) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeBytes(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length).array());
+            out.writeBytes(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    // Starts late and then reads slower than the server encodes, so the server keeps finding the socket
+    // buffer full in the middle of a block frame
+    private static final class SlowInputStream extends FilterInputStream {
+        private int reads;
+
+        SlowInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            pause(reads++ == 0 ? 200 : reads % 4 == 0 ? 1 : 0);
+            return super.read(b, off, Math.min(len, 3000));
+        }
+
+        private static void pause(long millis) throws IOException {
+            if (millis == 0) {
+                return;
+            }
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private static byte[] read(StoredFile file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) file.size());
+        while (buffer.hasRemaining() && file.read(buffer.position(), buffer) > 0) {
+            // keep reading
+        }
+        return buffer.array();
+    }
+
+    // Compressible and random regions that do not line up with blocks, so both codecs and skip runs occur
+    private static byte[] mixed(int length) {
+        byte[] line = "2024-01-15 12:00:00 INFO upload finished for reports.csv in 42 ms\n".getBytes(StandardCharsets.US_ASCII);
+        Random random = new Random(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (out.size() < length) {
+            byte[] region = new byte[Math.min(length - out.size(), 10_000 + random.nextInt(200_000))];
+            if (random.nextBoolean()) {
+                random.nextBytes(region);
+            } else {
+                for (int i = 0; i < region.length; i++) {
+                    region[i] = line[i % line.length];
+                }
+            }
+            out.writeBytes(region);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,66 @@
+package com.room.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LinkShaperTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void unlimitedWhenNoRateIsSet() {
+        assertEquals(Long.MAX_VALUE, new LinkShaper(0, 0).available(SECOND));
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() {
+        LinkShaper shaper = new LinkShaper(1_000_000, 0);
+        long burst = shaper.available(0);
+        assertEquals(50_000, burst);
+        shaper.consume(burst);
+
+        assertEquals(0, shaper.available(0));
+        assertEquals(10_000, shaper.available(SECOND / 100));
+        assertEquals(burst, shaper.available(SECOND));
+    }
+
+    @Test
+    void longIdleGapOnlyFillsTheBucket() {
+        // elapsed * bytesPerSecond would overflow for either of these
+        LinkShaper fast = new LinkShaper(10L * 1024 * 1024 * 1024, 0);
+        long burst = fast.available(0);
+        fast.consume(burst);
+        assertEquals(burst, fast.available(3600 * SECOND));
+
+        LinkShaper slow = new LinkShaper(100_000, 0);
+        slow.consume(slow.available(0) + 7_000);
+        assertEquals(5_000, slow.available(Long.MAX_VALUE / 2));
+
+        // and it keeps refilling normally afterwards
+        slow.consume(5_000);
+        assertEquals(1_000, slow.available(Long.MAX_VALUE / 2 + SECOND / 100));
+    }
+
+    @Test
+    void frequentPollsKeepTheSubTokenRemainder() {
+        // 1000 bytes/s earns a byte every millisecond; polling every 0.4 ms must not lose the fractions
+        LinkShaper shaper = new LinkShaper(1000, 0);
+        shaper.consume(shaper.available(0));
+        long now = 0;
+        while (now < SECOND) {
+            now += 400_000;
+            shaper.available(now);
+        }
+        assertEquals(1000, shaper.available(SECOND));
+    }
+
+    @Test
+    void nextAvailableIsWhenAWriteSizedAllowanceIsBack() {
+        LinkShaper shaper = new LinkShaper(1_000_000, 0);
+        shaper.consume(shaper.available(0));
+        long next = shaper.nextAvailable(0);
+        assertEquals(16 * 1024 * SECOND / 1_000_000, next);
+        assertTrue(shaper.available(next) >= 16 * 1024);
+    }
+}
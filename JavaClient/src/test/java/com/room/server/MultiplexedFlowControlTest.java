@@ -0,0 +1,318 @@
+package com.room.server;
+
+import com.room.protocol.Protocol;
+import com.room.protocol.ProtocolClient;
+import com.room.protocol.TransferProgress;
+import com.room.server.store.MemoryFileStore;
+import com.room.server.store.StoredFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Per-stream windows on a multiplexed connection: a download whose consumer stops reading must not keep
+// the client's reader from the responses of other streams, and an upload goes no further ahead of the
+// server's handler than its window
+class MultiplexedFlowControlTest {
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    private final MemoryFileStore store = new MemoryFileStore();
+    private StandInServer standIn;
+
+    @AfterEach
+    void stopServer() throws IOException {
+        if (standIn != null) {
+            standIn.close();
+        }
+    }
+
+    @Test
+    void pingCompletesWhileADownloadConsumerStalls() throws Exception {
+        start();
+        byte[] content = random(FILE_SIZE);
+        store.put("big.bin", content);
+
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        // Stands in for a disk that stops keeping up
+        TransferProgress progress = (transferred, total) -> {
+            if (transferred >= 1024 * 1024 && stalled.getCount() > 0) {
+                stalled.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        try (ProtocolClient client = connect()) {
+            Path target = dir.resolve("big.bin");
+            CompletableFuture<Long> download = client.downloadFileAsync("big.bin", target, progress);
+            assertTrue(stalled.await(10, TimeUnit.SECONDS));
+            // Long enough for the server to use up the stream's window
+            Thread.sleep(300);
+
+            for (int i = 0; i < 3; i++) {
+                assertTrue(client.pingAsync().get(2, TimeUnit.SECONDS));
+            }
+            assertTrue(client.listFilesAsync().get(2, TimeUnit.SECONDS).contains("big.bin"));
+
+            resume.countDown();
+            assertEquals(FILE_SIZE, (long) download.get(30, TimeUnit.SECONDS));
+            assertArrayEquals(content, Files.readAllBytes(target));
+        }
+    }
+
+    @Test
+    void serverStopsAtTheWindowUntilTheClientUpdatesIt() throws IOException {
+        start();
+        store.put("big.bin", random(FILE_SIZE));
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", standIn.getPort()));
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(request(Protocol.CMD_AUTH, "admin", "test"));
+            assertEquals(1, in.read());
+            out.write(Protocol.CMD_MUX);
+            assertEquals(1, in.read());
+
+            byte[] getFile = request(Protocol.CMD_GETFILE, "big.bin");
+            out.write(frame(1, Protocol.FLAG_END, getFile));
+            socket.setSoTimeout(500);
+            assertEquals(Protocol.STREAM_WINDOW, readUntilQuiet(in));
+
+            int increment = 1024 * 1024;
+            out.write(frame(1, Protocol.FLAG_WINDOW, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(increment).array()));
+            assertEquals(increment, readUntilQuiet(in));
+
+            // The rest of the connection is unaffected
+            out.write(frame(3, Protocol.FLAG_END, new byte[]{Protocol.CMD_PING}));
+            ByteBuffer header = readHeader(in);
+            assertEquals(3, header.getInt());
+            assertEquals(0, header.get());
+            assertEquals(1, header.getInt());
+            assertEquals(1, in.read());
+        }
+    }
+
+    @Test
+    void serverHandsBackUploadWindowAsItStoresTheData() throws IOException {
+        start();
+        byte[] content = random(3 * Protocol.STREAM_WINDOW);
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("127.0.0.1", standIn.getPort()));
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(request(Protocol.CMD_AUTH, "admin", "test"));
+            assertEquals(1, in.read());
+            out.write(Protocol.CMD_MUX);
+            assertEquals(1, in.read());
+
+            byte[] name = "up.bin".getBytes(StandardCharsets.UTF_8);
+            byte[] putFile = ByteBuffer.allocate(1 + 4 + name.length + 8).order(ByteOrder.LITTLE_ENDIAN)
+                    .put(Protocol.CMD_PUTFILE).putInt(name.length).put(name).putLong(content.length).array();
+            out.write(frame(1, 0, putFile));
+            long window = Protocol.STREAM_WINDOW - putFile.length;
+            long credited = 0;
+            for (int offset = 0; offset < content.length; offset += Protocol.MAX_FRAME_SIZE) {
+                while (window < Protocol.MAX_FRAME_SIZE) {
+                    int increment = readWindowUpdate(in);
+                    window += increment;
+                    credited += increment;
+                }
+                int length = Math.min(Protocol.MAX_FRAME_SIZE, content.length - offset);
+                boolean last = offset + length == content.length;
+                out.write(frame(1, last ? Protocol.FLAG_END : 0, Arrays.copyOfRange(content, offset, offset + length)));
+                window -= length;
+            }
+            assertTrue(credited >= content.length - Protocol.STREAM_WINDOW);
+
+            // Updates the server had already queued come before the end of the stream
+            ByteBuffer header;
+            while ((header = readHeader(in)).get(4) == Protocol.FLAG_WINDOW) {
+                in.readFully(new byte[4]);
+            }
+            assertEquals(1, header.getInt());
+            assertEquals(Protocol.FLAG_END, header.get());
+            assertEquals(0, header.getInt());
+        }
+        assertArrayEquals(content, read(store.open("up.bin")));
+    }
+
+    @Test
+    void clientUploadStopsAtTheWindowUntilTheServerUpdatesIt() throws Exception {
+        Path file = dir.resolve("up.bin");
+        Files.write(file, random(8 * 1024 * 1024));
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             ProtocolClient client = new ProtocolClient(SocketChannel.open(server.getLocalSocketAddress()));
+             Socket socket = server.accept()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            CompletableFuture<Void> mux = CompletableFuture.runAsync(() -> {
+                try {
+                    client.enableMultiplexing();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            assertEquals(Protocol.CMD_MUX, in.read());
+            out.write(1);
+            mux.get(5, TimeUnit.SECONDS);
+
+            CompletableFuture<Void> upload = client.uploadFileAsync(file);
+            socket.setSoTimeout(500);
+            long sent = readUntilQuiet(in);
+            assertTrue(sent <= Protocol.STREAM_WINDOW && sent > Protocol.STREAM_WINDOW - Protocol.MAX_FRAME_SIZE,
+                    "sent " + sent);
+
+            int increment = 1024 * 1024;
+            out.write(frame(1, Protocol.FLAG_WINDOW, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(increment).array()));
+            sent += readUntilQuiet(in);
+            assertTrue(sent <= Protocol.STREAM_WINDOW + increment
+                    && sent > Protocol.STREAM_WINDOW + increment - Protocol.MAX_FRAME_SIZE, "sent " + sent);
+            assertFalse(upload.isDone());
+
+            // Ending the stream early, as a server whose handler failed would, stops the upload
+            out.write(frame(1, Protocol.FLAG_END | Protocol.FLAG_RESET, new byte[0]));
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> upload.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, failure.getCause());
+        }
+    }
+
+    @Test
+    void multiplexedUploadsLargerThanTheWindowRoundTrip() throws Exception {
+        start();
+        byte[] content = random(3 * Protocol.STREAM_WINDOW + 17);
+        Path file = dir.resolve("up.bin");
+        Files.write(file, content);
+
+        // Channel-backed connections send the frames with transferTo, stream-backed ones copy them
+        try (ProtocolClient client = connect()) {
+            client.uploadFile(file.toString());
+        }
+        assertArrayEquals(content, read(store.open("up.bin")));
+        store.put("up.bin", new byte[0]);
+
+        try (ProtocolClient client = new ProtocolClient(new Socket("127.0.0.1", standIn.getPort()))) {
+            client.enableMultiplexing();
+            client.auth("admin", "test");
+            CompletableFuture<Void> upload = client.uploadFileAsync(file);
+            assertTrue(client.pingAsync().get(5, TimeUnit.SECONDS));
+            upload.get(30, TimeUnit.SECONDS);
+        }
+        assertArrayEquals(content, read(store.open("up.bin")));
+    }
+
+    private static int readWindowUpdate(DataInputStream in) throws IOException {
+        ByteBuffer header = readHeader(in);
+        assertEquals(1, header.getInt());
+        assertEquals(Protocol.FLAG_WINDOW, header.get());
+        assertEquals(4, header.getInt());
+        byte[] increment = new byte[4];
+        in.readFully(increment);
+        return ByteBuffer.wrap(increment).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    private static byte[] read(StoredFile file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) file.size());
+        while (buffer.hasRemaining() && file.read(buffer.position(), buffer) > 0) {
+            // keep reading
+        }
+        return buffer.array();
+    }
+
+    // Payload bytes of stream 1 that arrive before the server goes quiet
+    private static long readUntilQuiet(DataInputStream in) throws IOException {
+        long received = 0;
+        while (true) {
+            ByteBuffer header;
+            try {
+                header = readHeader(in);
+            } catch (SocketTimeoutException e) {
+                return received;
+            }
+            assertEquals(1, header.getInt());
+            assertEquals(0, header.get());
+            int length = header.getInt();
+            in.readFully(new byte[length]);
+            received += length;
+        }
+    }
+
+    private static ByteBuffer readHeader(DataInputStream in) throws IOException {
+        byte[] header = new byte[Protocol.FRAME_HEADER_SIZE];
+        in.readFully(header);
+        return ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] frame(int streamId, int flags, byte[] payload) {
+        return ByteBuffer.allocate(Protocol.FRAME_HEADER_SIZE + payload.length).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(streamId).put((byte) flags).putInt(payload.length).put(payload).array();
+    }
+
+    private static byte[] request(byte command, String... fields) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN).put(command);
+        for (String field : fields) {
+            Frames.putString(buffer, field.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] request = new byte[buffer.position()];
+        buffer.flip().get(request);
+        return request;
+    }
+
+    private void start() throws IOException {
+        standIn = new StandInServer(0, store);
+        standIn.setCredentials("admin", "test");
+        standIn.start();
+    }
+
+    private ProtocolClient connect() throws IOException {
+        ProtocolClient client = new ProtocolClient(SocketChannel.open(new InetSocketAddress("127.0.0.1", standIn.getPort())));
+        client.enableMultiplexing();
+        client.auth("admin", "test");
+        return client;
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(24).nextBytes(data);
+        return data;
+    }
+}
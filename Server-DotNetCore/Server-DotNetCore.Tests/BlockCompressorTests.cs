@@ -0,0 +1,94 @@
+using System.Text;
+using Server_DotNetCore.Compression;
+
+namespace Server_DotNetCore.Tests;
+
+public class BlockCompressorTests
+{
+    private static byte[] RoundTrip(BlockCompressor compressor, byte[] input, out byte codec)
+    {
+        byte[] frame = compressor.Encode(input, input.Length).ToArray();
+        codec = frame[0];
+        int rawLength = BitConverter.ToInt32(frame, 1);
+        int encodedLength = BitConverter.ToInt32(frame, 5);
+        BlockDecompressor.CheckHeader(codec, rawLength, encodedLength);
+        Assert.Equal(input.Length, rawLength);
+        Assert.Equal(frame.Length - BlockCompressor.HeaderSize, encodedLength);
+
+        byte[] output = new byte[rawLength];
+        BlockDecompressor.Decode(codec, frame[BlockCompressor.HeaderSize..], encodedLength, output, rawLength);
+        return output;
+    }
+
+    [Fact]
+    public void Compressible_RoundTripsDeflated()
+    {
+        byte[] input = Encoding.UTF8.GetBytes(string.Concat(Enumerable.Repeat("room server block ", 4000)))[..BlockCompressor.BlockSize];
+
+        Assert.Equal(input, RoundTrip(new BlockCompressor(), input, out byte codec));
+        Assert.Equal(BlockCompressor.CodecDeflate, codec);
+    }
+
+    [Fact]
+    public void Random_RoundTripsStored()
+    {
+        byte[] input = new byte[BlockCompressor.BlockSize];
+        new Random(5).NextBytes(input);
+
+        Assert.Equal(input, RoundTrip(new BlockCompressor(), input, out byte codec));
+        Assert.Equal(BlockCompressor.CodecStored, codec);
+    }
+
+    [Fact]
+    public void IncompressibleBlock_SkipsTheNextFour()
+    {
+        var compressor = new BlockCompressor();
+        byte[] random = new byte[BlockCompressor.BlockSize];
+        new Random(6).NextBytes(random);
+        byte[] text = new byte[BlockCompressor.BlockSize];
+        Array.Fill(text, (byte)'r');
+
+        RoundTrip(compressor, random, out _);
+        for (int i = 0; i < 4; i++)
+        {
+            Assert.Equal(text, RoundTrip(compressor, text, out byte skipped));
+            Assert.Equal(BlockCompressor.CodecStored, skipped);
+        }
+        RoundTrip(compressor, text, out byte codec);
+        Assert.Equal(BlockCompressor.CodecDeflate, codec);
+    }
+
+    [Fact]
+    public void JavaClientBlock_Decodes()
+    {
+        // a block written by the Java client's BlockCompressor, raw deflate without the zlib header
+        byte[] frame =
+        {
+            0x01, 0x4f, 0x00, 0x00, 0x00, 0x0a, 0x00, 0x00, 0x00,
+            0x2b, 0xca, 0xcf, 0xcf, 0x55, 0x28, 0xa2, 0x1a, 0x01, 0x00
+        };
+        byte[] expected = Encoding.UTF8.GetBytes(string.Join(" ", Enumerable.Repeat("room", 16)));
+
+        byte[] output = new byte[expected.Length];
+        BlockDecompressor.CheckHeader(frame[0], BitConverter.ToInt32(frame, 1), BitConverter.ToInt32(frame, 5));
+        BlockDecompressor.Decode(frame[0], frame[BlockCompressor.HeaderSize..], 10, output, expected.Length);
+
+        Assert.Equal(expected, output);
+    }
+
+    [Fact]
+    public void BadHeaders_AreRejected()
+    {
+        Assert.Throws<IOException>(() => BlockDecompressor.CheckHeader(2, 10, 10));
+        Assert.Throws<IOException>(() => BlockDecompressor.CheckHeader(BlockCompressor.CodecStored, 10, 9));
+        Assert.Throws<IOException>(() => BlockDecompressor.CheckHeader(BlockCompressor.CodecDeflate, BlockCompressor.BlockSize + 1, 10));
+    }
+
+    [Fact]
+    public void CorruptBlock_IsRejected()
+    {
+        byte[] garbage = { 0xff, 0xff, 0xff, 0xff };
+        Assert.Throws<IOException>(() =>
+            BlockDecompressor.Decode(BlockCompressor.CodecDeflate, garbage, garbage.Length, new byte[100], 100));
+    }
+}
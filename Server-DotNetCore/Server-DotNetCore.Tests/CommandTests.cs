@@ -14,6 +14,13 @@ public class CommandTests
         Assert.Equal((byte)4, (byte)Command.Ping);
         Assert.Equal((byte)5, (byte)Command.PutFile);
         Assert.Equal((byte)6, (byte)Command.FileUploaded);
+        Assert.Equal((byte)7, (byte)Command.Hello);
+        Assert.Equal((byte)8, (byte)Command.PutDelta);
+        Assert.Equal((byte)9, (byte)Command.GetSignature);
+        Assert.Equal((byte)10, (byte)Command.GetRange);
+        Assert.Equal((byte)11, (byte)Command.GetCompressed);
+        Assert.Equal((byte)12, (byte)Command.PutCompressed);
+        Assert.Equal((byte)13, (byte)Command.Mux);
     }
 
     [Fact]
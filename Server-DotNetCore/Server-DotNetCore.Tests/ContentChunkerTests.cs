@@ -0,0 +1,67 @@
+using Server_DotNetCore.Delta;
+
+namespace Server_DotNetCore.Tests;
+
+public class ContentChunkerTests
+{
+    // same pseudo random content the vectors below were taken from with the Java client's ContentChunker
+    private static byte[] TestContent()
+    {
+        byte[] data = new byte[1024 * 1024];
+        ulong state = 1;
+        for (int i = 0; i < data.Length; i++)
+        {
+            state = unchecked(state * 6364136223846793005UL + 1442695040888963407UL);
+            data[i] = (byte)(state >> 56);
+        }
+        return data;
+    }
+
+    [Fact]
+    public async Task Chunks_MatchTheJavaClient()
+    {
+        // if these drift the client never finds a matching chunk and every delta upload sends the whole file
+        var chunks = await ContentChunker.ChunkAsync(new MemoryStream(TestContent()));
+
+        int[] expectedLengths =
+        {
+            19668, 31157, 26001, 54876, 100070, 33995, 45942, 51949, 82162,
+            49380, 19103, 158468, 45336, 86019, 32560, 97772, 34115, 80003
+        };
+        Assert.Equal(expectedLengths, chunks.Select(c => c.Length).ToArray());
+        Assert.Equal("348259e45a044612cd63056a3b390fc806f4dee4d750628da63972f4e24aa511",
+            Convert.ToHexString(chunks[0].Hash).ToLowerInvariant());
+        Assert.Equal("6d40b9ed7841b93c52ebba9cb1b41d1a7e08b64cad6e14a622e31693b821e674",
+            Convert.ToHexString(chunks[^1].Hash).ToLowerInvariant());
+    }
+
+    [Fact]
+    public async Task Chunks_DoNotDependOnReadSizes()
+    {
+        byte[] content = TestContent();
+        var whole = await ContentChunker.ChunkAsync(new MemoryStream(content));
+        var trickled = await ContentChunker.ChunkAsync(new TrickleStream(content));
+
+        Assert.Equal(whole.Select(c => Convert.ToHexString(c.Hash)), trickled.Select(c => Convert.ToHexString(c.Hash)));
+    }
+
+    [Fact]
+    public async Task Chunks_EmptyStream_HasNoChunks()
+    {
+        var chunks = await ContentChunker.ChunkAsync(new MemoryStream());
+        Assert.Empty(chunks);
+    }
+
+    // hands out a few odd-sized bytes per read, like a slow disk or socket
+    private sealed class TrickleStream : MemoryStream
+    {
+        public TrickleStream(byte[] content) : base(content)
+        {
+        }
+
+        public override ValueTask<int> ReadAsync(Memory<byte> buffer, CancellationToken cancellationToken = default)
+        {
+            return base.ReadAsync(buffer[..Math.Min(buffer.Length, 1237)], cancellationToken);
+        }
+    }
+}
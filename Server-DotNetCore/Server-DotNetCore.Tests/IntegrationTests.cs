@@ -1,7 +1,10 @@
 using System.Net.Sockets;
+using System.Security.Cryptography;
 using System.Text;
+using Server_DotNetCore.Compression;
 using Server_DotNetCore.Config;
 using Server_DotNetCore.Models;
+using Server_DotNetCore.Mux;
 
 namespace Server_DotNetCore.Tests;
 
@@ -236,4 +239,511 @@ public class IntegrationTests
             Assert.Equal(-1, size);
         }
     }
+
+    private void UploadFile(NetworkStream stream, string fileName, byte[] content)
+    {
+        stream.WriteByte((byte)Command.PutFile);
+        var fileNameBytes = Encoding.UTF8.GetBytes(fileName);
+        WriteInt32(stream, fileNameBytes.Length);
+        stream.Write(fileNameBytes);
+        WriteInt64(stream, content.Length);
+        stream.Write(content);
+
+        // PUTFILE has no response, a ping after it returns once the file is stored
+        stream.WriteByte((byte)Command.Ping);
+        stream.Flush();
+        Assert.Equal(1, stream.ReadByte());
+    }
+
+    private byte[] DownloadFile(NetworkStream stream, string fileName)
+    {
+        stream.WriteByte((byte)Command.GetFile);
+        var fileNameBytes = Encoding.UTF8.GetBytes(fileName);
+        WriteInt32(stream, fileNameBytes.Length);
+        stream.Write(fileNameBytes);
+        stream.Flush();
+
+        var size = ReadInt64(stream);
+        Assert.True(size >= 0);
+        return ReadBytes(stream, (int)size);
+    }
+
+    // base content copied whole, then appended bytes as a literal
+    private int SendAppendDelta(NetworkStream stream, string fileName, byte[] baseContent, byte[] appended, byte[] contentHash)
+    {
+        stream.WriteByte((byte)Command.PutDelta);
+        var fileNameBytes = Encoding.UTF8.GetBytes(fileName);
+        WriteInt32(stream, fileNameBytes.Length);
+        stream.Write(fileNameBytes);
+        WriteInt64(stream, baseContent.Length);
+        WriteInt64(stream, baseContent.Length + appended.Length);
+        stream.Write(contentHash);
+        WriteInt32(stream, 2);
+
+        stream.WriteByte(0); // COPY
+        WriteInt64(stream, 0);
+        WriteInt64(stream, baseContent.Length);
+        stream.WriteByte(1); // LITERAL
+        WriteInt64(stream, appended.Length);
+        stream.Write(appended);
+        stream.Flush();
+
+        return stream.ReadByte();
+    }
+
+    [Fact]
+    public void Hello_ReturnsCapabilities()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        stream.WriteByte((byte)Command.Hello);
+        WriteInt32(stream, 0xff);
+        stream.Flush();
+
+        Assert.Equal((int)Command.Hello, stream.ReadByte());
+        var capabilities = (Capability)ReadInt32(stream);
+        Assert.True(capabilities.HasFlag(Capability.Delta));
+        Assert.True(capabilities.HasFlag(Capability.Range));
+
+        // the session carries on with the plain protocol
+        Assert.True(Authenticate(stream));
+    }
+
+    [Fact]
+    public void GetSignature_MissingFile_ReturnsMinusOne()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        Assert.True(Authenticate(stream));
+
+        stream.WriteByte((byte)Command.GetSignature);
+        var fileNameBytes = Encoding.UTF8.GetBytes("no_such_file_" + Guid.NewGuid() + ".bin");
+        WriteInt32(stream, fileNameBytes.Length);
+        stream.Write(fileNameBytes);
+        stream.Flush();
+
+        Assert.Equal(-1, ReadInt64(stream));
+    }
+
+    [Fact]
+    public void PutDelta_RebuildsFileFromStoredCopy()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        Assert.True(Authenticate(stream));
+
+        var fileName = "delta_test.bin";
+        var baseContent = new byte[100_000];
+        new Random(1).NextBytes(baseContent);
+        UploadFile(stream, fileName, baseContent);
+
+        stream.WriteByte((byte)Command.GetSignature);
+        var fileNameBytes = Encoding.UTF8.GetBytes(fileName);
+        WriteInt32(stream, fileNameBytes.Length);
+        stream.Write(fileNameBytes);
+        stream.Flush();
+
+        Assert.Equal(baseContent.Length, ReadInt64(stream));
+        var count = ReadInt32(stream);
+        long total = 0;
+        for (int i = 0; i < count; i++)
+        {
+            total += ReadInt32(stream);
+            ReadBytes(stream, 32);
+        }
+        Assert.Equal(baseContent.Length, total);
+
+        var appended = Encoding.UTF8.GetBytes("appended by delta");
+        var expected = baseContent.Concat(appended).ToArray();
+        Assert.Equal(1, SendAppendDelta(stream, fileName, baseContent, appended, SHA256.HashData(expected)));
+
+        Assert.Equal(expected, DownloadFile(stream, fileName));
+    }
+
+    [Fact]
+    public void PutDelta_WrongHash_KeepsStoredFile()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        Assert.True(Authenticate(stream));
+
+        var fileName = "delta_reject_test.bin";
+        var baseContent = new byte[50_000];
+        new Random(2).NextBytes(baseContent);
+        UploadFile(stream, fileName, baseContent);
+
+        var appended = Encoding.UTF8.GetBytes("appended by delta");
+        Assert.Equal(0, SendAppendDelta(stream, fileName, baseContent, appended, SHA256.HashData(baseContent)));
+
+        // the whole request was consumed, so the connection is still usable
+        Assert.Equal(baseContent, DownloadFile(stream, fileName));
+    }
+
+    private (long Size, long Version, long Start, byte[] Data) GetRange(NetworkStream stream, string fileName, long offset,
+        long expectedSize, long expectedVersion)
+    {
+        stream.WriteByte((byte)Command.GetRange);
+        var fileNameBytes = Encoding.UTF8.GetBytes(fileName);
+        WriteInt32(stream, fileNameBytes.Length);
+        stream.Write(fileNameBytes);
+        WriteInt64(stream, offset);
+        WriteInt64(stream, expectedSize);
+        WriteInt64(stream, expectedVersion);
+        stream.Flush();
+
+        var size = ReadInt64(stream);
+        var version = ReadInt64(stream);
+        var start = ReadInt64(stream);
+        return (size, version, start, ReadBytes(stream, (int)(size - start)));
+    }
+
+    [Fact]
+    public void GetRange_ResumesFromOffset()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        Assert.True(Authenticate(stream));
+
+        var fileName = "range_test.bin";
+        var content = new byte[300_000];
+        new Random(3).NextBytes(content);
+        UploadFile(stream, fileName, content);
+
+        // a fresh download is a range from 0, which reports the version to keep with the partial copy
+        var (_, version, _, _) = GetRange(stream, fileName, 0, -1, -1);
+        var (size, resumedVersion, start, data) = GetRange(stream, fileName, 123_456, content.Length, version);
+
+        Assert.Equal(content.Length, size);
+        Assert.Equal(version, resumedVersion);
+        Assert.Equal(123_456, start);
+        Assert.Equal(content.Skip(123_456).ToArray(), data);
+    }
+
+    [Fact]
+    public void GetRange_SizeMismatch_SendsWholeFile()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        Assert.True(Authenticate(stream));
+
+        var fileName = "range_stale_test.bin";
+        var content = new byte[50_000];
+        new Random(4).NextBytes(content);
+        UploadFile(stream, fileName, content);
+        var (_, version, _, _) = GetRange(stream, fileName, 0, -1, -1);
+
+        // the client's partial copy belongs to an older version of the file
+        var (size, _, start, data) = GetRange(stream, fileName, 1000, content.Length + 1, version);
+
+        Assert.Equal(content.Length, size);
+        Assert.Equal(0, start);
+        Assert.Equal(content, data);
+    }
+
+    [Fact]
+    public void GetRange_VersionMismatch_SendsWholeFile()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        Assert.True(Authenticate(stream));
+
+        var fileName = "range_version_test.bin";
+        var content = new byte[50_000];
+        new Random(5).NextBytes(content);
+        UploadFile(stream, fileName, content);
+        var (_, version, _, _) = GetRange(stream, fileName, 0, -1, -1);
+
+        // same size, but rewritten since the partial copy was taken
+        var (size, _, start, data) = GetRange(stream, fileName, 1000, content.Length, version - 1);
+
+        Assert.Equal(content.Length, size);
+        Assert.Equal(0, start);
+        Assert.Equal(content, data);
+    }
+
+    // half text, half random, so both codecs show up
+    private static byte[] MixedContent(int length, int seed)
+    {
+        var content = Encoding.UTF8.GetBytes(string.Concat(Enumerable.Repeat("compressed transfer test ", length / 25 + 1)))[..length];
+        new Random(seed).NextBytes(content.AsSpan(length / 2));
+        return content;
+    }
+
+    private byte[] ReadBlocks(NetworkStream stream, long rawSize)
+    {
+        var data = new MemoryStream();
+        while (data.Length < rawSize)
+        {
+            var header = ReadBytes(stream, BlockCompressor.HeaderSize);
+            int rawLength = BitConverter.ToInt32(header, 1);
+            int encodedLength = BitConverter.ToInt32(header, 5);
+            BlockDecompressor.CheckHeader(header[0], rawLength, encodedLength);
+
+            var raw = new byte[rawLength];
+            BlockDecompressor.Decode(header[0], ReadBytes(stream, encodedLength), encodedLength, raw, rawLength);
+            data.Write(raw);
+        }
+        return data.ToArray();
+    }
+
+    [Fact]
+    public void GetCompressed_ResumesFromOffset()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        Assert.True(Authenticate(stream));
+
+        var fileName = "compressed_get_test.bin";
+        var content = MixedContent(500_000, 7);
+        UploadFile(stream, fileName, content);
+
+        var (_, version, _, _) = GetRange(stream, fileName, 0, -1, -1);
+
+        stream.WriteByte((byte)Command.GetCompressed);
+        var fileNameBytes = Encoding.UTF8.GetBytes(fileName);
+        WriteInt32(stream, fileNameBytes.Length);
+        stream.Write(fileNameBytes);
+        WriteInt64(stream, 10_000);
+        WriteInt64(stream, content.Length);
+        WriteInt64(stream, version);
+        stream.Flush();
+
+        var size = ReadInt64(stream);
+        Assert.Equal(version, ReadInt64(stream));
+        var start = ReadInt64(stream);
+
+        Assert.Equal(content.Length, size);
+        Assert.Equal(10_000, start);
+        Assert.Equal(content.Skip(10_000).ToArray(), ReadBlocks(stream, size - start));
+    }
+
+    [Fact]
+    public void PutCompressed_StoresDecodedFile()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        Assert.True(Authenticate(stream));
+
+        var fileName = "compressed_put_test.bin";
+        var content = MixedContent(300_000, 8);
+
+        stream.WriteByte((byte)Command.PutCompressed);
+        var fileNameBytes = Encoding.UTF8.GetBytes(fileName);
+        WriteInt32(stream, fileNameBytes.Length);
+        stream.Write(fileNameBytes);
+        WriteInt64(stream, content.Length);
+        var compressor = new BlockCompressor();
+        var block = new byte[BlockCompressor.BlockSize];
+        for (int offset = 0; offset < content.Length; offset += block.Length)
+        {
+            int length = Math.Min(block.Length, content.Length - offset);
+            Array.Copy(content, offset, block, 0, length);
+            stream.Write(compressor.Encode(block, length).Span);
+        }
+
+        // no response either, a ping after it returns once the file is stored
+        stream.WriteByte((byte)Command.Ping);
+        stream.Flush();
+        Assert.Equal(1, stream.ReadByte());
+
+        Assert.Equal(content, DownloadFile(stream, fileName));
+    }
+
+    private void WriteFrame(NetworkStream stream, int streamId, byte flags, byte[] payload)
+    {
+        var frame = new byte[MuxSession.HeaderSize + payload.Length];
+        BitConverter.TryWriteBytes(frame.AsSpan(0), streamId);
+        frame[4] = flags;
+        BitConverter.TryWriteBytes(frame.AsSpan(5), payload.Length);
+        payload.CopyTo(frame, MuxSession.HeaderSize);
+        stream.Write(frame);
+        stream.Flush();
+    }
+
+    private (int StreamId, byte Flags, byte[] Payload) ReadFrame(NetworkStream stream)
+    {
+        var header = ReadBytes(stream, MuxSession.HeaderSize);
+        return (BitConverter.ToInt32(header, 0), header[4], ReadBytes(stream, BitConverter.ToInt32(header, 5)));
+    }
+
+    [Fact]
+    public void Mux_PingAnswered_WhileDownloadWaitsForWindow()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        var fileName = "mux_window_test.bin";
+        var content = new byte[6 * 1024 * 1024];
+        new Random(9).NextBytes(content);
+        using (var uploader = CreateTestClient())
+        {
+            var uploadStream = uploader.GetStream();
+            Assert.True(Authenticate(uploadStream));
+            UploadFile(uploadStream, fileName, content);
+        }
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        Assert.True(Authenticate(stream));
+        stream.WriteByte((byte)Command.Mux);
+        stream.Flush();
+        Assert.Equal(1, stream.ReadByte());
+
+        var fileNameBytes = Encoding.UTF8.GetBytes(fileName);
+        var getFile = new byte[5 + fileNameBytes.Length];
+        getFile[0] = (byte)Command.GetFile;
+        BitConverter.TryWriteBytes(getFile.AsSpan(1), fileNameBytes.Length);
+        fileNameBytes.CopyTo(getFile, 5);
+        WriteFrame(stream, 1, MuxSession.FlagEnd, getFile);
+
+        // the size and the file data up to the end of the stream's window
+        var response = new MemoryStream();
+        while (response.Length < MuxSession.StreamWindow)
+        {
+            var (streamId, flags, payload) = ReadFrame(stream);
+            Assert.Equal(1, streamId);
+            Assert.Equal(0, flags);
+            response.Write(payload);
+        }
+        Assert.Equal(MuxSession.StreamWindow, response.Length);
+
+        // nothing more comes on stream 1 until the window is updated, so the next frame is the ping's
+        WriteFrame(stream, 3, MuxSession.FlagEnd, new[] { (byte)Command.Ping });
+        var ping = ReadFrame(stream);
+        Assert.Equal(3, ping.StreamId);
+        Assert.Equal(MuxSession.FlagEnd, ping.Flags);
+        Assert.Equal(new byte[] { 1 }, ping.Payload);
+
+        WriteFrame(stream, 1, MuxSession.FlagWindow, BitConverter.GetBytes(8 + content.Length - MuxSession.StreamWindow));
+        while (true)
+        {
+            var (streamId, flags, payload) = ReadFrame(stream);
+            Assert.Equal(1, streamId);
+            response.Write(payload);
+            if ((flags & MuxSession.FlagEnd) != 0)
+            {
+                Assert.Equal(MuxSession.FlagEnd, flags);
+                break;
+            }
+        }
+
+        var data = response.ToArray();
+        Assert.Equal(content.Length, BitConverter.ToInt64(data, 0));
+        Assert.Equal(content, data[8..]);
+    }
+
+    [Fact]
+    public void Mux_UploadLargerThanWindow_StoresWholeFile()
+    {
+        if (!IsServerRunning())
+            throw new InvalidOperationException("Server is not running. Start the server to run integration tests.");
+
+        var fileName = "mux_upload_test.bin";
+        var content = new byte[3 * MuxSession.StreamWindow];
+        new Random(10).NextBytes(content);
+
+        using var client = CreateTestClient();
+        var stream = client.GetStream();
+
+        Assert.True(Authenticate(stream));
+        stream.WriteByte((byte)Command.Mux);
+        stream.Flush();
+        Assert.Equal(1, stream.ReadByte());
+
+        var fileNameBytes = Encoding.UTF8.GetBytes(fileName);
+        var header = new byte[13 + fileNameBytes.Length];
+        header[0] = (byte)Command.PutFile;
+        BitConverter.TryWriteBytes(header.AsSpan(1), fileNameBytes.Length);
+        fileNameBytes.CopyTo(header, 5);
+        BitConverter.TryWriteBytes(header.AsSpan(5 + fileNameBytes.Length), (long)content.Length);
+        WriteFrame(stream, 1, 0, header);
+        long window = MuxSession.StreamWindow - header.Length;
+
+        // the upload only goes on as the server hands window back; a ping in between is answered meanwhile
+        bool pinged = false;
+        bool answered = false;
+        for (int offset = 0; offset < content.Length; offset += MuxSession.MaxFrameSize)
+        {
+            while (window < MuxSession.MaxFrameSize)
+            {
+                if (!pinged)
+                {
+                    WriteFrame(stream, 3, MuxSession.FlagEnd, new[] { (byte)Command.Ping });
+                    pinged = true;
+                }
+                var (streamId, flags, payload) = ReadFrame(stream);
+                if (streamId == 3)
+                {
+                    Assert.Equal(new byte[] { 1 }, payload);
+                    answered = true;
+                    continue;
+                }
+                Assert.Equal(1, streamId);
+                Assert.Equal(MuxSession.FlagWindow, flags);
+                window += BitConverter.ToInt32(payload);
+            }
+            bool last = offset + MuxSession.MaxFrameSize >= content.Length;
+            WriteFrame(stream, 1, last ? MuxSession.FlagEnd : (byte)0, content[offset..(offset + MuxSession.MaxFrameSize)]);
+            window -= MuxSession.MaxFrameSize;
+        }
+        // window updates still in flight come before the end of the stream
+        while (true)
+        {
+            var (streamId, flags, payload) = ReadFrame(stream);
+            if (streamId == 3)
+            {
+                Assert.Equal(new byte[] { 1 }, payload);
+                answered = true;
+                continue;
+            }
+            Assert.Equal(1, streamId);
+            if (flags == MuxSession.FlagWindow) continue;
+            Assert.Equal(MuxSession.FlagEnd, flags);
+            Assert.Empty(payload);
+            break;
+        }
+        Assert.True(pinged && answered);
+
+        using var reader = CreateTestClient();
+        var readStream = reader.GetStream();
+        Assert.True(Authenticate(readStream));
+        Assert.Equal(content, DownloadFile(readStream, fileName));
+    }
 }
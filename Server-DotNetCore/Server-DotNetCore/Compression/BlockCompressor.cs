@@ -0,0 +1,89 @@
+using System.IO.Compression;
+
+namespace Server_DotNetCore.Compression;
+
+// same framing as the Java client's com.room.compress.BlockCompressor: every block is codec byte, int32 raw
+// length, int32 encoded length, then the bytes. a block is sent deflated (raw deflate, no zlib header) only
+// if it shrinks to 90% or less. unless the previous block compressed, a 4 KB sample is tried first, and
+// after an incompressible block the next few are sent stored without trying, the gap doubling up to 256
+public class BlockCompressor
+{
+    public const int BlockSize = 64 * 1024;
+    public const int HeaderSize = 9;
+    public const byte CodecStored = 0;
+    public const byte CodecDeflate = 1;
+
+    private const double MaxRatio = 0.9;
+    private const int SampleSize = 4096;
+    private const int MinSkip = 4;
+    private const int MaxSkip = 256;
+
+    private readonly MemoryStream _deflated = new MemoryStream(HeaderSize + BlockSize);
+    private int _skip;
+    private int _nextSkip = MinSkip;
+    private bool _compressing;
+
+    // returns the whole block frame, valid until the next call
+    public ReadOnlyMemory<byte> Encode(byte[] input, int length)
+    {
+        bool deflated;
+        if (_skip > 0)
+        {
+            _skip--;
+            deflated = false;
+        }
+        else
+        {
+            deflated = TryDeflate(input, length);
+        }
+
+        if (!deflated)
+        {
+            _deflated.SetLength(HeaderSize);
+            _deflated.Position = HeaderSize;
+            _deflated.Write(input, 0, length);
+        }
+
+        byte[] frame = _deflated.GetBuffer();
+        frame[0] = deflated ? CodecDeflate : CodecStored;
+        BitConverter.TryWriteBytes(frame.AsSpan(1), length);
+        BitConverter.TryWriteBytes(frame.AsSpan(5), (int)_deflated.Length - HeaderSize);
+        return frame.AsMemory(0, (int)_deflated.Length);
+    }
+
+    private bool TryDeflate(byte[] input, int length)
+    {
+        if (!_compressing && length > 2 * SampleSize && !Deflate(input, SampleSize))
+        {
+            BackOff();
+            return false;
+        }
+        if (!Deflate(input, length))
+        {
+            BackOff();
+            return false;
+        }
+        _compressing = true;
+        _nextSkip = MinSkip;
+        return true;
+    }
+
+    // deflates input[0, length) after the header space; true if it came out small enough
+    private bool Deflate(byte[] input, int length)
+    {
+        _deflated.SetLength(HeaderSize);
+        _deflated.Position = HeaderSize;
+        using (var deflate = new DeflateStream(_deflated, CompressionLevel.Fastest, leaveOpen: true))
+        {
+            deflate.Write(input, 0, length);
+        }
+        return _deflated.Length - HeaderSize <= (long)(length * MaxRatio);
+    }
+
+    private void BackOff()
+    {
+        _compressing = false;
+        _skip = _nextSkip;
+        _nextSkip = Math.Min(_nextSkip * 2, MaxSkip);
+    }
+}
@@ -0,0 +1,38 @@
+using System.IO.Compression;
+
+namespace Server_DotNetCore.Compression;
+
+// decodes the blocks written by BlockCompressor and the Java client
+public static class BlockDecompressor
+{
+    public static void CheckHeader(int codec, int rawLength, int encodedLength)
+    {
+        if (codec != BlockCompressor.CodecStored && codec != BlockCompressor.CodecDeflate)
+            throw new IOException("Unknown block codec: " + codec);
+        if (rawLength <= 0 || rawLength > BlockCompressor.BlockSize
+            || encodedLength <= 0 || encodedLength > BlockCompressor.BlockSize
+            || (codec == BlockCompressor.CodecStored && encodedLength != rawLength))
+            throw new IOException("Invalid block lengths: " + rawLength + "/" + encodedLength);
+    }
+
+    // decodes input[0, encodedLength) into output, which must hold rawLength bytes
+    public static void Decode(int codec, byte[] input, int encodedLength, byte[] output, int rawLength)
+    {
+        if (codec == BlockCompressor.CodecStored)
+        {
+            Buffer.BlockCopy(input, 0, output, 0, rawLength);
+            return;
+        }
+        using var inflate = new DeflateStream(new MemoryStream(input, 0, encodedLength), CompressionMode.Decompress);
+        try
+        {
+            inflate.ReadExactly(output, 0, rawLength);
+            if (inflate.ReadByte() != -1)
+                throw new IOException("Compressed block decodes to more than " + rawLength + " bytes");
+        }
+        catch (Exception ex) when (ex is InvalidDataException or EndOfStreamException)
+        {
+            throw new IOException("Corrupt compressed block: " + ex.Message, ex);
+        }
+    }
+}
@@ -5,5 +5,9 @@ public static class ServerConfig
     public const string Username = "admin";
     public const string Password = "123";
     public const int Port = 8080; // better read it from environment to always match with docker
+    // files being rebuilt; inside server_files so moving one into place is a rename on the same volume, and a
+    // subdirectory so it never shows up in a listing
+    public const string IncomingDir = "server_files/.incoming";
+    public const int TransferBufferSize = 256 * 1024; // file copy chunk, 8 KB took a syscall per 8 KB on fast links
 }
 
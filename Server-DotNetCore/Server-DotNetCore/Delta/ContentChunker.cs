@@ -0,0 +1,65 @@
+using System.Security.Cryptography;
+
+namespace Server_DotNetCore.Delta;
+
+// content-defined chunking with a gear rolling hash, has to cut exactly like the Java client's
+// com.room.delta.ContentChunker or no chunk would ever match: same SplitMix64 gear table, mask and bounds
+public static class ContentChunker
+{
+    public const int MinChunk = 16 * 1024;
+    public const int MaxChunk = 256 * 1024;
+    public const int HashLength = 32;
+    private const ulong GearSeed = 0x526f6f6d44656c74UL;
+    private const ulong BoundaryMask = 0xffffUL << 48;
+    private static readonly ulong[] Gear = CreateGear();
+
+    private static ulong[] CreateGear()
+    {
+        var gear = new ulong[256];
+        ulong state = GearSeed;
+        for (int i = 0; i < gear.Length; i++)
+        {
+            unchecked
+            {
+                state += 0x9e3779b97f4a7c15UL;
+                ulong z = state;
+                z = (z ^ (z >> 30)) * 0xbf58476d1ce4e5b9UL;
+                z = (z ^ (z >> 27)) * 0x94d049bb133111ebUL;
+                gear[i] = z ^ (z >> 31);
+            }
+        }
+        return gear;
+    }
+
+    // length and SHA-256 of every chunk, in order
+    public static async Task<List<(int Length, byte[] Hash)>> ChunkAsync(Stream source)
+    {
+        var chunks = new List<(int Length, byte[] Hash)>();
+        using var chunkHash = IncrementalHash.CreateHash(HashAlgorithmName.SHA256);
+        byte[] data = new byte[1024 * 1024];
+        int length = 0;
+        ulong hash = 0;
+        int read;
+        while ((read = await source.ReadAsync(data)) > 0)
+        {
+            int segmentStart = 0;
+            for (int i = 0; i < read; i++)
+            {
+                hash = unchecked((hash << 1) + Gear[data[i]]);
+                length++;
+                if ((length >= MinChunk && (hash & BoundaryMask) == 0) || length >= MaxChunk)
+                {
+                    chunkHash.AppendData(data, segmentStart, i + 1 - segmentStart);
+                    chunks.Add((length, chunkHash.GetHashAndReset()));
+                    length = 0;
+                    hash = 0;
+                    segmentStart = i + 1;
+                }
+            }
+            chunkHash.AppendData(data, segmentStart, read - segmentStart);
+        }
+        if (length > 0)
+            chunks.Add((length, chunkHash.GetHashAndReset()));
+        return chunks;
+    }
+}
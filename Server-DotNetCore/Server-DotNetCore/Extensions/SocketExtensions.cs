@@ -1,31 +1,31 @@
-using System.Net.Sockets;
-
 namespace Server_DotNetCore.Extensions;
 
 public static class SocketExtensions
 {
-    public static Task<byte> ReadByteAsync(NetworkStream stream)
+    public static async Task<byte> ReadByteAsync(Stream stream)
     {
-        int b = stream.ReadByte();
-        if (b == -1) throw new IOException("Disconnected");
-        return Task.FromResult((byte)b);
+        // a multiplexed stream only reads asynchronously, its data arrives from the connection's frame reader
+        byte[] buffer = new byte[1];
+        int read = await stream.ReadAsync(buffer, 0, 1);
+        if (read == 0) throw new IOException("Disconnected");
+        return buffer[0];
     }
 
-    public static async Task<int> ReadInt32Async(NetworkStream stream)
+    public static async Task<int> ReadInt32Async(Stream stream)
     {
         byte[] buffer = new byte[4];
         await stream.ReadExactlyAsync(buffer, 0, 4);
         return BitConverter.ToInt32(buffer, 0);
     }
 
-    public static async Task<long> ReadInt64Async(NetworkStream stream)
+    public static async Task<long> ReadInt64Async(Stream stream)
     {
         byte[] buffer = new byte[8];
         await stream.ReadExactlyAsync(buffer, 0, 8);
         return BitConverter.ToInt64(buffer, 0);
     }
 
-    public static async Task<byte[]> ReadBytesAsync(NetworkStream stream, int length)
+    public static async Task<byte[]> ReadBytesAsync(Stream stream, int length)
     {
         byte[] buffer = new byte[length];
         await stream.ReadExactlyAsync(buffer, 0, length);
@@ -14,7 +14,7 @@ public class AuthHandler : ICommandHandler
         _client = client;
     }
 
-    public async Task HandleAsync(NetworkStream stream)
+    public async Task HandleAsync(Stream stream)
     {
         Console.WriteLine("Received Auth Request");
         int usernameLen = await SocketExtensions.ReadInt32Async(stream);
@@ -1,12 +1,12 @@
-using System.Net.Sockets;
 using System.Text;
+using Server_DotNetCore.Config;
 using Server_DotNetCore.Extensions;
 
 namespace Server_DotNetCore.Handlers;
 
 public class GetFileHandler : ICommandHandler
 {
-    public async Task HandleAsync(NetworkStream stream)
+    public async Task HandleAsync(Stream stream)
     {
         int nameLen = await SocketExtensions.ReadInt32Async(stream);
         string fileName = Encoding.UTF8.GetString(await SocketExtensions.ReadBytesAsync(stream, nameLen));
@@ -23,7 +23,7 @@ public class GetFileHandler : ICommandHandler
         await stream.WriteAsync(BitConverter.GetBytes(size));
 
         using var fs = File.OpenRead(fullPath);
-        byte[] buffer = new byte[8192];
+        byte[] buffer = new byte[ServerConfig.TransferBufferSize];
 
         int read;
         while ((read = await fs.ReadAsync(buffer, 0, buffer.Length)) > 0)
@@ -0,0 +1,78 @@
+using System.Text;
+using Server_DotNetCore.Compression;
+using Server_DotNetCore.Config;
+using Server_DotNetCore.Extensions;
+
+namespace Server_DotNetCore.Handlers;
+
+// GETRANGE: name, offset, and the size and version the client expects. if the stored file no longer matches
+// both, the client's partial copy is stale and the whole file is sent instead. the response carries the size,
+// the current version (last write time in unix ms) and where the data starts.
+// GETCOMPRESSED is the same request, with the data sent as compressed blocks
+public class GetRangeHandler : ICommandHandler
+{
+    private readonly bool _compressed;
+
+    public GetRangeHandler(bool compressed = false)
+    {
+        _compressed = compressed;
+    }
+
+    public async Task HandleAsync(Stream stream)
+    {
+        int nameLen = await SocketExtensions.ReadInt32Async(stream);
+        string fileName = Encoding.UTF8.GetString(await SocketExtensions.ReadBytesAsync(stream, nameLen));
+        long offset = await SocketExtensions.ReadInt64Async(stream);
+        long expectedSize = await SocketExtensions.ReadInt64Async(stream);
+        long expectedVersion = await SocketExtensions.ReadInt64Async(stream);
+
+        string fullPath = Path.Combine("server_files", fileName);
+        if (!File.Exists(fullPath))
+        {
+            await stream.WriteAsync(BitConverter.GetBytes((long)-1));
+            return;
+        }
+
+        using var fs = File.OpenRead(fullPath);
+        long size = fs.Length;
+        long version = new DateTimeOffset(File.GetLastWriteTimeUtc(fullPath)).ToUnixTimeMilliseconds();
+        bool unchanged = size == expectedSize && version == expectedVersion;
+        long start = unchanged && offset >= 0 && offset <= size ? offset : 0;
+        await stream.WriteAsync(BitConverter.GetBytes(size));
+        await stream.WriteAsync(BitConverter.GetBytes(version));
+        await stream.WriteAsync(BitConverter.GetBytes(start));
+
+        fs.Position = start;
+        if (_compressed)
+        {
+            await SendBlocksAsync(stream, fs, fileName, size - start);
+            return;
+        }
+        byte[] buffer = new byte[ServerConfig.TransferBufferSize];
+        long remaining = size - start;
+        while (remaining > 0)
+        {
+            int read = await fs.ReadAsync(buffer.AsMemory(0, (int)Math.Min(buffer.Length, remaining)));
+            if (read == 0) throw new IOException("File shrank while sending " + fileName);
+            await stream.WriteAsync(buffer.AsMemory(0, read));
+            remaining -= read;
+        }
+
+        await stream.FlushAsync();
+    }
+
+    private static async Task SendBlocksAsync(Stream stream, FileStream fs, string fileName, long remaining)
+    {
+        var compressor = new BlockCompressor();
+        byte[] block = new byte[BlockCompressor.BlockSize];
+        while (remaining > 0)
+        {
+            int length = (int)Math.Min(block.Length, remaining);
+            await fs.ReadExactlyAsync(block.AsMemory(0, length));
+            await stream.WriteAsync(compressor.Encode(block, length));
+            remaining -= length;
+        }
+
+        await stream.FlushAsync();
+    }
+}
@@ -0,0 +1,41 @@
+using System.Text;
+using Server_DotNetCore.Delta;
+using Server_DotNetCore.Extensions;
+
+namespace Server_DotNetCore.Handlers;
+
+// chunk list of the stored file, so a client can send only the chunks that changed with PUTDELTA
+public class GetSignatureHandler : ICommandHandler
+{
+    public async Task HandleAsync(Stream stream)
+    {
+        int nameLen = await SocketExtensions.ReadInt32Async(stream);
+        string fileName = Encoding.UTF8.GetString(await SocketExtensions.ReadBytesAsync(stream, nameLen));
+
+        string fullPath = Path.Combine("server_files", fileName);
+        if (!File.Exists(fullPath))
+        {
+            await stream.WriteAsync(BitConverter.GetBytes((long)-1));
+            return;
+        }
+
+        long size;
+        List<(int Length, byte[] Hash)> chunks;
+        using (var fs = File.OpenRead(fullPath))
+        {
+            size = fs.Length;
+            chunks = await ContentChunker.ChunkAsync(fs);
+        }
+
+        using var response = new MemoryStream(12 + chunks.Count * (4 + ContentChunker.HashLength));
+        response.Write(BitConverter.GetBytes(size));
+        response.Write(BitConverter.GetBytes(chunks.Count));
+        foreach (var chunk in chunks)
+        {
+            response.Write(BitConverter.GetBytes(chunk.Length));
+            response.Write(chunk.Hash);
+        }
+        await stream.WriteAsync(response.GetBuffer().AsMemory(0, (int)response.Length));
+        await stream.FlushAsync();
+    }
+}
@@ -0,0 +1,20 @@
+using Server_DotNetCore.Extensions;
+using Server_DotNetCore.Models;
+
+namespace Server_DotNetCore.Handlers;
+
+public class HelloHandler : ICommandHandler
+{
+    private const Capability Supported = Capability.Delta | Capability.Range | Capability.Compress | Capability.Mux;
+
+    public async Task HandleAsync(Stream stream)
+    {
+        // the client's capabilities, every extension is opt-in per request anyway
+        await SocketExtensions.ReadInt32Async(stream);
+
+        byte[] response = new byte[5];
+        response[0] = (byte)Command.Hello;
+        BitConverter.TryWriteBytes(response.AsSpan(1), (int)Supported);
+        await stream.WriteAsync(response);
+    }
+}
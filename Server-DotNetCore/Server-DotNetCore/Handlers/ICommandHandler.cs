@@ -1,10 +1,8 @@
-using System.Net.Sockets;
-
 namespace Server_DotNetCore.Handlers;
 
 public interface ICommandHandler
 {
-    Task HandleAsync(NetworkStream stream);
+    Task HandleAsync(Stream stream);
 }
 
 
@@ -1,4 +1,3 @@
-using System.Net.Sockets;
 using System.Text;
 using Server_DotNetCore.Extensions;
 
@@ -6,7 +5,7 @@ namespace Server_DotNetCore.Handlers;
 
 public class ListFilesHandler : ICommandHandler
 {
-    public async Task HandleAsync(NetworkStream stream)
+    public async Task HandleAsync(Stream stream)
     {
         string[] files = Directory.GetFiles("server_files");
 
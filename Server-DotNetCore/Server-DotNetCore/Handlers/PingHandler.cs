@@ -1,10 +1,8 @@
-using System.Net.Sockets;
-
 namespace Server_DotNetCore.Handlers;
 
 public class PingHandler : ICommandHandler
 {
-    public async Task HandleAsync(NetworkStream stream)
+    public async Task HandleAsync(Stream stream)
     {
         await stream.WriteAsync(new byte[] { 1 });
     }
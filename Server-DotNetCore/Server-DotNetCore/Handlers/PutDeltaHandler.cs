@@ -0,0 +1,165 @@
+using System.Security.Cryptography;
+using System.Text;
+using Server_DotNetCore.Config;
+using Server_DotNetCore.Delta;
+using Server_DotNetCore.Extensions;
+
+namespace Server_DotNetCore.Handlers;
+
+// rebuilds a file from COPY ranges of the stored copy and LITERAL bytes from the wire. the result only
+// replaces the stored file if it has the announced size and hash; either way the whole request is read
+// and answered with a status byte, so the connection stays in sync and the client can send the full file
+public class PutDeltaHandler : ICommandHandler
+{
+    private const byte OpCopy = 0;
+    private const byte OpLiteral = 1;
+
+    private readonly ServerClient? _currentClient;
+
+    public PutDeltaHandler(ServerClient? currentClient = null)
+    {
+        _currentClient = currentClient;
+    }
+
+    public async Task HandleAsync(Stream stream)
+    {
+        int nameLen = await SocketExtensions.ReadInt32Async(stream);
+        string fileName = Encoding.UTF8.GetString(await SocketExtensions.ReadBytesAsync(stream, nameLen));
+        long baseSize = await SocketExtensions.ReadInt64Async(stream);
+        long size = await SocketExtensions.ReadInt64Async(stream);
+        byte[] contentHash = await SocketExtensions.ReadBytesAsync(stream, ContentChunker.HashLength);
+        int opCount = await SocketExtensions.ReadInt32Async(stream);
+        if (size < 0 || opCount < 0)
+            throw new IOException("Invalid delta header for " + fileName);
+
+        string fullPath = Path.Combine("server_files", fileName);
+        string tempPath = Path.Combine(ServerConfig.IncomingDir, Guid.NewGuid() + ".delta");
+        bool ok;
+        try
+        {
+            using (var baseFile = File.Exists(fullPath) ? File.OpenRead(fullPath) : null)
+            using (var output = File.Create(tempPath))
+            {
+                // the client diffed against a different version than the one stored now
+                using var rebuild = new Rebuild(output, size) { Rejected = baseFile == null || baseFile.Length != baseSize };
+                for (int i = 0; i < opCount; i++)
+                {
+                    byte type = await SocketExtensions.ReadByteAsync(stream);
+                    if (type == OpCopy)
+                    {
+                        long offset = await SocketExtensions.ReadInt64Async(stream);
+                        long length = await SocketExtensions.ReadInt64Async(stream);
+                        await rebuild.CopyAsync(baseFile, offset, length);
+                    }
+                    else if (type == OpLiteral)
+                    {
+                        long length = await SocketExtensions.ReadInt64Async(stream);
+                        if (length < 0)
+                            throw new IOException("Invalid literal length in delta for " + fileName);
+                        await rebuild.ReceiveAsync(stream, length);
+                    }
+                    else
+                    {
+                        throw new IOException("Unknown delta op " + type + " for " + fileName);
+                    }
+                }
+                ok = rebuild.Matches(contentHash);
+            }
+
+            if (ok)
+            {
+                Directory.CreateDirectory(Path.GetDirectoryName(fullPath)!);
+                File.Move(tempPath, fullPath, true);
+            }
+        }
+        finally
+        {
+            File.Delete(tempPath);
+        }
+
+        await stream.WriteAsync(new byte[] { (byte)(ok ? 1 : 0) });
+        await stream.FlushAsync();
+
+        if (ok)
+        {
+            await Program.NotifyFileUploadedAsync(_currentClient, fileName);
+            await Program.UpdateFileCountInRedisAsync();
+        }
+    }
+
+    private sealed class Rebuild : IDisposable
+    {
+        private readonly FileStream _output;
+        private readonly long _size;
+        private readonly IncrementalHash _hash = IncrementalHash.CreateHash(HashAlgorithmName.SHA256);
+        private readonly byte[] _buffer = new byte[ServerConfig.TransferBufferSize];
+        private long _written;
+
+        public bool Rejected { get; set; }
+
+        public Rebuild(FileStream output, long size)
+        {
+            _output = output;
+            _size = size;
+        }
+
+        public async Task CopyAsync(FileStream? baseFile, long offset, long length)
+        {
+            if (Rejected || baseFile == null || offset < 0 || length < 0 || offset + length > baseFile.Length)
+            {
+                Rejected = true;
+                return;
+            }
+            baseFile.Position = offset;
+            long remaining = length;
+            while (remaining > 0)
+            {
+                int read = await baseFile.ReadAsync(_buffer.AsMemory(0, (int)Math.Min(_buffer.Length, remaining)));
+                if (read == 0)
+                {
+                    Rejected = true;
+                    return;
+                }
+                await WriteAsync(read);
+                remaining -= read;
+            }
+        }
+
+        // literal bytes are always read off the wire, even once the result is known to be rejected
+        public async Task ReceiveAsync(Stream stream, long length)
+        {
+            long remaining = length;
+            while (remaining > 0)
+            {
+                int toRead = (int)Math.Min(_buffer.Length, remaining);
+                int read = await stream.ReadAsync(_buffer.AsMemory(0, toRead));
+                if (read == 0) throw new IOException("Connection closed during delta upload");
+                await WriteAsync(read);
+                remaining -= read;
+            }
+        }
+
+        private async Task WriteAsync(int count)
+        {
+            if (Rejected) return;
+            _written += count;
+            if (_written > _size)
+            {
+                Rejected = true;
+                return;
+            }
+            _hash.AppendData(_buffer, 0, count);
+            await _output.WriteAsync(_buffer.AsMemory(0, count));
+        }
+
+        public bool Matches(byte[] contentHash)
+        {
+            return !Rejected && _written == _size && _hash.GetHashAndReset().AsSpan().SequenceEqual(contentHash);
+        }
+
+        public void Dispose()
+        {
+            _hash.Dispose();
+        }
+    }
+}
@@ -1,20 +1,23 @@
-using System.Net.Sockets;
 using System.Text;
+using Server_DotNetCore.Compression;
+using Server_DotNetCore.Config;
 using Server_DotNetCore.Extensions;
-using Server_DotNetCore.Models;
 
 namespace Server_DotNetCore.Handlers;
 
+// PUTFILE, or PUTCOMPRESSED when the data comes as compressed blocks; neither has a response
 public class PutFileHandler : ICommandHandler
 {
     private readonly ServerClient? _currentClient;
+    private readonly bool _compressed;
 
-    public PutFileHandler(ServerClient? currentClient = null)
+    public PutFileHandler(ServerClient? currentClient = null, bool compressed = false)
     {
         _currentClient = currentClient;
+        _compressed = compressed;
     }
 
-    public async Task HandleAsync(NetworkStream stream)
+    public async Task HandleAsync(Stream stream)
     {
         int nameLen = await SocketExtensions.ReadInt32Async(stream);
         string fileName = Encoding.UTF8.GetString(await SocketExtensions.ReadBytesAsync(stream, nameLen));
@@ -25,7 +28,25 @@ public class PutFileHandler : ICommandHandler
         Directory.CreateDirectory(Path.GetDirectoryName(fullPath)!);
 
         using var fs = File.Create(fullPath);
-        byte[] buffer = new byte[8192];
+        if (_compressed)
+        {
+            await ReceiveBlocksAsync(stream, fs, fileSize);
+        }
+        else
+        {
+            await ReceiveAsync(stream, fs, fileSize);
+        }
+
+        // notify other clients
+        await Program.NotifyFileUploadedAsync(_currentClient, fileName);
+        
+        // update file count on redis
+        await Program.UpdateFileCountInRedisAsync();
+    }
+
+    private static async Task ReceiveAsync(Stream stream, FileStream fs, long fileSize)
+    {
+        byte[] buffer = new byte[ServerConfig.TransferBufferSize];
         long received = 0;
 
         while (received < fileSize)
@@ -37,43 +58,28 @@ public class PutFileHandler : ICommandHandler
             await fs.WriteAsync(buffer, 0, read);
             received += read;
         }
-
-        // notify other clients
-        await NotifyOtherClientsAsync(fileName);
-        
-        // update file count on redis
-        await Program.UpdateFileCountInRedisAsync();
     }
 
-    private async Task NotifyOtherClientsAsync(string fileName)
+    private static async Task ReceiveBlocksAsync(Stream stream, FileStream fs, long fileSize)
     {
-        // only notify if we have a current client reference 
-        if (_currentClient == null) return;
-        
-        var clients = Program.GetConnectedClients();
-        byte[] fileNameBytes = Encoding.UTF8.GetBytes(fileName);
-        var currentStream = _currentClient.Stream;
-        
-        foreach (var client in clients)
+        byte[] encoded = new byte[BlockCompressor.BlockSize];
+        byte[] raw = new byte[BlockCompressor.BlockSize];
+        long received = 0;
+
+        while (received < fileSize)
         {
-            if (client.Stream == currentStream) continue; // dont notify the uploader
-            
-            try
-            {
-                var stream = client.Stream;
-                stream.WriteByte((byte)Command.FileUploaded);
-                
-                byte[] lengthBytes = BitConverter.GetBytes(fileNameBytes.Length);
-                await stream.WriteAsync(lengthBytes, 0, 4);
-                await stream.WriteAsync(fileNameBytes, 0, fileNameBytes.Length);
-                await stream.FlushAsync();
-            }
-            catch (Exception ex)
-            {
-                // client might have disconnected, ignore
-                Console.WriteLine($"Failed to notify client: {ex.Message}");
-            }
+            byte[] header = await SocketExtensions.ReadBytesAsync(stream, BlockCompressor.HeaderSize);
+            int codec = header[0];
+            int rawLength = BitConverter.ToInt32(header, 1);
+            int encodedLength = BitConverter.ToInt32(header, 5);
+            BlockDecompressor.CheckHeader(codec, rawLength, encodedLength);
+            if (rawLength > fileSize - received)
+                throw new IOException("Compressed upload is longer than its size");
+
+            await stream.ReadExactlyAsync(encoded.AsMemory(0, encodedLength));
+            BlockDecompressor.Decode(codec, encoded, encodedLength, raw, rawLength);
+            await fs.WriteAsync(raw.AsMemory(0, rawLength));
+            received += rawLength;
         }
     }
 }
-
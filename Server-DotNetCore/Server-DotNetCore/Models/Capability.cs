@@ -0,0 +1,11 @@
+namespace Server_DotNetCore.Models;
+
+// capability bits exchanged in HELLO, same values as the Java client's Protocol.CAP_*
+[Flags]
+public enum Capability
+{
+    Delta = 1,
+    Range = 2,
+    Compress = 4,
+    Mux = 8,
+}
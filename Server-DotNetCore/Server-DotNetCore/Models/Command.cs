@@ -8,4 +8,13 @@ public enum Command : byte
     PutFile = 5,
     Ping = 4,
     FileUploaded = 6,
+    // optional extensions, a client only sends them after HELLO reported them
+    Hello = 7,
+    PutDelta = 8,
+    GetSignature = 9,
+    GetRange = 10,
+    GetCompressed = 11,
+    PutCompressed = 12,
+    // switches the connection to frames, see MuxSession
+    Mux = 13,
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+using System.Collections.Concurrent;
+using System.Net.Sockets;
+using Server_DotNetCore.Extensions;
+using Server_DotNetCore.Handlers;
+using Server_DotNetCore.Models;
+
+namespace Server_DotNetCore.Mux;
+
+// the connection after MUX, same framing as the Java client's Protocol: int32 stream id, flags byte, int32
+// length, payload. every request comes on a stream of its own and is handled concurrently with the others,
+// its response goes back on that stream and ends with an END frame; stream 0 carries pushes
+public class MuxSession
+{
+    public const int HeaderSize = 9;
+    public const int MaxFrameSize = 64 * 1024;
+    public const byte FlagEnd = 1;
+    public const byte FlagReset = 2;
+    public const byte FlagWindow = 4;
+    // bytes either side may send on a stream before the other hands window back with FlagWindow frames: the
+    // client for responses, the server for request data as the handler reads it
+    public const int StreamWindow = 4 * 1024 * 1024;
+    // request bytes a handler reads before they go back to the client as window
+    public const int WindowUpdateSize = StreamWindow / 4;
+    public const int PushStream = 0;
+
+    private readonly NetworkStream _network;
+    private readonly Dictionary<Command, ICommandHandler> _handlers;
+    // the client's write lock, held for one frame at a time
+    private readonly SemaphoreSlim _writeLock;
+    // frames of file data take this first, so at most one of them is ever ahead of a small response
+    private readonly SemaphoreSlim _bulkLock = new SemaphoreSlim(1, 1);
+    private readonly ConcurrentDictionary<int, MuxStream> _streams = new ConcurrentDictionary<int, MuxStream>();
+    // header and payload go out in one write, under the write lock
+    private readonly byte[] _frame = new byte[HeaderSize + MaxFrameSize];
+    private int _lastStreamId;
+
+    public MuxSession(NetworkStream network, Dictionary<Command, ICommandHandler> handlers, SemaphoreSlim writeLock)
+    {
+        _network = network;
+        _handlers = handlers;
+        _writeLock = writeLock;
+    }
+
+    // reads frames until the connection closes; only the handler of a stream waits for that stream's data
+    public async Task RunAsync()
+    {
+        byte[] header = new byte[HeaderSize];
+        try
+        {
+            while (true)
+            {
+                await _network.ReadExactlyAsync(header);
+                int streamId = BitConverter.ToInt32(header, 0);
+                byte flags = header[4];
+                int length = BitConverter.ToInt32(header, 5);
+                if (streamId <= PushStream || length < 0 || length > MaxFrameSize)
+                    throw new IOException($"Invalid frame: stream {streamId}, {length} bytes");
+                byte[] payload = await SocketExtensions.ReadBytesAsync(_network, length);
+
+                if ((flags & FlagWindow) != 0)
+                {
+                    if (length != 4 || BitConverter.ToInt32(payload) <= 0)
+                        throw new IOException($"Invalid window frame: stream {streamId}");
+                    // late updates for streams that are already answered are ignored
+                    if (_streams.TryGetValue(streamId, out var credited))
+                        credited.Credit(BitConverter.ToInt32(payload));
+                    continue;
+                }
+
+                if (!_streams.TryGetValue(streamId, out var stream))
+                {
+                    // the stream was already answered or reset; the client may not have known yet
+                    if (streamId <= _lastStreamId) continue;
+                    _lastStreamId = streamId;
+                    stream = new MuxStream(this, streamId);
+                    _streams[streamId] = stream;
+                    _ = RunStreamAsync(stream);
+                }
+
+                if ((flags & FlagReset) != 0)
+                {
+                    stream.Reset();
+                    continue;
+                }
+                // never waits: the client sends no more than the stream's window, so a slow upload handler holds
+                // up its own stream and nothing else
+                stream.Receive(payload, (flags & FlagEnd) != 0);
+            }
+        }
+        finally
+        {
+            // handlers still waiting for data or window see the stream end
+            foreach (var stream in _streams.Values)
+                stream.Reset();
+        }
+    }
+
+    private async Task RunStreamAsync(MuxStream stream)
+    {
+        bool failed = false;
+        try
+        {
+            byte cmdByte = await SocketExtensions.ReadByteAsync(stream);
+            var cmd = (Command)cmdByte;
+            if (cmd == Command.Mux || !_handlers.TryGetValue(cmd, out var handler))
+                throw new IOException("Unknown command: " + cmdByte);
+
+            Console.WriteLine("Message Received");
+            await handler.HandleAsync(stream);
+        }
+        catch (Exception ex)
+        {
+            // only this request fails, the client sees its stream end early
+            Console.WriteLine($"Stream {stream.Id} failed: {ex.Message}");
+            failed = true;
+        }
+        stream.StopReceiving();
+
+        try
+        {
+            await stream.EndAsync(failed);
+        }
+        catch (Exception ex)
+        {
+            Console.WriteLine($"Failed to end stream {stream.Id}: {ex.Message}");
+        }
+        _streams.TryRemove(stream.Id, out _);
+    }
+
+    public async Task WriteFrameAsync(int streamId, byte flags, ReadOnlyMemory<byte> payload, bool bulk)
+    {
+        if (bulk) await _bulkLock.WaitAsync();
+        try
+        {
+            await _writeLock.WaitAsync();
+            try
+            {
+                await WriteFrameLockedAsync(streamId, flags, payload);
+            }
+            finally
+            {
+                _writeLock.Release();
+            }
+        }
+        finally
+        {
+            if (bulk) _bulkLock.Release();
+        }
+    }
+
+    // for ServerClient, which already holds the write lock while it sends pushes
+    public Task WritePushLockedAsync(byte[] nameBytes)
+    {
+        byte[] push = new byte[5 + nameBytes.Length];
+        push[0] = (byte)Command.FileUploaded;
+        BitConverter.TryWriteBytes(push.AsSpan(1), nameBytes.Length);
+        nameBytes.CopyTo(push, 5);
+        return WriteFrameLockedAsync(PushStream, 0, push);
+    }
+
+    private async Task WriteFrameLockedAsync(int streamId, byte flags, ReadOnlyMemory<byte> payload)
+    {
+        BitConverter.TryWriteBytes(_frame.AsSpan(0), streamId);
+        _frame[4] = flags;
+        BitConverter.TryWriteBytes(_frame.AsSpan(5), payload.Length);
+        payload.Span.CopyTo(_frame.AsSpan(HeaderSize));
+        await _network.WriteAsync(_frame.AsMemory(0, HeaderSize + payload.Length));
+    }
+}
@@ -0,0 +1,232 @@
+using System.Threading.Channels;
+
+namespace Server_DotNetCore.Mux;
+
+// one request and its response, as the Stream a handler reads and writes. request frames are queued by the
+// session's reader, at most a window's worth since the client waits for the handler to hand window back; the
+// response is cut into frames, and only as much of it goes out as the client's window allows
+public class MuxStream : Stream
+{
+    private readonly MuxSession _session;
+    private readonly Channel<byte[]> _requestFrames = Channel.CreateUnbounded<byte[]>(
+        new UnboundedChannelOptions { SingleReader = true, SingleWriter = true });
+    private byte[]? _current;
+    private int _currentOffset;
+    // request bytes queued and not read yet, and those read but not handed back to the client yet
+    private long _queued;
+    private int _consumed;
+    private bool _requestEnded;
+
+    // response bytes are collected until a frame is full; the rest goes out when the handler returns
+    private readonly byte[] _out = new byte[MuxSession.MaxFrameSize];
+    private int _outCount;
+
+    private readonly object _windowLock = new object();
+    private long _window = MuxSession.StreamWindow;
+    private TaskCompletionSource? _windowOpened;
+    private bool _reset;
+
+    public MuxStream(MuxSession session, int id)
+    {
+        _session = session;
+        Id = id;
+    }
+
+    public int Id { get; }
+
+    // called by the session's reader only; a client that sends past the window is broken and loses the connection
+    public void Receive(byte[] payload, bool end)
+    {
+        if (end) Volatile.Write(ref _requestEnded, true);
+        if (payload.Length > 0)
+        {
+            if (Interlocked.Add(ref _queued, payload.Length) > MuxSession.StreamWindow)
+                throw new IOException($"Client overran the window of stream {Id}");
+            // false once reset, or the handler is done and nobody reads the rest of the request
+            _requestFrames.Writer.TryWrite(payload);
+        }
+        if (end) _requestFrames.Writer.TryComplete();
+    }
+
+    // the handler returned: request data still coming for the stream is dropped instead of waited on
+    public void StopReceiving()
+    {
+        _requestFrames.Writer.TryComplete();
+    }
+
+    public void Credit(int increment)
+    {
+        TaskCompletionSource? opened;
+        lock (_windowLock)
+        {
+            _window += increment;
+            opened = _windowOpened;
+            _windowOpened = null;
+        }
+        opened?.TrySetResult();
+    }
+
+    // the client gave up on the stream: the handler sees the request end, and what it still writes is dropped
+    public void Reset()
+    {
+        TaskCompletionSource? opened;
+        lock (_windowLock)
+        {
+            _reset = true;
+            opened = _windowOpened;
+            _windowOpened = null;
+        }
+        _requestFrames.Writer.TryComplete();
+        opened?.TrySetResult();
+    }
+
+    // sends what is left of the response and the END frame; END|RESET if the request failed or was reset
+    public async Task EndAsync(bool failed)
+    {
+        if (failed || !await SendAsync(MuxSession.FlagEnd, bulk: false))
+        {
+            _outCount = 0;
+            await _session.WriteFrameAsync(Id, MuxSession.FlagEnd | MuxSession.FlagReset, ReadOnlyMemory<byte>.Empty, bulk: false);
+        }
+    }
+
+    // as many frames as the window needs for what is buffered, the last one with flags; false once reset
+    private async Task<bool> SendAsync(byte flags, bool bulk)
+    {
+        int offset = 0;
+        do
+        {
+            int length = _outCount - offset;
+            if (length > 0)
+            {
+                length = await ReserveAsync(length);
+                if (length == 0) return false;
+            }
+            bool last = offset + length == _outCount;
+            await _session.WriteFrameAsync(Id, last ? flags : (byte)0, _out.AsMemory(offset, length), bulk);
+            offset += length;
+        } while (offset < _outCount);
+
+        _outCount = 0;
+        return true;
+    }
+
+    // takes up to wanted bytes of window, waiting for the client if it is used up; 0 once reset
+    private async Task<int> ReserveAsync(int wanted)
+    {
+        while (true)
+        {
+            Task opened;
+            lock (_windowLock)
+            {
+                if (_reset) return 0;
+                if (_window > 0)
+                {
+                    int length = (int)Math.Min(wanted, _window);
+                    _window -= length;
+                    return length;
+                }
+                _windowOpened ??= new TaskCompletionSource(TaskCreationOptions.RunContinuationsAsynchronously);
+                opened = _windowOpened.Task;
+            }
+            await opened;
+        }
+    }
+
+    public override async ValueTask<int> ReadAsync(Memory<byte> buffer, CancellationToken cancellationToken = default)
+    {
+        if (buffer.Length == 0) return 0;
+        while (_current == null || _currentOffset == _current.Length)
+        {
+            if (_current != null)
+            {
+                await ConsumedAsync(_current.Length);
+                _current = null;
+            }
+            if (_requestFrames.Reader.TryRead(out var next))
+            {
+                _current = next;
+                _currentOffset = 0;
+            }
+            else if (!await _requestFrames.Reader.WaitToReadAsync(cancellationToken))
+            {
+                return 0;
+            }
+        }
+
+        int n = Math.Min(buffer.Length, _current.Length - _currentOffset);
+        _current.AsMemory(_currentOffset, n).CopyTo(buffer);
+        _currentOffset += n;
+        return n;
+    }
+
+    // the frame is read: once enough has been, the client may send that much more
+    private async Task ConsumedAsync(int length)
+    {
+        Interlocked.Add(ref _queued, -length);
+        _consumed += length;
+        if (_consumed < MuxSession.WindowUpdateSize || Volatile.Read(ref _requestEnded)) return;
+        int increment = _consumed;
+        _consumed = 0;
+        await _session.WriteFrameAsync(Id, MuxSession.FlagWindow, BitConverter.GetBytes(increment), bulk: false);
+    }
+
+    public override Task<int> ReadAsync(byte[] buffer, int offset, int count, CancellationToken cancellationToken)
+    {
+        return ReadAsync(buffer.AsMemory(offset, count), cancellationToken).AsTask();
+    }
+
+    public override async ValueTask WriteAsync(ReadOnlyMemory<byte> buffer, CancellationToken cancellationToken = default)
+    {
+        while (buffer.Length > 0)
+        {
+            if (_outCount == _out.Length && !await SendAsync(0, bulk: true))
+            {
+                // reset: nobody reads the rest of the response
+                _outCount = 0;
+                return;
+            }
+            int n = Math.Min(buffer.Length, _out.Length - _outCount);
+            buffer.Span[..n].CopyTo(_out.AsSpan(_outCount));
+            _outCount += n;
+            buffer = buffer[n..];
+        }
+    }
+
+    public override Task WriteAsync(byte[] buffer, int offset, int count, CancellationToken cancellationToken)
+    {
+        return WriteAsync(buffer.AsMemory(offset, count), cancellationToken).AsTask();
+    }
+
+    // frames go out when they are full and when the handler returns, a handler's flush has nothing to add
+    public override Task FlushAsync(CancellationToken cancellationToken) => Task.CompletedTask;
+
+    public override void Flush()
+    {
+    }
+
+    public override int Read(byte[] buffer, int offset, int count)
+    {
+        return ReadAsync(buffer.AsMemory(offset, count)).AsTask().GetAwaiter().GetResult();
+    }
+
+    public override void Write(byte[] buffer, int offset, int count)
+    {
+        WriteAsync(buffer.AsMemory(offset, count)).AsTask().GetAwaiter().GetResult();
+    }
+
+    public override bool CanRead => true;
+    public override bool CanWrite => true;
+    public override bool CanSeek => false;
+    public override long Length => throw new NotSupportedException();
+
+    public override long Position
+    {
+        get => throw new NotSupportedException();
+        set => throw new NotSupportedException();
+    }
+
+    public override long Seek(long offset, SeekOrigin origin) => throw new NotSupportedException();
+
+    public override void SetLength(long value) => throw new NotSupportedException();
+}
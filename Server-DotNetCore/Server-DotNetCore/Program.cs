@@ -17,6 +17,10 @@ class Program
     static async Task Main(string[] args)
     {
         Directory.CreateDirectory("server_files");
+        // anything left here was cut off by a crash and never replaced a stored file
+        if (Directory.Exists(ServerConfig.IncomingDir))
+            Directory.Delete(ServerConfig.IncomingDir, true);
+        Directory.CreateDirectory(ServerConfig.IncomingDir);
 
         // init redis connection
         var redisConnectionString = Environment.GetEnvironmentVariable("Redis__ConnectionString") ?? "localhost:6379";
@@ -109,6 +113,28 @@ class Program
         }
     }
 
+    // tell every other connected client about an upload
+    public static async Task NotifyFileUploadedAsync(ServerClient? uploader, string fileName)
+    {
+        // only notify if we have a current client reference 
+        if (uploader == null) return;
+
+        foreach (var client in GetConnectedClients())
+        {
+            if (client == uploader) continue; // dont notify the uploader
+            
+            try
+            {
+                await client.PushFileUploadedAsync(fileName);
+            }
+            catch (Exception ex)
+            {
+                // client might have disconnected, ignore
+                Console.WriteLine($"Failed to notify client: {ex.Message}");
+            }
+        }
+    }
+
     public static async Task UpdateFileCountInRedisAsync()
     {
         if (_redisService == null) return;
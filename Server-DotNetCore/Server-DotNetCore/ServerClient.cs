@@ -1,7 +1,10 @@
+using System.Collections.Concurrent;
 using System.Net.Sockets;
+using System.Text;
 using Server_DotNetCore.Extensions;
 using Server_DotNetCore.Handlers;
 using Server_DotNetCore.Models;
+using Server_DotNetCore.Mux;
 
 namespace Server_DotNetCore;
 
@@ -10,6 +13,11 @@ public class ServerClient
     private readonly TcpClient _client;
     private readonly NetworkStream _stream;
     private readonly Dictionary<Command, ICommandHandler> _handlers;
+    // held while a command runs, so a push never lands between a response header and its body
+    private readonly SemaphoreSlim _writeLock = new SemaphoreSlim(1, 1);
+    private readonly ConcurrentQueue<string> _pendingPushes = new ConcurrentQueue<string>();
+    // set once the client switched to frames with MUX
+    private volatile MuxSession? _mux;
 
     public ServerClient(TcpClient client)
     {
@@ -22,7 +30,13 @@ public class ServerClient
             { Command.ListFiles, new ListFilesHandler() },
             { Command.GetFile, new GetFileHandler() },
             { Command.PutFile, new PutFileHandler(this) },
-            { Command.Ping, new PingHandler() }
+            { Command.Ping, new PingHandler() },
+            { Command.Hello, new HelloHandler() },
+            { Command.GetSignature, new GetSignatureHandler() },
+            { Command.PutDelta, new PutDeltaHandler(this) },
+            { Command.GetRange, new GetRangeHandler() },
+            { Command.GetCompressed, new GetRangeHandler(compressed: true) },
+            { Command.PutCompressed, new PutFileHandler(this, compressed: true) }
         };
     } 
 
@@ -35,10 +49,25 @@ public class ServerClient
             byte cmdByte = await SocketExtensions.ReadByteAsync(_stream);
             var cmd = (Command)cmdByte;
 
+            if (cmd == Command.Mux)
+            {
+                await StartMuxAsync();
+                return;
+            }
+
             if (_handlers.TryGetValue(cmd, out var handler))
             {
                 Console.WriteLine("Message Received");
-                await handler.HandleAsync(_stream);
+                await _writeLock.WaitAsync();
+                try
+                {
+                    await handler.HandleAsync(_stream);
+                }
+                finally
+                {
+                    _writeLock.Release();
+                }
+                await FlushPushesAsync();
             }
             else
             {
@@ -46,4 +75,65 @@ public class ServerClient
             }
         }
     }
+
+    // the acknowledgement is the last unframed byte, pushes from here on go out as frames on stream 0
+    private async Task StartMuxAsync()
+    {
+        Console.WriteLine("Message Received");
+        var mux = new MuxSession(_stream, _handlers, _writeLock);
+        await _writeLock.WaitAsync();
+        try
+        {
+            await _stream.WriteAsync(new byte[] { 1 });
+            _mux = mux;
+        }
+        finally
+        {
+            _writeLock.Release();
+        }
+        await FlushPushesAsync();
+        await mux.RunAsync();
+    }
+
+    // called from other clients' tasks; if a command is running the push goes out right after it
+    public async Task PushFileUploadedAsync(string fileName)
+    {
+        _pendingPushes.Enqueue(fileName);
+        await FlushPushesAsync();
+    }
+
+    private async Task FlushPushesAsync()
+    {
+        // whoever holds the lock flushes, the check after release catches pushes queued meanwhile. with
+        // frames the lock is only held for one frame at a time, so a push waits for it instead
+        while (!_pendingPushes.IsEmpty && (_mux != null ? await WaitForWriteLockAsync() : await _writeLock.WaitAsync(0)))
+        {
+            try
+            {
+                while (_pendingPushes.TryDequeue(out var fileName))
+                {
+                    byte[] nameBytes = Encoding.UTF8.GetBytes(fileName);
+                    if (_mux != null)
+                    {
+                        await _mux.WritePushLockedAsync(nameBytes);
+                        continue;
+                    }
+                    _stream.WriteByte((byte)Command.FileUploaded);
+                    await _stream.WriteAsync(BitConverter.GetBytes(nameBytes.Length));
+                    await _stream.WriteAsync(nameBytes);
+                }
+                await _stream.FlushAsync();
+            }
+            finally
+            {
+                _writeLock.Release();
+            }
+        }
+    }
+
+    private async Task<bool> WaitForWriteLockAsync()
+    {
+        await _writeLock.WaitAsync();
+        return true;
+    }
 }
\ No newline at end of file